@@ -0,0 +1,134 @@
+package com.vv.qxdconsulta.benchmark;
+
+import com.vv.qxdconsulta.QxdConsultaApplication;
+import com.vv.qxdconsulta.service.ConsultaService;
+import com.vv.qxdconsulta.service.HorarioDisponivelService;
+import com.vv.qxdconsulta.service.MedicoService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+// sobe a aplicação com um H2 em memória e gera a massa de dados de acordo com os parâmetros
+@State(Scope.Benchmark)
+public class AmbienteDeBenchmark {
+
+    @Param({"10", "100"})
+    public int medicos;
+
+    @Param({"20", "200"})
+    public int horariosPorMedico;
+
+    @Param({"1", "4"})
+    public int consultasPorHorario;
+
+    public ConfigurableApplicationContext contexto;
+    public ConsultaService consultaService;
+    public HorarioDisponivelService horarioDisponivelService;
+    public MedicoService medicoService;
+    // cada chamada roda em uma transação, como uma requisição faria
+    public TransactionTemplate transacao;
+    public GeradorDeDados gerador;
+
+    public UUID[] idsMedicos;
+    public List<String> cpfs;
+    public List<UUID> pacientes;
+    public UUID[] consultas;
+    public int[] medicoDaConsulta;
+    // posições do horário (horario(indice)) e do paciente de cada consulta gerada, atualizadas pela remarcação
+    public int[] horarioDaConsulta;
+    public int[] pacienteDaConsulta;
+
+    @Setup(Level.Trial)
+    public void iniciar() {
+        subir();
+    }
+
+    // argumentos extras substituem os padrões da mesma propriedade (repetida, o Spring juntaria os dois valores)
+    public void subir(String... argumentosExtras) {
+        List<String> argumentos = new ArrayList<>(List.of(
+                "--spring.main.web-application-type=none",
+                "--spring.main.banner-mode=off",
+                "--spring.datasource.url=jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--spring.jpa.show-sql=false",
+                "--spring.h2.console.enabled=false",
+                "--logging.level.root=WARN"));
+        for (String extra : argumentosExtras) {
+            String propriedade = extra.substring(0, extra.indexOf('=') + 1);
+            argumentos.removeIf(argumento -> argumento.startsWith(propriedade));
+            argumentos.add(extra);
+        }
+        contexto = SpringApplication.run(QxdConsultaApplication.class, argumentos.toArray(String[]::new));
+        consultaService = contexto.getBean(ConsultaService.class);
+        horarioDisponivelService = contexto.getBean(HorarioDisponivelService.class);
+        medicoService = contexto.getBean(MedicoService.class);
+        transacao = contexto.getBean(TransactionTemplate.class);
+        gerador = new GeradorDeDados(contexto.getBean(JdbcTemplate.class));
+
+        cpfs = gerador.gerarPacientes(Math.max(1000, medicos * horariosPorMedico));
+        pacientes = gerador.idsDosPacientes();
+
+        idsMedicos = new UUID[medicos];
+        int totalConsultas = medicos * horariosPorMedico * consultasPorHorario;
+        consultas = new UUID[totalConsultas];
+        medicoDaConsulta = new int[totalConsultas];
+        horarioDaConsulta = new int[totalConsultas];
+        pacienteDaConsulta = new int[totalConsultas];
+        int c = 0;
+        for (int m = 0; m < medicos; m++) {
+            GeradorDeDados.MedicoGerado medico = gerador.gerarMedico(m, horariosPorMedico, consultasPorHorario, pacientes);
+            idsMedicos[m] = medico.id();
+            for (GeradorDeDados.ConsultaGerada consulta : medico.consultas()) {
+                consultas[c] = consulta.id();
+                medicoDaConsulta[c] = m;
+                horarioDaConsulta[c] = consulta.horario();
+                pacienteDaConsulta[c++] = consulta.paciente();
+            }
+        }
+        // a massa entra por JDBC depois da carga inicial do índice de disponibilidade
+        horarioDisponivelService.carregarIndiceDeDisponibilidade();
+    }
+
+    // CPF de um paciente sem consulta no horário, que passa a contar como ocupado nele. Quando os agendamentos
+    // do benchmark ocupam todos os pacientes no horário, a massa ganha outros tantos pacientes
+    public synchronized String cpfLivre(int horario) {
+        if (gerador.pacientesLivres(horario, cpfs.size()) == 0) {
+            cpfs.addAll(gerador.gerarPacientes(cpfs.size(), cpfs.size()));
+            pacientes = gerador.idsDosPacientes();
+        }
+        return cpfs.get(gerador.sortearPacienteLivre(horario, cpfs.size()));
+    }
+
+    // novo horário para remarcar a consulta, entre os horários em que o paciente dela está livre
+    // (ou o próprio horário da consulta); já deixa o paciente marcado no horário novo
+    public int sortearNovoHorario(int consulta) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int atual = horarioDaConsulta[consulta];
+        int novo;
+        do {
+            novo = random.nextInt(horariosPorMedico);
+        } while (novo != atual && !gerador.ocuparPaciente(novo, pacienteDaConsulta[consulta]));
+        if (novo != atual) {
+            gerador.liberarPaciente(atual, pacienteDaConsulta[consulta]);
+            horarioDaConsulta[consulta] = novo;
+        }
+        return novo;
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() {
+        contexto.close();
+    }
+}
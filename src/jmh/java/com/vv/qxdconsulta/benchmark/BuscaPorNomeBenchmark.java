@@ -0,0 +1,93 @@
+package com.vv.qxdconsulta.benchmark;
+
+import com.vv.qxdconsulta.dto.NomeIndexado;
+import com.vv.qxdconsulta.service.IndiceDeNomes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// busca por parte do nome no índice de trigramas, comparada com percorrer todos os nomes
+// (o que o LIKE '%x%' faz no banco). Não sobe a aplicação, mede só a estrutura em memória.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BuscaPorNomeBenchmark {
+
+    private static final String[] PRENOMES = {"Maria", "José", "João", "Ana", "Antônio", "Francisca", "Luiz",
+            "Conceição", "Raimundo", "Adriana", "Sebastião", "Juliana", "Gonçalo", "Márcia", "Iracema", "Cícero"};
+    private static final String[] SOBRENOMES = {"Silva", "Santos", "Oliveira", "Sousa", "Pereira", "Lima",
+            "Araújo", "Rodrigues", "Gonçalves", "Magalhães", "Albuquerque", "Conceição", "Brandão", "Falcão"};
+    private static final String[] TERMOS = {"maria", "jose sil", "Araújo", "conce", "magalh", "fal", "joão b", "ci"};
+
+    @Param({"100000", "1000000"})
+    public int nomes;
+
+    private IndiceDeNomes indice;
+    private String[] nomesNormalizados;
+    private int proximoTermo;
+
+    @Setup(Level.Trial)
+    public void gerar() {
+        Random random = new Random(42);
+        List<NomeIndexado> gerados = new ArrayList<>(nomes);
+        for (int i = 0; i < nomes; i++) {
+            String nome = PRENOMES[random.nextInt(PRENOMES.length)] + " " + SOBRENOMES[random.nextInt(SOBRENOMES.length)]
+                    + " " + SOBRENOMES[random.nextInt(SOBRENOMES.length)] + " " + Integer.toString(i, 36);
+            gerados.add(new NomeIndexado(UUID.randomUUID(), nome));
+        }
+        indice = new IndiceDeNomes();
+        indice.recarregar(gerados.stream());
+        nomesNormalizados = gerados.stream().map(item -> normalizar(item.nome())).toArray(String[]::new);
+    }
+
+    @Benchmark
+    public List<UUID> indiceDeTrigramas() {
+        return indice.buscar(proximoTermo(), 10);
+    }
+
+    // referência: confere todos os nomes, como um LIKE '%x%' sem índice (para ordenar é preciso ver todos)
+    @Benchmark
+    public long percorrerTodos() {
+        String[] palavras = normalizar(proximoTermo()).split(" ");
+        return IntStream.range(0, nomesNormalizados.length)
+                .filter(i -> {
+                    for (String palavra : palavras) {
+                        if (!nomesNormalizados[i].contains(palavra)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                })
+                .count();
+    }
+
+    private String proximoTermo() {
+        proximoTermo = (proximoTermo + 1) % TERMOS.length;
+        return TERMOS[proximoTermo];
+    }
+
+    private static String normalizar(String texto) {
+        return Normalizer.normalize(texto, Normalizer.Form.NFD).replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,130 @@
+package com.vv.qxdconsulta.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.vv.qxdconsulta.benchmark.GeradorDeDados.crm;
+import static com.vv.qxdconsulta.benchmark.GeradorDeDados.horario;
+
+// teste de carga: uma rajada de requisições de agendamento, comparando uma thread de plataforma por requisição
+// (pool de 200, o máximo padrão do Tomcat) com uma virtual thread por requisição e o semáforo de conexões.
+// Cada requisição espera latenciaDeIoMs fora da transação (rede, serviços externos; o H2 em memória quase não
+// bloqueia) e depois agenda uma consulta. A latência conta desde a chegada, incluindo a fila.
+//
+// mvn -Pbenchmark compile exec:exec -Dbenchmark.classe=com.vv.qxdconsulta.benchmark.CargaDeAgendamento \
+//     -Djmh.args="requisicoes=10000 latenciaDeIoMs=20"
+// O modo virtual precisa do Java 21; no Java 17 só o modo plataforma roda.
+public class CargaDeAgendamento {
+
+    private static final int THREADS_DO_TOMCAT = 200;
+    private static final int LIMITE_DE_CONEXOES = 10;
+
+    public static void main(String[] args) throws Exception {
+        int requisicoes = argumento(args, "requisicoes", 10_000);
+        int latenciaDeIoMs = argumento(args, "latenciaDeIoMs", 20);
+
+        AmbienteDeBenchmark ambiente = new AmbienteDeBenchmark();
+        ambiente.medicos = 100;
+        ambiente.horariosPorMedico = 200;
+        ambiente.consultasPorHorario = 1;
+        // mesmas configurações do perfil virtual nos dois modos, só muda quem executa as requisições
+        ambiente.subir("--spring.datasource.hikari.maximum-pool-size=" + LIMITE_DE_CONEXOES,
+                "--qxdconsulta.conexoes.limite=" + LIMITE_DE_CONEXOES);
+        try {
+            // primeira rodada só para aquecer o JIT e o pool
+            executar(ambiente, Executors.newFixedThreadPool(THREADS_DO_TOMCAT), requisicoes / 4, latenciaDeIoMs);
+
+            imprimir("plataforma (" + THREADS_DO_TOMCAT + " threads)",
+                    executar(ambiente, Executors.newFixedThreadPool(THREADS_DO_TOMCAT), requisicoes, latenciaDeIoMs));
+            ExecutorService virtual = executorVirtual();
+            if (virtual == null) {
+                System.out.println("virtual: precisa do Java 21, rodando no " + Runtime.version().feature());
+            } else {
+                imprimir("virtual", executar(ambiente, virtual, requisicoes, latenciaDeIoMs));
+            }
+        } finally {
+            ambiente.encerrar();
+        }
+    }
+
+    private record Resultado(int requisicoes, int erros, long duracaoNs, long[] latenciasNs) {
+    }
+
+    private static Resultado executar(AmbienteDeBenchmark ambiente, ExecutorService executor,
+                                      int requisicoes, int latenciaDeIoMs) throws Exception {
+        long[] latencias = new long[requisicoes];
+        List<Future<?>> futuros = new ArrayList<>(requisicoes);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < requisicoes; i++) {
+            int indice = i;
+            long chegada = System.nanoTime();
+            futuros.add(executor.submit(() -> {
+                try {
+                    Thread.sleep(latenciaDeIoMs);
+                    agendar(ambiente);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latencias[indice] = System.nanoTime() - chegada;
+                }
+            }));
+        }
+        int erros = 0;
+        for (Future<?> futuro : futuros) {
+            try {
+                futuro.get();
+            } catch (Exception e) {
+                erros++;
+            }
+        }
+        long duracao = System.nanoTime() - inicio;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return new Resultado(requisicoes, erros, duracao, latencias);
+    }
+
+    private static void agendar(AmbienteDeBenchmark ambiente) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String crm = crm(random.nextInt(ambiente.medicos));
+        int horario = random.nextInt(ambiente.horariosPorMedico);
+        String cpf = ambiente.cpfLivre(horario);
+        ambiente.transacao.executeWithoutResult(status ->
+                ambiente.consultaService.agendarConsulta(crm, cpf, horario(horario), "Carga"));
+    }
+
+    private static void imprimir(String modo, Resultado resultado) {
+        long[] latencias = resultado.latenciasNs().clone();
+        Arrays.sort(latencias);
+        double segundos = resultado.duracaoNs() / 1e9;
+        System.out.printf("%-26s %8.0f req/s   p50 %7.1f ms   p99 %7.1f ms   erros %d%n", modo,
+                resultado.requisicoes() / segundos, percentil(latencias, 0.50), percentil(latencias, 0.99), resultado.erros());
+    }
+
+    private static double percentil(long[] ordenadas, double percentil) {
+        return ordenadas[(int) Math.ceil(percentil * ordenadas.length) - 1] / 1e6;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor só existe no Java 21, o projeto compila para o 17
+    private static ExecutorService executorVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static int argumento(String[] args, String nome, int padrao) {
+        for (String arg : args) {
+            if (arg.startsWith(nome + "=")) {
+                return Integer.parseInt(arg.substring(nome.length() + 1));
+            }
+        }
+        return padrao;
+    }
+}
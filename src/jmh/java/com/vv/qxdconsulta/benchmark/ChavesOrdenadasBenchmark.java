@@ -0,0 +1,108 @@
+package com.vv.qxdconsulta.benchmark;
+
+import com.vv.qxdconsulta.model.UuidV7;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// insere linhas com o formato da tabela de consultas em um H2 em arquivo, com chave UUID aleatória (v4)
+// ou ordenada por tempo (v7), e no fim mostra o espaço em disco da tabela com o índice da chave primária.
+// Não sobe a aplicação. Para dezenas de milhões de linhas: -p linhas=20000000 (leva bem mais tempo).
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ChavesOrdenadasBenchmark {
+
+    private static final int TAMANHO_DO_BATCH = 1000;
+
+    @Param({"aleatoria", "ordenada"})
+    public String chave;
+
+    @Param({"2000000"})
+    public int linhas;
+
+    private Path diretorio;
+    private Connection conexao;
+
+    @Setup(Level.Trial)
+    public void criarBanco() throws IOException, SQLException {
+        diretorio = Files.createTempDirectory("chaves-" + chave);
+        conexao = DriverManager.getConnection("jdbc:h2:file:" + diretorio.resolve("banco"), "sa", "");
+        conexao.setAutoCommit(false);
+        try (Statement comando = conexao.createStatement()) {
+            comando.execute("create table consultas (id uuid primary key, data_hora timestamp(6) not null, "
+                    + "tipo_consulta varchar(50) not null, paciente_id uuid not null, medico_id uuid not null, horario_id uuid not null)");
+        }
+        conexao.commit();
+    }
+
+    @Benchmark
+    public int inserir() throws SQLException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        UUID paciente = UUID.randomUUID();
+        UUID medico = UUID.randomUUID();
+        UUID horario = UUID.randomUUID();
+        Timestamp dataHora = Timestamp.valueOf(GeradorDeDados.INICIO);
+        try (PreparedStatement insert = conexao.prepareStatement(
+                "insert into consultas (id, data_hora, tipo_consulta, paciente_id, medico_id, horario_id) values (?, ?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= linhas; i++) {
+                insert.setObject(1, "ordenada".equals(chave) ? UuidV7.gerar() : new UUID(random.nextLong(), random.nextLong()));
+                insert.setTimestamp(2, dataHora);
+                insert.setString(3, "Benchmark");
+                insert.setObject(4, paciente);
+                insert.setObject(5, medico);
+                insert.setObject(6, horario);
+                insert.addBatch();
+                if (i % TAMANHO_DO_BATCH == 0) {
+                    insert.executeBatch();
+                    conexao.commit();
+                }
+            }
+            insert.executeBatch();
+            conexao.commit();
+        }
+        return linhas;
+    }
+
+    @TearDown(Level.Trial)
+    public void mostrarTamanho() throws SQLException, IOException {
+        try (Statement comando = conexao.createStatement();
+             ResultSet resultado = comando.executeQuery("select disk_space_used('CONSULTAS')")) {
+            resultado.next();
+            System.out.printf("%n%s: %,d linhas, tabela e índice da chave com %,d KB%n", chave, linhas, resultado.getLong(1) / 1024);
+        }
+        conexao.close();
+        try (Stream<Path> arquivos = Files.walk(diretorio)) {
+            arquivos.sorted(Comparator.reverseOrder()).forEach(arquivo -> arquivo.toFile().delete());
+        }
+    }
+}
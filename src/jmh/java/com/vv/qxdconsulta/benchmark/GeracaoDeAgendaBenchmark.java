@@ -0,0 +1,72 @@
+package com.vv.qxdconsulta.benchmark;
+
+import com.vv.qxdconsulta.dto.ModeloDeAgenda;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// um ano de agenda (dias úteis, 08:00 às 17:00, horários de 30 minutos) para medicosDaAgenda médicos sem horários.
+// Cada iteração gera tudo de novo, então mede uma chamada só e apaga os horários no fim da iteração.
+// Rodar com a massa pequena do AmbienteDeBenchmark: -p medicos=10 -p horariosPorMedico=20 -p consultasPorHorario=1
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class GeracaoDeAgendaBenchmark {
+
+    private static final ModeloDeAgenda UM_ANO = new ModeloDeAgenda(
+            EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), LocalTime.of(8, 0), LocalTime.of(17, 0), 30, 1,
+            LocalDate.of(2031, 1, 1), LocalDate.of(2031, 12, 31), Set.of(LocalDate.of(2031, 12, 25)));
+
+    @State(Scope.Benchmark)
+    public static class MedicosSemAgenda {
+
+        @Param({"1000"})
+        public int medicosDaAgenda;
+
+        public List<String> crms = new ArrayList<>();
+        public List<UUID> ids = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void gerar(AmbienteDeBenchmark ambiente) {
+            for (int m = 0; m < medicosDaAgenda; m++) {
+                GeradorDeDados.MedicoGerado medico = ambiente.gerador.gerarMedico(2_000_000 + m, 0, 0, ambiente.pacientes);
+                crms.add(medico.crm());
+                ids.add(medico.id());
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void apagarAgenda(AmbienteDeBenchmark ambiente) {
+            for (UUID id : ids) {
+                ambiente.horarioDisponivelService.removerHorariosDoMedico(id);
+            }
+        }
+    }
+
+    @Benchmark
+    public int gerarUmAnoDeAgenda(AmbienteDeBenchmark ambiente, MedicosSemAgenda medicos) {
+        return ambiente.horarioDisponivelService.gerarAgenda(medicos.crms, UM_ANO);
+    }
+}
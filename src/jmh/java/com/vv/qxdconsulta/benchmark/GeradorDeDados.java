@@ -0,0 +1,153 @@
+package com.vv.qxdconsulta.benchmark;
+
+import com.vv.qxdconsulta.model.UuidV7;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+// gera médicos, pacientes, horários e consultas direto por JDBC em batch, bem mais rápido que pelos repositories.
+// Os ids são UUID v7 como os que as entidades recebem.
+public class GeradorDeDados {
+
+    public static final LocalDateTime INICIO = LocalDateTime.of(2030, 1, 7, 8, 0);
+    public static final int HORARIOS_POR_DIA = 16;
+    // folga na capacidade para os benchmarks de agendamento nunca lotarem um horário
+    public static final int FOLGA_DE_CAPACIDADE = 1_000_000;
+
+    private static final int TAMANHO_DO_BATCH = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    // pacientes com consulta em cada horário (índice do horário -> posições na lista de pacientes). O paciente não
+    // pode ter duas consultas no mesmo horário (uk_consulta_paciente_data_hora), então a massa gerada e os
+    // agendamentos dos benchmarks sorteiam só entre os pacientes livres no horário
+    private final Map<Integer, BitSet> pacientesPorHorario = new HashMap<>();
+
+    public GeradorDeDados(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // horários de 30 em 30 minutos, 16 por dia a partir das 08:00
+    public static LocalDateTime horario(int indice) {
+        return INICIO.plusDays(indice / HORARIOS_POR_DIA).plusMinutes(30L * (indice % HORARIOS_POR_DIA));
+    }
+
+    public static String crm(int indice) {
+        return "CRM" + indice;
+    }
+
+    public static String cpf(int indice) {
+        return String.format("%011d", indice);
+    }
+
+    public List<String> gerarPacientes(int quantidade) {
+        return gerarPacientes(0, quantidade);
+    }
+
+    // pacientes de índice primeiro até primeiro + quantidade - 1
+    public List<String> gerarPacientes(int primeiro, int quantidade) {
+        List<Object[]> linhas = new ArrayList<>();
+        List<String> cpfs = new ArrayList<>();
+        for (int i = primeiro; i < primeiro + quantidade; i++) {
+            cpfs.add(cpf(i));
+            linhas.add(new Object[]{UuidV7.gerar(), "Paciente " + i, "paciente" + i + "@email.com", cpf(i), "+5588999999999"});
+        }
+        inserir("insert into pacientes (id, name, email, cpf, contato) values (?, ?, ?, ?, ?)", linhas);
+        return cpfs;
+    }
+
+    // na mesma ordem da lista de CPFs, a posição do paciente vale para as duas listas
+    public List<UUID> idsDosPacientes() {
+        return jdbcTemplate.queryForList("select id from pacientes order by cpf", UUID.class);
+    }
+
+    public synchronized int pacientesLivres(int horario, int pacientes) {
+        BitSet ocupados = pacientesPorHorario.get(horario);
+        return ocupados == null ? pacientes : pacientes - ocupados.cardinality();
+    }
+
+    // sorteia um paciente sem consulta no horário e já o marca como ocupado nele
+    public synchronized int sortearPacienteLivre(int horario, int pacientes) {
+        BitSet ocupados = pacientesPorHorario.computeIfAbsent(horario, h -> new BitSet(pacientes));
+        if (ocupados.cardinality() >= pacientes) {
+            throw new IllegalStateException("Todos os " + pacientes + " pacientes já têm consulta em " + horario(horario));
+        }
+        int paciente = ocupados.nextClearBit(ThreadLocalRandom.current().nextInt(pacientes));
+        if (paciente >= pacientes) {
+            paciente = ocupados.nextClearBit(0);
+        }
+        ocupados.set(paciente);
+        return paciente;
+    }
+
+    // marca o paciente no horário, falso se ele já tem consulta nele
+    public synchronized boolean ocuparPaciente(int horario, int paciente) {
+        BitSet ocupados = pacientesPorHorario.computeIfAbsent(horario, h -> new BitSet());
+        if (ocupados.get(paciente)) {
+            return false;
+        }
+        ocupados.set(paciente);
+        return true;
+    }
+
+    public synchronized void liberarPaciente(int horario, int paciente) {
+        BitSet ocupados = pacientesPorHorario.get(horario);
+        if (ocupados != null) {
+            ocupados.clear(paciente);
+        }
+    }
+
+    // depois de remover o médico gerado, os pacientes das consultas dele voltam a ficar livres
+    public void liberarConsultas(MedicoGerado medico) {
+        for (ConsultaGerada consulta : medico.consultas()) {
+            liberarPaciente(consulta.horario(), consulta.paciente());
+        }
+    }
+
+    // cria o médico com os horários e as consultas, retorna as consultas criadas com o horário e o paciente de cada uma
+    public MedicoGerado gerarMedico(int indice, int horariosPorMedico, int consultasPorHorario, List<UUID> pacientes) {
+        UUID medicoId = UuidV7.gerar();
+        jdbcTemplate.update("insert into medicos (id, nome, crm, cpf, especialização) values (?, ?, ?, ?, ?)",
+                medicoId, "Dr. Medico " + indice, crm(indice), String.format("9%010d", indice), "Especialidade " + (indice % 10));
+
+        List<Object[]> horarios = new ArrayList<>();
+        List<Object[]> consultas = new ArrayList<>();
+        List<ConsultaGerada> consultasGeradas = new ArrayList<>();
+        Timestamp agora = Timestamp.valueOf(LocalDateTime.now());
+        for (int h = 0; h < horariosPorMedico; h++) {
+            UUID horarioId = UuidV7.gerar();
+            Timestamp dataHora = Timestamp.valueOf(horario(h));
+            horarios.add(new Object[]{horarioId, dataHora, consultasPorHorario + FOLGA_DE_CAPACIDADE, consultasPorHorario, medicoId, agora});
+            for (int c = 0; c < consultasPorHorario; c++) {
+                UUID consultaId = UuidV7.gerar();
+                int paciente = sortearPacienteLivre(h, pacientes.size());
+                consultasGeradas.add(new ConsultaGerada(consultaId, h, paciente));
+                consultas.add(new Object[]{consultaId, dataHora, "Benchmark", pacientes.get(paciente), medicoId, horarioId});
+            }
+        }
+        inserir("insert into horarios_disponiveis (id, horario, capacidade_maxima, vagas_ocupadas, medico_id, versao, alterado_em) " +
+                "values (?, ?, ?, ?, ?, 1, ?)", horarios);
+        inserir("insert into consultas (id, data_hora, tipo_consulta, paciente_id, medico_id, horario_id) values (?, ?, ?, ?, ?, ?)", consultas);
+        return new MedicoGerado(medicoId, crm(indice), consultasGeradas);
+    }
+
+    private void inserir(String sql, List<Object[]> linhas) {
+        for (int i = 0; i < linhas.size(); i += TAMANHO_DO_BATCH) {
+            jdbcTemplate.batchUpdate(sql, linhas.subList(i, Math.min(i + TAMANHO_DO_BATCH, linhas.size())));
+        }
+    }
+
+    public record MedicoGerado(UUID id, String crm, List<ConsultaGerada> consultas) {
+    }
+
+    // horário e paciente são posições: o horário em horario(indice) e o paciente na lista de pacientes
+    public record ConsultaGerada(UUID id, int horario, int paciente) {
+    }
+}
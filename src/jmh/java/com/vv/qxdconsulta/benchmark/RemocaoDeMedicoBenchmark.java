@@ -0,0 +1,49 @@
+package com.vv.qxdconsulta.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// removerMedicoComConsultas apaga dados, então cada chamada recebe um médico novo com horariosPorMedico x consultasPorHorario
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemocaoDeMedicoBenchmark {
+
+    @State(Scope.Thread)
+    public static class MedicoParaRemover {
+
+        private int proximoIndice = 1_000_000;
+        public GeradorDeDados.MedicoGerado gerado;
+
+        @Setup(Level.Invocation)
+        public void gerar(AmbienteDeBenchmark ambiente) {
+            gerado = ambiente.gerador.gerarMedico(proximoIndice++, ambiente.horariosPorMedico,
+                    ambiente.consultasPorHorario, ambiente.pacientes);
+        }
+
+        // as consultas foram apagadas junto com o médico, os pacientes delas podem ser sorteados de novo
+        @TearDown(Level.Invocation)
+        public void liberar(AmbienteDeBenchmark ambiente) {
+            ambiente.gerador.liberarConsultas(gerado);
+        }
+    }
+
+    @Benchmark
+    public void removerMedicoComConsultas(AmbienteDeBenchmark ambiente, MedicoParaRemover medico) {
+        ambiente.transacao.executeWithoutResult(status -> ambiente.medicoService.removerMedicoComConsultas(medico.gerado.id()));
+    }
+}
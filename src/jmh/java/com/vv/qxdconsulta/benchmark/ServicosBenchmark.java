@@ -0,0 +1,177 @@
+package com.vv.qxdconsulta.benchmark;
+
+import com.vv.qxdconsulta.dto.HorarioLivre;
+import com.vv.qxdconsulta.dto.HorarioResposta;
+import com.vv.qxdconsulta.dto.ItemDaAgenda;
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.ResultadoDeAgendamento;
+import com.vv.qxdconsulta.model.Consulta;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.repository.MedicoRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.vv.qxdconsulta.benchmark.GeradorDeDados.crm;
+import static com.vv.qxdconsulta.benchmark.GeradorDeDados.horario;
+
+// caminhos mais usados dos services, medidos contra o H2 com a massa gerada pelo AmbienteDeBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServicosBenchmark {
+
+    private static final int PEDIDOS_POR_LOTE = 100;
+    private static final int PRIMEIROS_HORARIOS = 10;
+
+    @Benchmark
+    public Consulta agendarConsulta(AmbienteDeBenchmark ambiente) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String crm = crm(random.nextInt(ambiente.medicos));
+        int horario = random.nextInt(ambiente.horariosPorMedico);
+        String cpf = ambiente.cpfLivre(horario);
+        return ambiente.transacao.execute(status ->
+                ambiente.consultaService.agendarConsulta(crm, cpf, horario(horario), "Benchmark"));
+    }
+
+    // mesma unidade do agendarConsulta (tempo por agendamento) para comparar com o lote
+    @Benchmark
+    @OperationsPerInvocation(PEDIDOS_POR_LOTE)
+    public List<ResultadoDeAgendamento> agendarConsultasEmLote(AmbienteDeBenchmark ambiente) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<PedidoDeAgendamento> pedidos = new ArrayList<>();
+        for (int i = 0; i < PEDIDOS_POR_LOTE; i++) {
+            int horario = random.nextInt(ambiente.horariosPorMedico);
+            pedidos.add(new PedidoDeAgendamento(crm(random.nextInt(ambiente.medicos)), ambiente.cpfLivre(horario),
+                    horario(horario), "Benchmark"));
+        }
+        return ambiente.consultaService.agendarConsultasEmLote(pedidos);
+    }
+
+    @Benchmark
+    public Consulta alterarHorarioDaConsulta(AmbienteDeBenchmark ambiente) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int consulta = random.nextInt(ambiente.consultas.length);
+        int novoHorario = ambiente.sortearNovoHorario(consulta);
+        return ambiente.transacao.execute(status ->
+                ambiente.consultaService.alterarHorarioDaConsulta(ambiente.consultas[consulta], horario(novoHorario)));
+    }
+
+    @Benchmark
+    public List<Consulta> buscaConsultasPorData(AmbienteDeBenchmark ambiente) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int medico = random.nextInt(ambiente.medicos);
+        int horario = random.nextInt(ambiente.horariosPorMedico);
+        return ambiente.transacao.execute(status ->
+                ambiente.consultaService.buscaConsultasPorData(ambiente.idsMedicos[medico], horario(horario)));
+    }
+
+    @Benchmark
+    public List<ItemDaAgenda> buscarAgendaDoDia(AmbienteDeBenchmark ambiente) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int medico = random.nextInt(ambiente.medicos);
+        int horario = random.nextInt(ambiente.horariosPorMedico);
+        return ambiente.transacao.execute(status ->
+                ambiente.consultaService.buscarAgendaDoDia(ambiente.idsMedicos[medico], horario(horario).toLocalDate()));
+    }
+
+    // exporta todo o período gerado (medicos x horariosPorMedico x consultasPorHorario linhas), descartando a saída
+    @Benchmark
+    public long exportarConsultasCsv(AmbienteDeBenchmark ambiente) {
+        return ambiente.consultaService.exportarConsultasCsv(horario(0), horario(ambiente.horariosPorMedico - 1),
+                OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public HorarioDisponivel buscarHorarioPorMedico(AmbienteDeBenchmark ambiente) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String crm = crm(random.nextInt(ambiente.medicos));
+        int horario = random.nextInt(ambiente.horariosPorMedico);
+        return ambiente.transacao.execute(status ->
+                ambiente.horarioDisponivelService.buscarHorarioPorMedico(crm, horario(horario)));
+    }
+
+    @Benchmark
+    public List<HorarioDisponivel> buscarHorariosDisponiveisPorData(AmbienteDeBenchmark ambiente) {
+        int horario = ThreadLocalRandom.current().nextInt(ambiente.horariosPorMedico);
+        return ambiente.transacao.execute(status ->
+                ambiente.horarioDisponivelService.buscarHorariosDisponiveisPorData(horario(horario).toLocalDate()));
+    }
+
+    // mesma listagem em projeção: um select com as colunas da resposta, sem entidades
+    @Benchmark
+    public List<HorarioResposta> listarHorariosDoDia(AmbienteDeBenchmark ambiente) {
+        int horario = ThreadLocalRandom.current().nextInt(ambiente.horariosPorMedico);
+        return ambiente.horarioDisponivelService.listarHorariosDoDia(horario(horario).toLocalDate());
+    }
+
+    // "quais médicos têm vaga nesta semana": pelo banco carrega os horários dia a dia e confere podeAgendar(),
+    // pelo índice de disponibilidade só conta os bits em memória
+    @Benchmark
+    public Map<UUID, Integer> horariosLivresDaSemanaPeloBanco(AmbienteDeBenchmark ambiente) {
+        LocalDate inicio = GeradorDeDados.INICIO.toLocalDate();
+        return ambiente.transacao.execute(status -> {
+            Map<UUID, Integer> contagem = new HashMap<>();
+            for (LocalDate dia = inicio; dia.isBefore(inicio.plusDays(7)); dia = dia.plusDays(1)) {
+                for (HorarioDisponivel horario : ambiente.horarioDisponivelService.buscarHorariosDisponiveisPorData(dia)) {
+                    if (horario.podeAgendar()) {
+                        contagem.merge(horario.getMedico().getId(), 1, Integer::sum);
+                    }
+                }
+            }
+            return contagem;
+        });
+    }
+
+    @Benchmark
+    public Map<UUID, Integer> horariosLivresDaSemanaPeloIndice(AmbienteDeBenchmark ambiente) {
+        LocalDate inicio = GeradorDeDados.INICIO.toLocalDate();
+        return ambiente.horarioDisponivelService.contarHorariosLivresPorMedico(inicio, inicio.plusDays(6));
+    }
+
+    // "a primeira vaga da especialidade" (o gerador reparte os médicos em 10 especialidades): percorrendo a lista de
+    // horários de cada médico da especialização, e pelo merge no índice de disponibilidade.
+    // Para milhares de médicos por especialização: -p medicos=10000 -p horariosPorMedico=20 -p consultasPorHorario=1
+    @Benchmark
+    public List<HorarioDisponivel> primeirosHorariosPelosMedicos(AmbienteDeBenchmark ambiente) {
+        String especializacao = "Especialidade " + ThreadLocalRandom.current().nextInt(10);
+        return ambiente.transacao.execute(status -> {
+            List<HorarioDisponivel> livres = new ArrayList<>();
+            for (Medico medico : ambiente.contexto.getBean(MedicoRepository.class).findByEspecializacao(especializacao)) {
+                for (HorarioDisponivel horario : medico.getHorarioDisponivel()) {
+                    if (horario.podeAgendar() && !horario.getHorario().isBefore(GeradorDeDados.INICIO)) {
+                        livres.add(horario);
+                    }
+                }
+            }
+            livres.sort(Comparator.comparing(HorarioDisponivel::getHorario));
+            return livres.subList(0, Math.min(PRIMEIROS_HORARIOS, livres.size()));
+        });
+    }
+
+    @Benchmark
+    public List<HorarioLivre> primeirosHorariosPeloIndice(AmbienteDeBenchmark ambiente) {
+        String especializacao = "Especialidade " + ThreadLocalRandom.current().nextInt(10);
+        return ambiente.horarioDisponivelService.buscarPrimeirosHorariosLivres(especializacao, GeradorDeDados.INICIO,
+                PRIMEIROS_HORARIOS);
+    }
+}
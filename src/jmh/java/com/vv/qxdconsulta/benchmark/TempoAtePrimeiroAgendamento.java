@@ -0,0 +1,148 @@
+package com.vv.qxdconsulta.benchmark;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.vv.qxdconsulta.benchmark.GeradorDeDados.cpf;
+import static com.vv.qxdconsulta.benchmark.GeradorDeDados.crm;
+import static com.vv.qxdconsulta.benchmark.GeradorDeDados.horario;
+
+// tempo de início de uma instância nova: do processo criado até o primeiro agendamento pela API dar certo.
+// Sobe o jar extraído pelo perfil inicio-rapido em processos separados, sem AOT, com AOT e com AOT + CDS,
+// intercalando os modos em cada rodada. Cada processo recebe uma cópia do mesmo banco H2 em arquivo,
+// já com o schema (o ddl-auto=update só confere) e com um médico, um paciente e um horário.
+//
+// mvn -Pinicio-rapido package -Dmaven.test.skip=true
+// mvn -Pbenchmark compile exec:exec -Dbenchmark.classe=com.vv.qxdconsulta.benchmark.TempoAtePrimeiroAgendamento \
+//     -Djmh.args="rodadas=5"
+public class TempoAtePrimeiroAgendamento {
+
+    private static final Path DIRETORIO = Path.of("target", "inicio-rapido");
+    private static final String JAR = "qxdconsulta-0.0.1-SNAPSHOT.jar";
+    private static final String ARQUIVO_CDS = "qxdconsulta.jsa";
+    private static final Duration ESPERA_MAXIMA = Duration.ofMinutes(2);
+
+    public static void main(String[] args) throws Exception {
+        int rodadas = argumento(args, "rodadas", 5);
+        if (!Files.exists(DIRETORIO.resolve(JAR))) {
+            throw new IllegalStateException("Jar extraído não encontrado em " + DIRETORIO + ", rode antes mvn -Pinicio-rapido package");
+        }
+
+        Map<String, List<String>> modos = new LinkedHashMap<>();
+        modos.put("jar", List.of());
+        modos.put("aot", List.of("-Dspring.aot.enabled=true"));
+        if (Files.exists(DIRETORIO.resolve(ARQUIVO_CDS))) {
+            modos.put("aot + cds", List.of("-XX:SharedArchiveFile=" + ARQUIVO_CDS, "-Dspring.aot.enabled=true"));
+        } else {
+            System.out.println("aot + cds: " + ARQUIVO_CDS + " não encontrado, modo ignorado");
+        }
+
+        Path bancos = Files.createTempDirectory("qxdconsulta-inicio");
+        Path base = prepararBanco(bancos);
+        Map<String, long[]> tempos = new LinkedHashMap<>();
+        modos.keySet().forEach(modo -> tempos.put(modo, new long[rodadas]));
+        // a rodada 0 só aquece o cache de arquivos do sistema operacional
+        for (int rodada = 0; rodada <= rodadas; rodada++) {
+            for (Map.Entry<String, List<String>> modo : modos.entrySet()) {
+                Path banco = bancos.resolve("rodada-" + rodada + "-" + modo.getKey().replace(" ", ""));
+                Files.copy(base.resolveSibling(base.getFileName() + ".mv.db"), banco.resolveSibling(banco.getFileName() + ".mv.db"));
+                long tempo = medir(modo.getValue(), banco);
+                if (rodada > 0) {
+                    tempos.get(modo.getKey())[rodada - 1] = tempo;
+                }
+            }
+        }
+        tempos.forEach(TempoAtePrimeiroAgendamento::imprimir);
+    }
+
+    // cria o schema pela aplicação e gera a massa mínima para um agendamento
+    private static Path prepararBanco(Path bancos) {
+        Path base = bancos.resolve("base").toAbsolutePath();
+        AmbienteDeBenchmark ambiente = new AmbienteDeBenchmark();
+        ambiente.medicos = 1;
+        ambiente.horariosPorMedico = GeradorDeDados.HORARIOS_POR_DIA;
+        ambiente.consultasPorHorario = 0;
+        ambiente.subir("--spring.datasource.url=jdbc:h2:file:" + base, "--spring.jpa.hibernate.ddl-auto=update");
+        ambiente.encerrar();
+        return base;
+    }
+
+    private static long medir(List<String> opcoes, Path banco) throws Exception {
+        int porta = portaLivre();
+        List<String> comando = new ArrayList<>();
+        comando.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        comando.addAll(opcoes);
+        comando.addAll(List.of("-jar", JAR, "--server.port=" + porta,
+                "--spring.datasource.url=jdbc:h2:file:" + banco.toAbsolutePath(), "--spring.jpa.show-sql=false"));
+
+        HttpClient cliente = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest agendamento = HttpRequest.newBuilder(URI.create("http://localhost:" + porta + "/consultas"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"crmMedico\":\"" + crm(0) + "\",\"cpfPaciente\":\"" + cpf(0)
+                        + "\",\"dataHora\":\"" + horario(0) + "\",\"tipoConsulta\":\"Primeira\"}"))
+                .build();
+
+        long inicio = System.nanoTime();
+        Process processo = new ProcessBuilder(comando)
+                .directory(DIRETORIO.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            while (System.nanoTime() - inicio < ESPERA_MAXIMA.toNanos()) {
+                if (!processo.isAlive()) {
+                    throw new IllegalStateException("A aplicação terminou antes do primeiro agendamento: " + comando);
+                }
+                try {
+                    HttpResponse<String> resposta = cliente.send(agendamento, HttpResponse.BodyHandlers.ofString());
+                    if (resposta.statusCode() == 201) {
+                        return System.nanoTime() - inicio;
+                    }
+                    throw new IllegalStateException("Agendamento recusado (" + resposta.statusCode() + "): " + resposta.body());
+                } catch (ConnectException e) {
+                    // o Tomcat ainda não abriu a porta
+                    Thread.sleep(10);
+                }
+            }
+            throw new IllegalStateException("A aplicação não agendou em " + ESPERA_MAXIMA);
+        } finally {
+            processo.destroy();
+            processo.waitFor();
+        }
+    }
+
+    private static int portaLivre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void imprimir(String modo, long[] temposNs) {
+        long[] ordenados = temposNs.clone();
+        Arrays.sort(ordenados);
+        System.out.printf("%-10s primeiro agendamento: mediana %6.0f ms   mínimo %6.0f ms   máximo %6.0f ms%n", modo,
+                ordenados[ordenados.length / 2] / 1e6, ordenados[0] / 1e6, ordenados[ordenados.length - 1] / 1e6);
+    }
+
+    private static int argumento(String[] args, String nome, int padrao) {
+        for (String arg : args) {
+            if (arg.startsWith(nome + "=")) {
+                return Integer.parseInt(arg.substring(nome.length() + 1));
+            }
+        }
+        return padrao;
+    }
+}
@@ -0,0 +1,50 @@
+package com.vv.qxdconsulta.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+// modo de execução com virtual threads (perfil "virtual", ver application-virtual.properties).
+// O Tomcat e os executores do spring passam a usar virtual threads pelo spring.threads.virtual.enabled,
+// e o trabalho de JPA dos services roda na própria thread da requisição, então também fica em virtual thread.
+@Configuration
+public class ConcorrenciaConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcorrenciaConfig.class);
+
+    // static porque BeanPostProcessor precisa existir antes dos outros beans da configuração
+    @Bean
+    @ConditionalOnProperty("qxdconsulta.conexoes.limite")
+    public static BeanPostProcessor limitarConexoes(Environment environment) {
+        int limite = environment.getRequiredProperty("qxdconsulta.conexoes.limite", Integer.class);
+        long esperaMaximaMs = environment.getProperty("qxdconsulta.conexoes.espera-maxima-ms", Long.class, 30_000L);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof DataSourceComSemaforo)) {
+                    return new DataSourceComSemaforo(dataSource, limite, esperaMaximaMs);
+                }
+                return bean;
+            }
+        };
+    }
+
+    // o spring ignora spring.threads.virtual.enabled abaixo do Java 21, avisa em vez de seguir calado
+    @EventListener(ApplicationReadyEvent.class)
+    public void avisarSemVirtualThreads(ApplicationReadyEvent evento) {
+        boolean pedido = evento.getApplicationContext().getEnvironment()
+                .getProperty("spring.threads.virtual.enabled", Boolean.class, false);
+        if (pedido && Runtime.version().feature() < 21) {
+            log.warn("spring.threads.virtual.enabled está ligado, mas virtual threads precisam do Java 21 (rodando no {}). "
+                    + "As requisições continuam em threads de plataforma.", Runtime.version().feature());
+        }
+    }
+}
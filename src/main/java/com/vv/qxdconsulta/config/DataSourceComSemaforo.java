@@ -0,0 +1,91 @@
+package com.vv.qxdconsulta.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// limita quantas conexões podem estar em uso ao mesmo tempo. Com uma thread por requisição o tamanho do pool de threads
+// já segurava o acesso ao banco; com virtual threads podem existir milhares de requisições ao mesmo tempo, e quem
+// limita passa a ser o semáforo: a requisição espera aqui, em ordem de chegada, até uma conexão ser devolvida.
+public class DataSourceComSemaforo extends DelegatingDataSource {
+
+    private final Semaphore semaforo;
+    private final long esperaMaximaMs;
+
+    public DataSourceComSemaforo(DataSource dataSource, int limite, long esperaMaximaMs) {
+        super(dataSource);
+        this.semaforo = new Semaphore(limite, true);
+        this.esperaMaximaMs = esperaMaximaMs;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        esperarVaga();
+        return devolverAoFechar(obterOuLiberar(() -> super.getConnection()));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        esperarVaga();
+        return devolverAoFechar(obterOuLiberar(() -> super.getConnection(username, password)));
+    }
+
+    public int conexoesLivres() {
+        return semaforo.availablePermits();
+    }
+
+    private void esperarVaga() throws SQLException {
+        try {
+            if (!semaforo.tryAcquire(esperaMaximaMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(
+                        "Limite de conexões atingido, nenhuma conexão foi liberada em " + esperaMaximaMs + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrompido esperando uma conexão", e);
+        }
+    }
+
+    private interface Obtencao {
+        Connection obter() throws SQLException;
+    }
+
+    // se o pool falhar a vaga do semáforo volta na hora
+    private Connection obterOuLiberar(Obtencao obtencao) throws SQLException {
+        try {
+            return obtencao.obter();
+        } catch (SQLException | RuntimeException e) {
+            semaforo.release();
+            throw e;
+        }
+    }
+
+    // a vaga é devolvida no primeiro close(), chamar close() de novo não libera outra
+    private Connection devolverAoFechar(Connection conexao) {
+        AtomicBoolean fechada = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, metodo, argumentos) -> {
+                    if (metodo.getName().equals("close") && fechada.compareAndSet(false, true)) {
+                        try {
+                            conexao.close();
+                        } finally {
+                            semaforo.release();
+                        }
+                        return null;
+                    }
+                    try {
+                        return metodo.invoke(conexao, argumentos);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
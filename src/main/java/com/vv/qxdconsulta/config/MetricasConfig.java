@@ -0,0 +1,36 @@
+package com.vv.qxdconsulta.config;
+
+import com.vv.qxdconsulta.repository.HorarioDisponivelRepository;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.LocalDateTime;
+
+@Configuration
+public class MetricasConfig {
+
+    // faz o @Timed dos services virar timer (qxdconsulta.servico com as tags class e method)
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    // horários futuros com vaga e total de vagas livres, consultados no banco a cada coleta
+    @Bean
+    public MeterBinder metricasDeHorarios(HorarioDisponivelRepository horarioDisponivelRepository) {
+        return registry -> {
+            Gauge.builder("qxdconsulta.horarios.abertos", horarioDisponivelRepository,
+                            repositorio -> repositorio.contarHorariosAbertos(LocalDateTime.now()))
+                    .description("Horários futuros que ainda têm vaga")
+                    .register(registry);
+            Gauge.builder("qxdconsulta.vagas.livres", horarioDisponivelRepository,
+                            repositorio -> repositorio.contarVagasLivres(LocalDateTime.now()))
+                    .description("Soma das vagas livres dos horários futuros")
+                    .register(registry);
+        };
+    }
+}
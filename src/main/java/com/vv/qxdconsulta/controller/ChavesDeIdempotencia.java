@@ -0,0 +1,100 @@
+package com.vv.qxdconsulta.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// resultados das operações pedidas com Idempotency-Key, para a repetição do cliente (timeout no celular) receber
+// a mesma resposta sem agendar de novo. A chave guarda o pedido e o resultado, com tamanho máximo e validade.
+// Enquanto a primeira execução não termina, as repetições da mesma chave esperam por ela em vez de executar junto.
+// Execução que falha não fica registrada, a repetição executa de novo. A espera tem limite: passado esperaMaxima
+// a repetição recebe PedidoEmAndamento (409) e o cliente tenta de novo depois, sem prender a thread da requisição.
+// As chaves ficam na memória desta instância, então a garantia vale para uma instância só (ou com o balanceador
+// mandando o mesmo cliente sempre para a mesma instância). A repetição que cai em outra instância executa de novo;
+// no agendamento ela é recusada porque o paciente já tem consulta no horário, mas não recebe a resposta original.
+// Para rodar várias instâncias sem afinidade o registro precisa ir para uma tabela compartilhada.
+public class ChavesDeIdempotencia {
+
+    static final String REPETICOES = "qxdconsulta.idempotencia.repeticoes";
+    static final int TAMANHO_MAXIMO_DA_CHAVE = 255;
+
+    private record Registro(Object pedido, CompletableFuture<Object> resultado) {
+    }
+
+    // a repetição chegou enquanto a execução original ainda não terminou e a espera passou do limite
+    static class PedidoEmAndamento extends RuntimeException {
+        PedidoEmAndamento() {
+            super("O pedido com esta chave de idempotência ainda está em andamento, tente de novo.");
+        }
+    }
+
+    private final Cache<String, Registro> registros;
+    private final Duration esperaMaxima;
+
+    public ChavesDeIdempotencia(long maximoDeChaves, Duration validade, Duration esperaMaxima) {
+        this.esperaMaxima = esperaMaxima;
+        this.registros = Caffeine.newBuilder()
+                .maximumSize(maximoDeChaves)
+                .expireAfterWrite(validade)
+                .build();
+    }
+
+    // executa a operação uma vez por chave; o pedido identifica o que foi pedido com a chave e precisa ter equals.
+    // Sem chave a operação sempre executa.
+    @SuppressWarnings("unchecked")
+    public <T> T executar(String chave, Object pedido, Supplier<T> operacao) {
+        if (chave == null) {
+            return operacao.get();
+        }
+        if (chave.isBlank() || chave.length() > TAMANHO_MAXIMO_DA_CHAVE) {
+            throw new IllegalArgumentException("Chave de idempotência inválida");
+        }
+
+        Registro novo = new Registro(pedido, new CompletableFuture<>());
+        Registro existente = registros.asMap().putIfAbsent(chave, novo);
+        if (existente != null) {
+            if (!Objects.equals(existente.pedido(), pedido)) {
+                throw new IllegalArgumentException("Chave de idempotência já usada em outro pedido");
+            }
+            Metrics.counter(REPETICOES).increment();
+            try {
+                // copy: o timeout desta espera não pode completar o resultado que as outras repetições esperam
+                return (T) existente.resultado().copy()
+                        .orTimeout(esperaMaxima.toMillis(), TimeUnit.MILLISECONDS)
+                        .join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    throw new PedidoEmAndamento();
+                }
+                // a execução original falhou e já saiu do registro, a repetição recebe o mesmo erro
+                if (e.getCause() instanceof RuntimeException causa) {
+                    throw causa;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            T resultado = operacao.get();
+            novo.resultado().complete(resultado);
+            return resultado;
+        } catch (RuntimeException | Error e) {
+            registros.asMap().remove(chave, novo);
+            novo.resultado().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    long tamanho() {
+        registros.cleanUp();
+        return registros.estimatedSize();
+    }
+}
@@ -0,0 +1,112 @@
+package com.vv.qxdconsulta.controller;
+
+import com.vv.qxdconsulta.dto.AlteracaoDeHorario;
+import com.vv.qxdconsulta.dto.ConsultaResposta;
+import com.vv.qxdconsulta.dto.ItemDaAgenda;
+import com.vv.qxdconsulta.dto.ItemDoHistorico;
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.ResultadoDeAgendamento;
+import com.vv.qxdconsulta.service.ConsultaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/consultas")
+public class ConsultaController {
+
+    @Autowired
+    ConsultaService consultaService;
+
+    static final String CHAVE_DE_IDEMPOTENCIA = "Idempotency-Key";
+
+    // fica fora da transação do service: só o resultado de um agendamento já gravado é guardado para as repetições.
+    // A repetição espera a execução original no máximo 30 s, acima do timeout de um cliente típico
+    final ChavesDeIdempotencia chavesDeIdempotencia = new ChavesDeIdempotencia(100_000, Duration.ofHours(24), Duration.ofSeconds(30));
+
+    // pedido guardado com a chave da remarcação, a mesma chave em outra consulta ou outro horário é recusada
+    private record Remarcacao(UUID id, AlteracaoDeHorario alteracao) {
+    }
+
+    // o cliente que repete o pedido com a mesma Idempotency-Key recebe a consulta da primeira vez, sem ocupar outra vaga
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public ConsultaResposta agendarConsulta(@RequestBody PedidoDeAgendamento pedido,
+                                            @RequestHeader(name = CHAVE_DE_IDEMPOTENCIA, required = false) String chave){
+        return chavesDeIdempotencia.executar(chave, pedido, () -> ConsultaResposta.de(consultaService.agendarConsulta(
+                pedido.crmMedico(), pedido.cpfPaciente(), pedido.dataHora(), pedido.tipoConsulta())));
+    }
+
+    // cada pedido tem o seu resultado, um pedido rejeitado não faz a requisição falhar
+    @PostMapping("/lote")
+    public List<ResultadoDeAgendamento> agendarConsultasEmLote(@RequestBody List<PedidoDeAgendamento> pedidos){
+        return consultaService.agendarConsultasEmLote(pedidos);
+    }
+
+    @GetMapping(params = "crm")
+    public List<ConsultaResposta> buscarConsultasPorMedico(@RequestParam String crm){
+        return consultaService.listarConsultasDoMedico(crm);
+    }
+
+    @GetMapping(params = "cpf")
+    public List<ConsultaResposta> buscarConsultasPorPaciente(@RequestParam String cpf){
+        return consultaService.listarConsultasDoPaciente(cpf);
+    }
+
+    @GetMapping("/historico")
+    public List<ItemDoHistorico> buscarHistoricoDoPaciente(@RequestParam String cpf){
+        return consultaService.buscarHistoricoDoPaciente(cpf);
+    }
+
+    @GetMapping("/agenda")
+    public List<ItemDaAgenda> buscarAgendaDoDia(@RequestParam UUID medico,
+                                                @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dia){
+        return consultaService.buscarAgendaDoDia(medico, dia);
+    }
+
+    @PutMapping("/{id}/horario")
+    public ConsultaResposta alterarHorarioDaConsulta(@PathVariable UUID id, @RequestBody AlteracaoDeHorario alteracao,
+                                                     @RequestHeader(name = CHAVE_DE_IDEMPOTENCIA, required = false) String chave){
+        return chavesDeIdempotencia.executar(chave, new Remarcacao(id, alteracao),
+                () -> ConsultaResposta.de(consultaService.alterarHorarioDaConsulta(id, alteracao.novoHorario())));
+    }
+
+    @DeleteMapping("/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void removerConsulta(@PathVariable UUID id){
+        consultaService.removerConsulta(id);
+    }
+
+    // o CSV é escrito direto na resposta, sem montar o arquivo em memória
+    @GetMapping(value = "/exportacao", produces = "text/csv")
+    public ResponseEntity<StreamingResponseBody> exportarConsultas(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime inicio,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime fim){
+        StreamingResponseBody corpo = saida -> consultaService.exportarConsultasCsv(inicio, fim, saida);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"consultas.csv\"")
+                .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"))
+                .body(corpo);
+    }
+}
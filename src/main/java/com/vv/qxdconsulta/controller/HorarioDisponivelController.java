@@ -0,0 +1,109 @@
+package com.vv.qxdconsulta.controller;
+
+import com.vv.qxdconsulta.dto.HorarioLivre;
+import com.vv.qxdconsulta.dto.HorarioResposta;
+import com.vv.qxdconsulta.dto.ModeloDeAgenda;
+import com.vv.qxdconsulta.dto.NovoHorario;
+import com.vv.qxdconsulta.dto.VersaoDaListagem;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.service.HorarioDisponivelService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@RestController
+public class HorarioDisponivelController {
+
+    @Autowired
+    HorarioDisponivelService horarioDisponivelService;
+
+    // as listagens levam ETag e Last-Modified. A versão é lida antes dos horários: se um agendamento confirmar
+    // no meio, a resposta sai com a versão antiga e o próximo pedido busca de novo em vez de ficar com dados velhos.
+    // Um 304 custa só essa agregação, que passa pelo índice (medico_id, horario) ou pelo índice em horario
+    @GetMapping("/medicos/{crm}/horarios")
+    public List<HorarioResposta> listarHorariosDoMedico(@PathVariable String crm, WebRequest request){
+        if (naoModificado(horarioDisponivelService.versaoDosHorariosDoMedico(crm), request)){
+            return null;
+        }
+        return horarioDisponivelService.listarHorariosDoMedico(crm);
+    }
+
+    @GetMapping("/horarios")
+    public List<HorarioResposta> listarHorariosDoDia(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate data,
+                                                     WebRequest request){
+        if (naoModificado(horarioDisponivelService.versaoDosHorariosDoDia(data), request)){
+            return null;
+        }
+        return horarioDisponivelService.listarHorariosDoDia(data);
+    }
+
+    // respondidas pelo índice de disponibilidade em memória, sem consultar o banco
+    @GetMapping("/medicos/{crm}/horarios-livres")
+    public List<LocalDateTime> buscarHorariosLivres(@PathVariable String crm,
+                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate inicio,
+                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fim){
+        return horarioDisponivelService.buscarHorariosLivres(crm, inicio, fim);
+    }
+
+    @GetMapping("/horarios-livres")
+    public Map<UUID, Integer> contarHorariosLivresPorMedico(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate inicio,
+                                                            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fim){
+        return horarioDisponivelService.contarHorariosLivresPorMedico(inicio, fim);
+    }
+
+    // "a primeira vaga de cardiologia": os primeiros horários livres de qualquer médico da especialização
+    @GetMapping("/horarios-livres/primeiros")
+    public List<HorarioLivre> buscarPrimeirosHorariosLivres(@RequestParam String especializacao,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime depois,
+                                                            @RequestParam(defaultValue = "10") int limite){
+        return horarioDisponivelService.buscarPrimeirosHorariosLivres(especializacao, depois, limite);
+    }
+
+    @PostMapping("/medicos/{crm}/horarios")
+    @ResponseStatus(HttpStatus.CREATED)
+    public HorarioResposta adicionarHorario(@PathVariable String crm, @RequestBody NovoHorario novoHorario){
+        HorarioDisponivel horario = new HorarioDisponivel(novoHorario.horario(), novoHorario.capacidadeMaxima());
+        return HorarioResposta.de(horarioDisponivelService.adicionarHorarioDisponivel(horario, crm));
+    }
+
+    // abre a agenda recorrente do médico de acordo com o modelo
+    @PostMapping("/medicos/{crm}/agenda")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Map<String, Integer> gerarAgenda(@PathVariable String crm, @RequestBody ModeloDeAgenda modelo){
+        return Map.of("horariosCriados", horarioDisponivelService.gerarAgenda(List.of(crm), modelo));
+    }
+
+    @PutMapping("/horarios/{id}")
+    public HorarioResposta atualizarHorario(@PathVariable UUID id, @RequestBody NovoHorario novoHorario){
+        return HorarioResposta.de(horarioDisponivelService.atualizarHorarioDisponivel(id, novoHorario.horario(),
+                novoHorario.capacidadeMaxima()));
+    }
+
+    @DeleteMapping("/horarios/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void removerHorario(@PathVariable UUID id){
+        horarioDisponivelService.removerHorarioDisponivel(id);
+    }
+
+    // preenche ETag e Last-Modified; true quando o cliente já tem essa versão e a resposta é 304,
+    // sem buscar os horários
+    private static boolean naoModificado(VersaoDaListagem versao, WebRequest request){
+        return request.checkNotModified(versao.etag(), versao.ultimaAlteracao().toEpochMilli());
+    }
+}
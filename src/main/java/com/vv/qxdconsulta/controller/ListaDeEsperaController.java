@@ -0,0 +1,47 @@
+package com.vv.qxdconsulta.controller;
+
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.SituacaoDaEspera;
+import com.vv.qxdconsulta.model.EsperaPorVaga;
+import com.vv.qxdconsulta.service.ListaDeEsperaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.UUID;
+
+// quando o POST /consultas responde que o horário está lotado, o cliente entra na fila aqui
+// e acompanha o pedido pelo GET, que diz a posição ou a consulta criada na promoção
+@RestController
+@RequestMapping("/lista-de-espera")
+public class ListaDeEsperaController {
+
+    @Autowired
+    ListaDeEsperaService listaDeEsperaService;
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public SituacaoDaEspera entrarNaListaDeEspera(@RequestBody PedidoDeAgendamento pedido){
+        EsperaPorVaga espera = listaDeEsperaService.entrarNaListaDeEspera(pedido.crmMedico(), pedido.cpfPaciente(),
+                pedido.dataHora(), pedido.tipoConsulta());
+        return listaDeEsperaService.buscarSituacao(espera.getId());
+    }
+
+    @GetMapping("/{id}")
+    public SituacaoDaEspera buscarSituacao(@PathVariable UUID id){
+        return listaDeEsperaService.buscarSituacao(id);
+    }
+
+    @DeleteMapping("/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void sairDaListaDeEspera(@PathVariable UUID id){
+        listaDeEsperaService.sairDaListaDeEspera(id);
+    }
+}
@@ -0,0 +1,46 @@
+package com.vv.qxdconsulta.controller;
+
+import com.vv.qxdconsulta.dto.ConsultaResposta;
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.ReservaResposta;
+import com.vv.qxdconsulta.service.ReservaDeVagaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.UUID;
+
+// agendamento em duas etapas: o POST segura a vaga até expiraEm, a confirmação cria a consulta
+// e o DELETE devolve a vaga antes do vencimento
+@RestController
+@RequestMapping("/reservas")
+public class ReservaDeVagaController {
+
+    @Autowired
+    ReservaDeVagaService reservaDeVagaService;
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public ReservaResposta reservarVaga(@RequestBody PedidoDeAgendamento pedido){
+        return ReservaResposta.de(reservaDeVagaService.reservarVaga(pedido.crmMedico(), pedido.cpfPaciente(),
+                pedido.dataHora(), pedido.tipoConsulta()));
+    }
+
+    @PostMapping("/{id}/confirmacao")
+    @ResponseStatus(HttpStatus.CREATED)
+    public ConsultaResposta confirmarReserva(@PathVariable UUID id){
+        return ConsultaResposta.de(reservaDeVagaService.confirmar(id));
+    }
+
+    @DeleteMapping("/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void cancelarReserva(@PathVariable UUID id){
+        reservaDeVagaService.cancelar(id);
+    }
+}
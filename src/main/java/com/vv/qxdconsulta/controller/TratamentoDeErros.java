@@ -0,0 +1,35 @@
+package com.vv.qxdconsulta.controller;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+
+// os services sinalizam regra de negócio violada com IllegalArgumentException e a mensagem já é para o usuário
+@RestControllerAdvice
+public class TratamentoDeErros {
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public Map<String, String> regraDeNegocio(IllegalArgumentException e){
+        return Map.of("erro", e.getMessage());
+    }
+
+    // duas transações passaram juntas pela conferência e a restrição única do banco barrou a segunda
+    // (ex.: o mesmo paciente agendado ao mesmo tempo em dois médicos, uk_consulta_paciente_data_hora)
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public Map<String, String> conflito(DataIntegrityViolationException e){
+        return Map.of("erro", "O pedido conflita com outro feito ao mesmo tempo, tente de novo.");
+    }
+
+    // a repetição com a mesma Idempotency-Key chegou antes de a primeira execução terminar
+    @ExceptionHandler(ChavesDeIdempotencia.PedidoEmAndamento.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public Map<String, String> emAndamento(ChavesDeIdempotencia.PedidoEmAndamento e){
+        return Map.of("erro", e.getMessage());
+    }
+}
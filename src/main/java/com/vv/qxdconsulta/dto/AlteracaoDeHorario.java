@@ -0,0 +1,7 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+
+// corpo da remarcação de uma consulta
+public record AlteracaoDeHorario(LocalDateTime novoHorario) {
+}
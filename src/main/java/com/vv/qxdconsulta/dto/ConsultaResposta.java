@@ -0,0 +1,15 @@
+package com.vv.qxdconsulta.dto;
+
+import com.vv.qxdconsulta.model.Consulta;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// consulta como a API devolve, médico e paciente só pelo CRM e CPF
+public record ConsultaResposta(UUID id, LocalDateTime dataHora, String tipoConsulta, String crmMedico, String cpfPaciente) {
+
+    public static ConsultaResposta de(Consulta consulta) {
+        return new ConsultaResposta(consulta.getId(), consulta.getDataHora(), consulta.getTipoConsulta(),
+                consulta.getMedico().getCrm(), consulta.getPaciente().getCpf());
+    }
+}
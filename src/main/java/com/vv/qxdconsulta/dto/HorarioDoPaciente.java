@@ -0,0 +1,8 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// horário em que o paciente já tem consulta, usado na conferência de conflitos do agendamento em lote
+public record HorarioDoPaciente(UUID pacienteId, LocalDateTime dataHora) {
+}
@@ -0,0 +1,7 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+
+// horário com vaga na busca por especialização; o agendamento usa o CRM e o horário
+public record HorarioLivre(String crmMedico, String nomeMedico, LocalDateTime horario, int vagasLivres) {
+}
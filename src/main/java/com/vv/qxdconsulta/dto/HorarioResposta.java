@@ -0,0 +1,15 @@
+package com.vv.qxdconsulta.dto;
+
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// horário como a API devolve, sem a lista de consultas (a entidade tem ciclos e carregaria as consultas)
+public record HorarioResposta(UUID id, String crmMedico, LocalDateTime horario, int capacidadeMaxima, int vagasLivres) {
+
+    public static HorarioResposta de(HorarioDisponivel horario) {
+        return new HorarioResposta(horario.getId(), horario.getMedico().getCrm(), horario.getHorario(),
+                horario.getCapacidadeMaxima(), horario.getCapacidadeMaxima() - horario.getVagasOcupadas());
+    }
+}
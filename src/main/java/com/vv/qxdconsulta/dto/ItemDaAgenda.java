@@ -0,0 +1,9 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// linha da agenda do dia do médico, só com as colunas que a recepção mostra
+public record ItemDaAgenda(UUID consultaId, LocalDateTime dataHora, String tipoConsulta,
+                           String nomePaciente, String cpfPaciente, String contatoPaciente) {
+}
@@ -0,0 +1,9 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// linha do histórico de consultas do paciente, com o médico resumido
+public record ItemDoHistorico(UUID consultaId, LocalDateTime dataHora, String tipoConsulta,
+                              String crmMedico, String nomeMedico, String especializacao) {
+}
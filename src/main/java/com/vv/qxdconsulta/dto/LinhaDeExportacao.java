@@ -0,0 +1,10 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// uma linha da exportação de consultas para o faturamento, montada direto pelo select (sem entidades)
+public record LinhaDeExportacao(UUID consultaId, LocalDateTime dataHora, String tipoConsulta,
+                                String crmMedico, String nomeMedico, String especializacao,
+                                String cpfPaciente, String nomePaciente) {
+}
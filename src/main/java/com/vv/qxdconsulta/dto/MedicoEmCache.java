@@ -0,0 +1,14 @@
+package com.vv.qxdconsulta.dto;
+
+import com.vv.qxdconsulta.model.Medico;
+
+import java.util.UUID;
+
+// o que o cache de buscas por CRM guarda: imutável, pode ser lido por várias threads ao mesmo tempo.
+// Para associar o médico a uma linha nova, carregar a entidade na transação (ver ConsultaService.agendarConsulta)
+public record MedicoEmCache(UUID id, String crm, String nome) {
+
+    public static MedicoEmCache de(Medico medico) {
+        return new MedicoEmCache(medico.getId(), medico.getCrm(), medico.getNome());
+    }
+}
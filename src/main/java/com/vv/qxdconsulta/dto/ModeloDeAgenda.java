@@ -0,0 +1,31 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// agenda recorrente de um médico: nos dias da semana escolhidos, entre as datas (inclusive) e fora das exceções,
+// abre um horário a cada minutosPorHorario de horaInicial até horaFinal (o último horário termina até horaFinal)
+public record ModeloDeAgenda(Set<DayOfWeek> diasDaSemana, LocalTime horaInicial, LocalTime horaFinal,
+                             int minutosPorHorario, int capacidadeMaxima,
+                             LocalDate dataInicial, LocalDate dataFinal, Set<LocalDate> excecoes) {
+
+    public List<LocalDateTime> horarios() {
+        List<LocalDateTime> horarios = new ArrayList<>();
+        int minutoInicial = horaInicial.toSecondOfDay() / 60;
+        int minutoFinal = horaFinal.toSecondOfDay() / 60;
+        for (LocalDate data = dataInicial; !data.isAfter(dataFinal); data = data.plusDays(1)) {
+            if (!diasDaSemana.contains(data.getDayOfWeek()) || (excecoes != null && excecoes.contains(data))) {
+                continue;
+            }
+            for (int minuto = minutoInicial; minuto + minutosPorHorario <= minutoFinal; minuto += minutosPorHorario) {
+                horarios.add(data.atStartOfDay().plusMinutes(minuto));
+            }
+        }
+        return horarios;
+    }
+}
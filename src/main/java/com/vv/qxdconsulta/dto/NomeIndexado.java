@@ -0,0 +1,7 @@
+package com.vv.qxdconsulta.dto;
+
+import java.util.UUID;
+
+// id e nome, usado para carregar o índice de busca por nome sem montar as entidades
+public record NomeIndexado(UUID id, String nome) {
+}
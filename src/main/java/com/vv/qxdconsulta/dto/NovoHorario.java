@@ -0,0 +1,7 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+
+// corpo do cadastro e da alteração de horário
+public record NovoHorario(LocalDateTime horario, int capacidadeMaxima) {
+}
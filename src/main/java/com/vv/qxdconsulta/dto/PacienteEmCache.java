@@ -0,0 +1,13 @@
+package com.vv.qxdconsulta.dto;
+
+import com.vv.qxdconsulta.model.Paciente;
+
+import java.util.UUID;
+
+// o que o cache de buscas por CPF guarda, mesma ideia do MedicoEmCache
+public record PacienteEmCache(UUID id, String cpf, String nome) {
+
+    public static PacienteEmCache de(Paciente paciente) {
+        return new PacienteEmCache(paciente.getId(), paciente.getCpf(), paciente.getName());
+    }
+}
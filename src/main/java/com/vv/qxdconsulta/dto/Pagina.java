@@ -0,0 +1,11 @@
+package com.vv.qxdconsulta.dto;
+
+import java.util.List;
+
+// uma página da listagem e o token para pedir a próxima, que fica nulo na última página
+public record Pagina<T>(List<T> itens, String proximaPagina) {
+
+    public boolean temProxima() {
+        return proximaPagina != null;
+    }
+}
@@ -0,0 +1,7 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+
+// um item do agendamento em lote, tem os mesmos dados do agendarConsulta
+public record PedidoDeAgendamento(String crmMedico, String cpfPaciente, LocalDateTime dataHora, String tipoConsulta) {
+}
@@ -0,0 +1,9 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// evento publicado depois do commit quando um pedido da lista de espera vira consulta. O AvisoDePromocao
+// manda o evento para o webhook de notificações, assim o paciente não depende do cliente perguntar
+public record PromocaoDaListaDeEspera(UUID esperaId, UUID consultaId, UUID pacienteId, UUID medicoId, LocalDateTime dataHora) {
+}
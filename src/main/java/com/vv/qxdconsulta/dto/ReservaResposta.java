@@ -0,0 +1,15 @@
+package com.vv.qxdconsulta.dto;
+
+import com.vv.qxdconsulta.model.ReservaDeVaga;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// reserva como a API devolve: o cliente confirma pelo id antes de expiraEm
+public record ReservaResposta(UUID id, LocalDateTime dataHora, String crmMedico, String cpfPaciente, LocalDateTime expiraEm) {
+
+    public static ReservaResposta de(ReservaDeVaga reserva) {
+        return new ReservaResposta(reserva.getId(), reserva.getHorarioDisponivel().getHorario(),
+                reserva.getHorarioDisponivel().getMedico().getCrm(), reserva.getPaciente().getCpf(), reserva.getExpiraEm());
+    }
+}
@@ -0,0 +1,15 @@
+package com.vv.qxdconsulta.dto;
+
+import java.util.UUID;
+
+// resultado de cada pedido do lote: agendado com o id da consulta ou rejeitado com o motivo
+public record ResultadoDeAgendamento(PedidoDeAgendamento pedido, boolean agendado, UUID consultaId, String motivo) {
+
+    public static ResultadoDeAgendamento agendado(PedidoDeAgendamento pedido, UUID consultaId) {
+        return new ResultadoDeAgendamento(pedido, true, consultaId, null);
+    }
+
+    public static ResultadoDeAgendamento rejeitado(PedidoDeAgendamento pedido, String motivo) {
+        return new ResultadoDeAgendamento(pedido, false, null, motivo);
+    }
+}
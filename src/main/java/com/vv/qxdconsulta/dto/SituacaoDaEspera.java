@@ -0,0 +1,10 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// situação de um pedido da lista de espera: posição na fila enquanto aguarda, ou a consulta criada na promoção.
+// O cliente consulta isto em vez de tentar agendar de novo no horário lotado.
+public record SituacaoDaEspera(UUID id, LocalDateTime dataHora, String crmMedico, boolean promovida,
+                               Long posicao, UUID consultaId) {
+}
@@ -0,0 +1,25 @@
+package com.vv.qxdconsulta.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+// posição da listagem paginada: nome e id do último item entregue (a ordem é por nome e depois id).
+// Vai para o cliente em Base64, ele só devolve o token sem precisar saber o que tem dentro.
+public record TokenDePagina(String nome, UUID id) {
+
+    public String codificar() {
+        String conteudo = id + ":" + nome;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(conteudo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static TokenDePagina decodificar(String token) {
+        try {
+            String conteudo = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separador = conteudo.indexOf(':');
+            return new TokenDePagina(conteudo.substring(separador + 1), UUID.fromString(conteudo.substring(0, separador)));
+        } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Token de página inválido");
+        }
+    }
+}
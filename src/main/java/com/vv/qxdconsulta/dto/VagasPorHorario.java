@@ -0,0 +1,8 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// vagas de um horário de um médico, usado para carregar e ajustar o índice de disponibilidade sem carregar entidades
+public record VagasPorHorario(UUID medicoId, LocalDateTime horario, long vagas) {
+}
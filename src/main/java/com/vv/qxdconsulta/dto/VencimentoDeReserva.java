@@ -0,0 +1,8 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// quando uma reserva de vaga vence, para recolocar as reservas guardadas na fila de vencimentos
+public record VencimentoDeReserva(UUID reservaId, LocalDateTime expiraEm) {
+}
@@ -0,0 +1,21 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+// versão de uma listagem de horários, vira os cabeçalhos ETag e Last-Modified da resposta
+public record VersaoDaListagem(String etag, Instant ultimaAlteracao) {
+
+    // montada a partir do resumo que o banco calcula sobre os horários da listagem. Horário novo ou apagado muda
+    // a quantidade, alteração soma 1 na versão da linha; a última alteração pega a troca de um horário apagado
+    // por um novo, que deixa a quantidade e a soma iguais
+    public VersaoDaListagem(long quantidade, long somaDasVersoes, LocalDateTime ultimaAlteracao) {
+        this("\"" + quantidade + "-" + somaDasVersoes + "-" + Long.toString(emMilissegundos(ultimaAlteracao), 36) + "\"",
+                Instant.ofEpochMilli(emMilissegundos(ultimaAlteracao)));
+    }
+
+    private static long emMilissegundos(LocalDateTime instante) {
+        return instante == null ? 0 : instante.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
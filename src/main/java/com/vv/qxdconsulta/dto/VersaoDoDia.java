@@ -0,0 +1,13 @@
+package com.vv.qxdconsulta.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// versão dos horários de um dia, com o mesmo resumo do ETag das listagens.
+// A ressincronização do índice de disponibilidade compara com a da rodada anterior para saber quais dias reler
+public record VersaoDoDia(LocalDate data, String etag) {
+
+    public VersaoDoDia(LocalDate data, long quantidade, long somaDasVersoes, LocalDateTime ultimaAlteracao) {
+        this(data, new VersaoDaListagem(quantidade, somaDasVersoes, ultimaAlteracao).etag());
+    }
+}
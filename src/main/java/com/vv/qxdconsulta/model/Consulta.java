@@ -11,26 +11,35 @@ import java.util.UUID;
 @Getter @Setter
 @AllArgsConstructor
 @Entity
-@Table(name = "consultas")
+@Table(name = "consultas",
+        indexes = {
+                @Index(name = "idx_consulta_medico_data_hora", columnList = "medico_id, data_hora"),
+                // exportação e busca por período sem filtro de médico
+                @Index(name = "idx_consulta_data_hora", columnList = "data_hora")
+        },
+        // o paciente não pode ter duas consultas no mesmo horário, mesmo com médicos diferentes.
+        // O índice também atende a conferência feita antes de agendar (existsByPacienteIdAndDataHora)
+        uniqueConstraints = @UniqueConstraint(name = "uk_consulta_paciente_data_hora", columnNames = {"paciente_id", "data_hora"}))
 public class Consulta {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @IdOrdenadoPorTempo
     private UUID id;
     @Column(nullable = false)
     private LocalDateTime dataHora;
     @Column(nullable = false, length = 50)
     private String tipoConsulta;
 
-    @ManyToOne
+    // associações lazy: cada busca do ConsultaRepository diz no entity graph o que precisa trazer junto
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "paciente_id", nullable = false)
     private Paciente paciente;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "medico_id", nullable = false)
     private Medico medico;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "horario_id", nullable = false)
     private HorarioDisponivel horarioDisponivel;
 
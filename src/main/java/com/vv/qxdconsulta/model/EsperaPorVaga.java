@@ -0,0 +1,57 @@
+package com.vv.qxdconsulta.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// pedido de um paciente na lista de espera de um horário lotado. Quando uma vaga é liberada o primeiro
+// da fila vira consulta; o pedido fica guardado com a consulta criada para o paciente consultar a situação.
+// Os pedidos são apagados pelo banco junto com o horário ou com o paciente (remoções em massa).
+@Getter @Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "lista_de_espera",
+        // a fila de um horário em ordem de chegada
+        indexes = @Index(name = "idx_espera_horario_entrou_em", columnList = "horario_id, entrou_em"))
+public class EsperaPorVaga {
+
+    @Id
+    @IdOrdenadoPorTempo
+    private UUID id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "horario_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private HorarioDisponivel horarioDisponivel;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "paciente_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Paciente paciente;
+
+    @Column(nullable = false, length = 50)
+    private String tipoConsulta;
+    @Column(nullable = false)
+    private LocalDateTime entrouEm;
+    // só é alterado pela update condicional do ListaDeEsperaRepository, que decide quem é promovido
+    @Column(updatable = false)
+    private LocalDateTime promovidaEm;
+    private UUID consultaId;
+
+    public EsperaPorVaga(HorarioDisponivel horarioDisponivel, Paciente paciente, String tipoConsulta, LocalDateTime entrouEm) {
+        this.horarioDisponivel = horarioDisponivel;
+        this.paciente = paciente;
+        this.tipoConsulta = tipoConsulta;
+        this.entrouEm = entrouEm;
+    }
+
+    public boolean promovida() {
+        return promovidaEm != null;
+    }
+}
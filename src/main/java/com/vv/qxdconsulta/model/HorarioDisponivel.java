@@ -14,21 +14,35 @@ import java.util.UUID;
 @Getter @Setter
 @AllArgsConstructor
 @Entity
-@Table(name = "horarios_disponiveis")
+// a unique (medico_id, horario) já cria o índice que atende a agenda e a versão da listagem de um médico;
+// o índice em horario atende a listagem e a versão dos horários de um dia
+@Table(name = "horarios_disponiveis",
+        uniqueConstraints = @UniqueConstraint(name = "uk_horario_medico_horario", columnNames = {"medico_id", "horario"}),
+        indexes = @Index(name = "idx_horario_horario", columnList = "horario"))
 public class HorarioDisponivel {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @IdOrdenadoPorTempo
     private UUID id;
     @Column(nullable = false)
     private LocalDateTime horario;
     @Column(nullable = false)
     private int capacidadeMaxima;
+    // contador de vagas ocupadas, só é alterado pelas updates condicionais do HorarioDisponivelRepository
+    @Column(nullable = false, updatable = false)
+    private int vagasOcupadas;
+    // versão da linha para o ETag das listagens (ver HorarioDisponivelRepository.versaoDosHorariosDoMedico):
+    // toda alteração soma 1 e grava o instante, aqui e nas updates do repositório
+    @Column(nullable = false)
+    private long versao;
+    @Column(nullable = false)
+    private LocalDateTime alteradoEm;
 
     @OneToMany(mappedBy = "horarioDisponivel", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Consulta> consultasAgendadas = new ArrayList<>();
 
-    @ManyToOne
+    // lazy: o id do médico sai do proxy sem select, as buscas que usam o resto pedem o médico no entity graph
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "medico_id", nullable = false)
     private Medico medico;
 
@@ -39,8 +53,16 @@ public class HorarioDisponivel {
 
     public HorarioDisponivel(){}
 
+    @PrePersist
+    @PreUpdate
+    void marcarAlteracao() {
+        versao++;
+        alteradoEm = LocalDateTime.now();
+    }
+
+    // usa o contador para não precisar carregar a lista de consultas agendadas
     public boolean podeAgendar() {
-        return consultasAgendadas.size() < capacidadeMaxima;
+        return vagasOcupadas < capacidadeMaxima;
     }
 
 }
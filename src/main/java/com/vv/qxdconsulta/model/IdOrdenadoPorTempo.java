@@ -0,0 +1,15 @@
+package com.vv.qxdconsulta.model;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// id UUID gerado pelo UuidV7 no persist, no lugar do @GeneratedValue (que gera UUID aleatório)
+@IdGeneratorType(GeradorDeIdOrdenado.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface IdOrdenadoPorTempo {
+}
@@ -15,10 +15,17 @@ import java.util.UUID;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "medicos")
+@Table(name = "medicos",
+        indexes = {
+                // ordem da listagem paginada, com e sem filtro de especialização
+                @Index(name = "idx_medico_nome_id", columnList = "nome, id"),
+                @Index(name = "idx_medico_especializacao_nome_id", columnList = "especialização, nome, id"),
+                // busca por CRM, uma a uma e em lote (findByCrmIn)
+                @Index(name = "idx_medico_crm", columnList = "crm")
+        })
 public class Medico {
 
-    @Id @GeneratedValue(strategy = GenerationType.AUTO)
+    @Id @IdOrdenadoPorTempo
     private UUID id;
 
     @Column(nullable = false, length = 200)
@@ -14,11 +14,17 @@ import java.util.UUID;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "pacientes")
+@Table(name = "pacientes",
+        indexes = {
+                // ordem da listagem paginada
+                @Index(name = "idx_paciente_name_id", columnList = "name, id"),
+                // busca por CPF, uma a uma e em lote (findByCpfIn)
+                @Index(name = "idx_paciente_cpf", columnList = "cpf")
+        })
 public class Paciente {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @IdOrdenadoPorTempo
     private UUID id;
 
     @Column(nullable = false, length = 200)
@@ -0,0 +1,51 @@
+package com.vv.qxdconsulta.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// vaga segurada para um paciente durante a confirmação do agendamento. A vaga já foi ocupada no horário
+// (conta na capacidade), então confirmar só cria a consulta. Vencida, a vaga volta para o horário.
+// As reservas são apagadas pelo banco junto com o horário ou com o paciente (remoções em massa).
+@Getter @Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "reservas_de_vaga",
+        // reservas do paciente, devolvidas quando ele é removido
+        indexes = @Index(name = "idx_reserva_paciente", columnList = "paciente_id"),
+        // uma reserva por paciente em cada horário: duas reservas concorrentes do mesmo paciente não passam as duas
+        uniqueConstraints = @UniqueConstraint(name = "uk_reserva_horario_paciente", columnNames = {"horario_id", "paciente_id"}))
+public class ReservaDeVaga {
+
+    @Id
+    @IdOrdenadoPorTempo
+    private UUID id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "horario_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private HorarioDisponivel horarioDisponivel;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "paciente_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Paciente paciente;
+
+    @Column(nullable = false, length = 50)
+    private String tipoConsulta;
+    @Column(nullable = false)
+    private LocalDateTime expiraEm;
+
+    public ReservaDeVaga(HorarioDisponivel horarioDisponivel, Paciente paciente, String tipoConsulta, LocalDateTime expiraEm) {
+        this.horarioDisponivel = horarioDisponivel;
+        this.paciente = paciente;
+        this.tipoConsulta = tipoConsulta;
+        this.expiraEm = expiraEm;
+    }
+}
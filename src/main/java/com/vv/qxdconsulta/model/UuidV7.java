@@ -0,0 +1,33 @@
+package com.vv.qxdconsulta.model;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// UUID versão 7 (RFC 9562): os 48 bits mais altos são o instante em milissegundos, então ids novos ficam
+// no fim do índice da chave primária em vez de espalhados pela árvore como os UUID aleatórios (versão 4).
+// Os 12 bits seguintes são um contador: ids gerados no mesmo milissegundo continuam em ordem crescente.
+// Com mais de 4096 ids no mesmo milissegundo o contador avança para o próximo, sem repetir nem voltar.
+public final class UuidV7 {
+
+    // instante em milissegundos << 12 | contador, do último id gerado
+    private static final AtomicLong ultimo = new AtomicLong();
+
+    private UuidV7() {
+    }
+
+    public static UUID gerar() {
+        long agora = System.currentTimeMillis() << 12;
+        long atual = ultimo.updateAndGet(anterior -> Math.max(agora, anterior + 1));
+        // 48 bits de tempo, versão 7 e os 12 bits do contador
+        long maisSignificativos = (atual >>> 12) << 16 | 0x7000L | (atual & 0xFFFL);
+        // variante 10 e 62 bits aleatórios
+        long menosSignificativos = ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+        return new UUID(maisSignificativos, menosSignificativos);
+    }
+
+    // instante em que o id foi gerado, em milissegundos
+    public static long instante(UUID id) {
+        return id.getMostSignificantBits() >>> 16;
+    }
+}
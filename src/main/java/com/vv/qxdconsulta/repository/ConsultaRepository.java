@@ -1,18 +1,108 @@
 package com.vv.qxdconsulta.repository;
 
+import com.vv.qxdconsulta.dto.ConsultaResposta;
+import com.vv.qxdconsulta.dto.HorarioDoPaciente;
+import com.vv.qxdconsulta.dto.ItemDaAgenda;
+import com.vv.qxdconsulta.dto.ItemDoHistorico;
+import com.vv.qxdconsulta.dto.LinhaDeExportacao;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.Medico;
 import com.vv.qxdconsulta.model.Paciente;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface ConsultaRepository extends JpaRepository<Consulta, UUID> {
 
+    // sem o entity graph cada consulta buscava o seu horário em outro select (N+1, visto no OrcamentoDeSqlTest)
+    @EntityGraph(attributePaths = {"paciente", "medico", "horarioDisponivel"})
     List<Consulta> findByMedico(Medico medico);
+    @EntityGraph(attributePaths = {"paciente", "medico", "horarioDisponivel"})
     List<Consulta> findByPaciente(Paciente paciente);
+    @EntityGraph(attributePaths = {"paciente", "medico", "horarioDisponivel"})
     List<Consulta> findByDataHoraBetween(LocalDateTime dataInicio, LocalDateTime dataFim);
 
+    // remarcação e cancelamento mexem no horário, no médico e no paciente da consulta
+    @Override
+    @EntityGraph(attributePaths = {"paciente", "medico", "horarioDisponivel"})
+    Optional<Consulta> findById(UUID id);
+
+    // conflito de horário do paciente: uma busca no índice único (paciente_id, data_hora),
+    // o custo não depende de quantas consultas o paciente já teve
+    boolean existsByPacienteIdAndDataHora(UUID pacienteId, LocalDateTime dataHora);
+
+    // a remoção do médico sem consultas pergunta só se existe alguma, pelo índice (medico_id, data_hora)
+    boolean existsByMedicoId(UUID medicoId);
+
+    // na remarcação a própria consulta não conta como conflito
+    boolean existsByPacienteIdAndDataHoraAndIdNot(UUID pacienteId, LocalDateTime dataHora, UUID consultaId);
+
+    // conflitos do agendamento em lote numa consulta só, entre os pacientes e horários dos pedidos
+    @Query("select new com.vv.qxdconsulta.dto.HorarioDoPaciente(c.paciente.id, c.dataHora) from Consulta c " +
+            "where c.paciente.id in :pacienteIds and c.dataHora in :horarios")
+    List<HorarioDoPaciente> buscarHorariosOcupados(@Param("pacienteIds") Collection<UUID> pacienteIds,
+                                                   @Param("horarios") Collection<LocalDateTime> horarios);
+
+    // as duas consultas abaixo usam o índice (medico_id, data_hora), o custo depende só do dia pedido
+    // traz paciente, médico e horário no mesmo select, senão cada consulta faz um select por associação
+    @EntityGraph(attributePaths = {"paciente", "medico", "horarioDisponivel"})
+    List<Consulta> findByMedicoIdAndDataHoraBetweenOrderByDataHora(UUID medicoId, LocalDateTime dataInicio, LocalDateTime dataFim);
+
+    @Query("select new com.vv.qxdconsulta.dto.ItemDaAgenda(c.id, c.dataHora, c.tipoConsulta, p.name, p.cpf, p.contato) " +
+            "from Consulta c join c.paciente p " +
+            "where c.medico.id = :medicoId and c.dataHora between :dataInicio and :dataFim " +
+            "order by c.dataHora")
+    List<ItemDaAgenda> buscarAgendaDoMedico(@Param("medicoId") UUID medicoId,
+                                            @Param("dataInicio") LocalDateTime dataInicio,
+                                            @Param("dataFim") LocalDateTime dataFim);
+
+    // listagens da API e histórico do paciente: projeções com as colunas da resposta, um select cada
+    @Query("select new com.vv.qxdconsulta.dto.ConsultaResposta(c.id, c.dataHora, c.tipoConsulta, m.crm, p.cpf) " +
+            "from Consulta c join c.medico m join c.paciente p where m.id = :medicoId order by c.dataHora")
+    List<ConsultaResposta> listarConsultasDoMedico(@Param("medicoId") UUID medicoId);
+
+    @Query("select new com.vv.qxdconsulta.dto.ConsultaResposta(c.id, c.dataHora, c.tipoConsulta, m.crm, p.cpf) " +
+            "from Consulta c join c.medico m join c.paciente p where p.id = :pacienteId order by c.dataHora")
+    List<ConsultaResposta> listarConsultasDoPaciente(@Param("pacienteId") UUID pacienteId);
+
+    @Query("select new com.vv.qxdconsulta.dto.ItemDoHistorico(c.id, c.dataHora, c.tipoConsulta, m.crm, m.nome, m.especialização) " +
+            "from Consulta c join c.medico m where c.paciente.id = :pacienteId order by c.dataHora desc")
+    List<ItemDoHistorico> buscarHistoricoDoPaciente(@Param("pacienteId") UUID pacienteId);
+
+    // exportação: o resultado é lido por cursor em blocos de fetchSize, sem montar a lista inteira.
+    // A projeção não cria entidades, então o contexto de persistência não cresce com o número de linhas.
+    // Precisa ser consumido dentro de uma transação e fechado no final (try-with-resources).
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select new com.vv.qxdconsulta.dto.LinhaDeExportacao(c.id, c.dataHora, c.tipoConsulta, " +
+            "m.crm, m.nome, m.especialização, p.cpf, p.name) " +
+            "from Consulta c join c.medico m join c.paciente p " +
+            "where c.dataHora between :dataInicio and :dataFim " +
+            "order by c.dataHora, c.id")
+    Stream<LinhaDeExportacao> exportarPorPeriodo(@Param("dataInicio") LocalDateTime dataInicio,
+                                                 @Param("dataFim") LocalDateTime dataFim);
+
+    // remoção em massa: um delete só, sem carregar as consultas
+    @Modifying
+    @Query("delete from Consulta c where c.medico.id = :medicoId")
+    int removerConsultasDoMedico(@Param("medicoId") UUID medicoId);
+
+    @Modifying
+    @Query("delete from Consulta c where c.paciente.id = :pacienteId")
+    int removerConsultasDoPaciente(@Param("pacienteId") UUID pacienteId);
+
 }
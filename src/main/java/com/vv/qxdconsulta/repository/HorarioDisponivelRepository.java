@@ -1,15 +1,133 @@
 package com.vv.qxdconsulta.repository;
 
+import com.vv.qxdconsulta.dto.HorarioResposta;
+import com.vv.qxdconsulta.dto.VagasPorHorario;
+import com.vv.qxdconsulta.dto.VersaoDaListagem;
+import com.vv.qxdconsulta.dto.VersaoDoDia;
 import com.vv.qxdconsulta.model.HorarioDisponivel;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface HorarioDisponivelRepository extends JpaRepository<HorarioDisponivel, UUID> {
 
+    // o mesmo que HorarioDisponivel.marcarAlteracao faz nas alterações pela entidade
+    String VERSAO_NOVA = "h.versao = h.versao + 1, h.alteradoEm = local datetime ";
+
+    // horários de vários médicos: o médico vem no mesmo select
+    @EntityGraph(attributePaths = "medico")
     List<HorarioDisponivel> findByHorarioBetween(LocalDateTime dataComeco, LocalDateTime dataFinal);
+
+    // alteração e remoção de um horário devolvem o horário com o CRM do médico
+    @Override
+    @EntityGraph(attributePaths = "medico")
+    Optional<HorarioDisponivel> findById(UUID id);
+
+    // usa o índice único (medico_id, horario), não precisa percorrer os horários do médico
+    List<HorarioDisponivel> findByMedicoIdOrderByHorario(UUID medicoId);
+    // o médico vem no mesmo select: a consulta, a espera e a reserva criadas no horário usam esta entidade
+    @EntityGraph(attributePaths = "medico")
+    Optional<HorarioDisponivel> findByMedicoIdAndHorario(UUID medicoId, LocalDateTime horario);
+    List<HorarioDisponivel> findByIdIn(Collection<UUID> ids);
+
+    // listagens da API: só as colunas da resposta em um select, sem criar entidades nem tocar nas consultas
+    @Query("select new com.vv.qxdconsulta.dto.HorarioResposta(h.id, m.crm, h.horario, h.capacidadeMaxima, h.capacidadeMaxima - h.vagasOcupadas) " +
+            "from HorarioDisponivel h join h.medico m where m.id = :medicoId order by h.horario")
+    List<HorarioResposta> listarHorariosDoMedico(@Param("medicoId") UUID medicoId);
+
+    @Query("select new com.vv.qxdconsulta.dto.HorarioResposta(h.id, m.crm, h.horario, h.capacidadeMaxima, h.capacidadeMaxima - h.vagasOcupadas) " +
+            "from HorarioDisponivel h join h.medico m where h.horario between :dataComeco and :dataFinal order by h.horario, m.crm")
+    List<HorarioResposta> listarHorariosEntre(@Param("dataComeco") LocalDateTime dataComeco, @Param("dataFinal") LocalDateTime dataFinal);
+
+    // versões das listagens acima, calculadas no banco para todas as instâncias responderem o mesmo ETag.
+    // Um select de agregação sobre as mesmas linhas, sem trazer os horários: a do médico usa o índice
+    // da uk_horario_medico_horario e a do dia o idx_horario_horario (ver HorarioDisponivel)
+    @Query("select new com.vv.qxdconsulta.dto.VersaoDaListagem(count(h), coalesce(sum(h.versao), 0), max(h.alteradoEm)) " +
+            "from HorarioDisponivel h where h.medico.id = :medicoId")
+    VersaoDaListagem versaoDosHorariosDoMedico(@Param("medicoId") UUID medicoId);
+
+    @Query("select new com.vv.qxdconsulta.dto.VersaoDaListagem(count(h), coalesce(sum(h.versao), 0), max(h.alteradoEm)) " +
+            "from HorarioDisponivel h where h.horario between :dataComeco and :dataFinal")
+    VersaoDaListagem versaoDosHorariosEntre(@Param("dataComeco") LocalDateTime dataComeco, @Param("dataFinal") LocalDateTime dataFinal);
+
+    // ocupa uma vaga somente se ainda houver capacidade, retorna 0 quando o horário está lotado.
+    // As updates de vagas também mudam a versão da linha, que entra no ETag das listagens
+    @Modifying
+    @Query("update HorarioDisponivel h set h.vagasOcupadas = h.vagasOcupadas + 1, " + VERSAO_NOVA +
+            "where h.id = :id and h.vagasOcupadas < h.capacidadeMaxima")
+    int reservarVaga(@Param("id") UUID id);
+
+    // ocupa várias vagas de uma vez, só altera se todas couberem
+    @Modifying
+    @Query("update HorarioDisponivel h set h.vagasOcupadas = h.vagasOcupadas + :quantidade, " + VERSAO_NOVA +
+            "where h.id = :id and h.vagasOcupadas + :quantidade <= h.capacidadeMaxima")
+    int reservarVagas(@Param("id") UUID id, @Param("quantidade") int quantidade);
+
+    @Modifying
+    @Query("update HorarioDisponivel h set h.vagasOcupadas = h.vagasOcupadas - 1, " + VERSAO_NOVA +
+            "where h.id = :id and h.vagasOcupadas > 0")
+    int liberarVaga(@Param("id") UUID id);
+
+    // usados nos gauges de vagas abertas
+    @Query("select count(h) from HorarioDisponivel h where h.horario > :agora and h.vagasOcupadas < h.capacidadeMaxima")
+    long contarHorariosAbertos(@Param("agora") LocalDateTime agora);
+
+    @Query("select coalesce(sum(h.capacidadeMaxima - h.vagasOcupadas), 0) from HorarioDisponivel h where h.horario > :agora")
+    long contarVagasLivres(@Param("agora") LocalDateTime agora);
+
+    // devolve de uma vez as vagas de todas as consultas do paciente, usado antes de apagar as consultas dele
+    @Modifying
+    @Query("update HorarioDisponivel h set h.vagasOcupadas = h.vagasOcupadas - " +
+            "(select count(c) from Consulta c where c.horarioDisponivel = h and c.paciente.id = :pacienteId), " + VERSAO_NOVA +
+            "where h.id in (select c.horarioDisponivel.id from Consulta c where c.paciente.id = :pacienteId)")
+    int liberarVagasDoPaciente(@Param("pacienteId") UUID pacienteId);
+
+    // vagas livres de todos os horários, para a carga do índice de disponibilidade
+    @Query("select new com.vv.qxdconsulta.dto.VagasPorHorario(h.medico.id, h.horario, cast(h.capacidadeMaxima - h.vagasOcupadas as long)) " +
+            "from HorarioDisponivel h")
+    Stream<VagasPorHorario> listarVagasLivres();
+
+    // vagas livres dos horários de um dia, para a ressincronização reler só os dias que mudaram
+    @Query("select new com.vv.qxdconsulta.dto.VagasPorHorario(h.medico.id, h.horario, cast(h.capacidadeMaxima - h.vagasOcupadas as long)) " +
+            "from HorarioDisponivel h where h.horario between :dataComeco and :dataFinal")
+    List<VagasPorHorario> listarVagasLivresEntre(@Param("dataComeco") LocalDateTime dataComeco, @Param("dataFinal") LocalDateTime dataFinal);
+
+    // versão de cada dia com horários a partir de uma data, um select de agregação pelo índice em horario
+    @Query("select new com.vv.qxdconsulta.dto.VersaoDoDia(cast(h.horario as LocalDate), count(h), coalesce(sum(h.versao), 0), max(h.alteradoEm)) " +
+            "from HorarioDisponivel h where h.horario >= :inicio group by cast(h.horario as LocalDate)")
+    List<VersaoDoDia> versoesDosDiasAPartirDe(@Param("inicio") LocalDateTime inicio);
+
+    // horários que os médicos já têm no período, para a geração de agenda não repetir
+    @Query("select new com.vv.qxdconsulta.dto.VagasPorHorario(h.medico.id, h.horario, cast(h.capacidadeMaxima - h.vagasOcupadas as long)) " +
+            "from HorarioDisponivel h where h.medico.id in :medicoIds and h.horario between :inicio and :fim")
+    List<VagasPorHorario> listarHorariosDosMedicosNoPeriodo(@Param("medicoIds") Collection<UUID> medicoIds,
+                                                            @Param("inicio") LocalDateTime inicio,
+                                                            @Param("fim") LocalDateTime fim);
+
+    // quantas vagas o paciente ocupa em cada horário, lido antes de liberarVagasDoPaciente
+    @Query("select new com.vv.qxdconsulta.dto.VagasPorHorario(h.medico.id, h.horario, count(c)) " +
+            "from HorarioDisponivel h join h.consultasAgendadas c where c.paciente.id = :pacienteId " +
+            "group by h.medico.id, h.horario")
+    List<VagasPorHorario> contarVagasDoPaciente(@Param("pacienteId") UUID pacienteId);
+
+    // horários das consultas do paciente, lidos antes de apagá-las para passar as vagas pela lista de espera
+    @Query("select h from HorarioDisponivel h join fetch h.medico where h.id in " +
+            "(select c.horarioDisponivel.id from Consulta c where c.paciente.id = :pacienteId)")
+    List<HorarioDisponivel> listarHorariosDoPaciente(@Param("pacienteId") UUID pacienteId);
+
+    // as consultas do médico precisam ter sido apagadas antes
+    @Modifying
+    @Query("delete from HorarioDisponivel h where h.medico.id = :medicoId")
+    int removerHorariosDoMedico(@Param("medicoId") UUID medicoId);
 }
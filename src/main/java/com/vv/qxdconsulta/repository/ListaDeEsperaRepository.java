@@ -0,0 +1,55 @@
+package com.vv.qxdconsulta.repository;
+
+import com.vv.qxdconsulta.model.EsperaPorVaga;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ListaDeEsperaRepository extends JpaRepository<EsperaPorVaga, UUID> {
+
+    // começo da fila de um horário, na ordem de chegada (idx_espera_horario_entrou_em)
+    @EntityGraph(attributePaths = "paciente")
+    List<EsperaPorVaga> findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(UUID horarioId);
+
+    // próxima página da fila, depois do último pedido da página anterior (mesma ordem e mesmo índice)
+    @EntityGraph(attributePaths = "paciente")
+    @Query("select e from EsperaPorVaga e where e.horarioDisponivel.id = :horarioId and e.promovidaEm is null " +
+            "and (e.entrouEm > :entrouEm or (e.entrouEm = :entrouEm and e.id > :id)) order by e.entrouEm, e.id")
+    List<EsperaPorVaga> buscarFilaApos(@Param("horarioId") UUID horarioId, @Param("entrouEm") LocalDateTime entrouEm,
+                                       @Param("id") UUID id, Limit limite);
+
+    // a situação do pedido mostra o horário e o CRM do médico
+    @Override
+    @EntityGraph(attributePaths = {"horarioDisponivel", "horarioDisponivel.medico"})
+    Optional<EsperaPorVaga> findById(UUID id);
+
+    boolean existsByHorarioDisponivelIdAndPacienteIdAndPromovidaEmIsNull(UUID horarioId, UUID pacienteId);
+
+    // quantos pedidos chegaram antes, para a posição na fila
+    @Query("select count(e) from EsperaPorVaga e where e.horarioDisponivel.id = :horarioId and e.promovidaEm is null " +
+            "and (e.entrouEm < :entrouEm or (e.entrouEm = :entrouEm and e.id < :id))")
+    long contarNaFrente(@Param("horarioId") UUID horarioId, @Param("entrouEm") LocalDateTime entrouEm, @Param("id") UUID id);
+
+    // marca o pedido como promovido somente se ninguém promoveu antes, retorna 0 quando outra transação pegou o pedido
+    @Modifying
+    @Query("update EsperaPorVaga e set e.promovidaEm = :agora where e.id = :id and e.promovidaEm is null")
+    int promover(@Param("id") UUID id, @Param("agora") LocalDateTime agora);
+
+    @Modifying
+    @Query("delete from EsperaPorVaga e where e.id = :id and e.promovidaEm is null")
+    int removerAguardando(@Param("id") UUID id);
+
+    @Modifying
+    @Query("delete from EsperaPorVaga e where e.paciente.id = :pacienteId")
+    int removerDoPaciente(@Param("pacienteId") UUID pacienteId);
+}
@@ -1,19 +1,57 @@
 package com.vv.qxdconsulta.repository;
 
+import com.vv.qxdconsulta.dto.NomeIndexado;
 import com.vv.qxdconsulta.model.Medico;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface MedicoRepository extends JpaRepository<Medico, UUID> {
 
     Optional<Medico> findByCrm(String crm);
     Optional<Medico> findByCpf(String cpf);
+    // o atributo tem acento, então a consulta não pode ser derivada do nome do método
+    @Query("select m from Medico m where m.especialização = ?1")
     List<Medico> findByEspecializacao(String especializacao);
     List<Medico> findByNomeContainingIgnoreCase(String nome);
+    List<Medico> findByCrmIn(Collection<String> crms);
+    // só os ids, saem do índice (especialização, nome, id) sem ler a tabela
+    @Query("select m.id from Medico m where m.especialização = :especializacao")
+    List<UUID> listarIdsPorEspecializacao(@Param("especializacao") String especializacao);
 
+    // paginação por chave (nome, id): a página seguinte começa depois do último item entregue,
+    // o banco vai direto para essa posição pelo índice, sem offset. Especialização nula lista todos.
+    @Query("select m from Medico m where (:especializacao is null or m.especialização = :especializacao) " +
+            "order by m.nome, m.id")
+    List<Medico> buscarPrimeiraPagina(@Param("especializacao") String especializacao, Limit limite);
+
+    // nome >= :nome deixa o índice posicionar no começo, o resto desempata pelo id
+    @Query("select m from Medico m where (:especializacao is null or m.especialização = :especializacao) " +
+            "and m.nome >= :nome and (m.nome > :nome or m.id > :id) " +
+            "order by m.nome, m.id")
+    List<Medico> buscarPaginaApos(@Param("especializacao") String especializacao, @Param("nome") String nome,
+                                  @Param("id") UUID id, Limit limite);
+
+    // só o CRM, para a remoção tirar o médico do cache sem carregar a entidade
+    @Query("select m.crm from Medico m where m.id = :id")
+    Optional<String> buscarCrm(@Param("id") UUID id);
+
+    // apaga sem carregar o médico e limpa o contexto, que pode ter ficado com horários e consultas já apagados
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Medico m where m.id = :id")
+    int removerPorId(@Param("id") UUID id);
+
+    // carga do índice de busca por nome
+    @Query("select new com.vv.qxdconsulta.dto.NomeIndexado(m.id, m.nome) from Medico m")
+    Stream<NomeIndexado> listarNomes();
 }
@@ -1,12 +1,19 @@
 package com.vv.qxdconsulta.repository;
 
+import com.vv.qxdconsulta.dto.NomeIndexado;
 import com.vv.qxdconsulta.model.Paciente;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface PacienteRepository extends JpaRepository<Paciente, UUID> {
@@ -14,4 +21,26 @@ public interface PacienteRepository extends JpaRepository<Paciente, UUID> {
     Optional<Paciente> findByCpf(String cpf);
     Optional<Paciente> findByEmail(String email);
     List<Paciente> findByNameContainingIgnoreCase(String nome);
+    List<Paciente> findByCpfIn(Collection<String> cpfs);
+
+    // paginação por chave (name, id), igual à de médicos
+    @Query("select p from Paciente p order by p.name, p.id")
+    List<Paciente> buscarPrimeiraPagina(Limit limite);
+
+    @Query("select p from Paciente p where p.name >= :nome and (p.name > :nome or p.id > :id) " +
+            "order by p.name, p.id")
+    List<Paciente> buscarPaginaApos(@Param("nome") String nome, @Param("id") UUID id, Limit limite);
+
+    // só o CPF, para a remoção tirar o paciente do cache sem carregar a entidade
+    @Query("select p.cpf from Paciente p where p.id = :id")
+    Optional<String> buscarCpf(@Param("id") UUID id);
+
+    // apaga sem carregar o paciente e limpa o contexto, que pode ter ficado com consultas já apagadas
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Paciente p where p.id = :id")
+    int removerPorId(@Param("id") UUID id);
+
+    // carga do índice de busca por nome
+    @Query("select new com.vv.qxdconsulta.dto.NomeIndexado(p.id, p.name) from Paciente p")
+    Stream<NomeIndexado> listarNomes();
 }
@@ -0,0 +1,58 @@
+package com.vv.qxdconsulta.repository;
+
+import com.vv.qxdconsulta.dto.VencimentoDeReserva;
+import com.vv.qxdconsulta.model.ReservaDeVaga;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ReservaDeVagaRepository extends JpaRepository<ReservaDeVaga, UUID> {
+
+    // a confirmação cria a consulta com o horário, o médico dele e o paciente da reserva
+    @Override
+    @EntityGraph(attributePaths = {"horarioDisponivel", "horarioDisponivel.medico", "paciente"})
+    Optional<ReservaDeVaga> findById(UUID id);
+
+    // a vaga devolvida pode virar consulta de quem está na lista de espera, que precisa do médico do horário
+    @EntityGraph(attributePaths = {"horarioDisponivel", "horarioDisponivel.medico"})
+    List<ReservaDeVaga> findByPacienteId(UUID pacienteId);
+
+    // reserva do paciente no horário, usa o índice único (horario_id, paciente_id)
+    Optional<ReservaDeVaga> findByHorarioDisponivelIdAndPacienteId(UUID horarioId, UUID pacienteId);
+
+    // vencimentos das reservas guardadas, lidos só quando a aplicação sobe
+    @Query("select new com.vv.qxdconsulta.dto.VencimentoDeReserva(r.id, r.expiraEm) from ReservaDeVaga r")
+    List<VencimentoDeReserva> listarVencimentos();
+
+    // confirmação, expiração e cancelamento apagam a reserva com um delete condicional: só um deles
+    // consegue apagar, os outros recebem 0 e não mexem na vaga
+    @Modifying
+    @Query("delete from ReservaDeVaga r where r.id = :id and r.expiraEm > :agora")
+    int removerAtiva(@Param("id") UUID id, @Param("agora") LocalDateTime agora);
+
+    @Modifying
+    @Query("delete from ReservaDeVaga r where r.id = :id and r.expiraEm <= :agora")
+    int removerVencida(@Param("id") UUID id, @Param("agora") LocalDateTime agora);
+
+    // todas as vencidas de um horário, para quando o horário lotado é conferido antes da fila de vencimentos
+    @Modifying
+    @Query("delete from ReservaDeVaga r where r.horarioDisponivel.id = :horarioId and r.expiraEm <= :agora")
+    int removerVencidasDoHorario(@Param("horarioId") UUID horarioId, @Param("agora") LocalDateTime agora);
+
+    @Modifying
+    @Query("delete from ReservaDeVaga r where r.id = :id")
+    int remover(@Param("id") UUID id);
+
+    @Modifying
+    @Query("delete from ReservaDeVaga r where r.paciente.id = :pacienteId")
+    int removerDoPaciente(@Param("pacienteId") UUID pacienteId);
+}
@@ -0,0 +1,72 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.PromocaoDaListaDeEspera;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// avisa o paciente promovido da lista de espera: cada PromocaoDaListaDeEspera vira um POST em JSON para o webhook
+// de qxdconsulta.lista-de-espera.webhook (o serviço de notificações manda o e-mail ou o push). O evento chega depois
+// do commit, na instância que fez a promoção, e o POST roda numa thread própria para não segurar o cancelamento
+// que liberou a vaga. Sem webhook configurado os avisos são só descartados; falhas ficam no log e na métrica.
+@Component
+public class AvisoDePromocao {
+
+    private static final Logger log = LoggerFactory.getLogger(AvisoDePromocao.class);
+
+    @Value("${qxdconsulta.lista-de-espera.webhook:}")
+    String webhook = "";
+    @Value("${qxdconsulta.lista-de-espera.webhook-timeout:5s}")
+    Duration timeout = Duration.ofSeconds(5);
+    @Autowired
+    RestClient.Builder builder;
+
+    private RestClient cliente;
+    private final ExecutorService envios = Executors.newSingleThreadExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "aviso-de-promocao");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void iniciar() {
+        SimpleClientHttpRequestFactory requisicoes = new SimpleClientHttpRequestFactory();
+        requisicoes.setConnectTimeout(timeout);
+        requisicoes.setReadTimeout(timeout);
+        cliente = builder.requestFactory(requisicoes).build();
+    }
+
+    @EventListener
+    public void promovido(PromocaoDaListaDeEspera promocao) {
+        if (webhook.isBlank()) {
+            return;
+        }
+        envios.execute(() -> enviar(promocao));
+    }
+
+    private void enviar(PromocaoDaListaDeEspera promocao) {
+        try {
+            cliente.post().uri(webhook).body(promocao).retrieve().toBodilessEntity();
+            Metricas.aviso(Metricas.AVISO_ENVIADO);
+        } catch (RuntimeException e) {
+            log.error("Falha ao avisar a promoção do pedido {} da lista de espera", promocao.esperaId(), e);
+            Metricas.aviso(Metricas.AVISO_FALHOU);
+        }
+    }
+
+    @PreDestroy
+    public void parar() {
+        envios.shutdown();
+    }
+}
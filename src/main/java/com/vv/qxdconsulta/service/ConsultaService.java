@@ -1,21 +1,62 @@
 package com.vv.qxdconsulta.service;
 
+import com.vv.qxdconsulta.dto.ConsultaResposta;
+import com.vv.qxdconsulta.dto.HorarioDoPaciente;
+import com.vv.qxdconsulta.dto.ItemDaAgenda;
+import com.vv.qxdconsulta.dto.ItemDoHistorico;
+import com.vv.qxdconsulta.dto.LinhaDeExportacao;
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.PacienteEmCache;
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.ResultadoDeAgendamento;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.HorarioDisponivel;
 import com.vv.qxdconsulta.model.Medico;
 import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.model.UuidV7;
 import com.vv.qxdconsulta.repository.ConsultaRepository;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@Timed(value = "qxdconsulta.servico", histogram = true, percentiles = {0.5, 0.95, 0.99})
 public class ConsultaService {
 
+    static final String PACIENTE_OCUPADO = "O paciente já tem uma consulta neste horário.";
+    private static final String INSERIR_CONSULTA =
+            "insert into consultas (id, data_hora, tipo_consulta, paciente_id, medico_id, horario_id) values (?, ?, ?, ?, ?, ?)";
+
     @Autowired
     MedicoService medicoService;
     @Autowired
@@ -24,21 +65,34 @@ public class ConsultaService {
     HorarioDisponivelService horarioDisponivelService;
     @Autowired
     ConsultaRepository consultaRepository;
+    @Autowired
+    ListaDeEsperaService listaDeEsperaService;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
 
     // agendarConsula ALTERAR
+    @Transactional
     public Consulta agendarConsulta(String crmMedico, String cpfPaciente, LocalDateTime dataHora, String tipoConsulta){
 
-        Medico medico = medicoService.buscarMedicoPorCrm(crmMedico);
-        Paciente paciente = pacienteService.buscarPacientePorCpf(cpfPaciente);
+        MedicoEmCache medico = medicoService.buscarMedicoEmCache(crmMedico);
+        PacienteEmCache dadosDoPaciente = pacienteService.buscarPacienteEmCache(cpfPaciente);
+        // antes de reservar a vaga, assim o pedido recusado não ocupa vaga nenhuma
+        verificarHorarioDoPaciente(consultaRepository.existsByPacienteIdAndDataHora(dadosDoPaciente.id(), dataHora));
 
         // metodo para ver se tem horario disponível
-        HorarioDisponivel horarioDisponivel = horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), dataHora);
+        HorarioDisponivel horarioDisponivel = horarioDisponivelService.buscarHorarioPorMedico(medico.crm(), dataHora);
 
         // verifico se posso agendar por conta da capacidade
         horarioDisponivelService.verificarDisponibilidadeDeConsulta(horarioDisponivel);
+        // ocupa a vaga no banco, se outro agendamento pegou a última vaga aqui lança exceção
+        horarioDisponivelService.reservarVaga(horarioDisponivel);
 
 //         criar a consulta
-        Consulta novaConsulta = new Consulta(UUID.randomUUID(), dataHora, tipoConsulta, paciente, medico, horarioDisponivel);
+        // médico e paciente são entidades desta transação: o médico veio junto com o horário e o paciente
+        // é lido pela chave primária, o que está no cache não é associado à consulta
+        Paciente paciente = pacienteService.buscarPacientePorId(dadosDoPaciente.id());
+        // o id fica nulo para o hibernate gerar, com id preenchido ele trata a consulta como destacada
+        Consulta novaConsulta = new Consulta(null, dataHora, tipoConsulta, paciente, horarioDisponivel.getMedico(), horarioDisponivel);
 
         // salvar as mudanças do médico e paciente (consultas no perfis deles) no banco de dados
 
@@ -48,6 +102,166 @@ public class ConsultaService {
         return novaConsulta;
     }
 
+    // agenda vários pedidos em uma transação só. Médicos, pacientes e horários são buscados de uma vez,
+    // as vagas de todos os horários são reservadas num batch JDBC e as consultas são inseridas em outro.
+    // Cada pedido recebe um resultado, um pedido rejeitado não cancela os outros.
+    @Transactional
+    public List<ResultadoDeAgendamento> agendarConsultasEmLote(List<PedidoDeAgendamento> pedidos){
+        Set<String> crms = new HashSet<>();
+        Set<String> cpfs = new HashSet<>();
+        Set<LocalDateTime> horarios = new HashSet<>();
+        for (PedidoDeAgendamento pedido : pedidos){
+            crms.add(pedido.crmMedico());
+            cpfs.add(pedido.cpfPaciente());
+            horarios.add(pedido.dataHora());
+        }
+
+        Map<String, Medico> medicos = medicoService.buscarMedicosPorCrms(crms);
+        Map<String, Paciente> pacientes = pacienteService.buscarPacientesPorCpfs(cpfs);
+        Map<UUID, Set<LocalDateTime>> horariosPedidos = new HashMap<>();
+        for (PedidoDeAgendamento pedido : pedidos){
+            Medico medico = medicos.get(pedido.crmMedico());
+            if (medico != null){
+                horariosPedidos.computeIfAbsent(medico.getId(), id -> new HashSet<>()).add(pedido.dataHora());
+            }
+        }
+        Map<UUID, Map<LocalDateTime, HorarioDisponivel>> horariosPorMedico = horarioDisponivelService.buscarHorariosDosMedicos(horariosPedidos);
+
+        // horários que os pacientes já têm ocupados; os pedidos aceitos entram no conjunto, então o mesmo
+        // paciente duas vezes no mesmo horário dentro do lote também é recusado (fica o primeiro pedido)
+        Set<HorarioDoPaciente> ocupados = pacientes.isEmpty() ? new HashSet<>() : new HashSet<>(consultaRepository.buscarHorariosOcupados(
+                pacientes.values().stream().map(Paciente::getId).toList(), horarios));
+
+        ResultadoDeAgendamento[] resultados = new ResultadoDeAgendamento[pedidos.size()];
+
+        // pedidos válidos agrupados pelo horário, na ordem em que chegaram
+        Map<HorarioDisponivel, List<Integer>> pedidosPorHorario = new LinkedHashMap<>();
+        for (int i = 0; i < pedidos.size(); i++){
+            PedidoDeAgendamento pedido = pedidos.get(i);
+            Medico medico = medicos.get(pedido.crmMedico());
+            if (medico == null){
+                resultados[i] = ResultadoDeAgendamento.rejeitado(pedido, "Médico não encontrado com o CRM: " + pedido.crmMedico());
+                Metricas.rejeicao(Metricas.MEDICO_INEXISTENTE);
+                continue;
+            }
+            Paciente paciente = pacientes.get(pedido.cpfPaciente());
+            if (paciente == null){
+                resultados[i] = ResultadoDeAgendamento.rejeitado(pedido, "Paciente não encontrado com o CPF: " + pedido.cpfPaciente());
+                Metricas.rejeicao(Metricas.PACIENTE_INEXISTENTE);
+                continue;
+            }
+            HorarioDisponivel horario = horariosPorMedico.getOrDefault(medico.getId(), Map.of()).get(pedido.dataHora());
+            if (horario == null){
+                resultados[i] = ResultadoDeAgendamento.rejeitado(pedido, "O médico não tem esse horário disponível");
+                Metricas.rejeicao(Metricas.HORARIO_INEXISTENTE);
+                continue;
+            }
+            if (!ocupados.add(new HorarioDoPaciente(paciente.getId(), pedido.dataHora()))){
+                resultados[i] = ResultadoDeAgendamento.rejeitado(pedido, PACIENTE_OCUPADO);
+                Metricas.rejeicao(Metricas.PACIENTE_OCUPADO);
+                continue;
+            }
+            pedidosPorHorario.computeIfAbsent(horario, h -> new ArrayList<>()).add(i);
+        }
+
+        // uma reserva por horário, todas num batch só; os primeiros pedidos ficam com as vagas que couberem
+        Map<HorarioDisponivel, Integer> quantidades = new HashMap<>();
+        pedidosPorHorario.forEach((horario, indices) -> quantidades.put(horario, indices.size()));
+        Map<HorarioDisponivel, Integer> vagasReservadas = horarioDisponivelService.reservarVagasEmLote(quantidades);
+
+        List<Consulta> novasConsultas = new ArrayList<>();
+        List<Integer> indicesDasConsultas = new ArrayList<>();
+        for (Map.Entry<HorarioDisponivel, List<Integer>> entrada : pedidosPorHorario.entrySet()){
+            HorarioDisponivel horario = entrada.getKey();
+            List<Integer> indices = entrada.getValue();
+            int reservadas = vagasReservadas.getOrDefault(horario, 0);
+
+            for (int j = 0; j < indices.size(); j++){
+                int i = indices.get(j);
+                PedidoDeAgendamento pedido = pedidos.get(i);
+                if (j >= reservadas){
+                    resultados[i] = ResultadoDeAgendamento.rejeitado(pedido, "Limite de consultas para este horário já atingido.");
+                    Metricas.rejeicao(Metricas.HORARIO_LOTADO);
+                    continue;
+                }
+                novasConsultas.add(new Consulta(UuidV7.gerar(), pedido.dataHora(), pedido.tipoConsulta(),
+                        pacientes.get(pedido.cpfPaciente()), medicos.get(pedido.crmMedico()), horario));
+                indicesDasConsultas.add(i);
+            }
+        }
+
+        // um agendarConsulta concorrente pode gravar o mesmo paciente no mesmo horário depois da conferência acima.
+        // O índice único recusa o batch, que volta ao savepoint; os pedidos que passaram a conflitar são recusados,
+        // devolvem a vaga, e o resto do lote tenta de novo
+        while (true){
+            try {
+                inserirConsultas(novasConsultas);
+                break;
+            } catch (DuplicateKeyException e){
+                if (!recusarConflitos(novasConsultas, indicesDasConsultas, pedidos, resultados)){
+                    throw e;
+                }
+            }
+        }
+
+        for (int k = 0; k < novasConsultas.size(); k++){
+            int i = indicesDasConsultas.get(k);
+            resultados[i] = ResultadoDeAgendamento.agendado(pedidos.get(i), novasConsultas.get(k).getId());
+        }
+        return Arrays.asList(resultados);
+    }
+
+    // um batch JDBC só, dentro de um savepoint: a falha desfaz os inserts sem desfazer as reservas de vaga do lote.
+    // Pelo hibernate a violação do índice no flush estragaria a sessão e levaria a transação inteira
+    private void inserirConsultas(List<Consulta> consultas){
+        if (consultas.isEmpty()){
+            return;
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) conexao -> {
+            Savepoint savepoint = conexao.setSavepoint();
+            try (PreparedStatement insert = conexao.prepareStatement(INSERIR_CONSULTA)){
+                for (Consulta consulta : consultas){
+                    insert.setObject(1, consulta.getId());
+                    insert.setTimestamp(2, Timestamp.valueOf(consulta.getDataHora()));
+                    insert.setString(3, consulta.getTipoConsulta());
+                    insert.setObject(4, consulta.getPaciente().getId());
+                    insert.setObject(5, consulta.getMedico().getId());
+                    insert.setObject(6, consulta.getHorarioDisponivel().getId());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            } catch (SQLException e){
+                conexao.rollback(savepoint);
+                throw e;
+            }
+            conexao.releaseSavepoint(savepoint);
+            return null;
+        });
+    }
+
+    // relê os horários ocupados dos pacientes do lote e tira do lote os pedidos que conflitam agora.
+    // Retorna false se nenhum conflita, aí o índice recusou por outro motivo
+    private boolean recusarConflitos(List<Consulta> consultas, List<Integer> indices, List<PedidoDeAgendamento> pedidos,
+                                     ResultadoDeAgendamento[] resultados){
+        Set<HorarioDoPaciente> ocupados = new HashSet<>(consultaRepository.buscarHorariosOcupados(
+                consultas.stream().map(consulta -> consulta.getPaciente().getId()).collect(Collectors.toSet()),
+                consultas.stream().map(Consulta::getDataHora).collect(Collectors.toSet())));
+        boolean recusou = false;
+        for (int k = consultas.size() - 1; k >= 0; k--){
+            Consulta consulta = consultas.get(k);
+            if (!ocupados.contains(new HorarioDoPaciente(consulta.getPaciente().getId(), consulta.getDataHora()))){
+                continue;
+            }
+            int i = indices.remove(k);
+            consultas.remove(k);
+            resultados[i] = ResultadoDeAgendamento.rejeitado(pedidos.get(i), PACIENTE_OCUPADO);
+            Metricas.rejeicao(Metricas.PACIENTE_OCUPADO);
+            horarioDisponivelService.liberarVaga(consulta.getHorarioDisponivel());
+            recusou = true;
+        }
+        return recusou;
+    }
+
     //buscar consulta por CRM de medico
     public List<Consulta> buscarConsultasPorMedico(String crm){
         Medico medico = medicoService.buscarMedicoPorCrm(crm);
@@ -60,45 +274,100 @@ public class ConsultaService {
         return consultaRepository.findByPaciente(paciente);
     }
 
+    // listagens da API em projeção, sem carregar as entidades
+    public List<ConsultaResposta> listarConsultasDoMedico(String crm){
+        return consultaRepository.listarConsultasDoMedico(medicoService.buscarMedicoEmCache(crm).id());
+    }
+
+    public List<ConsultaResposta> listarConsultasDoPaciente(String cpf){
+        return consultaRepository.listarConsultasDoPaciente(pacienteService.buscarPacienteEmCache(cpf).id());
+    }
+
+    // histórico do paciente, das consultas mais recentes para as mais antigas
+    public List<ItemDoHistorico> buscarHistoricoDoPaciente(String cpf){
+        return consultaRepository.buscarHistoricoDoPaciente(pacienteService.buscarPacienteEmCache(cpf).id());
+    }
+
     //buscar consulta por dia
     public List<Consulta> buscaConsultasPorData(UUID idMedico, LocalDateTime date) {
-        // busca o médico pelo ID
+        // busca o médico pelo ID, só para validar que ele existe
         Medico medico = medicoService.buscarMedicoPorId(idMedico);
 
-        // lista para guardar consultas do dia
-        List<Consulta> consultaList = new ArrayList<>();
+        // busca no banco só as consultas do dia, sem percorrer os horários do médico
+        LocalDate dia = date.toLocalDate();
+        return consultaRepository.findByMedicoIdAndDataHoraBetweenOrderByDataHora(medico.getId(), dia.atStartOfDay(), dia.atTime(LocalTime.MAX));
+    }
 
-        // percorre os horarios disponíveis do medico
-        for (HorarioDisponivel horario : medico.getHorarioDisponivel()){
-            // se o horario disponível é o que eu quero
-            if (horario.getHorario().toLocalDate().equals(date.toLocalDate())){
-                // adiciono todas as consulta que eu encontrei do dia x na lista
-                consultaList.addAll(horario.getConsultasAgendadas());
+    // agenda do dia para a recepção, retorna só os dados da consulta e do paciente
+    public List<ItemDaAgenda> buscarAgendaDoDia(UUID idMedico, LocalDate dia) {
+        Medico medico = medicoService.buscarMedicoPorId(idMedico);
+        return consultaRepository.buscarAgendaDoMedico(medico.getId(), dia.atStartOfDay(), dia.atTime(LocalTime.MAX));
+    }
+
+    // exporta as consultas do período em CSV para o faturamento, escrevendo linha a linha na saída.
+    // A memória usada não depende do tamanho do período. Retorna quantas consultas foram exportadas.
+    @Transactional(readOnly = true)
+    public long exportarConsultasCsv(LocalDateTime dataInicio, LocalDateTime dataFim, OutputStream saida) {
+        if (dataInicio == null || dataFim == null || dataFim.isBefore(dataInicio)) {
+            throw new IllegalArgumentException("Período inválido para exportação");
+        }
+
+        long total = 0;
+        // não fecha a saída, ela pertence a quem chamou
+        Writer writer = new BufferedWriter(new OutputStreamWriter(saida, StandardCharsets.UTF_8));
+        try (Stream<LinhaDeExportacao> linhas = consultaRepository.exportarPorPeriodo(dataInicio, dataFim)) {
+            writer.write("consulta_id,data_hora,tipo_consulta,crm_medico,nome_medico,especializacao,cpf_paciente,nome_paciente\n");
+            for (LinhaDeExportacao linha : (Iterable<LinhaDeExportacao>) linhas::iterator) {
+                writer.write(linha.consultaId() + "," + linha.dataHora() + "," + campoCsv(linha.tipoConsulta()) + ","
+                        + campoCsv(linha.crmMedico()) + "," + campoCsv(linha.nomeMedico()) + ","
+                        + campoCsv(linha.especializacao()) + "," + campoCsv(linha.cpfPaciente()) + ","
+                        + campoCsv(linha.nomePaciente()) + "\n");
+                total++;
             }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao escrever a exportação de consultas", e);
         }
+        return total;
+    }
 
-        //retorna lista de consultas
-        return consultaList;
+    // coloca entre aspas os campos com vírgula, aspas ou quebra de linha
+    private static String campoCsv(String valor) {
+        if (valor == null) {
+            return "";
+        }
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            return valor;
+        }
+        return '"' + valor.replace("\"", "\"\"") + '"';
     }
 
     //atualizar apenas o horario da consulta
+    @Transactional
     public Consulta alterarHorarioDaConsulta(UUID consultaId, LocalDateTime novoHorario){
         Consulta consulta = consultaRepository.findById(consultaId)
                 .orElseThrow(() -> new IllegalArgumentException("Consulta não encontrada"));
 
         HorarioDisponivel horarioAntigo = consulta.getHorarioDisponivel();
         Medico medico = consulta.getMedico();
+        verificarHorarioDoPaciente(consultaRepository.existsByPacienteIdAndDataHoraAndIdNot(
+                consulta.getPaciente().getId(), novoHorario, consulta.getId()));
 
         // Verificar se o médico tem o novo horário disponível
         HorarioDisponivel novoHorarioDisponivel = horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), novoHorario);
 
+        // verificando disponibilidade do nova consulta por conta da capacidade
+        horarioDisponivelService.verificarDisponibilidadeDeConsulta(novoHorarioDisponivel);
+        // reserva a vaga nova antes de liberar a antiga, se falhar a consulta continua no horário antigo
+        horarioDisponivelService.reservarVaga(novoHorarioDisponivel);
+        // libera antes de mexer nas listas: o update faz flush, e com a consulta fora da lista antiga
+        // o orphanRemoval apagaria a consulta
+        horarioDisponivelService.liberarVaga(horarioAntigo);
+
         // Remover a consulta do horário antigo
         horarioAntigo.getConsultasAgendadas().remove(consulta);
         horarioDisponivelService.salvarMudancaDeHorario(horarioAntigo);
 
-        // verificando disponibilidade do nova consulta por conta da capacidade
-        horarioDisponivelService.verificarDisponibilidadeDeConsulta(novoHorarioDisponivel);
-
         novoHorarioDisponivel.getConsultasAgendadas().add(consulta);
 
         //atualizar a consulta com o novo horário
@@ -106,9 +375,19 @@ public class ConsultaService {
         consulta.setDataHora(novoHorario);
         consultaRepository.save(consulta);
 
+        // a vaga do horário antigo vai para o primeiro da lista de espera
+        listaDeEsperaService.promover(horarioAntigo);
+
         return consulta;
     }
 
+    static void verificarHorarioDoPaciente(boolean ocupado){
+        if (ocupado){
+            Metricas.rejeicao(Metricas.PACIENTE_OCUPADO);
+            throw new IllegalArgumentException(PACIENTE_OCUPADO);
+        }
+    }
+
     // atualizar consulta
 //    public Consulta alterarDadosDaConsulta(UUID consultaId, String tipoDeConsulta){
 //
@@ -143,28 +422,44 @@ public class ConsultaService {
 //    }
 
     //remover consulta
+    @Transactional
     public void removerConsulta(UUID consultaId){
         // busca consulta pelo ID
         Consulta consulta = consultaRepository.findById(consultaId)
                 .orElseThrow(() -> new IllegalArgumentException("Consulta não encontrada"));
 
         //remover a consulta da lista de consultas no horario disponivel do medico
-        for (HorarioDisponivel horario: consulta.getMedico().getHorarioDisponivel()){
-            if (horario.getConsultasAgendadas().contains(consulta)){
-                horario.getConsultasAgendadas().remove(consulta);
-                break;
-            }
-        }
+        // (o horário já é o da consulta, percorrer os horários do médico carregava todos eles e as suas consultas)
+        consulta.getHorarioDisponivel().getConsultasAgendadas().remove(consulta);
+
+        horarioDisponivelService.liberarVaga(consulta.getHorarioDisponivel());
 
         //remove da lista de consultas do paciente
         Paciente paciente = consulta.getPaciente();
         paciente.getConsultas().remove(consulta);
 
-        //salva as alterações
-        medicoService.alterarMedico(consulta.getMedico().getId(), consulta.getMedico());
-        pacienteService.atualizarPaciente(consulta.getPaciente().getId(), consulta.getPaciente());
-
         consultaRepository.delete(consulta);
+
+        // a vaga liberada vai para o primeiro da lista de espera
+        listaDeEsperaService.promover(consulta.getHorarioDisponivel());
+    }
+
+    // remoção em massa usada ao apagar o médico: um delete só, os horários são apagados logo depois
+    @Transactional
+    public void removerConsultasDoMedico(UUID medicoId){
+        consultaRepository.removerConsultasDoMedico(medicoId);
+    }
+
+    // remoção em massa usada ao apagar o paciente: devolve as vagas com um update e apaga as consultas com um delete.
+    // Depois cada horário que ganhou vaga passa pela lista de espera, como no cancelamento
+    @Transactional
+    public void removerConsultasDoPaciente(UUID pacienteId){
+        List<HorarioDisponivel> horarios = horarioDisponivelService.buscarHorariosDoPaciente(pacienteId);
+        horarioDisponivelService.liberarVagasDoPaciente(pacienteId);
+        consultaRepository.removerConsultasDoPaciente(pacienteId);
+        for (HorarioDisponivel horario : horarios){
+            listaDeEsperaService.promover(horario);
+        }
     }
 }
 
@@ -0,0 +1,65 @@
+package com.vv.qxdconsulta.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// thread que dorme na fila de vencimentos e expira cada reserva na hora em que ela vence.
+// Cada expiração roda na transação do ReservaDeVagaService (chamada pelo proxy). Se falhar, a reserva volta para a
+// fila e é tentada de novo alguns segundos depois, enquanto a thread segue para o próximo vencimento.
+@Component
+public class ExpiracaoDeReservas {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpiracaoDeReservas.class);
+
+    @Autowired
+    ReservaDeVagaService reservaDeVagaService;
+
+    static final Duration ESPERA_PARA_NOVA_TENTATIVA = Duration.ofSeconds(5);
+
+    private Thread thread;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void iniciar() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::expirarVencidas, "expiracao-de-reservas");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public synchronized void parar() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void expirarVencidas() {
+        VencimentosDeReservas vencimentos = reservaDeVagaService.vencimentos();
+        while (!Thread.currentThread().isInterrupted()) {
+            UUID reservaId;
+            try {
+                reservaId = vencimentos.proximoVencimento();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                reservaDeVagaService.expirar(reservaId);
+            } catch (RuntimeException e) {
+                log.error("Falha ao expirar a reserva {}", reservaId, e);
+                vencimentos.agendar(reservaId, LocalDateTime.now().plus(ESPERA_PARA_NOVA_TENTATIVA));
+            }
+        }
+    }
+}
@@ -1,22 +1,59 @@
 package com.vv.qxdconsulta.service;
 
+import com.vv.qxdconsulta.dto.HorarioLivre;
+import com.vv.qxdconsulta.dto.HorarioResposta;
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.ModeloDeAgenda;
+import com.vv.qxdconsulta.dto.VagasPorHorario;
+import com.vv.qxdconsulta.dto.VersaoDaListagem;
+import com.vv.qxdconsulta.dto.VersaoDoDia;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.HorarioDisponivel;
 import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.UuidV7;
 import com.vv.qxdconsulta.repository.HorarioDisponivelRepository;
-import org.slf4j.MDC;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Service
+@Timed(value = "qxdconsulta.servico", histogram = true, percentiles = {0.5, 0.95, 0.99})
 public class HorarioDisponivelService {
 
+    private static final Logger log = LoggerFactory.getLogger(HorarioDisponivelService.class);
+    // a busca de horários livres percorre dia a dia, o período fica limitado
+    private static final int MAXIMO_DE_DIAS_DA_BUSCA = 366;
+    static final int LIMITE_MAXIMO_DA_BUSCA = 50;
+    private static final int MAXIMO_DE_DIAS_DA_AGENDA = 366;
+    private static final int TAMANHO_DO_BATCH = 1000;
+    private static final String INSERIR_HORARIO =
+            "insert into horarios_disponiveis (id, horario, capacidade_maxima, vagas_ocupadas, medico_id, versao, alterado_em) values (?, ?, ?, 0, ?, 1, ?)";
+    // a mesma update condicional do HorarioDisponivelRepository.reservarVagas, para o batch do agendamento em lote
+    private static final String RESERVAR_VAGAS = "update horarios_disponiveis set vagas_ocupadas = vagas_ocupadas + ?, " +
+            "versao = versao + 1, alterado_em = ? where id = ? and vagas_ocupadas + ? <= capacidade_maxima";
+
     @Autowired
     MedicoService medicoService;
 
@@ -24,56 +61,417 @@ public class HorarioDisponivelService {
     HorarioDisponivelRepository horarioDisponivelRepository;
 
     @Autowired
-    ConsultaService consultaService;
+    JdbcTemplate jdbcTemplate;
+
+    // o ReservaDeVagaService depende deste service, a referência de volta é buscada no primeiro uso (como no MedicoService)
+    @Autowired
+    ObjectProvider<ReservaDeVagaService> reservaDeVagaServiceProvider;
+
+    ReservaDeVagaService reservaDeVagaService;
+
+    // vagas livres em memória, atualizadas depois do commit
+    final IndiceDeDisponibilidade disponibilidade = new IndiceDeDisponibilidade();
+
+    // versão de cada dia (de hoje em diante) na última leitura e os dias relidos na última ressincronização
+    private final Map<LocalDate, String> versoesDosDias = new HashMap<>();
+    private Set<LocalDate> diasRelidos = Set.of();
 
     //provavelmente será apagado
     public void salvarHorarioDaConsulta(HorarioDisponivel horario, Consulta consulta) {
-        System.out.println("Entrando em salvarHorarioDaConsulta...");
         if (!horario.podeAgendar()) {
-            System.out.println("Capacidade excedida, lançando exceção...");
+            log.debug("Capacidade excedida no horário {}", horario.getId());
+            Metricas.rejeicao(Metricas.HORARIO_LOTADO);
             throw new IllegalArgumentException("Limite de consultas para este horário já atingido.");
         }
-        System.out.println("Capacidade disponível, salvando consulta...");
         horario.getConsultasAgendadas().add(consulta);
         horarioDisponivelRepository.save(horario);
-        System.out.println("Consulta salva com sucesso.");
+        log.debug("Consulta salva no horário {}", horario.getId());
     }
 
     public HorarioDisponivel adicionarHorarioDisponivel(HorarioDisponivel horario, String crmMedico) {
         Medico medico = medicoService.buscarMedicoPorCrm(crmMedico);
         horario.setMedico(medico);
+        horario.setHorario(noMinuto(horario.getHorario()));
         //aqui ele já está associando o horario ao medico e salvando essa informação
-        return horarioDisponivelRepository.save(horario);
+        HorarioDisponivel horarioSalvo = horarioDisponivelRepository.save(horario);
+        horarioDefinido(horarioSalvo);
+        return horarioSalvo;
+    }
+
+    // abre a agenda recorrente do modelo para cada médico, numa transação só. Os horários são inseridos por JDBC
+    // em batch, sem criar entidades; os que o médico já tem no período são pulados. Retorna quantos foram criados.
+    @Transactional
+    public int gerarAgenda(Collection<String> crmsMedicos, ModeloDeAgenda modelo){
+        validarModelo(modelo);
+        Map<String, Medico> medicos = medicoService.buscarMedicosPorCrms(crmsMedicos);
+        for (String crm : crmsMedicos){
+            if (!medicos.containsKey(crm)){
+                throw new IllegalArgumentException("Médico não encontrado com o CRM: " + crm);
+            }
+        }
+        List<LocalDateTime> horarios = modelo.horarios();
+        if (horarios.isEmpty()){
+            return 0;
+        }
+
+        Map<UUID, Set<LocalDateTime>> existentes = new HashMap<>();
+        List<UUID> medicoIds = medicos.values().stream().map(Medico::getId).toList();
+        for (VagasPorHorario existente : horarioDisponivelRepository.listarHorariosDosMedicosNoPeriodo(
+                medicoIds, horarios.get(0), horarios.get(horarios.size() - 1))){
+            existentes.computeIfAbsent(existente.medicoId(), id -> new HashSet<>()).add(existente.horario());
+        }
+
+        Map<UUID, List<LocalDateTime>> criados = new HashMap<>();
+        List<Object[]> linhas = new ArrayList<>(TAMANHO_DO_BATCH);
+        Timestamp agora = Timestamp.valueOf(LocalDateTime.now());
+        int total = 0;
+        for (UUID medicoId : medicoIds){
+            Set<LocalDateTime> jaExistem = existentes.getOrDefault(medicoId, Set.of());
+            List<LocalDateTime> novos = new ArrayList<>(horarios.size());
+            for (LocalDateTime horario : horarios){
+                if (jaExistem.contains(horario)){
+                    continue;
+                }
+                novos.add(horario);
+                linhas.add(new Object[]{UuidV7.gerar(), Timestamp.valueOf(horario), modelo.capacidadeMaxima(), medicoId, agora});
+                if (linhas.size() == TAMANHO_DO_BATCH){
+                    jdbcTemplate.batchUpdate(INSERIR_HORARIO, linhas);
+                    linhas.clear();
+                }
+            }
+            criados.put(medicoId, novos);
+            total += novos.size();
+        }
+        if (!linhas.isEmpty()){
+            jdbcTemplate.batchUpdate(INSERIR_HORARIO, linhas);
+        }
+
+        AposCommit.executar(() -> criados.forEach((medicoId, novos) ->
+                disponibilidade.definirTodos(medicoId, novos, modelo.capacidadeMaxima())));
+        return total;
+    }
+
+    private static void validarModelo(ModeloDeAgenda modelo){
+        if (modelo == null || modelo.diasDaSemana() == null || modelo.diasDaSemana().isEmpty()
+                || modelo.horaInicial() == null || modelo.horaFinal() == null || !modelo.horaFinal().isAfter(modelo.horaInicial())
+                || modelo.dataInicial() == null || modelo.dataFinal() == null || modelo.dataFinal().isBefore(modelo.dataInicial())){
+            throw new IllegalArgumentException("Modelo de agenda inválido");
+        }
+        if (modelo.minutosPorHorario() <= 0 || modelo.capacidadeMaxima() <= 0){
+            throw new IllegalArgumentException("A duração e a capacidade dos horários precisam ser maiores que zero");
+        }
+        if (ChronoUnit.DAYS.between(modelo.dataInicial(), modelo.dataFinal()) > MAXIMO_DE_DIAS_DA_AGENDA){
+            throw new IllegalArgumentException("A agenda pode ser gerada para no máximo " + MAXIMO_DE_DIAS_DA_AGENDA + " dias");
+        }
+    }
+
+    // o índice de disponibilidade guarda o minuto do dia de cada horário: segundos e frações são cortados para
+    // que dois horários no mesmo minuto não virem a mesma entrada do índice
+    static LocalDateTime noMinuto(LocalDateTime horario){
+        return horario == null ? null : horario.truncatedTo(ChronoUnit.MINUTES);
     }
 
     public void salvarMudancaDeHorario(HorarioDisponivel horarioDisponivel){
+        if (horarioDisponivel == null) {
+            throw new IllegalArgumentException("Horário não informado.");
+        }
         horarioDisponivelRepository.save(horarioDisponivel);
     }
 
+    // a versão vem do banco, igual em todas as instâncias: um 304 custa só o select de agregação, sem montar a listagem
+    public VersaoDaListagem versaoDosHorariosDoMedico(String crmMedico){
+        return horarioDisponivelRepository.versaoDosHorariosDoMedico(medicoService.buscarMedicoEmCache(crmMedico).id());
+    }
+
+    public VersaoDaListagem versaoDosHorariosDoDia(LocalDate data){
+        return horarioDisponivelRepository.versaoDosHorariosEntre(data.atStartOfDay(), data.atTime(LocalTime.MAX));
+    }
+
+    // horários do médico que ainda têm vaga no período, respondido pelo índice em memória
+    public List<LocalDateTime> buscarHorariosLivres(String crmMedico, LocalDate inicio, LocalDate fim){
+        validarPeriodo(inicio, fim);
+        return disponibilidade.horariosLivres(medicoService.buscarMedicoEmCache(crmMedico).id(), inicio, fim);
+    }
+
+    // quantos horários com vaga cada médico tem no período, só entram os médicos com alguma vaga
+    public Map<UUID, Integer> contarHorariosLivresPorMedico(LocalDate inicio, LocalDate fim){
+        validarPeriodo(inicio, fim);
+        return disponibilidade.contarHorariosLivresPorMedico(inicio, fim);
+    }
+
+    // os primeiros horários com vaga entre todos os médicos da especialização, a partir de depois (agora se nulo).
+    // Os ids dos médicos vêm do banco, o merge dos horários é feito no índice em memória
+    // e só os médicos dos horários encontrados são carregados para a resposta.
+    public List<HorarioLivre> buscarPrimeirosHorariosLivres(String especializacao, LocalDateTime depois, int limite){
+        if (limite < 1 || limite > LIMITE_MAXIMO_DA_BUSCA){
+            throw new IllegalArgumentException("Limite de resultados inválido: " + limite);
+        }
+        if (especializacao == null || especializacao.isBlank()){
+            throw new IllegalArgumentException("Especialização não informada");
+        }
+        LocalDateTime inicio = depois == null ? LocalDateTime.now() : depois;
+        Set<UUID> medicoIds = medicoService.listarIdsPorEspecializacao(especializacao);
+        if (medicoIds.isEmpty()){
+            return List.of();
+        }
+
+        List<VagasPorHorario> horarios = disponibilidade.primeirosHorariosLivres(medicoIds, inicio,
+                inicio.toLocalDate().plusDays(MAXIMO_DE_DIAS_DA_BUSCA), limite);
+        if (horarios.isEmpty()){
+            return List.of();
+        }
+        Set<UUID> encontrados = new HashSet<>();
+        horarios.forEach(horario -> encontrados.add(horario.medicoId()));
+        Map<UUID, Medico> medicos = medicoService.buscarMedicosPorIds(encontrados);
+
+        List<HorarioLivre> livres = new ArrayList<>(horarios.size());
+        for (VagasPorHorario horario : horarios) {
+            // o médico pode ter sido removido depois da leitura dos ids
+            Medico medico = medicos.get(horario.medicoId());
+            if (medico != null){
+                livres.add(new HorarioLivre(medico.getCrm(), medico.getNome(), horario.horario(), (int) horario.vagas()));
+            }
+        }
+        return livres;
+    }
+
+    private static void validarPeriodo(LocalDate inicio, LocalDate fim){
+        if (inicio == null || fim == null || fim.isBefore(inicio) || ChronoUnit.DAYS.between(inicio, fim) > MAXIMO_DE_DIAS_DA_BUSCA){
+            throw new IllegalArgumentException("Período inválido para a busca de horários livres");
+        }
+    }
+
+    // carrega o índice de disponibilidade quando a aplicação sobe
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public synchronized void carregarIndiceDeDisponibilidade(){
+        // as versões são lidas antes: o que mudar durante a carga aparece na próxima ressincronização
+        Map<LocalDate, String> versoes = versoesDosDias();
+        try (Stream<VagasPorHorario> horarios = horarioDisponivelRepository.listarVagasLivres()) {
+            disponibilidade.recarregar(horarios);
+        }
+        versoesDosDias.clear();
+        versoesDosDias.putAll(versoes);
+    }
+
+    // relê do banco os dias (de hoje em diante) cuja versão mudou desde a última leitura, o que pega as alterações
+    // feitas por outras instâncias. Um select de agregação e um select por dia alterado; retorna os dias relidos.
+    // Os dias que mudaram são relidos de novo na rodada seguinte: a variação depois do commit de uma alteração que
+    // a releitura já trouxe pode chegar ao índice depois dela e contar duas vezes
+    @Transactional(readOnly = true)
+    public synchronized int ressincronizarIndiceDeDisponibilidade(){
+        Map<LocalDate, String> versoes = versoesDosDias();
+        Set<LocalDate> mudaram = new HashSet<>();
+        versoes.forEach((data, etag) -> {
+            if (!etag.equals(versoesDosDias.get(data))) {
+                mudaram.add(data);
+            }
+        });
+        // dia que ficou sem horários (ou que virou passado) não aparece mais nas versões
+        for (LocalDate data : versoesDosDias.keySet()) {
+            if (!versoes.containsKey(data)) {
+                mudaram.add(data);
+            }
+        }
+
+        Set<LocalDate> releitura = new HashSet<>(mudaram);
+        releitura.addAll(diasRelidos);
+        for (LocalDate data : releitura) {
+            disponibilidade.recarregarDia(data,
+                    horarioDisponivelRepository.listarVagasLivresEntre(data.atStartOfDay(), data.atTime(LocalTime.MAX)));
+        }
+        versoesDosDias.clear();
+        versoesDosDias.putAll(versoes);
+        diasRelidos = mudaram;
+        return releitura.size();
+    }
+
+    private Map<LocalDate, String> versoesDosDias(){
+        Map<LocalDate, String> versoes = new HashMap<>();
+        for (VersaoDoDia versao : horarioDisponivelRepository.versoesDosDiasAPartirDe(LocalDate.now().atStartOfDay())) {
+            versoes.put(versao.data(), versao.etag());
+        }
+        return versoes;
+    }
+
     public List<HorarioDisponivel> listarHorariosDisponiveisPorMedico(String crmMedico){
-        Medico medico = medicoService.buscarMedicoPorCrm(crmMedico);
-        if (medico.getHorarioDisponivel().isEmpty()){
+        // o médico vem do cache só com o id, os horários são buscados por ele
+        List<HorarioDisponivel> horarios = horarioDisponivelRepository.findByMedicoIdOrderByHorario(
+                medicoService.buscarMedicoEmCache(crmMedico).id());
+        if (horarios.isEmpty()){
+            throw new IllegalArgumentException("Esse medico não tem horários disponíveis");
+        }
+        return horarios;
+    }
+
+    // mesma listagem em projeção, para a API: um select só com as colunas da resposta
+    public List<HorarioResposta> listarHorariosDoMedico(String crmMedico){
+        List<HorarioResposta> horarios = horarioDisponivelRepository.listarHorariosDoMedico(
+                medicoService.buscarMedicoEmCache(crmMedico).id());
+        if (horarios.isEmpty()){
             throw new IllegalArgumentException("Esse medico não tem horários disponíveis");
         }
-        return medico.getHorarioDisponivel();
+        return horarios;
     }
 
     //metodo auxiliar para verificar o horario para o medico, usado no metodo de alterar Horario da Consulta.
     public HorarioDisponivel buscarHorarioPorMedico(String crmMedico, LocalDateTime novoHorario){
-        Medico medico = medicoService.buscarMedicoPorCrm(crmMedico);
-        for (HorarioDisponivel horario: medico.getHorarioDisponivel()){
-            if (horario.getHorario().equals(novoHorario)){
-                return horario;
-            }
+        MedicoEmCache medico = medicoService.buscarMedicoEmCache(crmMedico);
+        return horarioDisponivelRepository.findByMedicoIdAndHorario(medico.id(), novoHorario)
+                .orElseThrow(() -> {
+                    Metricas.rejeicao(Metricas.HORARIO_INEXISTENTE);
+                    return new IllegalArgumentException("O médico não tem esse horário disponível");
+                });
+    }
+
+    // busca os horários pedidos de vários médicos, agrupados por médico e horário. Os ids vêm de um select só com
+    // as colunas; entidade só dos pares pedidos, não de todos os horários de todos os médicos do lote
+    public Map<UUID, Map<LocalDateTime, HorarioDisponivel>> buscarHorariosDosMedicos(Map<UUID, Set<LocalDateTime>> horariosPedidos){
+        Map<UUID, Map<LocalDateTime, HorarioDisponivel>> horariosPorMedico = new HashMap<>();
+        List<Object> pares = new ArrayList<>();
+        horariosPedidos.forEach((medicoId, horarios) -> horarios.forEach(horario -> {
+            pares.add(medicoId);
+            pares.add(Timestamp.valueOf(horario));
+        }));
+        if (pares.isEmpty()){
+            return horariosPorMedico;
+        }
+        List<UUID> ids = jdbcTemplate.queryForList(selecionarHorariosPedidos(pares.size() / 2), UUID.class, pares.toArray());
+        if (ids.isEmpty()){
+            return horariosPorMedico;
         }
+        for (HorarioDisponivel horario : horarioDisponivelRepository.findByIdIn(ids)){
+            horariosPorMedico.computeIfAbsent(horario.getMedico().getId(), id -> new HashMap<>())
+                    .put(horario.getHorario(), horario);
+        }
+        return horariosPorMedico;
+    }
 
-        throw new IllegalArgumentException("O médico não tem esse horário disponível");
+    // horário lotado ainda pode ter reservas vencidas que a fila de vencimentos não alcançou (a instância que as
+    // criou pode ter caído): elas são expiradas aqui e, se sobrar vaga depois da lista de espera, o agendamento segue
+    // join dos horários com a lista de pares pedidos: cada par é uma busca no índice único (medico_id, horario).
+    // Com "medico_id in (...) and horario in (...)" o banco percorria todos os horários de todos os médicos do lote
+    // e conferia cada um contra a lista de horários
+    private static String selecionarHorariosPedidos(int pares){
+        StringBuilder sql = new StringBuilder("select h.id from horarios_disponiveis h join (values (cast(? as uuid), cast(? as timestamp))");
+        for (int i = 1; i < pares; i++){
+            sql.append(", (?, ?)");
+        }
+        return sql.append(") as p (medico_id, horario) on h.medico_id = p.medico_id and h.horario = p.horario").toString();
     }
 
     public void verificarDisponibilidadeDeConsulta(HorarioDisponivel horarioDisponivel){
-        if (!horarioDisponivel.podeAgendar()){
+        if (horarioDisponivel.podeAgendar()){
+            return;
+        }
+        if (reservaDeVagaService().expirarVencidasDoHorario(horarioDisponivel) == 0 || !horarioDisponivel.podeAgendar()){
+            Metricas.rejeicao(Metricas.HORARIO_LOTADO);
+            throw new IllegalArgumentException("Limite de consultas para este horário já atingido.");
+        }
+    }
+
+    // ocupa uma vaga com um update condicional no banco, assim duas reservas concorrentes não passam da capacidade.
+    // Com o horário lotado, expira as reservas vencidas dele e tenta mais uma vez
+    @Transactional
+    public void reservarVaga(HorarioDisponivel horarioDisponivel){
+        if (horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId()) == 0
+                && (reservaDeVagaService().expirarVencidasDoHorario(horarioDisponivel) == 0
+                    || horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId()) == 0)){
+            Metricas.rejeicao(Metricas.HORARIO_LOTADO);
             throw new IllegalArgumentException("Limite de consultas para este horário já atingido.");
         }
+        horarioDisponivel.setVagasOcupadas(horarioDisponivel.getVagasOcupadas() + 1);
+        vagasAlteradas(horarioDisponivel, -1);
+    }
+
+    // tenta ocupar todas as vagas com um update só, se não couberem ocupa as que ainda estiverem livres
+    // retorna quantas vagas foram ocupadas
+    @Transactional
+    public int reservarVagas(HorarioDisponivel horarioDisponivel, int quantidade){
+        int reservadas = quantidade > 0 && horarioDisponivelRepository.reservarVagas(horarioDisponivel.getId(), quantidade) > 0
+                ? quantidade : reservarAsQueCouberem(horarioDisponivel, quantidade);
+        vagasReservadas(horarioDisponivel, reservadas);
+        return reservadas;
+    }
+
+    // o reservarVagas de vários horários, com as updates de todos num batch JDBC só. Pela query do repositório
+    // cada update passaria pelo auto-flush do hibernate, que confere todas as entidades do lote a cada horário.
+    // O horário em que o grupo inteiro não coube tenta as vagas que sobraram, como no reservarVagas.
+    // Retorna quantas vagas cada horário ganhou
+    @Transactional
+    public Map<HorarioDisponivel, Integer> reservarVagasEmLote(Map<HorarioDisponivel, Integer> quantidades){
+        Map<HorarioDisponivel, Integer> reservadas = new HashMap<>();
+        if (quantidades.isEmpty()){
+            return reservadas;
+        }
+        List<HorarioDisponivel> horarios = new ArrayList<>(quantidades.keySet());
+        List<Object[]> linhas = new ArrayList<>(horarios.size());
+        Timestamp agora = Timestamp.valueOf(LocalDateTime.now());
+        for (HorarioDisponivel horario : horarios){
+            int quantidade = quantidades.get(horario);
+            linhas.add(new Object[]{quantidade, agora, horario.getId(), quantidade});
+        }
+        int[] alteradas = jdbcTemplate.batchUpdate(RESERVAR_VAGAS, linhas);
+
+        for (int i = 0; i < horarios.size(); i++){
+            HorarioDisponivel horario = horarios.get(i);
+            int quantidade = quantidades.get(horario);
+            int vagas = quantidade > 0 && alteradas[i] > 0 ? quantidade : reservarAsQueCouberem(horario, quantidade);
+            vagasReservadas(horario, vagas);
+            reservadas.put(horario, vagas);
+        }
+        return reservadas;
+    }
+
+    // o grupo inteiro não coube: tenta de uma vez as vagas livres que foram lidas, se outro agendamento pegou
+    // alguma vai uma por uma
+    private int reservarAsQueCouberem(HorarioDisponivel horarioDisponivel, int quantidade){
+        int reservadas = 0;
+        int livres = horarioDisponivel.getCapacidadeMaxima() - horarioDisponivel.getVagasOcupadas();
+        if (livres > 0 && livres < quantidade && horarioDisponivelRepository.reservarVagas(horarioDisponivel.getId(), livres) > 0){
+            reservadas = livres;
+        }
+        while (reservadas < quantidade && horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId()) > 0){
+            reservadas++;
+        }
+        return reservadas;
+    }
+
+    private void vagasReservadas(HorarioDisponivel horarioDisponivel, int reservadas){
+        horarioDisponivel.setVagasOcupadas(horarioDisponivel.getVagasOcupadas() + reservadas);
+        if (reservadas > 0){
+            vagasAlteradas(horarioDisponivel, -reservadas);
+        }
+    }
+
+    @Transactional
+    public void liberarVaga(HorarioDisponivel horarioDisponivel){
+        if (horarioDisponivelRepository.liberarVaga(horarioDisponivel.getId()) > 0){
+            horarioDisponivel.setVagasOcupadas(horarioDisponivel.getVagasOcupadas() - 1);
+            vagasAlteradas(horarioDisponivel, 1);
+        }
+    }
+
+    public List<HorarioDisponivel> buscarHorariosDoPaciente(UUID pacienteId){
+        return horarioDisponivelRepository.listarHorariosDoPaciente(pacienteId);
+    }
+
+    @Transactional
+    public void liberarVagasDoPaciente(UUID pacienteId){
+        // lê antes quais horários ganham vaga, o update não diz quais linhas alterou
+        List<VagasPorHorario> liberadas = horarioDisponivelRepository.contarVagasDoPaciente(pacienteId);
+        horarioDisponivelRepository.liberarVagasDoPaciente(pacienteId);
+        AposCommit.executar(() -> {
+            for (VagasPorHorario vagas : liberadas){
+                disponibilidade.ajustar(vagas.medicoId(), vagas.horario(), (int) vagas.vagas());
+            }
+        });
+    }
+
+    @Transactional
+    public void removerHorariosDoMedico(UUID medicoId){
+        horarioDisponivelRepository.removerHorariosDoMedico(medicoId);
+        AposCommit.executar(() -> disponibilidade.removerMedico(medicoId));
     }
 
     //estou convertendo a data passada por parametro em LocalDateTime do começo ao fim daquela data.
@@ -83,6 +481,12 @@ public class HorarioDisponivelService {
         return horarioDisponivelRepository.findByHorarioBetween(dataComeco, dataFinal);
     }
 
+    public List<HorarioResposta> listarHorariosDoDia(LocalDate data){
+        return horarioDisponivelRepository.listarHorariosEntre(data.atStartOfDay(), data.atTime(LocalTime.MAX));
+    }
+
+    // a lista de consultas é lazy, a conferência e a alteração precisam estar na mesma transação
+    @Transactional
     public HorarioDisponivel atualizarHorarioDisponivel(UUID idHorario, LocalDateTime novoHorario, int novaCapacidade){
         HorarioDisponivel horario = horarioDisponivelRepository.findById(idHorario)
                 .orElseThrow(() -> new IllegalArgumentException("Horário não encontrado"));
@@ -92,13 +496,19 @@ public class HorarioDisponivelService {
             throw new IllegalArgumentException("Não é possível alterar um horário que possui consultas agendadas");
         }
 
+        // o horário antigo sai das listagens
+        horarioRemovido(horario);
+
         //atualizar detalhes do horario
-        horario.setHorario(novoHorario);
+        horario.setHorario(noMinuto(novoHorario));
         horario.setCapacidadeMaxima(novaCapacidade);
 
-        return horarioDisponivelRepository.save(horario);
+        HorarioDisponivel horarioSalvo = horarioDisponivelRepository.save(horario);
+        horarioDefinido(horarioSalvo);
+        return horarioSalvo;
     }
 
+    @Transactional
     public void removerHorarioDisponivel(UUID idHorario) {
         HorarioDisponivel horarioDisponivel = horarioDisponivelRepository.findById(idHorario)
                 .orElseThrow( () -> new IllegalArgumentException("Horário não encontrado"));
@@ -108,6 +518,45 @@ public class HorarioDisponivelService {
         }
 
         horarioDisponivelRepository.delete(horarioDisponivel);
+        horarioRemovido(horarioDisponivel);
+    }
+
+    // os métodos abaixo leem os valores agora e só mexem no índice de disponibilidade depois do commit
+
+    private ReservaDeVagaService reservaDeVagaService(){
+        if (reservaDeVagaService == null){
+            reservaDeVagaService = reservaDeVagaServiceProvider.getObject();
+        }
+        return reservaDeVagaService;
+    }
+
+    // variacao negativa para reservas e positiva para liberações
+    private void vagasAlteradas(HorarioDisponivel horario, int variacao){
+        if (horario.getMedico() == null || horario.getHorario() == null){
+            return;
+        }
+        UUID medicoId = horario.getMedico().getId();
+        LocalDateTime dataHora = horario.getHorario();
+        AposCommit.executar(() -> disponibilidade.ajustar(medicoId, dataHora, variacao));
+    }
+
+    private void horarioDefinido(HorarioDisponivel horario){
+        if (horario.getMedico() == null || horario.getHorario() == null){
+            return;
+        }
+        UUID medicoId = horario.getMedico().getId();
+        LocalDateTime dataHora = horario.getHorario();
+        int vagasLivres = horario.getCapacidadeMaxima() - horario.getVagasOcupadas();
+        AposCommit.executar(() -> disponibilidade.definir(medicoId, dataHora, vagasLivres));
+    }
+
+    private void horarioRemovido(HorarioDisponivel horario){
+        if (horario.getMedico() == null || horario.getHorario() == null){
+            return;
+        }
+        UUID medicoId = horario.getMedico().getId();
+        LocalDateTime dataHora = horario.getHorario();
+        AposCommit.executar(() -> disponibilidade.remover(medicoId, dataHora));
     }
 
 }
@@ -0,0 +1,370 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.VagasPorHorario;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// disponibilidade dos horários em memória, para responder "quais horários ainda têm vaga" sem JPA.
+// Cada médico em cada dia guarda os minutos dos horários em ordem, as vagas livres de cada um
+// e um bitmap com os horários que ainda têm vaga, então contar ou listar os livres de um dia é olhar poucos longs.
+// As reservas e liberações chegam como variação de vagas depois do commit; somar a variação em vez de copiar
+// o contador da entidade não depende de qual transação confirmou primeiro.
+// As variações chegam só à instância que fez a alteração. Com várias instâncias, cada uma relê do banco de tempos
+// em tempos os dias cuja versão mudou (RessincronizacaoDaDisponibilidade), então a disponibilidade de outra
+// instância pode ficar atrasada por até um intervalo.
+public class IndiceDeDisponibilidade {
+
+    private final NavigableMap<LocalDate, Map<UUID, Dia>> dias = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static final class Dia {
+        // minuto do dia de cada horário, em ordem crescente
+        private int[] minutos = new int[0];
+        private int[] livres = new int[0];
+        // bit i ligado quando o horário i tem vaga
+        private long[] comVaga = new long[0];
+
+        private int posicao(int minuto) {
+            return Arrays.binarySearch(minutos, minuto);
+        }
+
+        void definir(int minuto, int vagasLivres) {
+            int posicao = posicao(minuto);
+            if (posicao < 0) {
+                posicao = -posicao - 1;
+                minutos = inserir(minutos, posicao, minuto);
+                livres = inserir(livres, posicao, vagasLivres);
+                // as posições depois da inserção mudaram, o bitmap é refeito
+                refazerBitmap();
+            } else {
+                livres[posicao] = vagasLivres;
+                atualizarBit(posicao);
+            }
+        }
+
+        void ajustar(int minuto, int variacao) {
+            int posicao = posicao(minuto);
+            if (posicao >= 0) {
+                livres[posicao] = Math.max(0, livres[posicao] + variacao);
+                atualizarBit(posicao);
+            }
+        }
+
+        void remover(int minuto) {
+            int posicao = posicao(minuto);
+            if (posicao >= 0) {
+                minutos = retirar(minutos, posicao);
+                livres = retirar(livres, posicao);
+                refazerBitmap();
+            }
+        }
+
+        boolean vazio() {
+            return minutos.length == 0;
+        }
+
+        int contarComVaga() {
+            int total = 0;
+            for (long palavra : comVaga) {
+                total += Long.bitCount(palavra);
+            }
+            return total;
+        }
+
+        // primeira posição a partir do minuto
+        int inicio(int minuto) {
+            int posicao = posicao(minuto);
+            return posicao < 0 ? -posicao - 1 : posicao;
+        }
+
+        // próxima posição com vaga a partir da informada, -1 quando não tem mais
+        int proximaComVaga(int posicao) {
+            int p = posicao >> 6;
+            if (p >= comVaga.length) {
+                return -1;
+            }
+            long palavra = comVaga[p] & (-1L << posicao);
+            while (palavra == 0) {
+                if (++p == comVaga.length) {
+                    return -1;
+                }
+                palavra = comVaga[p];
+            }
+            return p * 64 + Long.numberOfTrailingZeros(palavra);
+        }
+
+        void adicionarLivres(LocalDate data, List<LocalDateTime> destino) {
+            for (int p = 0; p < comVaga.length; p++) {
+                long palavra = comVaga[p];
+                while (palavra != 0) {
+                    int posicao = p * 64 + Long.numberOfTrailingZeros(palavra);
+                    destino.add(data.atStartOfDay().plusMinutes(minutos[posicao]));
+                    palavra &= palavra - 1;
+                }
+            }
+        }
+
+        private void atualizarBit(int posicao) {
+            if (livres[posicao] > 0) {
+                comVaga[posicao >> 6] |= 1L << posicao;
+            } else {
+                comVaga[posicao >> 6] &= ~(1L << posicao);
+            }
+        }
+
+        private void refazerBitmap() {
+            comVaga = new long[(minutos.length + 63) >> 6];
+            for (int posicao = 0; posicao < minutos.length; posicao++) {
+                atualizarBit(posicao);
+            }
+        }
+
+        private static int[] inserir(int[] valores, int posicao, int valor) {
+            int[] novos = new int[valores.length + 1];
+            System.arraycopy(valores, 0, novos, 0, posicao);
+            novos[posicao] = valor;
+            System.arraycopy(valores, posicao, novos, posicao + 1, valores.length - posicao);
+            return novos;
+        }
+
+        private static int[] retirar(int[] valores, int posicao) {
+            int[] novos = new int[valores.length - 1];
+            System.arraycopy(valores, 0, novos, 0, posicao);
+            System.arraycopy(valores, posicao + 1, novos, posicao, valores.length - posicao - 1);
+            return novos;
+        }
+    }
+
+    // horário novo ou alterado, com o total de vagas livres
+    public void definir(UUID medicoId, LocalDateTime horario, int vagasLivres) {
+        lock.writeLock().lock();
+        try {
+            dias.computeIfAbsent(horario.toLocalDate(), d -> new HashMap<>())
+                    .computeIfAbsent(medicoId, id -> new Dia())
+                    .definir(minuto(horario), vagasLivres);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // vários horários novos do mesmo médico de uma vez, usado pela geração de agenda
+    public void definirTodos(UUID medicoId, List<LocalDateTime> horarios, int vagasLivres) {
+        lock.writeLock().lock();
+        try {
+            for (LocalDateTime horario : horarios) {
+                dias.computeIfAbsent(horario.toLocalDate(), d -> new HashMap<>())
+                        .computeIfAbsent(medicoId, id -> new Dia())
+                        .definir(minuto(horario), vagasLivres);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // reserva (variação negativa) ou liberação (positiva) de vagas; horário desconhecido é ignorado
+    public void ajustar(UUID medicoId, LocalDateTime horario, int variacao) {
+        lock.writeLock().lock();
+        try {
+            Dia dia = dia(medicoId, horario.toLocalDate());
+            if (dia != null) {
+                dia.ajustar(minuto(horario), variacao);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remover(UUID medicoId, LocalDateTime horario) {
+        lock.writeLock().lock();
+        try {
+            Map<UUID, Dia> medicos = dias.get(horario.toLocalDate());
+            Dia dia = medicos == null ? null : medicos.get(medicoId);
+            if (dia != null) {
+                dia.remover(minuto(horario));
+                if (dia.vazio()) {
+                    medicos.remove(medicoId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removerMedico(UUID medicoId) {
+        lock.writeLock().lock();
+        try {
+            dias.values().forEach(medicos -> medicos.remove(medicoId));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // troca todo o conteúdo, usado na carga inicial
+    public void recarregar(Stream<VagasPorHorario> horarios) {
+        lock.writeLock().lock();
+        try {
+            dias.clear();
+            horarios.forEach(item -> dias.computeIfAbsent(item.horario().toLocalDate(), d -> new HashMap<>())
+                    .computeIfAbsent(item.medicoId(), id -> new Dia())
+                    .definir(minuto(item.horario()), (int) item.vagas()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // troca os horários de um dia pelos lidos do banco, usado na ressincronização
+    public void recarregarDia(LocalDate data, List<VagasPorHorario> horarios) {
+        Map<UUID, Dia> medicos = new HashMap<>();
+        for (VagasPorHorario item : horarios) {
+            medicos.computeIfAbsent(item.medicoId(), id -> new Dia())
+                    .definir(minuto(item.horario()), (int) item.vagas());
+        }
+        lock.writeLock().lock();
+        try {
+            if (medicos.isEmpty()) {
+                dias.remove(data);
+            } else {
+                dias.put(data, medicos);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // horários do médico com vaga entre os dois dias (inclusive), em ordem
+    public List<LocalDateTime> horariosLivres(UUID medicoId, LocalDate inicio, LocalDate fim) {
+        List<LocalDateTime> livres = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (LocalDate data = inicio; !data.isAfter(fim); data = data.plusDays(1)) {
+                Dia dia = dia(medicoId, data);
+                if (dia != null) {
+                    dia.adicionarLivres(data, livres);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return livres;
+    }
+
+    // quantos horários com vaga cada médico tem entre os dois dias; médicos sem vaga ficam de fora
+    public Map<UUID, Integer> contarHorariosLivresPorMedico(LocalDate inicio, LocalDate fim) {
+        Map<UUID, Integer> contagem = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (LocalDate data = inicio; !data.isAfter(fim); data = data.plusDays(1)) {
+                Map<UUID, Dia> medicos = dias.get(data);
+                if (medicos == null) {
+                    continue;
+                }
+                medicos.forEach((medicoId, dia) -> {
+                    int comVaga = dia.contarComVaga();
+                    if (comVaga > 0) {
+                        contagem.merge(medicoId, comVaga, Integer::sum);
+                    }
+                });
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return contagem;
+    }
+
+    // próximo horário com vaga de um médico no dia, usado no merge dos médicos
+    private record Cursor(UUID medicoId, Dia dia, int posicao) implements Comparable<Cursor> {
+
+        int minuto() {
+            return dia.minutos[posicao];
+        }
+
+        @Override
+        public int compareTo(Cursor outro) {
+            int comparacao = Integer.compare(minuto(), outro.minuto());
+            return comparacao != 0 ? comparacao : medicoId.compareTo(outro.medicoId);
+        }
+    }
+
+    // os primeiros horários com vaga dos médicos a partir de um momento, em ordem de horário (e id do médico no empate).
+    // Anda dia a dia: em cada dia cada médico já tem os horários em ordem, então um heap com o próximo horário livre
+    // de cada um faz o merge e para quando junta o limite, sem olhar o resto do dia nem os dias seguintes.
+    public List<VagasPorHorario> primeirosHorariosLivres(Set<UUID> medicoIds, LocalDateTime depois, LocalDate ultimoDia, int limite) {
+        List<VagasPorHorario> encontrados = new ArrayList<>(limite);
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<LocalDate, Map<UUID, Dia>> entrada : dias.subMap(depois.toLocalDate(), true, ultimoDia, true).entrySet()) {
+                LocalDate data = entrada.getKey();
+                // no primeiro dia só contam os horários a partir de depois, os horários são de minuto em minuto
+                int minutoInicial = data.equals(depois.toLocalDate())
+                        ? minuto(depois) + (depois.getSecond() > 0 || depois.getNano() > 0 ? 1 : 0) : 0;
+                PriorityQueue<Cursor> proximos = cursores(entrada.getValue(), medicoIds, minutoInicial);
+                while (!proximos.isEmpty()) {
+                    Cursor cursor = proximos.poll();
+                    encontrados.add(new VagasPorHorario(cursor.medicoId(), data.atStartOfDay().plusMinutes(cursor.minuto()),
+                            cursor.dia().livres[cursor.posicao()]));
+                    if (encontrados.size() == limite) {
+                        return encontrados;
+                    }
+                    int proxima = cursor.dia().proximaComVaga(cursor.posicao() + 1);
+                    if (proxima >= 0) {
+                        proximos.add(new Cursor(cursor.medicoId(), cursor.dia(), proxima));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return encontrados;
+    }
+
+    // um cursor por médico com vaga no dia; percorre o lado menor entre os médicos pedidos e os que atendem no dia
+    private static PriorityQueue<Cursor> cursores(Map<UUID, Dia> medicosDoDia, Set<UUID> medicoIds, int minutoInicial) {
+        List<Cursor> cursores = new ArrayList<>();
+        if (medicoIds.size() < medicosDoDia.size()) {
+            for (UUID medicoId : medicoIds) {
+                adicionarCursor(cursores, medicoId, medicosDoDia.get(medicoId), minutoInicial);
+            }
+        } else {
+            medicosDoDia.forEach((medicoId, dia) -> {
+                if (medicoIds.contains(medicoId)) {
+                    adicionarCursor(cursores, medicoId, dia, minutoInicial);
+                }
+            });
+        }
+        // montar o heap de uma vez a partir da lista é linear
+        return new PriorityQueue<>(cursores);
+    }
+
+    private static void adicionarCursor(List<Cursor> cursores, UUID medicoId, Dia dia, int minutoInicial) {
+        if (dia == null) {
+            return;
+        }
+        int posicao = dia.proximaComVaga(dia.inicio(minutoInicial));
+        if (posicao >= 0) {
+            cursores.add(new Cursor(medicoId, dia, posicao));
+        }
+    }
+
+    private Dia dia(UUID medicoId, LocalDate data) {
+        Map<UUID, Dia> medicos = dias.get(data);
+        return medicos == null ? null : medicos.get(medicoId);
+    }
+
+    private static int minuto(LocalDateTime horario) {
+        return horario.getHour() * 60 + horario.getMinute();
+    }
+}
@@ -0,0 +1,322 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.NomeIndexado;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// índice de trigramas em memória para a busca por parte do nome (o LIKE '%x%' não usa índice no banco).
+// Os nomes são guardados sem acento e em minúsculas, então "joao" encontra "João".
+// Cada nome ganha uma posição e cada trigrama guarda a lista ordenada das posições que o contêm. A busca cruza
+// as listas dos trigramas do termo a partir da menor, confere se o nome contém cada palavra e mantém só os K melhores.
+public class IndiceDeNomes {
+
+    private static final Pattern ACENTOS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARADORES = Pattern.compile("[^a-z0-9]+");
+
+    // ordem do resultado: maior pontuação, depois nome menor, depois nome e id para desempatar
+    private static final Comparator<Resultado> ORDEM = Comparator.comparingInt(Resultado::pontuacao).reversed()
+            .thenComparingInt(r -> r.nome().length())
+            .thenComparing(Resultado::nome)
+            .thenComparing(Resultado::id);
+
+    // posição -> id e nome normalizado; nome nulo é uma posição removida
+    private final List<UUID> ids = new ArrayList<>();
+    private final List<String> nomes = new ArrayList<>();
+    private final Map<UUID, Integer> posicoes = new HashMap<>();
+    private final Map<String, Posicoes> posicoesPorTrigrama = new HashMap<>();
+    private int removidos;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private record Resultado(UUID id, String nome, int pontuacao) {
+    }
+
+    // lista de posições em ordem crescente, guardada em int[] para não ter um objeto por entrada
+    private static class Posicoes {
+        private int[] valores = new int[4];
+        private int tamanho;
+
+        void adicionar(int posicao) {
+            if (tamanho == valores.length) {
+                valores = Arrays.copyOf(valores, tamanho * 2);
+            }
+            valores[tamanho++] = posicao;
+        }
+    }
+
+    // adiciona ou atualiza o nome de um id
+    public void adicionar(UUID id, String nome) {
+        String normalizado = normalizar(nome);
+        lock.writeLock().lock();
+        try {
+            // alterarMedico/atualizarPaciente salvam mesmo sem mudar o nome, aí não precisa mexer no índice
+            Integer atual = posicoes.get(id);
+            if (atual != null && normalizado.equals(nomes.get(atual))) {
+                return;
+            }
+            removerSemLock(id);
+            adicionarSemLock(id, normalizado);
+            compactarSeNecessario();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remover(UUID id) {
+        lock.writeLock().lock();
+        try {
+            removerSemLock(id);
+            compactarSeNecessario();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // troca todo o conteúdo do índice, usado na carga inicial
+    public void recarregar(Stream<NomeIndexado> nomesIndexados) {
+        lock.writeLock().lock();
+        try {
+            limpar();
+            nomesIndexados.forEach(item -> adicionarSemLock(item.id(), normalizar(item.nome())));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int tamanho() {
+        lock.readLock().lock();
+        try {
+            return posicoes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // devolve os ids dos nomes que contêm todas as palavras do termo, melhores primeiro.
+    // Palavras com menos de 3 letras só casam com o começo de uma palavra do nome,
+    // e o termo precisa ter ao menos uma palavra com 2 letras ou mais.
+    public List<UUID> buscar(String termo, int limite) {
+        String[] palavras = palavras(normalizar(termo));
+        if (limite < 1 || Arrays.stream(palavras).allMatch(palavra -> palavra.length() < 2)) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            List<Posicoes> listas = listasDosTrigramas(palavras);
+            if (listas == null) {
+                return List.of();
+            }
+            Posicoes menor = listas.get(0);
+            // cursor de cada uma das outras listas, todas andam para frente junto com a menor
+            int[] cursores = new int[listas.size()];
+
+            // heap com os K melhores, o pior fica no topo para sair primeiro
+            PriorityQueue<Resultado> melhores = new PriorityQueue<>(ORDEM.reversed());
+            for (int i = 0; i < menor.tamanho; i++) {
+                int posicao = menor.valores[i];
+                if (!estaEmTodas(listas, cursores, posicao)) {
+                    continue;
+                }
+                String nome = nomes.get(posicao);
+                if (nome == null) {
+                    continue;
+                }
+                int pontuacao = pontuar(nome, palavras);
+                if (pontuacao < 0) {
+                    continue;
+                }
+                // a maioria dos candidatos perde para o pior do heap, então compara antes de criar o resultado
+                if (melhores.size() == limite) {
+                    Resultado pior = melhores.peek();
+                    if (pontuacao < pior.pontuacao()
+                            || (pontuacao == pior.pontuacao() && nome.length() > pior.nome().length())) {
+                        continue;
+                    }
+                }
+                melhores.add(new Resultado(ids.get(posicao), nome, pontuacao));
+                if (melhores.size() > limite) {
+                    melhores.poll();
+                }
+            }
+
+            List<Resultado> ordenados = new ArrayList<>(melhores);
+            ordenados.sort(ORDEM);
+            List<UUID> resultado = new ArrayList<>(ordenados.size());
+            for (Resultado item : ordenados) {
+                resultado.add(item.id());
+            }
+            return resultado;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // listas dos trigramas do termo, da menor para a maior; nula se algum trigrama não existe
+    private List<Posicoes> listasDosTrigramas(String[] palavras) {
+        Set<String> trigramas = new LinkedHashSet<>();
+        for (String palavra : palavras) {
+            // palavra de uma letra não tem trigrama, fica só para a conferência em pontuar()
+            if (palavra.length() >= 2) {
+                trigramas.addAll(trigramasDoTermo(palavra));
+            }
+        }
+        List<Posicoes> listas = new ArrayList<>(trigramas.size());
+        for (String trigrama : trigramas) {
+            Posicoes lista = posicoesPorTrigrama.get(trigrama);
+            if (lista == null) {
+                return null;
+            }
+            listas.add(lista);
+        }
+        listas.sort(Comparator.comparingInt(lista -> lista.tamanho));
+        return listas;
+    }
+
+    // confere se a posição está nas outras listas. Como as posições chegam em ordem crescente, cada cursor
+    // só anda para frente, em saltos que dobram de tamanho e depois busca binária no último salto.
+    private static boolean estaEmTodas(List<Posicoes> listas, int[] cursores, int posicao) {
+        for (int l = 1; l < listas.size(); l++) {
+            Posicoes lista = listas.get(l);
+            int inicio = cursores[l];
+            int salto = 1;
+            while (inicio + salto < lista.tamanho && lista.valores[inicio + salto] < posicao) {
+                inicio += salto;
+                salto *= 2;
+            }
+            int encontrado = Arrays.binarySearch(lista.valores, inicio, Math.min(inicio + salto + 1, lista.tamanho), posicao);
+            if (encontrado < 0) {
+                cursores[l] = Math.min(-encontrado - 1, lista.tamanho);
+                return false;
+            }
+            cursores[l] = encontrado;
+        }
+        return true;
+    }
+
+    // -1 se alguma palavra não aparece no nome; começo de palavra vale mais que meio de palavra
+    private static int pontuar(String nome, String[] palavras) {
+        int pontuacao = 0;
+        for (String palavra : palavras) {
+            int posicao = nome.indexOf(palavra);
+            if (posicao < 0) {
+                return -1;
+            }
+            if (comecaPalavraEm(nome, palavra, posicao)) {
+                pontuacao += 2;
+            } else if (palavra.length() >= 3) {
+                pontuacao += 1;
+            } else {
+                return -1;
+            }
+        }
+        return pontuacao;
+    }
+
+    // a palavra pode aparecer no meio de uma palavra antes de aparecer no começo de outra ("ana" em "joana ana")
+    private static boolean comecaPalavraEm(String nome, String palavra, int posicao) {
+        while (posicao >= 0) {
+            if (posicao == 0 || nome.charAt(posicao - 1) == ' ') {
+                return true;
+            }
+            posicao = nome.indexOf(palavra, posicao + 1);
+        }
+        return false;
+    }
+
+    private void adicionarSemLock(UUID id, String normalizado) {
+        int posicao = nomes.size();
+        ids.add(id);
+        nomes.add(normalizado);
+        posicoes.put(id, posicao);
+        for (String trigrama : trigramasDoNome(normalizado)) {
+            posicoesPorTrigrama.computeIfAbsent(trigrama, t -> new Posicoes()).adicionar(posicao);
+        }
+    }
+
+    // só marca a posição como removida, as listas dos trigramas são limpas na compactação
+    private void removerSemLock(UUID id) {
+        Integer posicao = posicoes.remove(id);
+        if (posicao != null) {
+            nomes.set(posicao, null);
+            removidos++;
+        }
+    }
+
+    // quando metade das posições está removida, reconstrói o índice só com os nomes ativos
+    private void compactarSeNecessario() {
+        if (removidos < 1024 || removidos < posicoes.size()) {
+            return;
+        }
+        List<UUID> idsAtivos = new ArrayList<>(posicoes.size());
+        List<String> nomesAtivos = new ArrayList<>(posicoes.size());
+        for (int posicao = 0; posicao < nomes.size(); posicao++) {
+            if (nomes.get(posicao) != null) {
+                idsAtivos.add(ids.get(posicao));
+                nomesAtivos.add(nomes.get(posicao));
+            }
+        }
+        limpar();
+        for (int i = 0; i < idsAtivos.size(); i++) {
+            adicionarSemLock(idsAtivos.get(i), nomesAtivos.get(i));
+        }
+    }
+
+    private void limpar() {
+        ids.clear();
+        nomes.clear();
+        posicoes.clear();
+        posicoesPorTrigrama.clear();
+        removidos = 0;
+    }
+
+    // trigramas de cada palavra do nome, com um espaço antes para marcar o começo da palavra
+    private static Set<String> trigramasDoNome(String nome) {
+        Set<String> trigramas = new LinkedHashSet<>();
+        for (String palavra : palavras(nome)) {
+            String comEspaco = " " + palavra;
+            for (int i = 0; i + 3 <= comEspaco.length(); i++) {
+                trigramas.add(comEspaco.substring(i, i + 3));
+            }
+        }
+        return trigramas;
+    }
+
+    // palavra de 2 letras vira o trigrama de começo de palavra, as outras usam os trigramas de dentro dela
+    private static List<String> trigramasDoTermo(String palavra) {
+        if (palavra.length() == 2) {
+            return List.of(" " + palavra);
+        }
+        List<String> trigramas = new ArrayList<>();
+        for (int i = 0; i + 3 <= palavra.length(); i++) {
+            trigramas.add(palavra.substring(i, i + 3));
+        }
+        return trigramas;
+    }
+
+    private static String[] palavras(String normalizado) {
+        return normalizado.isEmpty() ? new String[0] : normalizado.split(" ");
+    }
+
+    static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        String semAcento = ACENTOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARADORES.matcher(semAcento.toLowerCase(Locale.ROOT)).replaceAll(" ").strip();
+    }
+}
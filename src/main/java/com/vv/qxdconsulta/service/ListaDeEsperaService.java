@@ -0,0 +1,142 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.PacienteEmCache;
+import com.vv.qxdconsulta.dto.PromocaoDaListaDeEspera;
+import com.vv.qxdconsulta.dto.SituacaoDaEspera;
+import com.vv.qxdconsulta.model.Consulta;
+import com.vv.qxdconsulta.model.EsperaPorVaga;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.repository.ConsultaRepository;
+import com.vv.qxdconsulta.repository.ListaDeEsperaRepository;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+// lista de espera por horário lotado. Em vez de o cliente ficar tentando agendar, o paciente entra na fila
+// e a vaga liberada por um cancelamento ou remarcação vira consulta do primeiro da fila, na mesma transação.
+@Service
+@Timed(value = "qxdconsulta.servico", histogram = true, percentiles = {0.5, 0.95, 0.99})
+public class ListaDeEsperaService {
+
+    @Autowired
+    MedicoService medicoService;
+    @Autowired
+    PacienteService pacienteService;
+    @Autowired
+    HorarioDisponivelService horarioDisponivelService;
+    @Autowired
+    ConsultaRepository consultaRepository;
+    @Autowired
+    ListaDeEsperaRepository listaDeEsperaRepository;
+    @Autowired
+    ApplicationEventPublisher eventos;
+
+    // mesmo tamanho da primeira página (findFirst10...)
+    static final int PAGINA_DA_FILA = 10;
+
+    // só entra na fila quem não conseguiria agendar, com vaga livre o agendamento é direto
+    @Transactional
+    public EsperaPorVaga entrarNaListaDeEspera(String crmMedico, String cpfPaciente, LocalDateTime dataHora, String tipoConsulta){
+        MedicoEmCache medico = medicoService.buscarMedicoEmCache(crmMedico);
+        PacienteEmCache dadosDoPaciente = pacienteService.buscarPacienteEmCache(cpfPaciente);
+        HorarioDisponivel horario = horarioDisponivelService.buscarHorarioPorMedico(medico.crm(), dataHora);
+
+        if (horario.podeAgendar()){
+            throw new IllegalArgumentException("Ainda há vagas neste horário, agende a consulta.");
+        }
+        if (listaDeEsperaRepository.existsByHorarioDisponivelIdAndPacienteIdAndPromovidaEmIsNull(horario.getId(), dadosDoPaciente.id())){
+            throw new IllegalArgumentException("O paciente já está na lista de espera deste horário.");
+        }
+        if (consultaRepository.existsByPacienteIdAndDataHora(dadosDoPaciente.id(), horario.getHorario())){
+            Metricas.rejeicao(Metricas.PACIENTE_OCUPADO);
+            throw new IllegalArgumentException(ConsultaService.PACIENTE_OCUPADO);
+        }
+
+        // a espera guarda a entidade desta transação, não o paciente do cache
+        Paciente paciente = pacienteService.buscarPacientePorId(dadosDoPaciente.id());
+        EsperaPorVaga espera = listaDeEsperaRepository.save(new EsperaPorVaga(horario, paciente, tipoConsulta, LocalDateTime.now()));
+        // uma vaga pode ter sido liberada entre a leitura do horário e o insert, sem ninguém na fila para recebê-la
+        promover(horario);
+        return espera;
+    }
+
+    @Transactional(readOnly = true)
+    public SituacaoDaEspera buscarSituacao(UUID esperaId){
+        EsperaPorVaga espera = buscarEspera(esperaId);
+        HorarioDisponivel horario = espera.getHorarioDisponivel();
+        Long posicao = espera.promovida() ? null
+                : listaDeEsperaRepository.contarNaFrente(horario.getId(), espera.getEntrouEm(), espera.getId()) + 1;
+        return new SituacaoDaEspera(espera.getId(), horario.getHorario(), horario.getMedico().getCrm(),
+                espera.promovida(), posicao, espera.getConsultaId());
+    }
+
+    @Transactional
+    public void sairDaListaDeEspera(UUID esperaId){
+        EsperaPorVaga espera = buscarEspera(esperaId);
+        if (listaDeEsperaRepository.removerAguardando(espera.getId()) == 0){
+            throw new IllegalArgumentException("O pedido já foi promovido, cancele a consulta.");
+        }
+    }
+
+    // chamado depois que uma vaga do horário foi liberada. Ocupa a vaga e tenta os pedidos da fila em ordem, página
+    // por página: a update condicional garante que dois cancelamentos simultâneos não promovem o mesmo pedido.
+    // Quem agendou outra consulta no mesmo horário enquanto esperava é pulado e continua na fila.
+    // Se a fila acabar sem ninguém promovido (vazia, todos pulados ou promovidos por outra transação),
+    // a vaga volta a ficar livre.
+    @Transactional
+    public void promover(HorarioDisponivel horario){
+        List<EsperaPorVaga> fila = listaDeEsperaRepository.findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(horario.getId());
+        if (fila.isEmpty() || horarioDisponivelService.reservarVagas(horario, 1) == 0){
+            return;
+        }
+        LocalDateTime agora = LocalDateTime.now();
+        while (!fila.isEmpty()){
+            for (EsperaPorVaga espera : fila){
+                if (tentarPromover(espera, horario, agora)){
+                    return;
+                }
+            }
+            if (fila.size() < PAGINA_DA_FILA){
+                break;
+            }
+            EsperaPorVaga ultimo = fila.get(fila.size() - 1);
+            fila = listaDeEsperaRepository.buscarFilaApos(horario.getId(), ultimo.getEntrouEm(), ultimo.getId(),
+                    Limit.of(PAGINA_DA_FILA));
+        }
+        horarioDisponivelService.liberarVaga(horario);
+    }
+
+    private boolean tentarPromover(EsperaPorVaga espera, HorarioDisponivel horario, LocalDateTime agora){
+        if (consultaRepository.existsByPacienteIdAndDataHora(espera.getPaciente().getId(), horario.getHorario())){
+            return false;
+        }
+        if (listaDeEsperaRepository.promover(espera.getId(), agora) == 0){
+            return false;
+        }
+        Consulta consulta = new Consulta(null, horario.getHorario(), espera.getTipoConsulta(),
+                espera.getPaciente(), horario.getMedico(), horario);
+        horario.getConsultasAgendadas().add(consulta);
+        consultaRepository.save(consulta);
+        espera.setConsultaId(consulta.getId());
+
+        Metricas.promocao();
+        PromocaoDaListaDeEspera promocao = new PromocaoDaListaDeEspera(espera.getId(), consulta.getId(),
+                espera.getPaciente().getId(), horario.getMedico().getId(), horario.getHorario());
+        AposCommit.executar(() -> eventos.publishEvent(promocao));
+        return true;
+    }
+
+    private EsperaPorVaga buscarEspera(UUID esperaId){
+        return listaDeEsperaRepository.findById(esperaId)
+                .orElseThrow(() -> new IllegalArgumentException("Pedido da lista de espera não encontrado"));
+    }
+}
@@ -1,52 +1,103 @@
 package com.vv.qxdconsulta.service;
 
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.NomeIndexado;
+import com.vv.qxdconsulta.dto.Pagina;
+import com.vv.qxdconsulta.dto.TokenDePagina;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.HorarioDisponivel;
 import com.vv.qxdconsulta.model.Medico;
 import com.vv.qxdconsulta.model.Paciente;
 import com.vv.qxdconsulta.repository.ConsultaRepository;
 import com.vv.qxdconsulta.repository.MedicoRepository;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@Timed(value = "qxdconsulta.servico", histogram = true, percentiles = {0.5, 0.95, 0.99})
 public class MedicoService {
 
+    private static final Logger log = LoggerFactory.getLogger(MedicoService.class);
+
+    static final int TAMANHO_MAXIMO_PAGINA = 500;
+    static final int LIMITE_MAXIMO_DA_BUSCA = 50;
+
     @Autowired
     MedicoRepository medicoRepository;
 
     @Autowired
-    ConsultaService consultaService;
+    ConsultaRepository consultaRepository;
 
     @Autowired
     PacienteService pacienteService;
 
+    @Autowired
+    CacheManager cacheManager;
+
+    // ConsultaService e HorarioDisponivelService também dependem deste service. As referências de volta são buscadas
+    // no primeiro uso e não injetadas: com o processamento AOT (perfil inicio-rapido) os campos são injetados na criação
+    // do bean, antes de existir a referência antecipada que resolvia o ciclo
+    @Autowired
+    ObjectProvider<ConsultaService> consultaServiceProvider;
+
+    @Autowired
+    ObjectProvider<HorarioDisponivelService> horarioDisponivelServiceProvider;
+
+    ConsultaService consultaService;
+    HorarioDisponivelService horarioDisponivelService;
+
+    // busca por parte do nome, mantido junto com as alterações de médico
+    final IndiceDeNomes indiceDeNomes = new IndiceDeNomes();
+
 
     // criar
     public Medico adicionarMedico(Medico medico){
         //verificação se o CPF já está cadastrado
         if (medicoRepository.findByCpf(medico.getCpf()).isPresent()){
+            Metricas.rejeicao(Metricas.CPF_DUPLICADO);
             throw new IllegalArgumentException("CPF já cadastrado: " + medico.getCpf());
         }
 
         //verificação se o email já está cadastrado
         if (medicoRepository.findByCrm(medico.getCrm()).isPresent()){
+            Metricas.rejeicao(Metricas.CRM_DUPLICADO);
             throw new IllegalArgumentException("CRM já cadastrado: " + medico.getCrm());
         }
 
-        return medicoRepository.save(medico);
+        Medico medicoSalvo = medicoRepository.save(medico);
+        AposCommit.executar(() -> indiceDeNomes.adicionar(medicoSalvo.getId(), medicoSalvo.getNome()));
+        return medicoSalvo;
     }
 
     // busca os horários disponíveis do medico
     public HorarioDisponivel buscarHorarioDisponivel(Medico medico, LocalDateTime dataHora){
         // buscar o horário específico dentro dos horários disponíveis do médico
-        System.out.println("Dentro do metodo buscarHorarioDisponivel....");
+        log.debug("Buscando horário disponível do médico {} em {}", medico.getCrm(), dataHora);
         for( HorarioDisponivel horarioDisponivel : medico.getHorarioDisponivel()) {
             if (horarioDisponivel.getHorario().toLocalDate().equals(dataHora.toLocalDate())) {
                 return horarioDisponivel;
@@ -60,6 +111,8 @@ public class MedicoService {
     // update
     public Medico alterarMedico(UUID idMedico, Medico medico){
         Medico medicoExistente = medicoRepository.findById(idMedico).orElseThrow(() -> new IllegalArgumentException("Médico não encontrado"));
+        // o CRM pode mudar: sai do cache o antigo e o novo, os outros médicos continuam lá
+        tirarDoCache(medicoExistente.getCrm(), medico.getCrm());
 
         medicoExistente.setNome(medico.getNome());
         medicoExistente.setCpf(medico.getCpf());
@@ -67,7 +120,9 @@ public class MedicoService {
         medicoExistente.setEspecialização(medico.getEspecialização());
         medicoExistente.setHorarioDisponivel(medico.getHorarioDisponivel());
 
-        return medicoRepository.save(medicoExistente);
+        Medico medicoSalvo = medicoRepository.save(medicoExistente);
+        AposCommit.executar(() -> indiceDeNomes.adicionar(medicoSalvo.getId(), medicoSalvo.getNome()));
+        return medicoSalvo;
     }
 
     // findAll
@@ -75,38 +130,138 @@ public class MedicoService {
         return medicoRepository.findAll();
     }
 
-    // buscar por crm
+    // listagem paginada, ordenada por nome. Token nulo pede a primeira página, especialização nula lista todos.
+    // Cada página custa o mesmo, não importa quantas já foram lidas.
+    public Pagina<Medico> buscarMedicosPaginado(String especializacao, String token, int tamanho){
+        if (tamanho < 1 || tamanho > TAMANHO_MAXIMO_PAGINA){
+            throw new IllegalArgumentException("Tamanho de página inválido: " + tamanho);
+        }
+
+        // busca um a mais só para saber se existe próxima página
+        Limit limite = Limit.of(tamanho + 1);
+        List<Medico> medicos;
+        if (token == null){
+            medicos = medicoRepository.buscarPrimeiraPagina(especializacao, limite);
+        } else {
+            TokenDePagina posicao = TokenDePagina.decodificar(token);
+            medicos = medicoRepository.buscarPaginaApos(especializacao, posicao.nome(), posicao.id(), limite);
+        }
+
+        if (medicos.size() <= tamanho){
+            return new Pagina<>(medicos, null);
+        }
+        List<Medico> itens = medicos.subList(0, tamanho);
+        Medico ultimo = itens.get(tamanho - 1);
+        return new Pagina<>(itens, new TokenDePagina(ultimo.getNome(), ultimo.getId()).codificar());
+    }
+
+    // buscar por crm, a entidade vem do banco a cada chamada
     public Medico buscarMedicoPorCrm(String crm) {
-        return medicoRepository.findByCpf(crm)
+        return medicoRepository.findByCrm(crm)
                 .orElseThrow(() -> new IllegalArgumentException("Médico não encontrado com o CRM: " + crm));
     }
 
+    // mesma busca pelo cache (medicosPorCrm), para quem só precisa do id, do CRM ou do nome.
+    // O cache guarda um record e não a entidade, que ficaria compartilhada entre as threads
+    @Cacheable(cacheNames = "medicosPorCrm")
+    public MedicoEmCache buscarMedicoEmCache(String crm) {
+        return MedicoEmCache.de(buscarMedicoPorCrm(crm));
+    }
+
     // buscar por cpf
     public Medico buscarMedicoPorCpf(String cpf) {
         return medicoRepository.findByCpf(cpf)
                 .orElseThrow(() -> new IllegalArgumentException("Médico não encontrado com o CPF: " + cpf));
     }
 
+    // busca vários médicos em uma consulta só, usado no agendamento em lote
+    public Map<String, Medico> buscarMedicosPorCrms(Collection<String> crms) {
+        Map<String, Medico> medicos = new HashMap<>();
+        for (Medico medico : medicoRepository.findByCrmIn(crms)) {
+            medicos.put(medico.getCrm(), medico);
+        }
+        return medicos;
+    }
+
 //    buscar por id
     public Medico buscarMedicoPorId(UUID idMedico) {
     return medicoRepository.findById(idMedico)
             .orElseThrow(() -> new IllegalArgumentException("Médico não encontrado"));
 }
 
+    // só remove médico sem consultas, para apagar o médico junto com as consultas usar removerMedicoComConsultas.
+    // Os horários saem pelo HorarioDisponivelService, que tira o médico do índice de disponibilidade
+    @Transactional
     public void removerMedico(UUID idMedico) {
-        Medico medico = medicoRepository.findById(idMedico)
+        // só o CRM e uma consulta de existência, sem carregar os horários e as consultas deles
+        String crm = medicoRepository.buscarCrm(idMedico)
                 .orElseThrow(() -> new IllegalArgumentException("Médico não encontrado"));
+        if (consultaRepository.existsByMedicoId(idMedico)) {
+            throw new IllegalArgumentException("O médico possui consultas marcadas e não pode ser excluído.");
+        }
+
+        tirarDoCache(crm);
+        horarioDisponivelService().removerHorariosDoMedico(idMedico);
+        medicoRepository.removerPorId(idMedico);
+        AposCommit.executar(() -> indiceDeNomes.remover(idMedico));
+    }
+
+    // apaga consultas, horários e o médico com um comando cada, sem carregar nada.
+    // O custo é o mesmo para um médico com 1 ou com 10 mil consultas.
+    @Transactional
+    public void removerMedicoComConsultas(UUID idMedico) {
+        // só o CRM, para tirar o médico do cache
+        String crm = medicoRepository.buscarCrm(idMedico)
+                .orElseThrow(() -> new IllegalArgumentException("Médico não encontrado"));
+
+        tirarDoCache(crm);
+        consultaService().removerConsultasDoMedico(idMedico);
+        horarioDisponivelService().removerHorariosDoMedico(idMedico);
+        medicoRepository.removerPorId(idMedico);
+        AposCommit.executar(() -> indiceDeNomes.remover(idMedico));
+    }
 
-        // Para cada horário disponível do médico, remover todas as consultas agendadas
-        for (HorarioDisponivel horarioDisponivel : medico.getHorarioDisponivel()) {
-            List<Consulta> consultasRemover = new ArrayList<>(horarioDisponivel.getConsultasAgendadas());
+    // busca por parte do nome, sem acento e sem diferenciar maiúsculas, para a busca enquanto digita.
+    // Usa o índice em memória e só vai ao banco para carregar os médicos encontrados.
+    public List<Medico> pesquisarMedicosPorNome(String termo, int limite) {
+        if (limite < 1 || limite > LIMITE_MAXIMO_DA_BUSCA) {
+            throw new IllegalArgumentException("Limite de resultados inválido: " + limite);
+        }
+        List<UUID> ids = indiceDeNomes.buscar(termo, limite);
+        if (ids.isEmpty()) {
+            return List.of();
+        }
 
-            for (Consulta consulta : consultasRemover) {
-                consultaService.removerConsulta(consulta.getId());
+        // findAllById não garante a ordem, então volta para a ordem do índice
+        Map<UUID, Medico> medicosPorId = medicoRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Medico::getId, Function.identity()));
+        List<Medico> medicos = new ArrayList<>(ids.size());
+        for (UUID id : ids) {
+            Medico medico = medicosPorId.get(id);
+            if (medico != null) {
+                medicos.add(medico);
             }
         }
+        return medicos;
+    }
+
+    // médicos da especialização para a busca dos primeiros horários livres
+    public Set<UUID> listarIdsPorEspecializacao(String especializacao) {
+        return new HashSet<>(medicoRepository.listarIdsPorEspecializacao(especializacao));
+    }
 
-        medicoRepository.delete(medico);
+    public Map<UUID, Medico> buscarMedicosPorIds(Collection<UUID> ids) {
+        return medicoRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Medico::getId, Function.identity()));
+    }
+
+    // carrega o índice de nomes quando a aplicação sobe
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void carregarIndiceDeNomes() {
+        try (Stream<NomeIndexado> nomes = medicoRepository.listarNomes()) {
+            indiceDeNomes.recarregar(nomes);
+        }
     }
 
     // buscar uma lista de horarios disponíveis do medico
@@ -131,4 +286,28 @@ public class MedicoService {
         return horarios;
     }
 
+    private ConsultaService consultaService() {
+        if (consultaService == null) {
+            consultaService = consultaServiceProvider.getObject();
+        }
+        return consultaService;
+    }
+
+    private HorarioDisponivelService horarioDisponivelService() {
+        if (horarioDisponivelService == null) {
+            horarioDisponivelService = horarioDisponivelServiceProvider.getObject();
+        }
+        return horarioDisponivelService;
+    }
+
+    // depois do commit, senão uma busca durante a transação guardaria de novo o médico antigo
+    private void tirarDoCache(String... crms) {
+        Cache cache = cacheManager.getCache("medicosPorCrm");
+        AposCommit.executar(() -> {
+            for (String crm : crms) {
+                cache.evict(crm);
+            }
+        });
+    }
+
 }
@@ -0,0 +1,47 @@
+package com.vv.qxdconsulta.service;
+
+import io.micrometer.core.instrument.Metrics;
+
+// contadores de rejeição por motivo, de promoções da lista de espera, dos avisos enviados
+// e de reservas de vaga expiradas.
+// Usa o registry global, que o Spring Boot liga ao registry da aplicação,
+// assim os services continuam sendo criados com new nos testes unitários sem precisar de um MeterRegistry.
+final class Metricas {
+
+    static final String REJEICOES = "qxdconsulta.rejeicoes";
+    static final String PROMOCOES = "qxdconsulta.lista_de_espera.promocoes";
+    static final String RESERVAS_EXPIRADAS = "qxdconsulta.reservas.expiradas";
+    static final String AVISOS = "qxdconsulta.lista_de_espera.avisos";
+
+    static final String AVISO_ENVIADO = "enviado";
+    static final String AVISO_FALHOU = "falhou";
+
+    static final String HORARIO_LOTADO = "horario_lotado";
+    static final String HORARIO_INEXISTENTE = "horario_inexistente";
+    static final String MEDICO_INEXISTENTE = "medico_inexistente";
+    static final String PACIENTE_INEXISTENTE = "paciente_inexistente";
+    static final String PACIENTE_OCUPADO = "paciente_ocupado";
+    static final String RESERVA_REPETIDA = "reserva_repetida";
+    static final String CPF_DUPLICADO = "cpf_duplicado";
+    static final String CRM_DUPLICADO = "crm_duplicado";
+    static final String EMAIL_DUPLICADO = "email_duplicado";
+
+    private Metricas() {
+    }
+
+    static void rejeicao(String motivo) {
+        Metrics.counter(REJEICOES, "motivo", motivo).increment();
+    }
+
+    static void promocao() {
+        Metrics.counter(PROMOCOES).increment();
+    }
+
+    static void reservaExpirada() {
+        Metrics.counter(RESERVAS_EXPIRADAS).increment();
+    }
+
+    static void aviso(String resultado) {
+        Metrics.counter(AVISOS, "resultado", resultado).increment();
+    }
+}
@@ -1,64 +1,118 @@
 package com.vv.qxdconsulta.service;
 
+import com.vv.qxdconsulta.dto.NomeIndexado;
+import com.vv.qxdconsulta.dto.PacienteEmCache;
+import com.vv.qxdconsulta.dto.Pagina;
+import com.vv.qxdconsulta.dto.TokenDePagina;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.HorarioDisponivel;
 import com.vv.qxdconsulta.model.Medico;
 import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.repository.ListaDeEsperaRepository;
 import com.vv.qxdconsulta.repository.PacienteRepository;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@Timed(value = "qxdconsulta.servico", histogram = true, percentiles = {0.5, 0.95, 0.99})
 public class PacienteService {
 
+    static final int TAMANHO_MAXIMO_PAGINA = 500;
+    static final int LIMITE_MAXIMO_DA_BUSCA = 50;
+
     @Autowired
     PacienteRepository pacienteRepository;
 
     @Autowired
+    ListaDeEsperaRepository listaDeEsperaRepository;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    // o ConsultaService também depende deste service, a referência de volta é buscada no primeiro uso (ver MedicoService)
+    @Autowired
+    ObjectProvider<ConsultaService> consultaServiceProvider;
+
     ConsultaService consultaService;
 
+    // o ReservaDeVagaService depende deste service pela busca por CPF, mesma referência de volta
+    @Autowired
+    ObjectProvider<ReservaDeVagaService> reservaDeVagaServiceProvider;
+
+    ReservaDeVagaService reservaDeVagaService;
+
+    // busca por parte do nome, mantido junto com as alterações de paciente
+    final IndiceDeNomes indiceDeNomes = new IndiceDeNomes();
+
     //registrar paciente
     public Paciente adicionarPaciente(Paciente paciente){
         //verificação se o CPF já está cadastrado
         if (pacienteRepository.findByCpf(paciente.getCpf()).isPresent()){
+            Metricas.rejeicao(Metricas.CPF_DUPLICADO);
             throw new IllegalArgumentException("CPF já cadastrado: " + paciente.getCpf());
         }
 
         //verificação se o email já está cadastrado
         if (pacienteRepository.findByEmail(paciente.getEmail()).isPresent()){
+            Metricas.rejeicao(Metricas.EMAIL_DUPLICADO);
             throw new IllegalArgumentException("Email já cadastrado: " + paciente.getEmail());
         }
 
-        return pacienteRepository.save(paciente);
+        Paciente pacienteSalvo = pacienteRepository.save(paciente);
+        AposCommit.executar(() -> indiceDeNomes.adicionar(pacienteSalvo.getId(), pacienteSalvo.getName()));
+        return pacienteSalvo;
     }
 
     //atualizar paciente
     public Paciente atualizarPaciente(UUID idPaciente, Paciente paciente){
         Paciente pacienteExistente = pacienteRepository.findById(idPaciente)
                 .orElseThrow(() -> new IllegalArgumentException("Paciente não encontrado"));
+        // sai do cache o CPF antigo e o novo (ver MedicoService.alterarMedico)
+        tirarDoCache(pacienteExistente.getCpf(), paciente.getCpf());
 
         pacienteExistente.setName(paciente.getName());
         pacienteExistente.setEmail(paciente.getEmail());
         pacienteExistente.setCpf(paciente.getCpf());
         pacienteExistente.setContato(paciente.getContato());
 
-        return pacienteRepository.save(pacienteExistente);
+        Paciente pacienteSalvo = pacienteRepository.save(pacienteExistente);
+        AposCommit.executar(() -> indiceDeNomes.adicionar(pacienteSalvo.getId(), pacienteSalvo.getName()));
+        return pacienteSalvo;
     }
 
+    // devolve as vagas, apaga as consultas e o paciente com um comando cada, sem carregar as consultas
+    @Transactional
     public void removerPaciente(UUID idPaciente){
-        Paciente paciente = pacienteRepository.findById(idPaciente)
-                .orElseThrow( () -> new IllegalArgumentException("Paciente não encontrado"));
-
-        //para cada consulta do paciente, vou remover a consulta do horário disponível do médico
-        for (Consulta consulta: new ArrayList<>(paciente.getConsultas())){
-            consultaService.removerConsulta(consulta.getId());
-        }
+        String cpf = pacienteRepository.buscarCpf(idPaciente)
+                .orElseThrow(() -> new IllegalArgumentException("Paciente não encontrado"));
 
-        pacienteRepository.delete(paciente);
+        tirarDoCache(cpf);
+        // os pedidos da lista de espera saem primeiro, senão uma vaga devolvida abaixo poderia ir para o próprio paciente
+        listaDeEsperaRepository.removerDoPaciente(idPaciente);
+        consultaService().removerConsultasDoPaciente(idPaciente);
+        // o cascade do banco apagaria as reservas sem devolver as vagas
+        reservaDeVagaService().removerReservasDoPaciente(idPaciente);
+        pacienteRepository.removerPorId(idPaciente);
+        AposCommit.executar(() -> indiceDeNomes.remover(idPaciente));
     }
 
     //buscar paciente
@@ -66,6 +120,63 @@ public class PacienteService {
         return pacienteRepository.findAll();
     }
 
+    // listagem paginada, ordenada por nome. Token nulo pede a primeira página.
+    public Pagina<Paciente> buscarPacientesPaginado(String token, int tamanho){
+        if (tamanho < 1 || tamanho > TAMANHO_MAXIMO_PAGINA){
+            throw new IllegalArgumentException("Tamanho de página inválido: " + tamanho);
+        }
+
+        // busca um a mais só para saber se existe próxima página
+        Limit limite = Limit.of(tamanho + 1);
+        List<Paciente> pacientes;
+        if (token == null){
+            pacientes = pacienteRepository.buscarPrimeiraPagina(limite);
+        } else {
+            TokenDePagina posicao = TokenDePagina.decodificar(token);
+            pacientes = pacienteRepository.buscarPaginaApos(posicao.nome(), posicao.id(), limite);
+        }
+
+        if (pacientes.size() <= tamanho){
+            return new Pagina<>(pacientes, null);
+        }
+        List<Paciente> itens = pacientes.subList(0, tamanho);
+        Paciente ultimo = itens.get(tamanho - 1);
+        return new Pagina<>(itens, new TokenDePagina(ultimo.getName(), ultimo.getId()).codificar());
+    }
+
+    // busca por parte do nome, sem acento e sem diferenciar maiúsculas, para a busca enquanto digita na recepção.
+    // Usa o índice em memória e só vai ao banco para carregar os pacientes encontrados.
+    public List<Paciente> pesquisarPacientesPorNome(String termo, int limite){
+        if (limite < 1 || limite > LIMITE_MAXIMO_DA_BUSCA){
+            throw new IllegalArgumentException("Limite de resultados inválido: " + limite);
+        }
+        List<UUID> ids = indiceDeNomes.buscar(termo, limite);
+        if (ids.isEmpty()){
+            return List.of();
+        }
+
+        // findAllById não garante a ordem, então volta para a ordem do índice
+        Map<UUID, Paciente> pacientesPorId = pacienteRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Paciente::getId, Function.identity()));
+        List<Paciente> pacientes = new ArrayList<>(ids.size());
+        for (UUID id : ids){
+            Paciente paciente = pacientesPorId.get(id);
+            if (paciente != null){
+                pacientes.add(paciente);
+            }
+        }
+        return pacientes;
+    }
+
+    // carrega o índice de nomes quando a aplicação sobe
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void carregarIndiceDeNomes(){
+        try (Stream<NomeIndexado> nomes = pacienteRepository.listarNomes()){
+            indiceDeNomes.recarregar(nomes);
+        }
+    }
+
     public Paciente buscarPacientePorId(UUID idPaciente){
         return pacienteRepository.findById(idPaciente)
                 .orElseThrow(() -> new IllegalArgumentException("Paciente não encontrado com o ID: " + idPaciente));
@@ -77,6 +188,21 @@ public class PacienteService {
                 .orElseThrow(() -> new IllegalArgumentException("Paciente não encontrado com o CPF: " + cpf));
     }
 
+    // mesma busca pelo cache (pacientesPorCpf), guarda um record e não a entidade (ver MedicoService.buscarMedicoEmCache)
+    @Cacheable(cacheNames = "pacientesPorCpf")
+    public PacienteEmCache buscarPacienteEmCache(String cpf) {
+        return PacienteEmCache.de(buscarPacientePorCpf(cpf));
+    }
+
+    // busca vários pacientes em uma consulta só, usado no agendamento em lote
+    public Map<String, Paciente> buscarPacientesPorCpfs(Collection<String> cpfs) {
+        Map<String, Paciente> pacientes = new HashMap<>();
+        for (Paciente paciente : pacienteRepository.findByCpfIn(cpfs)) {
+            pacientes.put(paciente.getCpf(), paciente);
+        }
+        return pacientes;
+    }
+
     //buscar histórico de consultas
     public List<Consulta> buscarHistoricoDeConsultas(UUID idPaciente){
         Paciente paciente = pacienteRepository.findById(idPaciente)
@@ -85,4 +211,28 @@ public class PacienteService {
         return paciente.getConsultas();
     }
 
+    private ConsultaService consultaService() {
+        if (consultaService == null) {
+            consultaService = consultaServiceProvider.getObject();
+        }
+        return consultaService;
+    }
+
+    private ReservaDeVagaService reservaDeVagaService() {
+        if (reservaDeVagaService == null) {
+            reservaDeVagaService = reservaDeVagaServiceProvider.getObject();
+        }
+        return reservaDeVagaService;
+    }
+
+    // depois do commit, como no MedicoService
+    private void tirarDoCache(String... cpfs) {
+        Cache cache = cacheManager.getCache("pacientesPorCpf");
+        AposCommit.executar(() -> {
+            for (String cpf : cpfs) {
+                cache.evict(cpf);
+            }
+        });
+    }
+
 }
@@ -0,0 +1,188 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.PacienteEmCache;
+import com.vv.qxdconsulta.dto.VencimentoDeReserva;
+import com.vv.qxdconsulta.model.Consulta;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.model.ReservaDeVaga;
+import com.vv.qxdconsulta.repository.ConsultaRepository;
+import com.vv.qxdconsulta.repository.ReservaDeVagaRepository;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+// reserva temporária de vaga para a etapa de confirmação do agendamento. A reserva ocupa a vaga com a mesma
+// update condicional do agendamento, então conta na capacidade e ninguém pega a vaga enquanto o paciente confirma.
+// Confirmar só transforma a reserva em consulta, sem conferir a capacidade de novo. A reserva não confirmada
+// vence depois de qxdconsulta.reservas.duracao: a ExpiracaoDeReservas devolve a vaga e chama a lista de espera.
+// A fila de vencimentos é de cada instância; as reservas de uma instância que caiu ou foi desligada vencem quando
+// alguém encontra o horário lotado (expirarVencidasDoHorario) ou quando a aplicação sobe de novo.
+@Service
+@Timed(value = "qxdconsulta.servico", histogram = true, percentiles = {0.5, 0.95, 0.99})
+public class ReservaDeVagaService {
+
+    @Autowired
+    MedicoService medicoService;
+    @Autowired
+    PacienteService pacienteService;
+    @Autowired
+    HorarioDisponivelService horarioDisponivelService;
+    @Autowired
+    ListaDeEsperaService listaDeEsperaService;
+    @Autowired
+    ConsultaRepository consultaRepository;
+    @Autowired
+    ReservaDeVagaRepository reservaDeVagaRepository;
+
+    @Value("${qxdconsulta.reservas.duracao:10m}")
+    Duration duracaoDaReserva = Duration.ofMinutes(10);
+
+    final VencimentosDeReservas vencimentos = new VencimentosDeReservas();
+
+    static final String RESERVA_REPETIDA = "O paciente já tem uma reserva neste horário";
+
+    @Transactional
+    public ReservaDeVaga reservarVaga(String crmMedico, String cpfPaciente, LocalDateTime dataHora, String tipoConsulta){
+        MedicoEmCache medico = medicoService.buscarMedicoEmCache(crmMedico);
+        PacienteEmCache dadosDoPaciente = pacienteService.buscarPacienteEmCache(cpfPaciente);
+        ConsultaService.verificarHorarioDoPaciente(consultaRepository.existsByPacienteIdAndDataHora(dadosDoPaciente.id(), dataHora));
+
+        HorarioDisponivel horario = horarioDisponivelService.buscarHorarioPorMedico(medico.crm(), dataHora);
+        verificarReservaDoPaciente(horario, dadosDoPaciente.id());
+        horarioDisponivelService.verificarDisponibilidadeDeConsulta(horario);
+        // a vaga fica ocupada desde já, a confirmação não passa de novo pela capacidade
+        horarioDisponivelService.reservarVaga(horario);
+
+        Paciente paciente = pacienteService.buscarPacientePorId(dadosDoPaciente.id());
+        ReservaDeVaga reserva;
+        try {
+            // flush aqui para o índice único responder dentro do método, com a vaga ainda desfeita pelo rollback
+            reserva = reservaDeVagaRepository.saveAndFlush(
+                    new ReservaDeVaga(horario, paciente, tipoConsulta, LocalDateTime.now().plus(duracaoDaReserva)));
+        } catch (DataIntegrityViolationException e) {
+            // outra reserva do mesmo paciente no mesmo horário passou pela conferência ao mesmo tempo
+            Metricas.rejeicao(Metricas.RESERVA_REPETIDA);
+            throw new IllegalArgumentException(RESERVA_REPETIDA);
+        }
+        AposCommit.executar(() -> vencimentos.agendar(reserva.getId(), reserva.getExpiraEm()));
+        return reserva;
+    }
+
+    // cria a consulta na vaga da reserva. O delete condicional decide entre a confirmação e a expiração:
+    // se a reserva venceu (ou já foi confirmada ou cancelada), nada é criado
+    @Transactional
+    public Consulta confirmar(UUID reservaId){
+        ReservaDeVaga reserva = reservaDeVagaRepository.findById(reservaId)
+                .orElseThrow(() -> new IllegalArgumentException("Reserva não encontrada"));
+        HorarioDisponivel horario = reserva.getHorarioDisponivel();
+        Paciente paciente = reserva.getPaciente();
+        // o paciente pode ter agendado outra consulta no mesmo horário depois de reservar
+        ConsultaService.verificarHorarioDoPaciente(consultaRepository.existsByPacienteIdAndDataHora(paciente.getId(), horario.getHorario()));
+        if (reservaDeVagaRepository.removerAtiva(reserva.getId(), LocalDateTime.now()) == 0){
+            throw new IllegalArgumentException("A reserva expirou");
+        }
+
+        Consulta consulta = new Consulta(null, horario.getHorario(), reserva.getTipoConsulta(), paciente, horario.getMedico(), horario);
+        horario.getConsultasAgendadas().add(consulta);
+        consultaRepository.save(consulta);
+        return consulta;
+    }
+
+    // o paciente desistiu: a vaga volta para o horário na hora, sem esperar o vencimento
+    @Transactional
+    public void cancelar(UUID reservaId){
+        ReservaDeVaga reserva = reservaDeVagaRepository.findById(reservaId)
+                .orElseThrow(() -> new IllegalArgumentException("Reserva não encontrada"));
+        if (reservaDeVagaRepository.remover(reserva.getId()) > 0){
+            devolverVaga(reserva.getHorarioDisponivel());
+        }
+    }
+
+    // chamado pela ExpiracaoDeReservas quando o vencimento chega. Reserva já confirmada ou cancelada não existe
+    // mais e a chamada não faz nada
+    @Transactional
+    public boolean expirar(UUID reservaId){
+        ReservaDeVaga reserva = reservaDeVagaRepository.findById(reservaId).orElse(null);
+        if (reserva == null){
+            return false;
+        }
+        if (reservaDeVagaRepository.removerVencida(reserva.getId(), LocalDateTime.now()) == 0){
+            // o relógio da fila adiantou em relação ao do banco, a reserva volta para a fila até vencer de fato
+            AposCommit.executar(() -> vencimentos.agendar(reserva.getId(), reserva.getExpiraEm()));
+            return false;
+        }
+        devolverVaga(reserva.getHorarioDisponivel());
+        Metricas.reservaExpirada();
+        return true;
+    }
+
+    // chamado pelo HorarioDisponivelService quando encontra o horário lotado: apaga as reservas vencidas dele com
+    // um delete e devolve as vagas como a expiração. Retorna quantas reservas venceram
+    @Transactional
+    public int expirarVencidasDoHorario(HorarioDisponivel horario){
+        int vencidas = reservaDeVagaRepository.removerVencidasDoHorario(horario.getId(), LocalDateTime.now());
+        for (int i = 0; i < vencidas; i++){
+            devolverVaga(horario);
+            Metricas.reservaExpirada();
+        }
+        return vencidas;
+    }
+
+    // as reservas continuam no banco quando a aplicação para; ao subir, voltam para a fila de vencimentos
+    // (as que venceram com a aplicação parada expiram logo em seguida)
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void carregarVencimentos(){
+        for (VencimentoDeReserva vencimento : reservaDeVagaRepository.listarVencimentos()){
+            vencimentos.agendar(vencimento.reservaId(), vencimento.expiraEm());
+        }
+    }
+
+    // remoção do paciente: apaga as reservas dele com um delete e devolve as vagas, que vão para a lista de espera
+    @Transactional
+    public void removerReservasDoPaciente(UUID pacienteId){
+        List<ReservaDeVaga> reservas = reservaDeVagaRepository.findByPacienteId(pacienteId);
+        if (reservas.isEmpty()){
+            return;
+        }
+        reservaDeVagaRepository.removerDoPaciente(pacienteId);
+        for (ReservaDeVaga reserva : reservas){
+            devolverVaga(reserva.getHorarioDisponivel());
+        }
+    }
+
+    VencimentosDeReservas vencimentos(){
+        return vencimentos;
+    }
+
+    // a reserva ativa do paciente no horário barra a nova; a vencida que a fila de vencimentos ainda não
+    // alcançou é expirada agora, senão o índice único barraria a nova reserva até a fila chegar nela
+    private void verificarReservaDoPaciente(HorarioDisponivel horario, UUID pacienteId){
+        ReservaDeVaga existente = reservaDeVagaRepository.findByHorarioDisponivelIdAndPacienteId(horario.getId(), pacienteId).orElse(null);
+        if (existente == null){
+            return;
+        }
+        if (existente.getExpiraEm().isAfter(LocalDateTime.now()) || !expirar(existente.getId())){
+            Metricas.rejeicao(Metricas.RESERVA_REPETIDA);
+            throw new IllegalArgumentException(RESERVA_REPETIDA);
+        }
+    }
+
+    // mesma sequência do cancelamento de consulta: a vaga liberada vai para o primeiro da lista de espera
+    private void devolverVaga(HorarioDisponivel horario){
+        horarioDisponivelService.liberarVaga(horario);
+        listaDeEsperaService.promover(horario);
+    }
+}
@@ -0,0 +1,64 @@
+package com.vv.qxdconsulta.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+// thread que a cada intervalo relê no índice de disponibilidade os dias que mudaram no banco, para as alterações de
+// outras instâncias aparecerem nesta. Cada rodada roda na transação do HorarioDisponivelService (chamada pelo proxy);
+// uma rodada que falha é só registrada, a seguinte compara com as versões da última que deu certo.
+// Intervalo zero desliga a ressincronização (uma instância só, ou testes que medem os comandos SQL).
+@Component
+public class RessincronizacaoDaDisponibilidade {
+
+    private static final Logger log = LoggerFactory.getLogger(RessincronizacaoDaDisponibilidade.class);
+
+    @Autowired
+    HorarioDisponivelService horarioDisponivelService;
+
+    @Value("${qxdconsulta.disponibilidade.ressincronizacao:30s}")
+    Duration intervalo = Duration.ofSeconds(30);
+
+    private Thread thread;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void iniciar() {
+        if (thread != null || intervalo.isZero()) {
+            return;
+        }
+        thread = new Thread(this::ressincronizar, "ressincronizacao-da-disponibilidade");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public synchronized void parar() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void ressincronizar() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalo.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                int dias = horarioDisponivelService.ressincronizarIndiceDeDisponibilidade();
+                log.debug("Ressincronização do índice de disponibilidade releu {} dia(s)", dias);
+            } catch (RuntimeException e) {
+                log.error("Falha na ressincronização do índice de disponibilidade", e);
+            }
+        }
+    }
+}
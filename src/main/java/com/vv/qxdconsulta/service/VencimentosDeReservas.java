@@ -0,0 +1,50 @@
+package com.vv.qxdconsulta.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+// reservas de vaga em ordem de vencimento (DelayQueue, um heap pelo instante). Quem espera o próximo vencimento
+// dorme até ele, sem varrer a tabela de reservas de tempos em tempos; agendar custa O(log n).
+// Reserva confirmada ou cancelada não sai da fila, ela vence normalmente e a expiração não encontra mais a reserva.
+public class VencimentosDeReservas {
+
+    private record Vencimento(UUID reservaId, long instanteNs) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unidade) {
+            return unidade.convert(instanteNs - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed outro) {
+            return Long.compare(instanteNs, ((Vencimento) outro).instanteNs);
+        }
+    }
+
+    private final DelayQueue<Vencimento> fila = new DelayQueue<>();
+
+    // expiraEm no passado vence na hora
+    public void agendar(UUID reservaId, LocalDateTime expiraEm) {
+        long restanteNs = Duration.between(LocalDateTime.now(), expiraEm).toNanos();
+        fila.put(new Vencimento(reservaId, System.nanoTime() + restanteNs));
+    }
+
+    // bloqueia até a próxima reserva vencer
+    public UUID proximoVencimento() throws InterruptedException {
+        return fila.take().reservaId();
+    }
+
+    // a reserva vencida, se houver, sem esperar
+    public UUID vencida() {
+        Vencimento vencimento = fila.poll();
+        return vencimento == null ? null : vencimento.reservaId();
+    }
+
+    public int tamanho() {
+        return fila.size();
+    }
+}
@@ -0,0 +1,53 @@
+package com.vv.qxdconsulta.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DataSourceComSemaforoTest {
+
+    private DataSource pool;
+    private DataSourceComSemaforo dataSource;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        pool = mock(DataSource.class);
+        when(pool.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        dataSource = new DataSourceComSemaforo(pool, 2, 50);
+    }
+
+    @Test
+    public void testEsperaAlemDoLimiteFalha() throws SQLException {
+        dataSource.getConnection();
+        dataSource.getConnection();
+
+        assertThrows(SQLTransientConnectionException.class, () -> dataSource.getConnection());
+        verify(pool, times(2)).getConnection();
+    }
+
+    @Test
+    public void testCloseDevolveAVagaUmaVezSo() throws SQLException {
+        Connection conexao = dataSource.getConnection();
+        assertEquals(1, dataSource.conexoesLivres());
+
+        conexao.close();
+        conexao.close();
+
+        assertEquals(2, dataSource.conexoesLivres());
+    }
+
+    @Test
+    public void testFalhaDoPoolDevolveAVaga() throws SQLException {
+        when(pool.getConnection()).thenThrow(new SQLException("banco fora do ar"));
+
+        assertThrows(SQLException.class, () -> dataSource.getConnection());
+        assertEquals(2, dataSource.conexoesLivres());
+    }
+}
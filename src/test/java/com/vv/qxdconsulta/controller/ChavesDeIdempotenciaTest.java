@@ -0,0 +1,135 @@
+package com.vv.qxdconsulta.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChavesDeIdempotenciaTest {
+
+    private final ChavesDeIdempotencia chaves = new ChavesDeIdempotencia(100, Duration.ofHours(1), Duration.ofSeconds(5));
+    private final AtomicInteger execucoes = new AtomicInteger();
+
+    @Test
+    public void testRepeticaoRecebeOResultadoOriginal() {
+        assertEquals("consulta 1", chaves.executar("chave", "pedido", () -> "consulta " + execucoes.incrementAndGet()));
+        assertEquals("consulta 1", chaves.executar("chave", "pedido", () -> "consulta " + execucoes.incrementAndGet()));
+
+        assertEquals(1, execucoes.get());
+    }
+
+    @Test
+    public void testSemChaveSempreExecuta() {
+        chaves.executar(null, "pedido", execucoes::incrementAndGet);
+        chaves.executar(null, "pedido", execucoes::incrementAndGet);
+
+        assertEquals(2, execucoes.get());
+        assertEquals(0, chaves.tamanho());
+    }
+
+    @Test
+    public void testChaveUsadaEmOutroPedido() {
+        chaves.executar("chave", "pedido", execucoes::incrementAndGet);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> chaves.executar("chave", "outro pedido", execucoes::incrementAndGet));
+        assertEquals("Chave de idempotência já usada em outro pedido", e.getMessage());
+        assertEquals(1, execucoes.get());
+    }
+
+    @Test
+    public void testChaveInvalida() {
+        assertThrows(IllegalArgumentException.class, () -> chaves.executar(" ", "pedido", execucoes::incrementAndGet));
+        assertThrows(IllegalArgumentException.class,
+                () -> chaves.executar("x".repeat(256), "pedido", execucoes::incrementAndGet));
+        assertEquals(0, execucoes.get());
+    }
+
+    @Test
+    public void testFalhaNaoFicaRegistrada() {
+        assertThrows(IllegalArgumentException.class, () -> chaves.executar("chave", "pedido", () -> {
+            execucoes.incrementAndGet();
+            throw new IllegalArgumentException("Limite de consultas para este horário já atingido.");
+        }));
+
+        assertEquals(2, chaves.executar("chave", "pedido", execucoes::incrementAndGet));
+    }
+
+    @Test
+    public void testLimiteDeChaves() {
+        for (int i = 0; i < 1000; i++) {
+            chaves.executar("chave " + i, "pedido", execucoes::incrementAndGet);
+        }
+
+        assertTrue(chaves.tamanho() <= 100);
+    }
+
+    @Test
+    public void testRepeticaoEsperaAExecucaoEmAndamento() throws Exception {
+        CountDownLatch comecou = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> original = executor.submit(() -> chaves.executar("chave", "pedido", () -> {
+                comecou.countDown();
+                aguardar(liberar);
+                return execucoes.incrementAndGet();
+            }));
+            assertTrue(comecou.await(5, TimeUnit.SECONDS));
+            Future<Integer> repeticao = executor.submit(() -> chaves.executar("chave", "pedido", execucoes::incrementAndGet));
+
+            // a repetição não executa enquanto a original está em andamento
+            assertThrows(TimeoutException.class, () -> repeticao.get(200, TimeUnit.MILLISECONDS));
+            liberar.countDown();
+
+            assertEquals(1, original.get(5, TimeUnit.SECONDS));
+            assertEquals(1, repeticao.get(5, TimeUnit.SECONDS));
+            assertEquals(1, execucoes.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRepeticaoDesisteDepoisDaEsperaMaxima() throws Exception {
+        ChavesDeIdempotencia chaves = new ChavesDeIdempotencia(100, Duration.ofHours(1), Duration.ofMillis(100));
+        CountDownLatch comecou = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> original = executor.submit(() -> chaves.executar("chave", "pedido", () -> {
+                comecou.countDown();
+                aguardar(liberar);
+                return execucoes.incrementAndGet();
+            }));
+            assertTrue(comecou.await(5, TimeUnit.SECONDS));
+
+            assertThrows(ChavesDeIdempotencia.PedidoEmAndamento.class,
+                    () -> chaves.executar("chave", "pedido", execucoes::incrementAndGet));
+            liberar.countDown();
+
+            // o timeout da repetição não estraga o resultado guardado
+            assertEquals(1, original.get(5, TimeUnit.SECONDS));
+            assertEquals(1, chaves.executar("chave", "pedido", execucoes::incrementAndGet));
+            assertEquals(1, execucoes.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void aguardar(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.vv.qxdconsulta.controller;
+
+import com.vv.qxdconsulta.model.Consulta;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.service.ConsultaService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(ConsultaController.class)
+public class ConsultaControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ConsultaService consultaService;
+
+    private final LocalDateTime dataHora = LocalDateTime.of(2030, 3, 4, 8, 0);
+    private final String pedido = """
+            {"crmMedico": "CRM12345", "cpfPaciente": "12345678914", "dataHora": "2030-03-04T08:00:00", "tipoConsulta": "Retorno"}
+            """;
+
+    @Test
+    public void testAgendarConsulta() throws Exception {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+        Consulta consulta = new Consulta(UUID.randomUUID(), dataHora, "Retorno", paciente, medico);
+        when(consultaService.agendarConsulta("CRM12345", "12345678914", dataHora, "Retorno")).thenReturn(consulta);
+
+        mockMvc.perform(post("/consultas").contentType(MediaType.APPLICATION_JSON).content(pedido))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(consulta.getId().toString()))
+                .andExpect(jsonPath("$.crmMedico").value("CRM12345"))
+                .andExpect(jsonPath("$.cpfPaciente").value("12345678914"));
+    }
+
+    @Test
+    public void testAgendarConsultaEmHorarioLotado() throws Exception {
+        when(consultaService.agendarConsulta("CRM12345", "12345678914", dataHora, "Retorno"))
+                .thenThrow(new IllegalArgumentException("Limite de consultas para este horário já atingido."));
+
+        mockMvc.perform(post("/consultas").contentType(MediaType.APPLICATION_JSON).content(pedido))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.erro").value("Limite de consultas para este horário já atingido."));
+    }
+
+    @Test
+    public void testRepetirAgendamentoComAMesmaChave() throws Exception {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+        Consulta consulta = new Consulta(UUID.randomUUID(), dataHora, "Retorno", paciente, medico);
+        when(consultaService.agendarConsulta("CRM12345", "12345678914", dataHora, "Retorno")).thenReturn(consulta);
+        String chave = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(post("/consultas").header("Idempotency-Key", chave)
+                            .contentType(MediaType.APPLICATION_JSON).content(pedido))
+                    .andExpect(status().isCreated())
+                    .andExpect(jsonPath("$.id").value(consulta.getId().toString()));
+        }
+
+        verify(consultaService, times(1)).agendarConsulta("CRM12345", "12345678914", dataHora, "Retorno");
+    }
+
+    @Test
+    public void testChaveRepetidaEmOutroPedido() throws Exception {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+        when(consultaService.agendarConsulta("CRM12345", "12345678914", dataHora, "Retorno"))
+                .thenReturn(new Consulta(UUID.randomUUID(), dataHora, "Retorno", paciente, medico));
+        String chave = UUID.randomUUID().toString();
+
+        mockMvc.perform(post("/consultas").header("Idempotency-Key", chave)
+                        .contentType(MediaType.APPLICATION_JSON).content(pedido))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/consultas").header("Idempotency-Key", chave)
+                        .contentType(MediaType.APPLICATION_JSON).content(pedido.replace("Retorno", "Primeira")))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.erro").value("Chave de idempotência já usada em outro pedido"));
+
+        verify(consultaService, never()).agendarConsulta("CRM12345", "12345678914", dataHora, "Primeira");
+    }
+
+    @Test
+    public void testRepetirRemarcacaoComAMesmaChave() throws Exception {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+        LocalDateTime novoHorario = dataHora.plusHours(1);
+        Consulta consulta = new Consulta(UUID.randomUUID(), novoHorario, "Retorno", paciente, medico);
+        when(consultaService.alterarHorarioDaConsulta(consulta.getId(), novoHorario)).thenReturn(consulta);
+        String chave = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(put("/consultas/{id}/horario", consulta.getId()).header("Idempotency-Key", chave)
+                            .contentType(MediaType.APPLICATION_JSON).content("{\"novoHorario\": \"2030-03-04T09:00:00\"}"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.dataHora").value("2030-03-04T09:00:00"));
+        }
+
+        verify(consultaService, times(1)).alterarHorarioDaConsulta(consulta.getId(), novoHorario);
+    }
+}
@@ -0,0 +1,93 @@
+package com.vv.qxdconsulta.controller;
+
+import com.vv.qxdconsulta.dto.HorarioLivre;
+import com.vv.qxdconsulta.dto.HorarioResposta;
+import com.vv.qxdconsulta.dto.VersaoDaListagem;
+import com.vv.qxdconsulta.service.HorarioDisponivelService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(HorarioDisponivelController.class)
+public class HorarioDisponivelControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private HorarioDisponivelService horarioDisponivelService;
+
+    private final VersaoDaListagem versao = new VersaoDaListagem("\"abc-7\"", Instant.parse("2030-03-01T10:00:00Z"));
+
+    @Test
+    public void testListagemDoMedicoLevaETag() throws Exception {
+        HorarioResposta horario = new HorarioResposta(UUID.randomUUID(), "CRM12345", LocalDateTime.of(2030, 3, 4, 8, 0), 5, 3);
+        when(horarioDisponivelService.versaoDosHorariosDoMedico("CRM12345")).thenReturn(versao);
+        when(horarioDisponivelService.listarHorariosDoMedico("CRM12345")).thenReturn(List.of(horario));
+
+        mockMvc.perform(get("/medicos/CRM12345/horarios"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"abc-7\""))
+                .andExpect(header().exists("Last-Modified"))
+                .andExpect(jsonPath("$[0].crmMedico").value("CRM12345"))
+                .andExpect(jsonPath("$[0].vagasLivres").value(3));
+    }
+
+    @Test
+    public void testListagemDoMedicoSemMudancaRetorna304SemBuscarOsHorarios() throws Exception {
+        when(horarioDisponivelService.versaoDosHorariosDoMedico("CRM12345")).thenReturn(versao);
+
+        mockMvc.perform(get("/medicos/CRM12345/horarios").header("If-None-Match", "\"abc-7\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(horarioDisponivelService, never()).listarHorariosDoMedico(any());
+    }
+
+    @Test
+    public void testListagemDoDiaComVersaoNovaRetornaOsHorarios() throws Exception {
+        LocalDate dia = LocalDate.of(2030, 3, 4);
+        when(horarioDisponivelService.versaoDosHorariosDoDia(dia)).thenReturn(versao);
+        when(horarioDisponivelService.listarHorariosDoDia(dia)).thenReturn(List.of());
+
+        mockMvc.perform(get("/horarios").param("data", "2030-03-04").header("If-None-Match", "\"abc-6\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"abc-7\""));
+
+        verify(horarioDisponivelService).listarHorariosDoDia(dia);
+    }
+
+    @Test
+    public void testPrimeirosHorariosLivresDaEspecializacao() throws Exception {
+        LocalDateTime depois = LocalDateTime.of(2030, 3, 4, 8, 0);
+        when(horarioDisponivelService.buscarPrimeirosHorariosLivres("Cardiologia", depois, 10))
+                .thenReturn(List.of(new HorarioLivre("CRM12345", "Dr. Silva", depois.plusMinutes(30), 2)));
+
+        mockMvc.perform(get("/horarios-livres/primeiros").param("especializacao", "Cardiologia").param("depois", "2030-03-04T08:00"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].crmMedico").value("CRM12345"))
+                .andExpect(jsonPath("$[0].horario").value("2030-03-04T08:30:00"));
+    }
+
+    @Test
+    public void testRegraDeNegocioViraBadRequest() throws Exception {
+        when(horarioDisponivelService.versaoDosHorariosDoMedico("CRM00000"))
+                .thenThrow(new IllegalArgumentException("Médico não encontrado com o CRM: CRM00000"));
+
+        mockMvc.perform(get("/medicos/CRM00000/horarios"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.erro").value("Médico não encontrado com o CRM: CRM00000"));
+    }
+}
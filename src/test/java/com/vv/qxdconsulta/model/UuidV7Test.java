@@ -0,0 +1,34 @@
+package com.vv.qxdconsulta.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UuidV7Test {
+
+    @Test
+    public void testVersaoVarianteEInstante() {
+        long antes = System.currentTimeMillis();
+        UUID id = UuidV7.gerar();
+        long depois = System.currentTimeMillis();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        // o contador pode adiantar o instante se outros testes geraram muitos ids no mesmo milissegundo
+        assertTrue(UuidV7.instante(id) >= antes && UuidV7.instante(id) <= depois + 1);
+    }
+
+    @Test
+    public void testIdsGeradosEmSequenciaFicamEmOrdem() {
+        // bem mais que 4096 por milissegundo, para passar pelo contador esgotado
+        UUID anterior = UuidV7.gerar();
+        for (int i = 0; i < 100_000; i++) {
+            UUID atual = UuidV7.gerar();
+            assertTrue(Long.compareUnsigned(atual.getMostSignificantBits(), anterior.getMostSignificantBits()) > 0,
+                    anterior + " deveria vir antes de " + atual);
+            anterior = atual;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.ResultadoDeAgendamento;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.repository.ConsultaRepository;
+import com.vv.qxdconsulta.repository.HorarioDisponivelRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+
+// vários pacientes disputando as últimas vagas do mesmo horário no H2, cada um na sua transação.
+// A update condicional de vagasOcupadas é quem decide: exatamente capacidade consultas, nenhuma a mais
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+public class AgendamentoConcorrenteTest {
+
+    private static final int PACIENTES = 16;
+    private static final int CAPACIDADE = 5;
+
+    @Autowired
+    private ConsultaService consultaService;
+
+    @Autowired
+    private MedicoService medicoService;
+
+    @Autowired
+    private PacienteService pacienteService;
+
+    // o espião deixa o teste do lote encaixar um agendamento concorrente antes do insert das consultas
+    @SpyBean
+    private HorarioDisponivelService horarioDisponivelService;
+
+    @Autowired
+    private HorarioDisponivelRepository horarioDisponivelRepository;
+
+    @Autowired
+    private ConsultaRepository consultaRepository;
+
+    private Medico medico;
+    private final List<Paciente> pacientes = new ArrayList<>();
+    private final LocalDateTime dataHora = LocalDateTime.of(2030, 6, 3, 9, 0);
+
+    @BeforeEach
+    public void setUp(){
+        // CRM, CPF e email únicos porque o banco em memória é o mesmo para todos os testes
+        String sufixo = UUID.randomUUID().toString().substring(0, 8);
+        medico = medicoService.adicionarMedico(new Medico(null, "Dr. Silva", "CRM" + sufixo, "M" + sufixo, "Pediatria"));
+        for (int i = 0; i < PACIENTES; i++) {
+            pacientes.add(pacienteService.adicionarPaciente(new Paciente(null, "Paciente " + i,
+                    i + sufixo + "@email.com", "P" + i + sufixo, "+5588999999999")));
+        }
+    }
+
+    @AfterEach
+    public void tearDown(){
+        medicoService.removerMedicoComConsultas(medico.getId());
+        for (Paciente paciente : pacientes) {
+            pacienteService.removerPaciente(paciente.getId());
+        }
+    }
+
+    @Test
+    public void testAgendamentosSimultaneosNaoPassamDaCapacidade() throws Exception {
+        HorarioDisponivel horario = horarioDisponivelService.adicionarHorarioDisponivel(
+                new HorarioDisponivel(dataHora, CAPACIDADE), medico.getCrm());
+
+        CountDownLatch largada = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(PACIENTES);
+        List<Future<Boolean>> resultados = new ArrayList<>();
+        try {
+            for (Paciente paciente : pacientes) {
+                resultados.add(executor.submit(() -> {
+                    largada.await();
+                    try {
+                        consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), dataHora, "Retorno");
+                        return true;
+                    } catch (IllegalArgumentException e) {
+                        // só a recusa por capacidade é esperada, qualquer outra falha derruba o teste
+                        assertEquals("Limite de consultas para este horário já atingido.", e.getMessage());
+                        return false;
+                    }
+                }));
+            }
+            largada.countDown();
+
+            int agendadas = 0;
+            for (Future<Boolean> resultado : resultados) {
+                if (resultado.get(30, TimeUnit.SECONDS)) {
+                    agendadas++;
+                }
+            }
+            assertEquals(CAPACIDADE, agendadas);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(CAPACIDADE, consultaRepository.findByMedicoIdAndDataHoraBetweenOrderByDataHora(
+                medico.getId(), dataHora, dataHora).size());
+        assertEquals(CAPACIDADE, horarioDisponivelRepository.findById(horario.getId()).orElseThrow().getVagasOcupadas());
+    }
+
+    @Test
+    public void testLoteRecusaSoOPedidoQuePerdeuParaUmAgendamentoConcorrente() throws Exception {
+        HorarioDisponivel horario = horarioDisponivelService.adicionarHorarioDisponivel(
+                new HorarioDisponivel(dataHora, CAPACIDADE), medico.getCrm());
+        List<PedidoDeAgendamento> pedidos = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pedidos.add(new PedidoDeAgendamento(medico.getCrm(), pacientes.get(i).getCpf(), dataHora, "Retorno"));
+        }
+
+        // o primeiro paciente agenda por outra transação depois que o lote conferiu os horários ocupados
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            doAnswer(invocation -> {
+                executor.submit(() -> consultaService.agendarConsulta(medico.getCrm(), pacientes.get(0).getCpf(), dataHora, "Retorno"))
+                        .get(30, TimeUnit.SECONDS);
+                return invocation.callRealMethod();
+            }).when(horarioDisponivelService).reservarVagasEmLote(anyMap());
+
+            List<ResultadoDeAgendamento> resultados = consultaService.agendarConsultasEmLote(pedidos);
+
+            assertEquals(ConsultaService.PACIENTE_OCUPADO, resultados.get(0).motivo());
+            assertTrue(resultados.get(1).agendado());
+            assertTrue(resultados.get(2).agendado());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // a consulta concorrente e as duas do lote; a vaga do pedido recusado voltou para o horário
+        assertEquals(3, consultaRepository.findByMedicoIdAndDataHoraBetweenOrderByDataHora(
+                medico.getId(), dataHora, dataHora).size());
+        assertEquals(3, horarioDisponivelRepository.findById(horario.getId()).orElseThrow().getVagasOcupadas());
+    }
+}
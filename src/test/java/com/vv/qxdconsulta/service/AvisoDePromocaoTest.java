@@ -0,0 +1,97 @@
+package com.vv.qxdconsulta.service;
+
+import com.sun.net.httpserver.HttpServer;
+import com.vv.qxdconsulta.model.Consulta;
+import com.vv.qxdconsulta.model.EsperaPorVaga;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.Paciente;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// do cancelamento até o webhook: a vaga liberada promove o primeiro da fila e o aviso chega por HTTP
+// num servidor local no lugar do serviço de notificações
+@SpringBootTest
+public class AvisoDePromocaoTest {
+
+    private static final BlockingQueue<String> avisos = new LinkedBlockingQueue<>();
+    private static final HttpServer servidor = iniciarServidor();
+
+    @Autowired
+    private ConsultaService consultaService;
+
+    @Autowired
+    private ListaDeEsperaService listaDeEsperaService;
+
+    @Autowired
+    private MedicoService medicoService;
+
+    @Autowired
+    private PacienteService pacienteService;
+
+    @Autowired
+    private HorarioDisponivelService horarioDisponivelService;
+
+    @DynamicPropertySource
+    static void webhook(DynamicPropertyRegistry registry) {
+        registry.add("qxdconsulta.lista-de-espera.webhook",
+                () -> "http://localhost:" + servidor.getAddress().getPort() + "/avisos");
+    }
+
+    @AfterAll
+    static void pararServidor() {
+        servidor.stop(0);
+    }
+
+    @Test
+    public void testCancelamentoAvisaOPacientePromovido() throws InterruptedException {
+        String sufixo = UUID.randomUUID().toString().substring(0, 8);
+        Medico medico = medicoService.adicionarMedico(new Medico(null, "Dr. Silva", "CRM" + sufixo, "M" + sufixo, "Pediatria"));
+        Paciente primeiro = pacienteService.adicionarPaciente(new Paciente(null, "José", "a" + sufixo + "@email.com", "A" + sufixo, "+5588999999999"));
+        Paciente segundo = pacienteService.adicionarPaciente(new Paciente(null, "Maria", "b" + sufixo + "@email.com", "B" + sufixo, "+5588888888888"));
+        LocalDateTime dataHora = LocalDateTime.of(2030, 5, 6, 8, 0);
+        horarioDisponivelService.adicionarHorarioDisponivel(new HorarioDisponivel(dataHora, 1), medico.getCrm());
+
+        Consulta consulta = consultaService.agendarConsulta(medico.getCrm(), primeiro.getCpf(), dataHora, "Retorno");
+        EsperaPorVaga espera = listaDeEsperaService.entrarNaListaDeEspera(medico.getCrm(), segundo.getCpf(), dataHora, "Retorno");
+        assertTrue(avisos.isEmpty());
+
+        consultaService.removerConsulta(consulta.getId());
+
+        String aviso = avisos.poll(10, TimeUnit.SECONDS);
+        assertNotNull(aviso, "o webhook não recebeu o aviso da promoção");
+        assertTrue(aviso.contains("\"esperaId\":\"" + espera.getId() + "\""));
+        assertTrue(aviso.contains("\"pacienteId\":\"" + segundo.getId() + "\""));
+        assertTrue(aviso.contains("\"consultaId\":\"" + listaDeEsperaService.buscarSituacao(espera.getId()).consultaId() + "\""));
+    }
+
+    private static HttpServer iniciarServidor() {
+        try {
+            HttpServer servidor = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            servidor.createContext("/avisos", troca -> {
+                avisos.add(new String(troca.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+                troca.sendResponseHeaders(204, -1);
+                troca.close();
+            });
+            servidor.start();
+            return servidor;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
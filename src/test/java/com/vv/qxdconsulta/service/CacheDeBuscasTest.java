@@ -0,0 +1,127 @@
+package com.vv.qxdconsulta.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.repository.MedicoRepository;
+import com.vv.qxdconsulta.repository.PacienteRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+// testa o cache de verdade (proxy do spring), por isso sobe o contexto com os repositórios mockados
+@SpringBootTest
+public class CacheDeBuscasTest {
+
+    @Autowired
+    private MedicoService medicoService;
+
+    @Autowired
+    private PacienteService pacienteService;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @MockBean
+    private MedicoRepository medicoRepository;
+
+    @MockBean
+    private PacienteRepository pacienteRepository;
+
+    @BeforeEach
+    public void setUp(){
+        cacheManager.getCache("medicosPorCrm").clear();
+        cacheManager.getCache("pacientesPorCpf").clear();
+    }
+
+    @Test
+    public void testBuscarMedicoEmCacheUsaCache(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        when(medicoRepository.findByCrm(medico.getCrm())).thenReturn(Optional.of(medico));
+        // as estatísticas não zeram com clear(), então compara com o valor de antes
+        Cache<?, ?> cache = (Cache<?, ?>) cacheManager.getCache("medicosPorCrm").getNativeCache();
+        CacheStats antes = cache.stats();
+
+        MedicoEmCache primeiro = medicoService.buscarMedicoEmCache(medico.getCrm());
+        assertEquals(new MedicoEmCache(medico.getId(), medico.getCrm(), medico.getNome()), primeiro);
+        assertSame(primeiro, medicoService.buscarMedicoEmCache(medico.getCrm()));
+
+        verify(medicoRepository, times(1)).findByCrm(medico.getCrm());
+        CacheStats depois = cache.stats().minus(antes);
+        assertEquals(1, depois.hitCount());
+        assertEquals(1, depois.missCount());
+    }
+
+    @Test
+    public void testBuscarMedicoEmCacheNaoEncontradoNaoFicaNoCache(){
+        when(medicoRepository.findByCrm("CRM00000")).thenReturn(Optional.empty());
+
+        assertThrows(IllegalArgumentException.class, () -> medicoService.buscarMedicoEmCache("CRM00000"));
+        assertThrows(IllegalArgumentException.class, () -> medicoService.buscarMedicoEmCache("CRM00000"));
+
+        verify(medicoRepository, times(2)).findByCrm("CRM00000");
+    }
+
+    @Test
+    public void testEntidadeNaoFicaNoCache(){
+        // a entidade sempre vem do banco, só o record é guardado
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        when(medicoRepository.findByCrm(medico.getCrm())).thenReturn(Optional.of(medico));
+
+        medicoService.buscarMedicoEmCache(medico.getCrm());
+        medicoService.buscarMedicoPorCrm(medico.getCrm());
+        medicoService.buscarMedicoPorCrm(medico.getCrm());
+
+        verify(medicoRepository, times(3)).findByCrm(medico.getCrm());
+        assertInstanceOf(MedicoEmCache.class, cacheManager.getCache("medicosPorCrm").get(medico.getCrm()).get());
+    }
+
+    @Test
+    public void testAlterarMedicoLimpaCache(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        Medico outro = new Medico(UUID.randomUUID(), "Dra. Sousa", "CRM54321", "98765432154", "Pediatria");
+        when(medicoRepository.findByCrm(medico.getCrm())).thenReturn(Optional.of(medico));
+        when(medicoRepository.findByCrm(outro.getCrm())).thenReturn(Optional.of(outro));
+        when(medicoRepository.findById(medico.getId())).thenReturn(Optional.of(medico));
+        when(medicoRepository.save(any(Medico.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        medicoService.buscarMedicoEmCache(medico.getCrm());
+        medicoService.buscarMedicoEmCache(outro.getCrm());
+        medicoService.alterarMedico(medico.getId(), medico);
+        medicoService.buscarMedicoEmCache(medico.getCrm());
+        medicoService.buscarMedicoEmCache(outro.getCrm());
+
+        // só o médico alterado sai do cache
+        verify(medicoRepository, times(2)).findByCrm(medico.getCrm());
+        verify(medicoRepository, times(1)).findByCrm(outro.getCrm());
+    }
+
+    @Test
+    public void testAtualizarPacienteLimpaCache(){
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+        when(pacienteRepository.findByCpf(paciente.getCpf())).thenReturn(Optional.of(paciente));
+        when(pacienteRepository.findById(paciente.getId())).thenReturn(Optional.of(paciente));
+        when(pacienteRepository.save(any(Paciente.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        pacienteService.buscarPacienteEmCache(paciente.getCpf());
+        pacienteService.buscarPacienteEmCache(paciente.getCpf());
+        verify(pacienteRepository, times(1)).findByCpf(paciente.getCpf());
+
+        pacienteService.atualizarPaciente(paciente.getId(), paciente);
+        pacienteService.buscarPacienteEmCache(paciente.getCpf());
+
+        verify(pacienteRepository, times(2)).findByCpf(paciente.getCpf());
+    }
+}
@@ -1,5 +1,13 @@
 package com.vv.qxdconsulta.service;
 
+import com.vv.qxdconsulta.dto.HorarioDoPaciente;
+import com.vv.qxdconsulta.dto.ItemDaAgenda;
+import com.vv.qxdconsulta.dto.ItemDoHistorico;
+import com.vv.qxdconsulta.dto.LinhaDeExportacao;
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.PacienteEmCache;
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.ResultadoDeAgendamento;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.HorarioDisponivel;
 import com.vv.qxdconsulta.model.Medico;
@@ -10,17 +18,31 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
-
 class ConsultaServiceTest {
 
     @Mock
@@ -35,14 +57,28 @@ class ConsultaServiceTest {
     @Mock
     private ConsultaRepository consultaRepository;
 
+    @Mock
+    ListaDeEsperaService listaDeEsperaService;
+
+    @Mock
+    JdbcTemplate jdbcTemplate;
+
+    @Mock
+    Connection conexao;
+
+    @Mock
+    PreparedStatement insertDasConsultas;
+
     @InjectMocks
     private ConsultaService consultaService;
 
-
     @BeforeEach
-    void setUp(){
+    void setUp() throws SQLException {
         MockitoAnnotations.openMocks(this);
-
+        // o insert do agendamento em lote roda numa conexão simulada
+        when(jdbcTemplate.execute(any(ConnectionCallback.class)))
+                .thenAnswer(invocation -> ((ConnectionCallback<?>) invocation.getArgument(0)).doInConnection(conexao));
+        when(conexao.prepareStatement(anyString())).thenReturn(insertDasConsultas);
     }
 
     //agendarConsulta
@@ -51,12 +87,15 @@ class ConsultaServiceTest {
         Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "15975328415", "Ortopedia");
         Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "15975348615", "+5588999999999");
         HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        // o médico da consulta é o que vem junto com o horário
+        horarioDisponivel.setMedico(medico);
 
         Consulta consulta = new Consulta(UUID.randomUUID(), LocalDateTime.now().plusDays(1), "Consulta Geral", paciente, medico);
         consulta.setHorarioDisponivel(horarioDisponivel);
 
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
-        when(pacienteService.buscarPacientePorCpf(paciente.getCpf())).thenReturn(paciente);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
         when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horarioDisponivel.getHorario())).thenReturn(horarioDisponivel);
         when(consultaRepository.save(any(Consulta.class))).thenReturn(consulta);
 
@@ -67,9 +106,54 @@ class ConsultaServiceTest {
         assertEquals(paciente, result.getPaciente());
         assertEquals(horarioDisponivel, result.getHorarioDisponivel());
 
+        verify(horarioDisponivelService, times(1)).reservarVaga(horarioDisponivel);
         verify(consultaRepository, times(1)).save(any(Consulta.class));
     }
 
+    @Test
+    public void testAgendarConsultaUltimaVagaOcupadaPorOutroAgendamento(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. João", "12345", "11122233344", "Cardiologia");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "Maria Silva", "maria@example.com", "11122233344", "11999999999");
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 1);
+
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
+        when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horarioDisponivel.getHorario())).thenReturn(horarioDisponivel);
+        // a verificação passou, mas a vaga foi ocupada antes do update condicional
+        doThrow(new IllegalArgumentException("Limite de consultas para este horário já atingido."))
+                .when(horarioDisponivelService).reservarVaga(horarioDisponivel);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () ->{
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horarioDisponivel.getHorario(), "Geral");
+        });
+
+        assertEquals("Limite de consultas para este horário já atingido.", exception.getMessage());
+        assertTrue(horarioDisponivel.getConsultasAgendadas().isEmpty());
+
+        verify(consultaRepository, never()).save(any(Consulta.class));
+    }
+
+    @Test
+    public void testAgendarConsultaPacienteJaTemConsultaNoHorario(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. João", "12345", "11122233344", "Cardiologia");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "Maria Silva", "maria@example.com", "11122233344", "11999999999");
+        LocalDateTime dataHora = LocalDateTime.now().plusDays(1);
+
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
+        when(consultaRepository.existsByPacienteIdAndDataHora(paciente.getId(), dataHora)).thenReturn(true);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () ->
+                consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), dataHora, "Geral"));
+
+        assertEquals("O paciente já tem uma consulta neste horário.", exception.getMessage());
+        // recusado antes de reservar a vaga
+        verify(horarioDisponivelService, never()).reservarVaga(any(HorarioDisponivel.class));
+        verify(consultaRepository, never()).save(any(Consulta.class));
+    }
+
     @Test
     public void testAgendarConsultaMedicoNaoEncontrado(){
         String crmMedico = "123456";
@@ -78,7 +162,7 @@ class ConsultaServiceTest {
         String tipoConsulta = "Geral";
 
         //configura o mock para lançar a exceção quando o medico não for encontrado pelo metodo buscarMedicoPorCrm
-        when(medicoService.buscarMedicoPorCrm(crmMedico)).thenThrow(new IllegalArgumentException("Médico não encontrado com o CRM: " + crmMedico));
+        when(medicoService.buscarMedicoEmCache(crmMedico)).thenThrow(new IllegalArgumentException("Médico não encontrado com o CRM: " + crmMedico));
 
         //verifica se a exceção é lançada corretamente
         Exception exception = assertThrows(IllegalArgumentException.class, () ->{
@@ -101,8 +185,8 @@ class ConsultaServiceTest {
         String tipoConsulta = "Geral";
 
         //configura o mock para lançar a exceção quando o medico não for encontrado pelo metodo buscarMedicoPorCrm
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
-        when(pacienteService.buscarPacientePorCpf(paciente.getCpf())).thenThrow(new IllegalArgumentException("Paciente não encontrado com o CPF: " + paciente.getCpf()));
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenThrow(new IllegalArgumentException("Paciente não encontrado com o CPF: " + paciente.getCpf()));
 
         //verifica se a exceção é lançada corretamente
         Exception exception = assertThrows(IllegalArgumentException.class, () ->{
@@ -124,8 +208,9 @@ class ConsultaServiceTest {
         consulta.setHorarioDisponivel(horarioDisponivel);
 
         //mock
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
-        when(pacienteService.buscarPacientePorCpf(paciente.getCpf())).thenReturn(paciente);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
         when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horarioDisponivel.getHorario())).thenReturn(horarioDisponivel);
         doThrow(new IllegalArgumentException("Limite de consultas para este horário já atingido."))
                 .when(horarioDisponivelService).verificarDisponibilidadeDeConsulta(horarioDisponivel);
@@ -146,8 +231,9 @@ class ConsultaServiceTest {
         HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
         String tipoConsulta = "Geral";
 
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
-        when(pacienteService.buscarPacientePorCpf(paciente.getCpf())).thenReturn(paciente);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
         //mock para não encontrar o horario
         when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horarioDisponivel.getHorario())).thenThrow( new IllegalArgumentException("O médico não tem esse horário disponível"));
 
@@ -160,38 +246,174 @@ class ConsultaServiceTest {
         verify(consultaRepository, never()).save(any(Consulta.class));
     }
 
-    //buscarConsultaPorId
+    //agendarConsultasEmLote
     @Test
-    public void testBuscarConsultaPorIdSucesso(){
-        UUID consultaId = UUID.randomUUID();
-        Consulta consulta = new Consulta();
-        consulta.setId(consultaId);
+    public void testAgendarConsultasEmLoteSucesso() throws SQLException {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "15975328415", "Ortopedia");
+        Paciente paciente1 = new Paciente(UUID.randomUUID(), "José Humberto", "jose@email.com", "15975348615", "+5588999999999");
+        Paciente paciente2 = new Paciente(UUID.randomUUID(), "Maria Silva", "maria@email.com", "11122233344", "+5588988888888");
+        LocalDateTime dataHora = LocalDateTime.now().plusDays(1);
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(dataHora, 5);
 
-        when(consultaRepository.findById(consultaId)).thenReturn(Optional.of(consulta));
+        List<PedidoDeAgendamento> pedidos = List.of(
+                new PedidoDeAgendamento(medico.getCrm(), paciente1.getCpf(), dataHora, "Geral"),
+                new PedidoDeAgendamento(medico.getCrm(), paciente2.getCpf(), dataHora, "Retorno"));
 
-        Consulta result = consultaService.buscarConsultaPorId(consultaId);
+        when(medicoService.buscarMedicosPorCrms(anyCollection())).thenReturn(Map.of(medico.getCrm(), medico));
+        when(pacienteService.buscarPacientesPorCpfs(anyCollection()))
+                .thenReturn(Map.of(paciente1.getCpf(), paciente1, paciente2.getCpf(), paciente2));
+        when(horarioDisponivelService.buscarHorariosDosMedicos(anyMap()))
+                .thenReturn(Map.of(medico.getId(), Map.of(dataHora, horarioDisponivel)));
+        when(horarioDisponivelService.reservarVagasEmLote(Map.of(horarioDisponivel, 2))).thenReturn(Map.of(horarioDisponivel, 2));
 
-        assertNotNull(result);
-        assertEquals(consultaId, result.getId());
+        List<ResultadoDeAgendamento> result = consultaService.agendarConsultasEmLote(pedidos);
+
+        assertEquals(2, result.size());
+        assertTrue(result.get(0).agendado());
+        assertTrue(result.get(1).agendado());
 
-        verify(consultaRepository, times(1)).findById(consultaId);
+        // uma reserva só para os dois pedidos do mesmo horário e um batch para todas as consultas
+        verify(horarioDisponivelService, times(1)).reservarVagasEmLote(Map.of(horarioDisponivel, 2));
+        verify(insertDasConsultas, times(2)).addBatch();
+        verify(insertDasConsultas, times(1)).executeBatch();
+        verify(consultaRepository, never()).save(any(Consulta.class));
     }
 
     @Test
-    public void testBuscarConsultaPorIdNaoEncontrado(){
-        UUID consultaId = UUID.randomUUID();
-        Consulta consulta = new Consulta();
-        consulta.setId(consultaId);
+    public void testAgendarConsultasEmLoteComRejeicoes() throws SQLException {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "15975328415", "Ortopedia");
+        Paciente paciente1 = new Paciente(UUID.randomUUID(), "José Humberto", "jose@email.com", "15975348615", "+5588999999999");
+        Paciente paciente2 = new Paciente(UUID.randomUUID(), "Maria Silva", "maria@email.com", "11122233344", "+5588988888888");
+        LocalDateTime dataHora = LocalDateTime.now().plusDays(1);
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(dataHora, 1);
+
+        List<PedidoDeAgendamento> pedidos = List.of(
+                new PedidoDeAgendamento("CRM00000", paciente1.getCpf(), dataHora, "Geral"),
+                new PedidoDeAgendamento(medico.getCrm(), "00000000000", dataHora, "Geral"),
+                new PedidoDeAgendamento(medico.getCrm(), paciente1.getCpf(), dataHora.plusHours(1), "Geral"),
+                new PedidoDeAgendamento(medico.getCrm(), paciente1.getCpf(), dataHora, "Geral"),
+                new PedidoDeAgendamento(medico.getCrm(), paciente2.getCpf(), dataHora, "Geral"));
+
+        when(medicoService.buscarMedicosPorCrms(anyCollection())).thenReturn(Map.of(medico.getCrm(), medico));
+        when(pacienteService.buscarPacientesPorCpfs(anyCollection()))
+                .thenReturn(Map.of(paciente1.getCpf(), paciente1, paciente2.getCpf(), paciente2));
+        when(horarioDisponivelService.buscarHorariosDosMedicos(anyMap()))
+                .thenReturn(Map.of(medico.getId(), Map.of(dataHora, horarioDisponivel)));
+        // só cabe um dos dois pedidos do horário
+        when(horarioDisponivelService.reservarVagasEmLote(Map.of(horarioDisponivel, 2))).thenReturn(Map.of(horarioDisponivel, 1));
+
+        List<ResultadoDeAgendamento> result = consultaService.agendarConsultasEmLote(pedidos);
+
+        assertEquals("Médico não encontrado com o CRM: CRM00000", result.get(0).motivo());
+        assertEquals("Paciente não encontrado com o CPF: 00000000000", result.get(1).motivo());
+        assertEquals("O médico não tem esse horário disponível", result.get(2).motivo());
+        assertTrue(result.get(3).agendado());
+        assertFalse(result.get(4).agendado());
+        assertEquals("Limite de consultas para este horário já atingido.", result.get(4).motivo());
+
+        verify(insertDasConsultas, times(1)).addBatch();
+    }
 
-        when(consultaRepository.findById(consultaId)).thenReturn(Optional.empty());
+    @Test
+    public void testAgendarConsultasEmLoteComPacienteOcupado() throws SQLException {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "15975328415", "Ortopedia");
+        Medico outroMedico = new Medico(UUID.randomUUID(), "Dra. Ana", "CRM54321", "15975328416", "Pediatria");
+        Paciente paciente1 = new Paciente(UUID.randomUUID(), "José Humberto", "jose@email.com", "15975348615", "+5588999999999");
+        Paciente paciente2 = new Paciente(UUID.randomUUID(), "Maria Silva", "maria@email.com", "11122233344", "+5588988888888");
+        LocalDateTime dataHora = LocalDateTime.now().plusDays(1);
+        HorarioDisponivel horario = new HorarioDisponivel(dataHora, 5);
+        HorarioDisponivel horarioDoOutroMedico = new HorarioDisponivel(dataHora, 5);
+
+        List<PedidoDeAgendamento> pedidos = List.of(
+                new PedidoDeAgendamento(medico.getCrm(), paciente1.getCpf(), dataHora, "Geral"),
+                new PedidoDeAgendamento(medico.getCrm(), paciente2.getCpf(), dataHora, "Geral"),
+                new PedidoDeAgendamento(outroMedico.getCrm(), paciente2.getCpf(), dataHora, "Geral"));
+
+        when(medicoService.buscarMedicosPorCrms(anyCollection()))
+                .thenReturn(Map.of(medico.getCrm(), medico, outroMedico.getCrm(), outroMedico));
+        when(pacienteService.buscarPacientesPorCpfs(anyCollection()))
+                .thenReturn(Map.of(paciente1.getCpf(), paciente1, paciente2.getCpf(), paciente2));
+        when(horarioDisponivelService.buscarHorariosDosMedicos(anyMap()))
+                .thenReturn(Map.of(medico.getId(), Map.of(dataHora, horario), outroMedico.getId(), Map.of(dataHora, horarioDoOutroMedico)));
+        // o paciente 1 já tem consulta no horário; o paciente 2 pediu o mesmo horário com dois médicos
+        when(consultaRepository.buscarHorariosOcupados(anyCollection(), anyCollection()))
+                .thenReturn(List.of(new HorarioDoPaciente(paciente1.getId(), dataHora)));
+        when(horarioDisponivelService.reservarVagasEmLote(Map.of(horario, 1))).thenReturn(Map.of(horario, 1));
+
+        List<ResultadoDeAgendamento> result = consultaService.agendarConsultasEmLote(pedidos);
+
+        assertEquals("O paciente já tem uma consulta neste horário.", result.get(0).motivo());
+        assertTrue(result.get(1).agendado());
+        assertEquals("O paciente já tem uma consulta neste horário.", result.get(2).motivo());
+
+        // o horário do outro médico não entra na reserva
+        verify(horarioDisponivelService, times(1)).reservarVagasEmLote(Map.of(horario, 1));
+        verify(insertDasConsultas, times(1)).addBatch();
+    }
 
-        Exception exception = assertThrows(IllegalArgumentException.class, ()->{
-           consultaService.buscarConsultaPorId(consultaId);
+    @Test
+    public void testAgendarConsultasEmLoteRecusaSoOPedidoQuePerdeuParaOutroAgendamento() throws SQLException {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "15975328415", "Ortopedia");
+        Paciente paciente1 = new Paciente(UUID.randomUUID(), "José Humberto", "jose@email.com", "15975348615", "+5588999999999");
+        Paciente paciente2 = new Paciente(UUID.randomUUID(), "Maria Silva", "maria@email.com", "11122233344", "+5588988888888");
+        LocalDateTime dataHora = LocalDateTime.now().plusDays(1);
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(dataHora, 5);
+
+        List<PedidoDeAgendamento> pedidos = List.of(
+                new PedidoDeAgendamento(medico.getCrm(), paciente1.getCpf(), dataHora, "Geral"),
+                new PedidoDeAgendamento(medico.getCrm(), paciente2.getCpf(), dataHora, "Retorno"));
+
+        when(medicoService.buscarMedicosPorCrms(anyCollection())).thenReturn(Map.of(medico.getCrm(), medico));
+        when(pacienteService.buscarPacientesPorCpfs(anyCollection()))
+                .thenReturn(Map.of(paciente1.getCpf(), paciente1, paciente2.getCpf(), paciente2));
+        when(horarioDisponivelService.buscarHorariosDosMedicos(anyMap()))
+                .thenReturn(Map.of(medico.getId(), Map.of(dataHora, horarioDisponivel)));
+        when(horarioDisponivelService.reservarVagasEmLote(Map.of(horarioDisponivel, 2))).thenReturn(Map.of(horarioDisponivel, 2));
+        // o paciente 2 agendou o horário por outro caminho entre a conferência e o insert do lote
+        when(consultaRepository.buscarHorariosOcupados(anyCollection(), anyCollection()))
+                .thenReturn(List.of(), List.of(new HorarioDoPaciente(paciente2.getId(), dataHora)));
+        when(insertDasConsultas.executeBatch())
+                .thenThrow(new BatchUpdateException())
+                .thenReturn(new int[]{1});
+        Savepoint savepoint = mock(Savepoint.class);
+        when(conexao.setSavepoint()).thenReturn(savepoint);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenAnswer(invocation -> {
+            try {
+                return ((ConnectionCallback<?>) invocation.getArgument(0)).doInConnection(conexao);
+            } catch (BatchUpdateException e) {
+                // a tradução que o JdbcTemplate faz da violação do índice único
+                throw new DuplicateKeyException("uk_consulta_paciente_data_hora", e);
+            }
         });
 
-        assertEquals("Consulta não encontrada", exception.getMessage());
+        List<ResultadoDeAgendamento> result = consultaService.agendarConsultasEmLote(pedidos);
 
-        verify(consultaRepository, times(1)).findById(consultaId);
+        assertTrue(result.get(0).agendado());
+        assertEquals("O paciente já tem uma consulta neste horário.", result.get(1).motivo());
+        // o insert volta ao savepoint e só a vaga do pedido recusado é devolvida
+        verify(conexao, times(1)).rollback(savepoint);
+        verify(horarioDisponivelService, times(1)).liberarVaga(horarioDisponivel);
+        verify(insertDasConsultas, times(2 + 1)).addBatch();
+    }
+
+    @Test
+    public void testAgendarConsultasEmLoteSemConflitoNaReleituraPropagaOErro(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "15975328415", "Ortopedia");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "jose@email.com", "15975348615", "+5588999999999");
+        LocalDateTime dataHora = LocalDateTime.now().plusDays(1);
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(dataHora, 5);
+
+        when(medicoService.buscarMedicosPorCrms(anyCollection())).thenReturn(Map.of(medico.getCrm(), medico));
+        when(pacienteService.buscarPacientesPorCpfs(anyCollection())).thenReturn(Map.of(paciente.getCpf(), paciente));
+        when(horarioDisponivelService.buscarHorariosDosMedicos(anyMap()))
+                .thenReturn(Map.of(medico.getId(), Map.of(dataHora, horarioDisponivel)));
+        when(horarioDisponivelService.reservarVagasEmLote(Map.of(horarioDisponivel, 1))).thenReturn(Map.of(horarioDisponivel, 1));
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenThrow(new DuplicateKeyException("outro índice"));
+
+        assertThrows(DuplicateKeyException.class, () -> consultaService.agendarConsultasEmLote(
+                List.of(new PedidoDeAgendamento(medico.getCrm(), paciente.getCpf(), dataHora, "Geral"))));
+
+        verify(horarioDisponivelService, never()).liberarVaga(any(HorarioDisponivel.class));
     }
 
     //buscarConsultasPorMedico
@@ -255,6 +477,18 @@ class ConsultaServiceTest {
         verify(consultaRepository, times(1)).findByMedico(medico);
     }
 
+    @Test
+    public void testBuscarHistoricoDoPaciente(){
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José", "jose@email.com", "12345678915", "+5588999999999");
+        List<ItemDoHistorico> historico = List.of(new ItemDoHistorico(UUID.randomUUID(), LocalDateTime.now(), "Retorno",
+                "CRM12345", "Dr. Silva", "Cardiologia"));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(consultaRepository.buscarHistoricoDoPaciente(paciente.getId())).thenReturn(historico);
+
+        assertEquals(historico, consultaService.buscarHistoricoDoPaciente(paciente.getCpf()));
+        verify(consultaRepository, never()).findByPaciente(any());
+    }
+
     //buscarConsultasPorPaciente
     @Test
     public void testBuscarConsultaPorPacienteSucesso(){
@@ -320,17 +554,16 @@ class ConsultaServiceTest {
         LocalDateTime dataHora = LocalDateTime.now();
         Medico medico = new Medico(medicoId, "Dr. Silva", "CRM1234", "12345678915", "Pediatra");
 
+        LocalDateTime inicioDoDia = dataHora.toLocalDate().atStartOfDay();
+        LocalDateTime fimDoDia = dataHora.toLocalDate().atTime(LocalTime.MAX);
+
         List<Consulta> consultaList = new ArrayList<>();
         consultaList.add(new Consulta(UUID.randomUUID(), dataHora, "Geral", new Paciente(), medico));
         consultaList.add(new Consulta(UUID.randomUUID(), dataHora, "Geral", new Paciente(), medico));
 
-        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(dataHora, 5);
-        horarioDisponivel.getConsultasAgendadas().addAll(consultaList);
-
-        medico.getHorarioDisponivel().add(horarioDisponivel);
-
-        //mock para retornar o medico
+        //mock para retornar o medico e as consultas do dia
         when(medicoService.buscarMedicoPorId(medicoId)).thenReturn(medico);
+        when(consultaRepository.findByMedicoIdAndDataHoraBetweenOrderByDataHora(medicoId, inicioDoDia, fimDoDia)).thenReturn(consultaList);
 
         List<Consulta> result = consultaService.buscaConsultasPorData(medicoId, dataHora);
 
@@ -339,6 +572,7 @@ class ConsultaServiceTest {
         assertTrue(result.containsAll(consultaList));
 
         verify(medicoService, times(1)).buscarMedicoPorId(medicoId);
+        verify(consultaRepository, times(1)).findByMedicoIdAndDataHoraBetweenOrderByDataHora(medicoId, inicioDoDia, fimDoDia);
     }
 
     @Test
@@ -355,6 +589,7 @@ class ConsultaServiceTest {
         assertEquals("Médico não encontrado", exception.getMessage());
 
         verify(medicoService, times(1)).buscarMedicoPorId(medicoId);
+        verify(consultaRepository, never()).findByMedicoIdAndDataHoraBetweenOrderByDataHora(any(UUID.class), any(LocalDateTime.class), any(LocalDateTime.class));
     }
 
     @Test
@@ -363,9 +598,9 @@ class ConsultaServiceTest {
         LocalDateTime dataHora = LocalDateTime.now();
         Medico medico = new Medico(medicoId, "Dr. Silva", "CRM12345", "12346579885", "Ortopedista");
 
-        medico.setHorarioDisponivel(new ArrayList<>());
-
         when(medicoService.buscarMedicoPorId(medicoId)).thenReturn(medico);
+        when(consultaRepository.findByMedicoIdAndDataHoraBetweenOrderByDataHora(any(UUID.class), any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenReturn(new ArrayList<>());
 
         List<Consulta> result = consultaService.buscaConsultasPorData(medicoId, dataHora);
 
@@ -375,102 +610,24 @@ class ConsultaServiceTest {
         verify(medicoService, times(1)).buscarMedicoPorId(medicoId);
     }
 
-    //buscarConsultasPorEspecializacao
+    //buscarAgendaDoDia
     @Test
-    public void testBuscarConsultaPorEspecializacaoSuceso(){
-        String especializacao = "Ortopedia";
-        List<Medico> medicoList = new ArrayList<>();
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12354", "15975385215", especializacao));
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Sousa", "CRM65432", "17425896315", especializacao));
-        List<Consulta> consultaList = new ArrayList<>();
-        consultaList.add(new Consulta(UUID.randomUUID(), LocalDateTime.now(), "Consulta Geral", new Paciente(), medicoList.get(0)));
-        consultaList.add(new Consulta(UUID.randomUUID(), LocalDateTime.now().plusDays(2), "Consulta Especializada", new Paciente(), medicoList.get(1)));
-
-        when(medicoService.buscarMedicosPorEspecializacao(especializacao)).thenReturn(medicoList);
-        when(consultaRepository.findByMedico(medicoList.get(0))).thenReturn(consultaList.subList(0,1));
-        when(consultaRepository.findByMedico(medicoList.get(1))).thenReturn(consultaList.subList(1,2));
-
-        List<Consulta> result = consultaService.buscarConsultasPorEspecializacao(especializacao);
-
-        assertNotNull(result);
-        assertEquals(consultaList.size(), result.size());
-        assertTrue(result.containsAll(consultaList));
-
-        verify(medicoService, times(1)).buscarMedicosPorEspecializacao(especializacao);
-        verify(consultaRepository, times(1)).findByMedico(medicoList.get(0));
-        verify(consultaRepository, times(1)).findByMedico(medicoList.get(1));
-    }
-
-    @Test
-    public void testBuscarConsultaPorEspecializacaoSemMedicosComEspecializacao(){
-        String especializacao = "Ortopedia";
-
-        when(medicoService.buscarMedicosPorEspecializacao(especializacao)).thenReturn(new ArrayList<>());
-
-        List<Consulta> result = consultaService.buscarConsultasPorEspecializacao(especializacao);
-
-        assertNotNull(result);
-        assertTrue(result.isEmpty());
-
-        verify(medicoService, times(1)).buscarMedicosPorEspecializacao(especializacao);
-        verify(consultaRepository, never()).findByMedico(any(Medico.class));
-    }
-
-    @Test
-    public void testBuscarConsultaPorEspecializacaoMedicosSemConsultas(){
-        String especializacao = "Ortopedia";
-        List<Medico> medicoList = new ArrayList<>();
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12354", "15975385215", especializacao));
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Sousa", "CRM65432", "17425896315", especializacao));
-
-        when(medicoService.buscarMedicosPorEspecializacao(especializacao)).thenReturn(medicoList);
-        when(consultaRepository.findByMedico(medicoList.get(0))).thenReturn(new ArrayList<>());
-        when(consultaRepository.findByMedico(medicoList.get(1))).thenReturn(new ArrayList<>());
-
-        List<Consulta> result = consultaService.buscarConsultasPorEspecializacao(especializacao);
-
-        assertNotNull(result);
-        assertTrue(result.isEmpty());
-
-        verify(medicoService, times(1)).buscarMedicosPorEspecializacao(especializacao);
-        verify(consultaRepository, times(1)).findByMedico(medicoList.get(0));
-        verify(consultaRepository, times(1)).findByMedico(medicoList.get(1));
-    }
-
-    //buscarConsultasPorIntervaloDeDatas
-    @Test
-    public void testBuscarConsultaPorIntervaloDeDatasSucesso(){
-        LocalDateTime dataInico = LocalDateTime.now().minusDays(1);
-        LocalDateTime dataFinal = LocalDateTime.now().plusDays(1);
-
-        List<Consulta> consultaList = new ArrayList<>();
-        consultaList.add(new Consulta(UUID.randomUUID(), LocalDateTime.now(), "Consulta Geral", new Paciente(), new Medico()));
-        consultaList.add(new Consulta(UUID.randomUUID(), LocalDateTime.now().plusHours(1), "Consulta Geral", new Paciente(), new Medico()));
-
-        when(consultaRepository.findByDataHoraBetween(dataInico, dataFinal)).thenReturn(consultaList);
-
-        List<Consulta> result = consultaService.buscarConsultasPorIntervaloDeDatas(dataInico, dataFinal);
-
-        assertNotNull(result);
-        assertEquals(consultaList.size(), result.size());
-        assertTrue(result.containsAll(consultaList));
-
-        verify(consultaRepository, times(1)).findByDataHoraBetween(dataInico, dataFinal);
-    }
-
-    @Test
-    public void testBuscarConsultaPorIntervaloDeDatasSemConsultas(){
-        LocalDateTime dataInico = LocalDateTime.now().minusDays(1);
-        LocalDateTime dataFinal = LocalDateTime.now().plusDays(1);
+    public void testBuscarAgendaDoDiaSucesso(){
+        UUID medicoId = UUID.randomUUID();
+        LocalDate dia = LocalDate.now().plusDays(1);
+        Medico medico = new Medico(medicoId, "Dr. Silva", "CRM1234", "12345678915", "Pediatra");
 
-        when(consultaRepository.findByDataHoraBetween(dataInico, dataFinal)).thenReturn(new ArrayList<>());
+        List<ItemDaAgenda> agenda = List.of(
+                new ItemDaAgenda(UUID.randomUUID(), dia.atTime(9, 0), "Geral", "José", "12345678901", "+5588999999999"),
+                new ItemDaAgenda(UUID.randomUUID(), dia.atTime(10, 0), "Retorno", "Maria", "12345678902", "+5588988888888"));
 
-        List<Consulta> result = consultaService.buscarConsultasPorIntervaloDeDatas(dataInico, dataFinal);
+        when(medicoService.buscarMedicoPorId(medicoId)).thenReturn(medico);
+        when(consultaRepository.buscarAgendaDoMedico(medicoId, dia.atStartOfDay(), dia.atTime(LocalTime.MAX))).thenReturn(agenda);
 
-        assertNotNull(result);
-        assertTrue(result.isEmpty());
+        List<ItemDaAgenda> result = consultaService.buscarAgendaDoDia(medicoId, dia);
 
-        verify(consultaRepository, times(1)).findByDataHoraBetween(dataInico, dataFinal);
+        assertEquals(agenda, result);
+        verify(consultaRepository, times(1)).buscarAgendaDoMedico(medicoId, dia.atStartOfDay(), dia.atTime(LocalTime.MAX));
     }
 
     //alterarHorarioDaConsulta
@@ -504,6 +661,9 @@ class ConsultaServiceTest {
 
         verify(consultaRepository, times(1)).save(consulta);
         verify(horarioDisponivelService, times(1)).verificarDisponibilidadeDeConsulta(novoHorarioDisponivel);
+        verify(horarioDisponivelService, times(1)).reservarVaga(novoHorarioDisponivel);
+        verify(listaDeEsperaService, times(1)).promover(horarioAntigo);
+        verify(horarioDisponivelService, times(1)).liberarVaga(horarioAntigo);
     }
 
     @Test
@@ -553,6 +713,32 @@ class ConsultaServiceTest {
         assertEquals("Limite de consultas para esté horário já atingido", exception.getMessage());
 
         verify(horarioDisponivelService,times(1)).verificarDisponibilidadeDeConsulta(novoHorarioDisponivel);
+        // a vaga do horário antigo continua ocupada
+        verify(horarioDisponivelService, never()).liberarVaga(any(HorarioDisponivel.class));
+        verify(consultaRepository, never()).save(any(Consulta.class));
+    }
+
+    @Test
+    public void testAlterarHorarioConsultaPacienteJaTemConsultaNoHorario(){
+        UUID consultaId = UUID.randomUUID();
+        LocalDateTime novoHorario = LocalDateTime.now().plusDays(2);
+
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
+        Paciente paciente = new Paciente(UUID.randomUUID(), "Maria Silva", "maria@example.com", "11122233344", "11999999999");
+        HorarioDisponivel horarioAntigo = new HorarioDisponivel(LocalDateTime.now(), 5);
+
+        Consulta consulta = new Consulta(consultaId, LocalDateTime.now(), "Consulta Geral", paciente, medico);
+        consulta.setHorarioDisponivel(horarioAntigo);
+
+        when(consultaRepository.findById(consultaId)).thenReturn(Optional.of(consulta));
+        when(consultaRepository.existsByPacienteIdAndDataHoraAndIdNot(paciente.getId(), novoHorario, consultaId)).thenReturn(true);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () ->
+                consultaService.alterarHorarioDaConsulta(consultaId, novoHorario));
+
+        assertEquals("O paciente já tem uma consulta neste horário.", exception.getMessage());
+        verify(horarioDisponivelService, never()).reservarVaga(any(HorarioDisponivel.class));
+        verify(horarioDisponivelService, never()).liberarVaga(any(HorarioDisponivel.class));
         verify(consultaRepository, never()).save(any(Consulta.class));
     }
 
@@ -575,16 +761,18 @@ class ConsultaServiceTest {
         horarioDisponivel.getConsultasAgendadas().add(consulta);
         paciente.getConsultas().add(consulta);
 
-
         when(consultaRepository.findById(consultaId)).thenReturn(Optional.of(consulta));
         consultaService.removerConsulta(consultaId);
 
         assertFalse(horarioDisponivel.getConsultasAgendadas().contains(consulta));
         assertFalse(paciente.getConsultas().contains(consulta));
 
-        verify(medicoService, times(1)).alterarMedico(medico.getId(), medico);
-        verify(pacienteService, times(1)).atualizarPaciente(paciente.getId(), paciente);
+        // só a consulta é apagada, médico e paciente não são salvos de novo
+        verify(medicoService, never()).alterarMedico(any(UUID.class), any(Medico.class));
+        verify(pacienteService, never()).atualizarPaciente(any(UUID.class), any(Paciente.class));
+        verify(horarioDisponivelService, times(1)).liberarVaga(horarioDisponivel);
         verify(consultaRepository, times(1)).delete(consulta);
+        verify(listaDeEsperaService, times(1)).promover(horarioDisponivel);
     }
 
     @Test
@@ -631,10 +819,85 @@ class ConsultaServiceTest {
         //verifica se a consulta não está presente
         assertFalse(horarioDisponivel.getConsultasAgendadas().contains(consulta));
 
-        verify(medicoService,times(1)).alterarMedico(medico.getId(), medico);
-        verify(pacienteService, times(1)).atualizarPaciente(paciente.getId(), paciente);
+        verify(medicoService, never()).alterarMedico(any(UUID.class), any(Medico.class));
+        verify(pacienteService, never()).atualizarPaciente(any(UUID.class), any(Paciente.class));
 
         verify(consultaRepository, times(1)).delete(consulta);
     }
 
-}
\ No newline at end of file
+    //exportarConsultasCsv
+    @Test
+    public void testExportarConsultasCsvSucesso(){
+        LocalDateTime inicio = LocalDateTime.of(2030, 1, 1, 0, 0);
+        LocalDateTime fim = LocalDateTime.of(2030, 1, 31, 23, 59);
+        UUID id1 = UUID.randomUUID();
+        UUID id2 = UUID.randomUUID();
+        AtomicBoolean fechado = new AtomicBoolean(false);
+        Stream<LinhaDeExportacao> linhas = Stream.of(
+                new LinhaDeExportacao(id1, LocalDateTime.of(2030, 1, 2, 8, 0), "Retorno", "CRM12345", "Dr. Silva", "Cardiologia", "12345678901", "José"),
+                new LinhaDeExportacao(id2, LocalDateTime.of(2030, 1, 3, 9, 30), "Consulta Geral", "CRM12345", "Dr. Silva", "Cardiologia", "98765432100", "Souza, \"Ana\"")
+        ).onClose(() -> fechado.set(true));
+
+        when(consultaRepository.exportarPorPeriodo(inicio, fim)).thenReturn(linhas);
+
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        long total = consultaService.exportarConsultasCsv(inicio, fim, saida);
+
+        assertEquals(2, total);
+        String[] csv = saida.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, csv.length);
+        assertEquals("consulta_id,data_hora,tipo_consulta,crm_medico,nome_medico,especializacao,cpf_paciente,nome_paciente", csv[0]);
+        assertEquals(id1 + ",2030-01-02T08:00,Retorno,CRM12345,Dr. Silva,Cardiologia,12345678901,José", csv[1]);
+        // nome com vírgula e aspas fica entre aspas, com as aspas duplicadas
+        assertEquals(id2 + ",2030-01-03T09:30,Consulta Geral,CRM12345,Dr. Silva,Cardiologia,98765432100,\"Souza, \"\"Ana\"\"\"", csv[2]);
+        // o cursor é fechado no final
+        assertTrue(fechado.get());
+        verify(consultaRepository, never()).findByDataHoraBetween(any(), any());
+    }
+
+    @Test
+    public void testExportarConsultasCsvPeriodoInvalido(){
+        LocalDateTime inicio = LocalDateTime.of(2030, 1, 31, 0, 0);
+        LocalDateTime fim = LocalDateTime.of(2030, 1, 1, 0, 0);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            consultaService.exportarConsultasCsv(inicio, fim, new ByteArrayOutputStream());
+        });
+
+        assertEquals("Período inválido para exportação", exception.getMessage());
+        verify(consultaRepository, never()).exportarPorPeriodo(any(), any());
+    }
+
+    //removerConsultasDoPaciente
+    @Test
+    public void testRemoverConsultasDoPacienteLiberaVagasAntes(){
+        UUID pacienteId = UUID.randomUUID();
+
+        consultaService.removerConsultasDoPaciente(pacienteId);
+
+        // as vagas são contadas a partir das consultas, então precisam ser devolvidas antes do delete
+        var ordem = inOrder(horarioDisponivelService, consultaRepository);
+        ordem.verify(horarioDisponivelService).liberarVagasDoPaciente(pacienteId);
+        ordem.verify(consultaRepository).removerConsultasDoPaciente(pacienteId);
+        verify(consultaRepository, never()).findById(any(UUID.class));
+    }
+
+    @Test
+    public void testRemoverConsultasDoPacientePassaAsVagasPelaListaDeEspera(){
+        UUID pacienteId = UUID.randomUUID();
+        HorarioDisponivel horario = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 1);
+        HorarioDisponivel outroHorario = new HorarioDisponivel(LocalDateTime.now().plusDays(2), 1);
+
+        when(horarioDisponivelService.buscarHorariosDoPaciente(pacienteId)).thenReturn(List.of(horario, outroHorario));
+
+        consultaService.removerConsultasDoPaciente(pacienteId);
+
+        // os horários são lidos antes do delete, as vagas só vão para a fila depois dele
+        var ordem = inOrder(horarioDisponivelService, consultaRepository, listaDeEsperaService);
+        ordem.verify(horarioDisponivelService).buscarHorariosDoPaciente(pacienteId);
+        ordem.verify(consultaRepository).removerConsultasDoPaciente(pacienteId);
+        ordem.verify(listaDeEsperaService).promover(horario);
+        ordem.verify(listaDeEsperaService).promover(outroHorario);
+    }
+
+}
@@ -1,5 +1,11 @@
 package com.vv.qxdconsulta.service;
 
+import com.vv.qxdconsulta.dto.HorarioLivre;
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.ModeloDeAgenda;
+import com.vv.qxdconsulta.dto.VagasPorHorario;
+import com.vv.qxdconsulta.dto.VersaoDaListagem;
+import com.vv.qxdconsulta.dto.VersaoDoDia;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.HorarioDisponivel;
 import com.vv.qxdconsulta.model.Medico;
@@ -10,14 +16,21 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.cglib.core.Local;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -39,6 +52,12 @@ public class HorarioDisponiveisServiceTest {
     @Mock
     private HorarioDisponivel horarioDisponivelClass;
 
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ReservaDeVagaService reservaDeVagaService;
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -61,6 +80,19 @@ public class HorarioDisponiveisServiceTest {
         verify(medicoService, times(1)).buscarMedicoPorCrm(medico.getCrm());
     }
 
+    @Test
+    public void testAdicionarHorarioDisponivelCortaOsSegundos() {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.of(2030, 3, 4, 8, 0, 30, 500), 5);
+
+        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
+        when(horarioDisponivelRepository.save(horarioDisponivel)).thenReturn(horarioDisponivel);
+
+        HorarioDisponivel result = horarioDisponivelService.adicionarHorarioDisponivel(horarioDisponivel, medico.getCrm());
+
+        assertEquals(LocalDateTime.of(2030, 3, 4, 8, 0), result.getHorario());
+    }
+
     @Test
     public void testAdicionarHorarioDisponivelMedicoNaoEncontrado(){
         HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now(), 5);
@@ -111,14 +143,15 @@ public class HorarioDisponiveisServiceTest {
         horarioDisponivelList.add(new HorarioDisponivel(LocalDateTime.now().plusDays(2), 3));
         medico.setHorarioDisponivel(horarioDisponivelList);
 
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(horarioDisponivelRepository.findByMedicoIdOrderByHorario(medico.getId())).thenReturn(horarioDisponivelList);
 
         List<HorarioDisponivel> result = horarioDisponivelService.listarHorariosDisponiveisPorMedico(medico.getCrm());
 
         assertEquals(horarioDisponivelList.size(), result.size());
         assertTrue(result.containsAll(horarioDisponivelList));
 
-        verify(medicoService, times(1)).buscarMedicoPorCrm(medico.getCrm());
+        verify(medicoService, times(1)).buscarMedicoEmCache(medico.getCrm());
     }
 
     @Test
@@ -129,7 +162,7 @@ public class HorarioDisponiveisServiceTest {
         horarioDisponivelList.add(new HorarioDisponivel(LocalDateTime.now().plusDays(2), 3));
         medico.setHorarioDisponivel(horarioDisponivelList);
 
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenThrow( new IllegalArgumentException("Médico não encontrado com o CRM: "+ medico.getCrm()));
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenThrow( new IllegalArgumentException("Médico não encontrado com o CRM: "+ medico.getCrm()));
 
         Exception exception = assertThrows(IllegalArgumentException.class, () ->{
            horarioDisponivelService.listarHorariosDisponiveisPorMedico(medico.getCrm());
@@ -137,7 +170,7 @@ public class HorarioDisponiveisServiceTest {
 
         assertEquals("Médico não encontrado com o CRM: "+ medico.getCrm(), exception.getMessage());
 
-        verify(medicoService, times(1)).buscarMedicoPorCrm(medico.getCrm());
+        verify(medicoService, times(1)).buscarMedicoEmCache(medico.getCrm());
     }
 
     @Test
@@ -146,7 +179,8 @@ public class HorarioDisponiveisServiceTest {
         List<HorarioDisponivel> horarioDisponivelList = new ArrayList<>();
         medico.setHorarioDisponivel(horarioDisponivelList);
 
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(horarioDisponivelRepository.findByMedicoIdOrderByHorario(medico.getId())).thenReturn(horarioDisponivelList);
 
         Exception exception = assertThrows(IllegalArgumentException.class, () ->{
            horarioDisponivelService.listarHorariosDisponiveisPorMedico(medico.getCrm());
@@ -154,7 +188,7 @@ public class HorarioDisponiveisServiceTest {
 
         assertEquals("Esse medico não tem horários disponíveis", exception.getMessage());
 
-        verify(medicoService, times(1)).buscarMedicoPorCrm(medico.getCrm());
+        verify(medicoService, times(1)).buscarMedicoEmCache(medico.getCrm());
 
     }
 
@@ -164,19 +198,17 @@ public class HorarioDisponiveisServiceTest {
         Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
         LocalDateTime horario = LocalDateTime.now().plusDays(1);
 
-        List<HorarioDisponivel> horarioDisponivelList = new ArrayList<>();
-        horarioDisponivelList.add(new HorarioDisponivel(horario, 5));
-        horarioDisponivelList.add(new HorarioDisponivel(LocalDateTime.now().plusDays(2), 3));
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(horario, 5);
 
-        medico.setHorarioDisponivel(horarioDisponivelList);
-
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(horarioDisponivelRepository.findByMedicoIdAndHorario(medico.getId(), horario)).thenReturn(Optional.of(horarioDisponivel));
 
         HorarioDisponivel result = horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horario);
 
         assertEquals(horario, result.getHorario());
 
-        verify(medicoService, times(1)).buscarMedicoPorCrm(medico.getCrm());
+        verify(medicoService, times(1)).buscarMedicoEmCache(medico.getCrm());
+        verify(horarioDisponivelRepository, times(1)).findByMedicoIdAndHorario(medico.getId(), horario);
     }
 
     @Test
@@ -188,7 +220,7 @@ public class HorarioDisponiveisServiceTest {
         horarioDisponivelList.add(new HorarioDisponivel(LocalDateTime.now().plusDays(2), 3));
         medico.setHorarioDisponivel(horarioDisponivelList);
 
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenThrow( new IllegalArgumentException("Médico não encontrado com o CRM: "+ medico.getCrm()));
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenThrow( new IllegalArgumentException("Médico não encontrado com o CRM: "+ medico.getCrm()));
 
         Exception exception = assertThrows(IllegalArgumentException.class, () -> {
            horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horario);
@@ -196,17 +228,16 @@ public class HorarioDisponiveisServiceTest {
 
         assertEquals("Médico não encontrado com o CRM: "+medico.getCrm(), exception.getMessage());
 
-        verify(medicoService, times(1)).buscarMedicoPorCrm(medico.getCrm());
+        verify(medicoService, times(1)).buscarMedicoEmCache(medico.getCrm());
     }
 
     @Test
     public void testBuscarHorarioPorMedicoSemHorario(){
         Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
         LocalDateTime horario = LocalDateTime.now().plusDays(1);
-        List<HorarioDisponivel> horarioDisponivelList = new ArrayList<>();
-        medico.setHorarioDisponivel(horarioDisponivelList);
 
-        when(medicoService.buscarMedicoPorCrm(medico.getCrm())).thenReturn(medico);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(horarioDisponivelRepository.findByMedicoIdAndHorario(medico.getId(), horario)).thenReturn(Optional.empty());
 
         Exception exception = assertThrows(IllegalArgumentException.class, () -> {
             horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horario);
@@ -214,7 +245,8 @@ public class HorarioDisponiveisServiceTest {
 
         assertEquals("O médico não tem esse horário disponível", exception.getMessage());
 
-        verify(medicoService, times(1)).buscarMedicoPorCrm(medico.getCrm());
+        verify(medicoService, times(1)).buscarMedicoEmCache(medico.getCrm());
+        verify(horarioDisponivelRepository, times(1)).findByMedicoIdAndHorario(medico.getId(), horario);
     }
 
     //verificarDisponibilidadeDeConsulta
@@ -242,6 +274,208 @@ public class HorarioDisponiveisServiceTest {
         verify(horarioDisponivelClass, times(1)).podeAgendar();
     }
 
+    @Test
+    public void testverificarDisponibilidadeDeConsultaUsaContadorDeVagas(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 2);
+        horarioDisponivel.setVagasOcupadas(2);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            horarioDisponivelService.verificarDisponibilidadeDeConsulta(horarioDisponivel);
+        });
+
+        assertEquals("Limite de consultas para este horário já atingido.", exception.getMessage());
+        // a lista de consultas não precisa estar carregada para saber a capacidade
+        assertTrue(horarioDisponivel.getConsultasAgendadas().isEmpty());
+    }
+
+    @Test
+    public void testverificarDisponibilidadeDeConsultaExpiraReservasVencidas(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 2);
+        horarioDisponivel.setVagasOcupadas(2);
+
+        // uma das vagas era de uma reserva vencida que a fila de vencimentos não alcançou
+        when(reservaDeVagaService.expirarVencidasDoHorario(horarioDisponivel)).thenAnswer(invocation -> {
+            horarioDisponivel.setVagasOcupadas(1);
+            return 1;
+        });
+
+        assertDoesNotThrow(() -> horarioDisponivelService.verificarDisponibilidadeDeConsulta(horarioDisponivel));
+    }
+
+    @Test
+    public void testverificarDisponibilidadeDeConsultaVagaDaReservaVencidaFicaComAListaDeEspera(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 2);
+        horarioDisponivel.setVagasOcupadas(2);
+
+        // a vaga devolvida foi para o primeiro da lista de espera, o horário continua lotado
+        when(reservaDeVagaService.expirarVencidasDoHorario(horarioDisponivel)).thenReturn(1);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            horarioDisponivelService.verificarDisponibilidadeDeConsulta(horarioDisponivel);
+        });
+
+        assertEquals("Limite de consultas para este horário já atingido.", exception.getMessage());
+    }
+
+    //reservarVaga
+    @Test
+    public void testReservarVagaSucesso(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        horarioDisponivel.setId(UUID.randomUUID());
+
+        when(horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId())).thenReturn(1);
+
+        horarioDisponivelService.reservarVaga(horarioDisponivel);
+
+        assertEquals(1, horarioDisponivel.getVagasOcupadas());
+        verify(horarioDisponivelRepository, times(1)).reservarVaga(horarioDisponivel.getId());
+    }
+
+    @Test
+    public void testReservarVagaHorarioLotado(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 1);
+        horarioDisponivel.setId(UUID.randomUUID());
+
+        // outro agendamento ocupou a última vaga, o update condicional não altera nenhuma linha
+        when(horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId())).thenReturn(0);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            horarioDisponivelService.reservarVaga(horarioDisponivel);
+        });
+
+        assertEquals("Limite de consultas para este horário já atingido.", exception.getMessage());
+        assertEquals(0, horarioDisponivel.getVagasOcupadas());
+    }
+
+    @Test
+    public void testReservarVagaTentaDeNovoDepoisDeExpirarReservasVencidas(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 1);
+        horarioDisponivel.setId(UUID.randomUUID());
+
+        when(horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId())).thenReturn(0, 1);
+        when(reservaDeVagaService.expirarVencidasDoHorario(horarioDisponivel)).thenReturn(1);
+
+        horarioDisponivelService.reservarVaga(horarioDisponivel);
+
+        assertEquals(1, horarioDisponivel.getVagasOcupadas());
+        verify(horarioDisponivelRepository, times(2)).reservarVaga(horarioDisponivel.getId());
+    }
+
+    //reservarVagas
+    @Test
+    public void testReservarVagasTodasCabem(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        horarioDisponivel.setId(UUID.randomUUID());
+
+        when(horarioDisponivelRepository.reservarVagas(horarioDisponivel.getId(), 3)).thenReturn(1);
+
+        int result = horarioDisponivelService.reservarVagas(horarioDisponivel, 3);
+
+        assertEquals(3, result);
+        assertEquals(3, horarioDisponivel.getVagasOcupadas());
+        verify(horarioDisponivelRepository, never()).reservarVaga(any(UUID.class));
+    }
+
+    @Test
+    public void testReservarVagasParcialmente(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        horarioDisponivel.setId(UUID.randomUUID());
+        horarioDisponivel.setVagasOcupadas(3);
+
+        // não cabem as 3 de uma vez e outro agendamento pegou as vagas lidas, então ocupa uma por uma até lotar
+        when(horarioDisponivelRepository.reservarVagas(horarioDisponivel.getId(), 3)).thenReturn(0);
+        when(horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId())).thenReturn(1, 1, 0);
+
+        int result = horarioDisponivelService.reservarVagas(horarioDisponivel, 3);
+
+        assertEquals(2, result);
+        assertEquals(5, horarioDisponivel.getVagasOcupadas());
+        verify(horarioDisponivelRepository, times(3)).reservarVaga(horarioDisponivel.getId());
+    }
+
+    @Test
+    public void testReservarVagasOcupaAsVagasLivresDeUmaVez(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        horarioDisponivel.setId(UUID.randomUUID());
+        horarioDisponivel.setVagasOcupadas(3);
+
+        when(horarioDisponivelRepository.reservarVagas(horarioDisponivel.getId(), 4)).thenReturn(0);
+        when(horarioDisponivelRepository.reservarVagas(horarioDisponivel.getId(), 2)).thenReturn(1);
+        when(horarioDisponivelRepository.reservarVaga(horarioDisponivel.getId())).thenReturn(0);
+
+        int result = horarioDisponivelService.reservarVagas(horarioDisponivel, 4);
+
+        assertEquals(2, result);
+        assertEquals(5, horarioDisponivel.getVagasOcupadas());
+        verify(horarioDisponivelRepository, times(1)).reservarVagas(horarioDisponivel.getId(), 2);
+    }
+
+    //buscarHorariosDosMedicos
+    @Test
+    public void testBuscarHorariosDosMedicosCarregaSoOsParesPedidos(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        Medico outroMedico = new Medico(UUID.randomUUID(), "Dra. Ana", "CRM54321", "12345678955", "Pediatria");
+        LocalDateTime oito = LocalDateTime.of(2030, 3, 4, 8, 0);
+        LocalDateTime nove = oito.plusHours(1);
+        HorarioDisponivel pedido = new HorarioDisponivel(oito, 5);
+        pedido.setId(UUID.randomUUID());
+        pedido.setMedico(medico);
+
+        // o select recebe só os pares pedidos; o outro médico não tem horário às 09:00
+        when(jdbcTemplate.queryForList(anyString(), eq(UUID.class), any(Object[].class))).thenReturn(List.of(pedido.getId()));
+        when(horarioDisponivelRepository.findByIdIn(List.of(pedido.getId()))).thenReturn(List.of(pedido));
+
+        Map<UUID, Map<LocalDateTime, HorarioDisponivel>> result = horarioDisponivelService.buscarHorariosDosMedicos(
+                Map.of(medico.getId(), Set.of(oito), outroMedico.getId(), Set.of(nove)));
+
+        assertEquals(Map.of(medico.getId(), Map.of(oito, pedido)), result);
+        verify(jdbcTemplate, times(1)).queryForList(
+                argThat((String sql) -> sql.contains("(?, ?)") && sql.indexOf("(?, ?)") == sql.lastIndexOf("(?, ?)")),
+                eq(UUID.class), any(Object[].class));
+        verify(horarioDisponivelRepository, times(1)).findByIdIn(List.of(pedido.getId()));
+    }
+
+    //reservarVagasEmLote
+    @Test
+    public void testReservarVagasEmLoteNumBatchSo(){
+        HorarioDisponivel cabe = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        cabe.setId(UUID.randomUUID());
+        HorarioDisponivel quaseLotado = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        quaseLotado.setId(UUID.randomUUID());
+        quaseLotado.setVagasOcupadas(4);
+        Map<HorarioDisponivel, Integer> quantidades = new LinkedHashMap<>();
+        quantidades.put(cabe, 3);
+        quantidades.put(quaseLotado, 2);
+
+        // as 2 do segundo horário não cabem juntas, a vaga que sobrou é ocupada pelo repositório
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1, 0});
+        when(horarioDisponivelRepository.reservarVagas(quaseLotado.getId(), 1)).thenReturn(1);
+
+        Map<HorarioDisponivel, Integer> result = horarioDisponivelService.reservarVagasEmLote(quantidades);
+
+        assertEquals(Map.of(cabe, 3, quaseLotado, 1), result);
+        assertEquals(3, cabe.getVagasOcupadas());
+        assertEquals(5, quaseLotado.getVagasOcupadas());
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), argThat((List<Object[]> linhas) -> linhas.size() == 2));
+        verify(horarioDisponivelRepository, never()).reservarVagas(eq(cabe.getId()), anyInt());
+        verify(horarioDisponivelRepository, never()).reservarVaga(cabe.getId());
+    }
+
+    //liberarVaga
+    @Test
+    public void testLiberarVagaSucesso(){
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now().plusDays(1), 5);
+        horarioDisponivel.setId(UUID.randomUUID());
+        horarioDisponivel.setVagasOcupadas(3);
+
+        when(horarioDisponivelRepository.liberarVaga(horarioDisponivel.getId())).thenReturn(1);
+
+        horarioDisponivelService.liberarVaga(horarioDisponivel);
+
+        assertEquals(2, horarioDisponivel.getVagasOcupadas());
+        verify(horarioDisponivelRepository, times(1)).liberarVaga(horarioDisponivel.getId());
+    }
+
 //    buscarHorariosDisponiveisPorData
     @Test
     public void testBuscarHorariosDisponiveisPorDataSucesso(){
@@ -300,12 +534,29 @@ public class HorarioDisponiveisServiceTest {
 
         HorarioDisponivel result = horarioDisponivelService.atualizarHorarioDisponivel(horarioId, novoHorario, novaCapacidade);
 
-        assertEquals(novoHorario, result.getHorario());
+        assertEquals(novoHorario.truncatedTo(ChronoUnit.MINUTES), result.getHorario());
         assertEquals(novaCapacidade, result.getCapacidadeMaxima());
 
         verify(horarioDisponivelRepository, times(1)).save(horarioDisponivel);
     }
 
+    @Test
+    public void testAtualizarHorarioDisponivelCortaOsSegundos(){
+        UUID horarioId = UUID.randomUUID();
+        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.of(2030, 3, 4, 8, 0), 3);
+        horarioDisponivel.setId(horarioId);
+        horarioDisponivel.setConsultasAgendadas(new ArrayList<>());
+
+        when(horarioDisponivelRepository.findById(horarioId)).thenReturn(Optional.of(horarioDisponivel));
+        when(horarioDisponivelRepository.save(horarioDisponivel)).thenReturn(horarioDisponivel);
+
+        // 08:30:45 e 08:30 ocupariam a mesma entrada do índice de disponibilidade
+        HorarioDisponivel result = horarioDisponivelService.atualizarHorarioDisponivel(horarioId,
+                LocalDateTime.of(2030, 3, 4, 8, 30, 45), 3);
+
+        assertEquals(LocalDateTime.of(2030, 3, 4, 8, 30), result.getHorario());
+    }
+
     @Test
     public void testAtualizarHorarioDisponivelNaoEncontrado(){
         UUID horarioId = UUID.randomUUID();
@@ -396,4 +647,149 @@ public class HorarioDisponiveisServiceTest {
         verify(horarioDisponivelRepository, never()).delete(horarioDisponivel);
     }
 
+    @Test
+    public void testVersaoDoDiaCobreODiaInteiro() {
+        LocalDate dia = LocalDate.of(2030, 3, 4);
+        VersaoDaListagem versao = new VersaoDaListagem(3, 7, LocalDateTime.of(2030, 3, 1, 10, 0));
+        when(horarioDisponivelRepository.versaoDosHorariosEntre(dia.atStartOfDay(), dia.atTime(LocalTime.MAX))).thenReturn(versao);
+
+        assertEquals(versao, horarioDisponivelService.versaoDosHorariosDoDia(dia));
+    }
+
+    @Test
+    public void testVersaoMudaComAQuantidadeASomaOuAUltimaAlteracao() {
+        LocalDateTime alteracao = LocalDateTime.of(2030, 3, 1, 10, 0);
+        String etag = new VersaoDaListagem(3, 7, alteracao).etag();
+
+        assertEquals(etag, new VersaoDaListagem(3, 7, alteracao).etag());
+        assertNotEquals(etag, new VersaoDaListagem(2, 7, alteracao).etag());
+        assertNotEquals(etag, new VersaoDaListagem(3, 8, alteracao).etag());
+        assertNotEquals(etag, new VersaoDaListagem(3, 7, alteracao.plusSeconds(1)).etag());
+        // listagem vazia
+        assertEquals(0, new VersaoDaListagem(0, 0, null).ultimaAlteracao().toEpochMilli());
+    }
+
+    @Test
+    public void testListarHorariosDoMedicoEmProjecao() {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(horarioDisponivelRepository.listarHorariosDoMedico(medico.getId())).thenReturn(List.of());
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> horarioDisponivelService.listarHorariosDoMedico(medico.getCrm()));
+
+        assertEquals("Esse medico não tem horários disponíveis", exception.getMessage());
+        verify(horarioDisponivelRepository, never()).findByMedicoIdOrderByHorario(any());
+    }
+
+    @Test
+    public void testModeloDeAgendaGeraHorarios() {
+        // segunda 03/03/2031 a segunda 10/03/2031, só segundas e quartas, sem a quarta 05/03
+        ModeloDeAgenda modelo = new ModeloDeAgenda(Set.of(DayOfWeek.MONDAY, DayOfWeek.WEDNESDAY), LocalTime.of(8, 0),
+                LocalTime.of(9, 10), 30, 2, LocalDate.of(2031, 3, 3), LocalDate.of(2031, 3, 10), Set.of(LocalDate.of(2031, 3, 5)));
+
+        // o horário das 09:00 terminaria depois das 09:10, fica de fora
+        assertEquals(List.of(LocalDateTime.of(2031, 3, 3, 8, 0), LocalDateTime.of(2031, 3, 3, 8, 30),
+                LocalDateTime.of(2031, 3, 10, 8, 0), LocalDateTime.of(2031, 3, 10, 8, 30)), modelo.horarios());
+    }
+
+    @Test
+    public void testGerarAgendaPulaHorariosExistentes() {
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        ModeloDeAgenda modelo = new ModeloDeAgenda(Set.of(DayOfWeek.MONDAY), LocalTime.of(8, 0), LocalTime.of(10, 0),
+                30, 2, LocalDate.of(2031, 3, 3), LocalDate.of(2031, 3, 3), Set.of());
+        when(medicoService.buscarMedicosPorCrms(List.of(medico.getCrm()))).thenReturn(Map.of(medico.getCrm(), medico));
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(horarioDisponivelRepository.listarHorariosDosMedicosNoPeriodo(any(), any(), any()))
+                .thenReturn(List.of(new VagasPorHorario(medico.getId(), LocalDateTime.of(2031, 3, 3, 8, 30), 1)));
+
+        int criados = horarioDisponivelService.gerarAgenda(List.of(medico.getCrm()), modelo);
+
+        assertEquals(3, criados);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), argThat((List<Object[]> linhas) -> linhas.size() == 3));
+        assertEquals(List.of(LocalDateTime.of(2031, 3, 3, 8, 0), LocalDateTime.of(2031, 3, 3, 9, 0), LocalDateTime.of(2031, 3, 3, 9, 30)),
+                horarioDisponivelService.buscarHorariosLivres(medico.getCrm(), LocalDate.of(2031, 3, 3), LocalDate.of(2031, 3, 3)));
+    }
+
+    @Test
+    public void testGerarAgendaMedicoNaoEncontrado() {
+        ModeloDeAgenda modelo = new ModeloDeAgenda(Set.of(DayOfWeek.MONDAY), LocalTime.of(8, 0), LocalTime.of(10, 0),
+                30, 2, LocalDate.of(2031, 3, 3), LocalDate.of(2031, 3, 3), Set.of());
+        when(medicoService.buscarMedicosPorCrms(List.of("CRM00000"))).thenReturn(Map.of());
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> horarioDisponivelService.gerarAgenda(List.of("CRM00000"), modelo));
+
+        assertEquals("Médico não encontrado com o CRM: CRM00000", exception.getMessage());
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void testGerarAgendaModeloInvalido() {
+        ModeloDeAgenda semDuracao = new ModeloDeAgenda(Set.of(DayOfWeek.MONDAY), LocalTime.of(8, 0), LocalTime.of(10, 0),
+                0, 2, LocalDate.of(2031, 3, 3), LocalDate.of(2031, 3, 3), Set.of());
+        ModeloDeAgenda periodoLongo = new ModeloDeAgenda(Set.of(DayOfWeek.MONDAY), LocalTime.of(8, 0), LocalTime.of(10, 0),
+                30, 2, LocalDate.of(2031, 1, 1), LocalDate.of(2032, 6, 1), Set.of());
+
+        assertThrows(IllegalArgumentException.class, () -> horarioDisponivelService.gerarAgenda(List.of("CRM12345"), semDuracao));
+        assertThrows(IllegalArgumentException.class, () -> horarioDisponivelService.gerarAgenda(List.of("CRM12345"), periodoLongo));
+        verifyNoInteractions(jdbcTemplate, medicoService);
+    }
+
+    @Test
+    public void testRessincronizarReleSoOsDiasQueMudaram() {
+        UUID medicoId = UUID.randomUUID();
+        LocalDate dia = LocalDate.now().plusDays(1);
+        LocalDate outroDia = dia.plusDays(1);
+        LocalDateTime oitoHoras = dia.atTime(8, 0);
+        when(horarioDisponivelRepository.versoesDosDiasAPartirDe(any(LocalDateTime.class))).thenReturn(
+                List.of(new VersaoDoDia(dia, "\"1-1\""), new VersaoDoDia(outroDia, "\"1-1\"")));
+        when(horarioDisponivelRepository.listarVagasLivres()).thenReturn(Stream.of(new VagasPorHorario(medicoId, oitoHoras, 2)));
+        horarioDisponivelService.carregarIndiceDeDisponibilidade();
+
+        // outra instância lotou o horário do primeiro dia
+        when(horarioDisponivelRepository.versoesDosDiasAPartirDe(any(LocalDateTime.class))).thenReturn(
+                List.of(new VersaoDoDia(dia, "\"1-2\""), new VersaoDoDia(outroDia, "\"1-1\"")));
+        when(horarioDisponivelRepository.listarVagasLivresEntre(dia.atStartOfDay(), dia.atTime(LocalTime.MAX)))
+                .thenReturn(List.of(new VagasPorHorario(medicoId, oitoHoras, 0)));
+
+        assertEquals(1, horarioDisponivelService.ressincronizarIndiceDeDisponibilidade());
+        assertTrue(horarioDisponivelService.disponibilidade.horariosLivres(medicoId, dia, dia).isEmpty());
+        verify(horarioDisponivelRepository, never()).listarVagasLivresEntre(outroDia.atStartOfDay(), outroDia.atTime(LocalTime.MAX));
+
+        // o dia é relido mais uma vez na rodada seguinte e depois não é mais
+        assertEquals(1, horarioDisponivelService.ressincronizarIndiceDeDisponibilidade());
+        assertEquals(0, horarioDisponivelService.ressincronizarIndiceDeDisponibilidade());
+        verify(horarioDisponivelRepository, times(2)).listarVagasLivresEntre(dia.atStartOfDay(), dia.atTime(LocalTime.MAX));
+    }
+
+    @Test
+    public void testBuscarPrimeirosHorariosLivresDaEspecializacao() {
+        Medico silva = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678954", "Cardiologia");
+        Medico souza = new Medico(UUID.randomUUID(), "Dra. Souza", "CRM54321", "12345678955", "Cardiologia");
+        LocalDateTime oitoHoras = LocalDateTime.of(2031, 3, 3, 8, 0);
+        horarioDisponivelService.disponibilidade.recarregar(Stream.of(
+                new VagasPorHorario(silva.getId(), oitoHoras, 0),
+                new VagasPorHorario(silva.getId(), oitoHoras.plusMinutes(30), 2),
+                new VagasPorHorario(souza.getId(), oitoHoras.plusDays(1), 1),
+                new VagasPorHorario(UUID.randomUUID(), oitoHoras, 1)));
+        when(medicoService.listarIdsPorEspecializacao("Cardiologia")).thenReturn(Set.of(silva.getId(), souza.getId()));
+        when(medicoService.buscarMedicosPorIds(Set.of(silva.getId(), souza.getId())))
+                .thenReturn(Map.of(silva.getId(), silva, souza.getId(), souza));
+
+        List<HorarioLivre> livres = horarioDisponivelService.buscarPrimeirosHorariosLivres("Cardiologia", oitoHoras, 5);
+
+        assertEquals(List.of(new HorarioLivre("CRM12345", "Dr. Silva", oitoHoras.plusMinutes(30), 2),
+                new HorarioLivre("CRM54321", "Dra. Souza", oitoHoras.plusDays(1), 1)), livres);
+    }
+
+    @Test
+    public void testBuscarPrimeirosHorariosLivresSemMedicosOuLimiteInvalido() {
+        when(medicoService.listarIdsPorEspecializacao("Ortopedia")).thenReturn(Set.of());
+
+        assertTrue(horarioDisponivelService.buscarPrimeirosHorariosLivres("Ortopedia", null, 10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> horarioDisponivelService.buscarPrimeirosHorariosLivres("Ortopedia", null, 0));
+        assertThrows(IllegalArgumentException.class, () -> horarioDisponivelService.buscarPrimeirosHorariosLivres(" ", null, 10));
+        verify(medicoService, never()).buscarMedicosPorIds(any());
+    }
 }
@@ -0,0 +1,135 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.VagasPorHorario;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndiceDeDisponibilidadeTest {
+
+    private IndiceDeDisponibilidade indice;
+
+    private final UUID silva = UUID.randomUUID();
+    private final UUID souza = UUID.randomUUID();
+    private final LocalDate segunda = LocalDate.of(2030, 3, 4);
+    private final LocalDateTime oitoHoras = segunda.atTime(8, 0);
+    private final LocalDateTime oitoEMeia = segunda.atTime(8, 30);
+    private final LocalDateTime terca = segunda.plusDays(1).atTime(14, 0);
+
+    @BeforeEach
+    public void setUp() {
+        indice = new IndiceDeDisponibilidade();
+        indice.recarregar(Stream.of(
+                new VagasPorHorario(silva, oitoEMeia, 1),
+                new VagasPorHorario(silva, oitoHoras, 2),
+                new VagasPorHorario(silva, terca, 0),
+                new VagasPorHorario(souza, terca, 3)));
+    }
+
+    @Test
+    public void testHorariosLivresEmOrdem() {
+        assertEquals(List.of(oitoHoras, oitoEMeia), indice.horariosLivres(silva, segunda, segunda.plusDays(6)));
+        assertEquals(List.of(terca), indice.horariosLivres(souza, segunda, segunda.plusDays(6)));
+        assertTrue(indice.horariosLivres(UUID.randomUUID(), segunda, segunda.plusDays(6)).isEmpty());
+    }
+
+    @Test
+    public void testReservaELiberacao() {
+        indice.ajustar(silva, oitoEMeia, -1);
+        assertEquals(List.of(oitoHoras), indice.horariosLivres(silva, segunda, segunda));
+
+        indice.ajustar(silva, terca, 1);
+        assertEquals(List.of(oitoHoras, terca), indice.horariosLivres(silva, segunda, segunda.plusDays(1)));
+    }
+
+    @Test
+    public void testContarPorMedicoDeixaDeForaQuemNaoTemVaga() {
+        assertEquals(Map.of(silva, 2, souza, 1), indice.contarHorariosLivresPorMedico(segunda, segunda.plusDays(1)));
+
+        indice.ajustar(souza, terca, -3);
+        assertEquals(Map.of(silva, 2), indice.contarHorariosLivresPorMedico(segunda, segunda.plusDays(1)));
+    }
+
+    @Test
+    public void testDefinirERemoverHorario() {
+        LocalDateTime oitoHorasEQuinze = segunda.atTime(8, 15);
+        indice.definir(silva, oitoHorasEQuinze, 4);
+        assertEquals(List.of(oitoHoras, oitoHorasEQuinze, oitoEMeia), indice.horariosLivres(silva, segunda, segunda));
+
+        indice.remover(silva, oitoHoras);
+        indice.removerMedico(souza);
+        assertEquals(List.of(oitoHorasEQuinze, oitoEMeia), indice.horariosLivres(silva, segunda, segunda));
+        assertEquals(Map.of(silva, 2), indice.contarHorariosLivresPorMedico(segunda, segunda.plusDays(1)));
+    }
+
+    @Test
+    public void testRecarregarDiaTrocaSoAqueleDia() {
+        indice.recarregarDia(segunda, List.of(new VagasPorHorario(souza, oitoHoras, 1), new VagasPorHorario(silva, oitoEMeia, 0)));
+        assertTrue(indice.horariosLivres(silva, segunda, segunda).isEmpty());
+        assertEquals(List.of(oitoHoras), indice.horariosLivres(souza, segunda, segunda));
+        assertEquals(List.of(terca), indice.horariosLivres(souza, terca.toLocalDate(), terca.toLocalDate()));
+
+        // dia sem horários no banco sai do índice
+        indice.recarregarDia(terca.toLocalDate(), List.of());
+        assertEquals(Map.of(souza, 1), indice.contarHorariosLivresPorMedico(segunda, segunda.plusDays(1)));
+    }
+
+    @Test
+    public void testMaisDe64HorariosNoDia() {
+        for (int i = 0; i < 100; i++) {
+            indice.definir(souza, segunda.atStartOfDay().plusMinutes(10L * i), i % 2);
+        }
+        List<LocalDateTime> livres = indice.horariosLivres(souza, segunda, segunda);
+
+        assertEquals(50, livres.size());
+        assertEquals(segunda.atStartOfDay().plusMinutes(10), livres.get(0));
+        assertEquals(segunda.atStartOfDay().plusMinutes(990), livres.get(49));
+    }
+
+    @Test
+    public void testPrimeirosHorariosLivresJuntaOsMedicosEmOrdem() {
+        indice.definir(souza, oitoHoras.plusMinutes(15), 1);
+
+        assertEquals(List.of(
+                        new VagasPorHorario(silva, oitoHoras, 2),
+                        new VagasPorHorario(souza, oitoHoras.plusMinutes(15), 1),
+                        new VagasPorHorario(silva, oitoEMeia, 1),
+                        new VagasPorHorario(souza, terca, 3)),
+                indice.primeirosHorariosLivres(Set.of(silva, souza), oitoHoras, segunda.plusDays(6), 10));
+        // o limite para o merge no meio do dia
+        assertEquals(List.of(new VagasPorHorario(silva, oitoHoras, 2), new VagasPorHorario(souza, oitoHoras.plusMinutes(15), 1)),
+                indice.primeirosHorariosLivres(Set.of(silva, souza), oitoHoras, segunda.plusDays(6), 2));
+    }
+
+    @Test
+    public void testPrimeirosHorariosLivresSoDosMedicosPedidosEDepoisDoInicio() {
+        // 08:00:30 já passou do horário das 08:00; o horário de terça do silva não tem vaga
+        assertEquals(List.of(new VagasPorHorario(silva, oitoEMeia, 1)),
+                indice.primeirosHorariosLivres(Set.of(silva), oitoHoras.plusSeconds(30), segunda.plusDays(6), 10));
+        assertEquals(List.of(new VagasPorHorario(souza, terca, 3)),
+                indice.primeirosHorariosLivres(Set.of(souza, UUID.randomUUID()), oitoHoras, segunda.plusDays(6), 10));
+        // terça fica fora do último dia
+        assertTrue(indice.primeirosHorariosLivres(Set.of(souza), oitoHoras, segunda, 10).isEmpty());
+    }
+
+    @Test
+    public void testPrimeirosHorariosLivresPulaOsLotados() {
+        for (int i = 0; i < 100; i++) {
+            indice.definir(souza, segunda.atStartOfDay().plusMinutes(10L * i), i < 90 ? 0 : 1);
+        }
+
+        List<VagasPorHorario> livres = indice.primeirosHorariosLivres(Set.of(souza), segunda.atStartOfDay(), segunda, 3);
+
+        assertEquals(List.of(segunda.atStartOfDay().plusMinutes(900), segunda.atStartOfDay().plusMinutes(910),
+                segunda.atStartOfDay().plusMinutes(920)), livres.stream().map(VagasPorHorario::horario).toList());
+    }
+}
@@ -0,0 +1,97 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.NomeIndexado;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndiceDeNomesTest {
+
+    private IndiceDeNomes indice;
+
+    private final UUID joao = UUID.randomUUID();
+    private final UUID joana = UUID.randomUUID();
+    private final UUID mariaJoao = UUID.randomUUID();
+    private final UUID conceicao = UUID.randomUUID();
+
+    @BeforeEach
+    public void setUp() {
+        indice = new IndiceDeNomes();
+        indice.recarregar(Stream.of(
+                new NomeIndexado(joao, "João Silva"),
+                new NomeIndexado(joana, "Joana Sousa"),
+                new NomeIndexado(mariaJoao, "Maria São João"),
+                new NomeIndexado(conceicao, "Conceição Araújo")));
+    }
+
+    @Test
+    public void testBuscaSemAcentoESemMaiusculas() {
+        assertEquals(List.of(conceicao), indice.buscar("CONCEICAO", 10));
+        assertEquals(List.of(conceicao), indice.buscar("araujo", 10));
+        assertEquals(List.of(conceicao), indice.buscar("Araújo", 10));
+    }
+
+    @Test
+    public void testBuscaNoMeioDoNome() {
+        assertEquals(List.of(conceicao), indice.buscar("ncei", 10));
+        assertEquals(List.of(joana), indice.buscar("ousa", 10));
+    }
+
+    @Test
+    public void testComecoDePalavraVemPrimeiro() {
+        // "joa" é começo de palavra nos três, o nome mais curto vem antes
+        assertEquals(List.of(joao, joana, mariaJoao), indice.buscar("joa", 10));
+        // "oao" só aparece no meio da palavra
+        assertEquals(List.of(joao, mariaJoao), indice.buscar("oao", 10));
+    }
+
+    @Test
+    public void testTodasAsPalavrasPrecisamAparecer() {
+        assertEquals(List.of(mariaJoao), indice.buscar("joao maria", 10));
+        assertEquals(List.of(joao), indice.buscar("jo si", 10));
+        assertTrue(indice.buscar("joao sousa", 10).isEmpty());
+    }
+
+    @Test
+    public void testLimitaOsResultados() {
+        assertEquals(List.of(joao, joana), indice.buscar("jo", 2));
+    }
+
+    @Test
+    public void testTermoCurtoOuVazio() {
+        assertTrue(indice.buscar("j", 10).isEmpty());
+        assertTrue(indice.buscar("  ", 10).isEmpty());
+        assertTrue(indice.buscar(null, 10).isEmpty());
+        // palavra de 2 letras só casa com começo de palavra
+        assertTrue(indice.buscar("ao", 10).isEmpty());
+    }
+
+    @Test
+    public void testAtualizarERemover() {
+        indice.adicionar(joao, "Pedro Silva");
+        assertEquals(List.of(joana, mariaJoao), indice.buscar("joa", 10));
+        assertEquals(List.of(joao), indice.buscar("pedro", 10));
+
+        indice.remover(joana);
+        assertEquals(List.of(mariaJoao), indice.buscar("joa", 10));
+        assertEquals(3, indice.tamanho());
+    }
+
+    @Test
+    public void testCompactacaoMantemOsNomesAtivos() {
+        // muitas trocas de nome geram posições removidas até o índice ser reconstruído
+        for (int i = 0; i < 3000; i++) {
+            indice.adicionar(joao, "Nome Temporario " + i);
+        }
+        indice.adicionar(joao, "João Silva");
+
+        assertEquals(4, indice.tamanho());
+        assertEquals(List.of(joao, joana, mariaJoao), indice.buscar("joa", 10));
+        assertTrue(indice.buscar("temporario", 10).isEmpty());
+    }
+}
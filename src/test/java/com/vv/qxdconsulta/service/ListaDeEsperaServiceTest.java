@@ -0,0 +1,252 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.PacienteEmCache;
+import com.vv.qxdconsulta.dto.PromocaoDaListaDeEspera;
+import com.vv.qxdconsulta.model.Consulta;
+import com.vv.qxdconsulta.model.EsperaPorVaga;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.repository.ConsultaRepository;
+import com.vv.qxdconsulta.repository.ListaDeEsperaRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ListaDeEsperaServiceTest {
+
+    @Mock
+    MedicoService medicoService;
+
+    @Mock
+    PacienteService pacienteService;
+
+    @Mock
+    HorarioDisponivelService horarioDisponivelService;
+
+    @Mock
+    ConsultaRepository consultaRepository;
+
+    @Mock
+    ListaDeEsperaRepository listaDeEsperaRepository;
+
+    @Mock
+    ApplicationEventPublisher eventos;
+
+    @InjectMocks
+    private ListaDeEsperaService listaDeEsperaService;
+
+    private Medico medico;
+    private Paciente paciente;
+    private HorarioDisponivel horarioLotado;
+
+    @BeforeEach
+    void setUp(){
+        MockitoAnnotations.openMocks(this);
+        medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
+        paciente = new Paciente(UUID.randomUUID(), "José", "jose@email.com", "12345678915", "+5588999999999");
+        horarioLotado = new HorarioDisponivel(LocalDateTime.of(2030, 3, 4, 8, 0), 1);
+        horarioLotado.setId(UUID.randomUUID());
+        horarioLotado.setMedico(medico);
+        horarioLotado.setVagasOcupadas(1);
+    }
+
+    @Test
+    void testEntrarNaListaDeEsperaSucesso(){
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
+        when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horarioLotado.getHorario())).thenReturn(horarioLotado);
+        when(listaDeEsperaRepository.save(any(EsperaPorVaga.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        EsperaPorVaga espera = listaDeEsperaService.entrarNaListaDeEspera(medico.getCrm(), paciente.getCpf(),
+                horarioLotado.getHorario(), "Retorno");
+
+        assertSame(horarioLotado, espera.getHorarioDisponivel());
+        assertSame(paciente, espera.getPaciente());
+        assertEquals("Retorno", espera.getTipoConsulta());
+        assertFalse(espera.promovida());
+    }
+
+    @Test
+    void testEntrarNaListaDeEsperaComVagaLivre(){
+        horarioLotado.setVagasOcupadas(0);
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
+        when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horarioLotado.getHorario())).thenReturn(horarioLotado);
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () ->
+                listaDeEsperaService.entrarNaListaDeEspera(medico.getCrm(), paciente.getCpf(), horarioLotado.getHorario(), "Retorno"));
+
+        assertEquals("Ainda há vagas neste horário, agende a consulta.", exception.getMessage());
+        verify(listaDeEsperaRepository, never()).save(any());
+    }
+
+    @Test
+    void testEntrarNaListaDeEsperaDuasVezes(){
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
+        when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horarioLotado.getHorario())).thenReturn(horarioLotado);
+        when(listaDeEsperaRepository.existsByHorarioDisponivelIdAndPacienteIdAndPromovidaEmIsNull(horarioLotado.getId(), paciente.getId()))
+                .thenReturn(true);
+
+        assertThrows(IllegalArgumentException.class, () ->
+                listaDeEsperaService.entrarNaListaDeEspera(medico.getCrm(), paciente.getCpf(), horarioLotado.getHorario(), "Retorno"));
+        verify(listaDeEsperaRepository, never()).save(any());
+    }
+
+    @Test
+    void testPromoverFilaVaziaNaoOcupaAVaga(){
+        when(listaDeEsperaRepository.findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(horarioLotado.getId()))
+                .thenReturn(List.of());
+
+        listaDeEsperaService.promover(horarioLotado);
+
+        verify(horarioDisponivelService, never()).reservarVagas(any(), anyInt());
+        verifyNoInteractions(consultaRepository, eventos);
+    }
+
+    @Test
+    void testPromoverPulaPedidoPromovidoPorOutraTransacao(){
+        EsperaPorVaga primeiro = espera(new Paciente(UUID.randomUUID(), "Ana", "ana@email.com", "12345678916", "+5588999999998"));
+        EsperaPorVaga segundo = espera(paciente);
+        when(listaDeEsperaRepository.findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(horarioLotado.getId()))
+                .thenReturn(List.of(primeiro, segundo));
+        when(horarioDisponivelService.reservarVagas(horarioLotado, 1)).thenReturn(1);
+        when(listaDeEsperaRepository.promover(eq(primeiro.getId()), any())).thenReturn(0);
+        when(listaDeEsperaRepository.promover(eq(segundo.getId()), any())).thenReturn(1);
+        when(consultaRepository.save(any(Consulta.class))).thenAnswer(invocation -> {
+            Consulta consulta = invocation.getArgument(0);
+            consulta.setId(UUID.randomUUID());
+            return consulta;
+        });
+
+        listaDeEsperaService.promover(horarioLotado);
+
+        ArgumentCaptor<Consulta> consulta = ArgumentCaptor.forClass(Consulta.class);
+        verify(consultaRepository, times(1)).save(consulta.capture());
+        assertSame(paciente, consulta.getValue().getPaciente());
+        assertEquals("Retorno", consulta.getValue().getTipoConsulta());
+        assertSame(horarioLotado, consulta.getValue().getHorarioDisponivel());
+        assertTrue(horarioLotado.getConsultasAgendadas().contains(consulta.getValue()));
+        assertEquals(consulta.getValue().getId(), segundo.getConsultaId());
+
+        // sem transação o evento sai na hora
+        verify(eventos, times(1)).publishEvent(new PromocaoDaListaDeEspera(segundo.getId(), consulta.getValue().getId(),
+                paciente.getId(), medico.getId(), horarioLotado.getHorario()));
+        verify(horarioDisponivelService, never()).liberarVaga(any());
+    }
+
+    @Test
+    void testPromoverPulaPacienteComConsultaNoHorario(){
+        EsperaPorVaga espera = espera(paciente);
+        when(listaDeEsperaRepository.findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(horarioLotado.getId()))
+                .thenReturn(List.of(espera));
+        when(horarioDisponivelService.reservarVagas(horarioLotado, 1)).thenReturn(1);
+        // o paciente agendou com outro médico no mesmo horário enquanto esperava
+        when(consultaRepository.existsByPacienteIdAndDataHora(paciente.getId(), horarioLotado.getHorario())).thenReturn(true);
+
+        listaDeEsperaService.promover(horarioLotado);
+
+        verify(listaDeEsperaRepository, never()).promover(any(), any());
+        verify(consultaRepository, never()).save(any());
+        verify(horarioDisponivelService, times(1)).liberarVaga(horarioLotado);
+    }
+
+    @Test
+    void testPromoverDevolveAVagaQuandoNinguemFoiPromovido(){
+        EsperaPorVaga espera = espera(paciente);
+        when(listaDeEsperaRepository.findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(horarioLotado.getId()))
+                .thenReturn(List.of(espera));
+        when(horarioDisponivelService.reservarVagas(horarioLotado, 1)).thenReturn(1);
+        when(listaDeEsperaRepository.promover(eq(espera.getId()), any())).thenReturn(0);
+
+        listaDeEsperaService.promover(horarioLotado);
+
+        verify(horarioDisponivelService, times(1)).liberarVaga(horarioLotado);
+        verify(consultaRepository, never()).save(any());
+        verifyNoInteractions(eventos);
+    }
+
+    @Test
+    void testPromoverPassaDaPrimeiraPaginaDaFila(){
+        List<EsperaPorVaga> primeiraPagina = new ArrayList<>();
+        for (int i = 0; i < ListaDeEsperaService.PAGINA_DA_FILA; i++){
+            primeiraPagina.add(espera(paciente));
+        }
+        EsperaPorVaga ultimo = primeiraPagina.get(primeiraPagina.size() - 1);
+        Paciente ana = new Paciente(UUID.randomUUID(), "Ana", "ana@email.com", "12345678916", "+5588999999998");
+        EsperaPorVaga decimoPrimeiro = espera(ana);
+        when(listaDeEsperaRepository.findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(horarioLotado.getId()))
+                .thenReturn(primeiraPagina);
+        when(listaDeEsperaRepository.buscarFilaApos(horarioLotado.getId(), ultimo.getEntrouEm(), ultimo.getId(),
+                Limit.of(ListaDeEsperaService.PAGINA_DA_FILA))).thenReturn(List.of(decimoPrimeiro));
+        when(horarioDisponivelService.reservarVagas(horarioLotado, 1)).thenReturn(1);
+        // os dez primeiros já têm consulta no horário e continuam na fila
+        when(consultaRepository.existsByPacienteIdAndDataHora(paciente.getId(), horarioLotado.getHorario())).thenReturn(true);
+        when(listaDeEsperaRepository.promover(eq(decimoPrimeiro.getId()), any())).thenReturn(1);
+
+        listaDeEsperaService.promover(horarioLotado);
+
+        ArgumentCaptor<Consulta> consulta = ArgumentCaptor.forClass(Consulta.class);
+        verify(consultaRepository, times(1)).save(consulta.capture());
+        assertSame(ana, consulta.getValue().getPaciente());
+        verify(horarioDisponivelService, never()).liberarVaga(any());
+    }
+
+    @Test
+    void testPromoverDevolveAVagaQuandoAFilaAcaba(){
+        List<EsperaPorVaga> primeiraPagina = new ArrayList<>();
+        for (int i = 0; i < ListaDeEsperaService.PAGINA_DA_FILA; i++){
+            primeiraPagina.add(espera(paciente));
+        }
+        when(listaDeEsperaRepository.findFirst10ByHorarioDisponivelIdAndPromovidaEmIsNullOrderByEntrouEmAscIdAsc(horarioLotado.getId()))
+                .thenReturn(primeiraPagina);
+        when(listaDeEsperaRepository.buscarFilaApos(any(), any(), any(), any())).thenReturn(List.of());
+        when(horarioDisponivelService.reservarVagas(horarioLotado, 1)).thenReturn(1);
+        when(listaDeEsperaRepository.promover(any(), any())).thenReturn(0);
+
+        listaDeEsperaService.promover(horarioLotado);
+
+        verify(listaDeEsperaRepository, times(1)).buscarFilaApos(any(), any(), any(), any());
+        verify(horarioDisponivelService, times(1)).liberarVaga(horarioLotado);
+        verify(consultaRepository, never()).save(any());
+    }
+
+    @Test
+    void testSairDaListaDeEsperaDepoisDaPromocao(){
+        EsperaPorVaga espera = espera(paciente);
+        when(listaDeEsperaRepository.findById(espera.getId())).thenReturn(Optional.of(espera));
+        when(listaDeEsperaRepository.removerAguardando(espera.getId())).thenReturn(0);
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> listaDeEsperaService.sairDaListaDeEspera(espera.getId()));
+
+        assertEquals("O pedido já foi promovido, cancele a consulta.", exception.getMessage());
+    }
+
+    private EsperaPorVaga espera(Paciente paciente){
+        EsperaPorVaga espera = new EsperaPorVaga(horarioLotado, paciente, "Retorno", LocalDateTime.now());
+        espera.setId(UUID.randomUUID());
+        return espera;
+    }
+}
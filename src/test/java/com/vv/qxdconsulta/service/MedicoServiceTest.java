@@ -1,17 +1,21 @@
 package com.vv.qxdconsulta.service;
 
-import com.vv.qxdconsulta.model.Consulta;
-import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.dto.Pagina;
+import com.vv.qxdconsulta.dto.TokenDePagina;
 import com.vv.qxdconsulta.model.Medico;
-import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.repository.ConsultaRepository;
 import com.vv.qxdconsulta.repository.MedicoRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.domain.Limit;
 
-import java.time.LocalDateTime;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -26,6 +30,18 @@ class MedicoServiceTest {
     @Mock
     private MedicoRepository medicoRepository;
 
+    @Mock
+    private ConsultaService consultaService;
+
+    @Mock
+    private ConsultaRepository consultaRepository;
+
+    @Mock
+    private HorarioDisponivelService horarioDisponivelService;
+
+    @Spy
+    private CacheManager cacheManager = new ConcurrentMapCacheManager("medicosPorCrm");
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -89,7 +105,6 @@ class MedicoServiceTest {
         Medico medicoExistente = new Medico(UUID.randomUUID(), "Dr.Silva", "CRM12345", "13246578915","Cardiologia");
         Medico medicoAtualizado = new Medico(medicoExistente.getId(), "Dr. Sousa", "CRM12345", "13246578915","Pediatria");
 
-
         when(medicoRepository.findById(medicoExistente.getId())).thenReturn(Optional.of(medicoExistente));
         when(medicoRepository.save(medicoExistente)).thenReturn(medicoExistente);
 
@@ -100,7 +115,6 @@ class MedicoServiceTest {
         assertEquals(medicoAtualizado.getCrm(), result.getCrm());
         assertEquals(medicoAtualizado.getEspecialização(), result.getEspecialização());
 
-
         verify(medicoRepository, times(1)).findById(medicoExistente.getId());
         verify(medicoRepository, times(1)).save(medicoExistente);
     }
@@ -152,6 +166,25 @@ class MedicoServiceTest {
         verify(medicoRepository, times(1)).save(medicoExistente);
     }
 
+    @Test
+    public void testAlterarMedicoTiraDoCacheSoOsCrmsDele(){
+        Medico medicoExistente = new Medico(UUID.randomUUID(), "Dr.Silva", "CRM12345", "13246578915","Cardiologia");
+        Medico medicoAtualizado = new Medico(medicoExistente.getId(), "Dr.Silva", "CRM54612", "13246578915","Cardiologia");
+        Cache cache = cacheManager.getCache("medicosPorCrm");
+        cache.put("CRM12345", "antigo");
+        cache.put("CRM54612", "novo");
+        cache.put("CRM99999", "outro médico");
+
+        when(medicoRepository.findById(medicoExistente.getId())).thenReturn(Optional.of(medicoExistente));
+        when(medicoRepository.save(medicoExistente)).thenReturn(medicoExistente);
+
+        medicoService.alterarMedico(medicoExistente.getId(), medicoAtualizado);
+
+        assertNull(cache.get("CRM12345"));
+        assertNull(cache.get("CRM54612"));
+        assertNotNull(cache.get("CRM99999"));
+    }
+
     @Test
     public void testBuscarTodosMedicos() {
         List<Medico> medicoList = new ArrayList<>();
@@ -212,6 +245,24 @@ class MedicoServiceTest {
         verify(medicoRepository, times(1)).findByCrm(medico.getCrm());
     }
 
+    @Test
+    void testBuscarMedicosPorCrms() {
+        Medico medico1 = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
+        Medico medico2 = new Medico(UUID.randomUUID(), "Dr. Sousa", "CRM54321", "45678912345", "Neurologia");
+        List<String> crms = List.of(medico1.getCrm(), medico2.getCrm(), "CRM00000");
+
+        when(medicoRepository.findByCrmIn(crms)).thenReturn(List.of(medico1, medico2));
+
+        Map<String, Medico> result = medicoService.buscarMedicosPorCrms(crms);
+
+        assertEquals(2, result.size());
+        assertEquals(medico1, result.get(medico1.getCrm()));
+        assertEquals(medico2, result.get(medico2.getCrm()));
+        assertNull(result.get("CRM00000"));
+
+        verify(medicoRepository, times(1)).findByCrmIn(crms);
+    }
+
     @Test
     void testBuscarMedicoPorCpfSucesso() {
         Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
@@ -276,121 +327,186 @@ class MedicoServiceTest {
         verify(medicoRepository, times(1)).findById(medico.getId());
     }
 
-    //BuscarMedicosPorNome
     @Test
-    public void testBuscarMedicosPorNomeSucesso() {
-        List<Medico> medicoList = new ArrayList<>();
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia"));
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Sousa", "CRM54321", "45678912345", "Neurologia"));
-
-        when(medicoRepository.findByNomeContainingIgnoreCase("Silva")).thenReturn(Arrays.asList(medicoList.get(1)));
+    public void removerMedicoSucesso(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
 
-        List<Medico> result = medicoService.buscarMedicosPorNome("Silva");
+        when(medicoRepository.buscarCrm(medico.getId())).thenReturn(Optional.of(medico.getCrm()));
+        when(consultaRepository.existsByMedicoId(medico.getId())).thenReturn(false);
 
-        assertNotNull(result);
-        assertEquals(1, result.size());
-        assertTrue(result.contains(medicoList.get(1)));
+        medicoService.removerMedico(medico.getId());
 
-        verify(medicoRepository, times(1)).findByNomeContainingIgnoreCase("Silva");
+        // os horários saem pelo service de horários para o índice de disponibilidade acompanhar
+        verify(horarioDisponivelService, times(1)).removerHorariosDoMedico(medico.getId());
+        verify(medicoRepository, times(1)).removerPorId(medico.getId());
+        // nem o médico nem os horários dele são carregados
+        verify(medicoRepository, never()).findById(any(UUID.class));
     }
 
     @Test
-    public void testBuscarMedicosPorNomeNaoEncontrado() {
-        List<Medico> medicoList = new ArrayList<>();
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia"));
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Sousa", "CRM54321", "45678912345", "Neurologia"));
+    public void removerMedicoNaoEncontrado(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
 
-        when(medicoRepository.findByNomeContainingIgnoreCase("Vieira")).thenReturn(Collections.emptyList());
+        when(medicoRepository.buscarCrm(medico.getId())).thenReturn(Optional.empty());
 
-        List<Medico> result = medicoService.buscarMedicosPorNome("Vieira");
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            medicoService.removerMedico(medico.getId());
+        });
 
-        assertNotNull(result);
-        assertTrue(result.isEmpty());
+        assertEquals("Médico não encontrado", exception.getMessage());
 
-        verify(medicoRepository, times(1)).findByNomeContainingIgnoreCase("Vieira");
+        verify(medicoRepository, never()).delete(any(Medico.class));
+        verify(medicoRepository, never()).removerPorId(any(UUID.class));
+        verify(horarioDisponivelService, never()).removerHorariosDoMedico(any(UUID.class));
     }
 
     @Test
-    public void buscarMedicosPorEspecializacaoSucesso(){
-        String especializacao = "Ortopedia";
-        List<Medico> medicoList = new ArrayList<>();
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "15975326815", especializacao));
-        medicoList.add(new Medico(UUID.randomUUID(), "Dr. Sousa", "CRM45612", "35745695124", especializacao));
+    public void removerMedicoComConsultasMarcadas(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
+
+        when(medicoRepository.buscarCrm(medico.getId())).thenReturn(Optional.of(medico.getCrm()));
+        when(consultaRepository.existsByMedicoId(medico.getId())).thenReturn(true);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            medicoService.removerMedico(medico.getId());
+        });
 
-        when(medicoRepository.findByEspecializacao(especializacao)).thenReturn(medicoList);
+        assertEquals("O médico possui consultas marcadas e não pode ser excluído.", exception.getMessage());
 
-        List<Medico> result = medicoService.buscarMedicosPorEspecializacao(especializacao);
+        verify(medicoRepository, never()).delete(any(Medico.class));
+        verify(medicoRepository, never()).removerPorId(any(UUID.class));
+        verify(horarioDisponivelService, never()).removerHorariosDoMedico(any(UUID.class));
+    }
 
-        assertNotNull(result);
-        assertEquals(medicoList.size(), result.size());
-        assertTrue(result.containsAll(medicoList));
+    @Test
+    public void removerMedicoComConsultasSucesso(){
+        UUID idMedico = UUID.randomUUID();
 
-        verify(medicoRepository, times(1)).findByEspecializacao(especializacao);
+        when(medicoRepository.buscarCrm(idMedico)).thenReturn(Optional.of("CRM12345"));
+
+        medicoService.removerMedicoComConsultas(idMedico);
+
+        // consultas, depois horários, depois o médico, sem carregar nenhum deles
+        var ordem = inOrder(consultaService, horarioDisponivelService, medicoRepository);
+        ordem.verify(consultaService).removerConsultasDoMedico(idMedico);
+        ordem.verify(horarioDisponivelService).removerHorariosDoMedico(idMedico);
+        ordem.verify(medicoRepository).removerPorId(idMedico);
+        verify(medicoRepository, never()).findById(any(UUID.class));
+        verify(consultaService, never()).removerConsulta(any(UUID.class));
     }
 
     @Test
-    public void buscarMedicosPorEspecializacaoSemMedicos(){
-        String especializacao = "Ortopedia";
-        List<Medico> medicoList = new ArrayList<>();
+    public void removerMedicoComConsultasNaoEncontrado(){
+        UUID idMedico = UUID.randomUUID();
 
-        when(medicoRepository.findByEspecializacao(especializacao)).thenReturn(medicoList);
+        when(medicoRepository.buscarCrm(idMedico)).thenReturn(Optional.empty());
 
-        List<Medico> result = medicoService.buscarMedicosPorEspecializacao(especializacao);
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            medicoService.removerMedicoComConsultas(idMedico);
+        });
 
-        assertNotNull(result);
-        assertTrue(result.isEmpty());
+        assertEquals("Médico não encontrado", exception.getMessage());
 
-        verify(medicoRepository, times(1)).findByEspecializacao(especializacao);
+        verify(consultaService, never()).removerConsultasDoMedico(any(UUID.class));
+        verify(medicoRepository, never()).removerPorId(any(UUID.class));
     }
 
+    //buscarMedicosPaginado
     @Test
-    public void removerMedicoSucesso(){
-        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
-        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now(), 5);
-        horarioDisponivel.setConsultasAgendadas(new ArrayList<>());
-        medico.setHorarioDisponivel(List.of(horarioDisponivel));
+    public void buscarMedicosPaginadoPrimeiraPagina(){
+        Medico m1 = new Medico(UUID.randomUUID(), "Dr. Ana", "CRM00001", "12345678901", "Pediatria");
+        Medico m2 = new Medico(UUID.randomUUID(), "Dr. Bruno", "CRM00002", "12345678902", "Pediatria");
+        Medico m3 = new Medico(UUID.randomUUID(), "Dr. Carla", "CRM00003", "12345678903", "Pediatria");
 
-        when(medicoRepository.findById(medico.getId())).thenReturn(Optional.of(medico));
+        // pede 2 e o repositório devolve 3, então existe próxima página
+        when(medicoRepository.buscarPrimeiraPagina("Pediatria", Limit.of(3))).thenReturn(new ArrayList<>(List.of(m1, m2, m3)));
 
-        medicoService.removerMedico(medico.getId());
+        Pagina<Medico> pagina = medicoService.buscarMedicosPaginado("Pediatria", null, 2);
 
-        verify(medicoRepository,times(1)).delete(medico);
+        assertEquals(List.of(m1, m2), pagina.itens());
+        assertTrue(pagina.temProxima());
+        assertEquals(new TokenDePagina("Dr. Bruno", m2.getId()), TokenDePagina.decodificar(pagina.proximaPagina()));
+        verify(medicoRepository, never()).findAll();
     }
 
     @Test
-    public void removerMedicoNaoEncontrado(){
-        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
+    public void buscarMedicosPaginadoUltimaPagina(){
+        Medico m3 = new Medico(UUID.randomUUID(), "Dr. Carla", "CRM00003", "12345678903", "Pediatria");
+        UUID idAnterior = UUID.randomUUID();
+        String token = new TokenDePagina("Dr. Bruno", idAnterior).codificar();
 
-        when(medicoRepository.findById(medico.getId())).thenReturn(Optional.empty());
+        when(medicoRepository.buscarPaginaApos(null, "Dr. Bruno", idAnterior, Limit.of(3))).thenReturn(new ArrayList<>(List.of(m3)));
+
+        Pagina<Medico> pagina = medicoService.buscarMedicosPaginado(null, token, 2);
 
+        assertEquals(List.of(m3), pagina.itens());
+        assertFalse(pagina.temProxima());
+        assertNull(pagina.proximaPagina());
+    }
+
+    @Test
+    public void buscarMedicosPaginadoTokenInvalido(){
         Exception exception = assertThrows(IllegalArgumentException.class, () -> {
-            medicoService.removerMedico(medico.getId());
+            medicoService.buscarMedicosPaginado(null, "não é um token", 10);
         });
 
-        assertEquals("Médico não encontrado", exception.getMessage());
+        assertEquals("Token de página inválido", exception.getMessage());
+        verifyNoInteractions(medicoRepository);
+    }
 
-        verify(medicoRepository, never()).delete(any(Medico.class));
+    @Test
+    public void buscarMedicosPaginadoTamanhoInvalido(){
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            medicoService.buscarMedicosPaginado(null, null, 0);
+        });
+
+        assertEquals("Tamanho de página inválido: 0", exception.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> medicoService.buscarMedicosPaginado(null, null, MedicoService.TAMANHO_MAXIMO_PAGINA + 1));
+        verifyNoInteractions(medicoRepository);
     }
 
+    //pesquisarMedicosPorNome
     @Test
-    public void removerMedicoComConsultasMarcadas(){
-        Medico medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
-        HorarioDisponivel horarioDisponivel = new HorarioDisponivel(LocalDateTime.now(), 5);
-        horarioDisponivel.setConsultasAgendadas(new ArrayList<>());
-        medico.setHorarioDisponivel(List.of(horarioDisponivel));
+    public void pesquisarMedicosPorNomeSucesso(){
+        Medico joao = new Medico(UUID.randomUUID(), "Dr. João Silva", "CRM00001", "12345678901", "Pediatria");
+        Medico joana = new Medico(UUID.randomUUID(), "Dra. Joana", "CRM00002", "12345678902", "Cardiologia");
+        when(medicoRepository.findByCpf(anyString())).thenReturn(Optional.empty());
+        when(medicoRepository.findByCrm(anyString())).thenReturn(Optional.empty());
+        when(medicoRepository.save(joao)).thenReturn(joao);
+        when(medicoRepository.save(joana)).thenReturn(joana);
+        medicoService.adicionarMedico(joao);
+        medicoService.adicionarMedico(joana);
+
+        // o banco devolve em qualquer ordem, o resultado segue a ordem do índice
+        when(medicoRepository.findAllById(List.of(joana.getId(), joao.getId()))).thenReturn(List.of(joao, joana));
+
+        List<Medico> result = medicoService.pesquisarMedicosPorNome("JOA", 10);
+
+        assertEquals(List.of(joana, joao), result);
+        verify(medicoRepository, never()).findByNomeContainingIgnoreCase(anyString());
+    }
+
+    @Test
+    public void pesquisarMedicosPorNomeDepoisDeRemover(){
+        Medico medico = new Medico(UUID.randomUUID(), "Dr. João Silva", "CRM00001", "12345678901", "Pediatria");
+        when(medicoRepository.findByCpf(anyString())).thenReturn(Optional.empty());
+        when(medicoRepository.findByCrm(anyString())).thenReturn(Optional.empty());
+        when(medicoRepository.save(medico)).thenReturn(medico);
+        when(medicoRepository.buscarCrm(medico.getId())).thenReturn(Optional.of(medico.getCrm()));
+        medicoService.adicionarMedico(medico);
 
-        List<Consulta> consultasAgendadas = new ArrayList<>();
-        consultasAgendadas.add(new Consulta(UUID.randomUUID(), LocalDateTime.now(), "Consulta Geral", new Paciente(), medico));
-        horarioDisponivel.setConsultasAgendadas(consultasAgendadas);
+        medicoService.removerMedicoComConsultas(medico.getId());
 
-        when(medicoRepository.findById(medico.getId())).thenReturn(Optional.of(medico));
+        assertTrue(medicoService.pesquisarMedicosPorNome("joao", 10).isEmpty());
+        verify(medicoRepository, never()).findAllById(any());
+    }
 
+    @Test
+    public void pesquisarMedicosPorNomeLimiteInvalido(){
         Exception exception = assertThrows(IllegalArgumentException.class, () -> {
-            medicoService.removerMedico(medico.getId());
+            medicoService.pesquisarMedicosPorNome("joao", MedicoService.LIMITE_MAXIMO_DA_BUSCA + 1);
         });
 
-        assertEquals("O médico possui consultas marcadas e não pode ser excluído.", exception.getMessage());
-
-        verify(medicoRepository, never()).delete(any(Medico.class));
+        assertEquals("Limite de resultados inválido: " + (MedicoService.LIMITE_MAXIMO_DA_BUSCA + 1), exception.getMessage());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.repository.MedicoRepository;
+import com.vv.qxdconsulta.repository.PacienteRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// usa os mesmos mocks do CacheDeBuscasTest para reaproveitar o contexto do spring
+@SpringBootTest
+public class MetricasDosServicosTest {
+
+    @Autowired
+    private MedicoService medicoService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockBean
+    private MedicoRepository medicoRepository;
+
+    @MockBean
+    private PacienteRepository pacienteRepository;
+
+    @Test
+    public void testRejeicaoPorCrmDuplicadoContaNoMotivo(){
+        Medico medico = new Medico(null, "Dr. Silva", "CRM12345", "12345678954", "Pediatria");
+        when(medicoRepository.findByCpf(medico.getCpf())).thenReturn(Optional.empty());
+        when(medicoRepository.findByCrm(medico.getCrm())).thenReturn(Optional.of(new Medico(UUID.randomUUID(), "Dr. Souza", "CRM12345", "98765432100", "Cardiologia")));
+        double antes = contador(Metricas.CRM_DUPLICADO);
+
+        assertThrows(IllegalArgumentException.class, () -> medicoService.adicionarMedico(medico));
+
+        assertEquals(antes + 1, contador(Metricas.CRM_DUPLICADO));
+    }
+
+    @Test
+    public void testOperacaoDoServiceGeraTimer(){
+        when(medicoRepository.findByCrm("CRM99999")).thenReturn(Optional.empty());
+
+        assertThrows(IllegalArgumentException.class, () -> medicoService.buscarMedicoPorCrm("CRM99999"));
+
+        Timer timer = meterRegistry.find("qxdconsulta.servico")
+                .tags("class", MedicoService.class.getName(), "method", "buscarMedicoPorCrm", "exception", "IllegalArgumentException")
+                .timer();
+        assertNotNull(timer);
+        assertTrue(timer.count() >= 1);
+    }
+
+    private double contador(String motivo){
+        Counter counter = meterRegistry.find(Metricas.REJEICOES).tag("motivo", motivo).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
@@ -0,0 +1,326 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.HorarioResposta;
+import com.vv.qxdconsulta.dto.ModeloDeAgenda;
+import com.vv.qxdconsulta.dto.PedidoDeAgendamento;
+import com.vv.qxdconsulta.dto.ResultadoDeAgendamento;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.suporte.Medicao;
+import com.vv.qxdconsulta.suporte.MedidorDeSql;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opentest4j.AssertionFailedError;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// roda os services contra o H2 e limita quantos comandos SQL cada operação pode gerar,
+// para pegar N+1 que os testes com repositório mockado não enxergam
+// a ressincronização do índice de disponibilidade fica desligada para os selects dela não entrarem nas medições
+@SpringBootTest(properties = {MedidorDeSql.INSPETOR, MedidorDeSql.ESTATISTICAS, MedidorDeSql.SEM_LOG_DE_SESSAO,
+        "spring.jpa.show-sql=false", "qxdconsulta.disponibilidade.ressincronizacao=0s"})
+public class OrcamentoDeSqlTest {
+
+    @Autowired
+    private ConsultaService consultaService;
+
+    @Autowired
+    private MedicoService medicoService;
+
+    @Autowired
+    private PacienteService pacienteService;
+
+    @Autowired
+    private HorarioDisponivelService horarioDisponivelService;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private MedidorDeSql medidor;
+    private Medico medico;
+    private Paciente paciente;
+    private final LocalDateTime inicio = LocalDateTime.of(2030, 3, 4, 8, 0);
+
+    @BeforeEach
+    public void setUp(){
+        medidor = new MedidorDeSql(entityManagerFactory);
+        // CRM, CPF e email únicos porque o banco em memória é o mesmo para todos os testes
+        String sufixo = UUID.randomUUID().toString().substring(0, 8);
+        medico = medicoService.adicionarMedico(new Medico(null, "Dr. Silva", "CRM" + sufixo, "M" + sufixo, "Pediatria"));
+        paciente = pacienteService.adicionarPaciente(new Paciente(null, "José Humberto", sufixo + "@email.com", "P" + sufixo, "+5588999999999"));
+        for (int i = 0; i < 10; i++) {
+            horarioDisponivelService.adicionarHorarioDisponivel(new HorarioDisponivel(horario(i), 5), medico.getCrm());
+        }
+        // sem cache as buscas por CRM e CPF entram na conta
+        cacheManager.getCache("medicosPorCrm").clear();
+        cacheManager.getCache("pacientesPorCpf").clear();
+    }
+
+    @AfterEach
+    public void tearDown(){
+        medicoService.removerMedicoComConsultas(medico.getId());
+        pacienteService.removerPaciente(paciente.getId());
+    }
+
+    @Test
+    public void testAgendarConsulta(){
+        // médico, paciente, conflito de horário do paciente, horário, reserva da vaga e insert da consulta.
+        // O paciente que vai na consulta sai do contexto de persistência, a busca por CPF já carregou ele
+        medidor.medir(() -> consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(0), "Retorno"))
+                .comandosNoMaximo(6)
+                .entidadesNoMaximo(3)
+                .colecoesNoMaximo(0);
+    }
+
+    @Test
+    public void testAgendarConsultasEmLote(){
+        List<PedidoDeAgendamento> pedidos = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            pedidos.add(new PedidoDeAgendamento(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno"));
+        }
+
+        // 4 buscas (médicos, pacientes, horários, horários já ocupados dos pacientes). Os ids dos horários pedidos,
+        // as reservas das vagas e os inserts das consultas vão por JDBC, fora do hibernate, e não entram na contagem
+        MedidorDeSql.ComResultado<List<ResultadoDeAgendamento>> lote =
+                medidor.medirComResultado(() -> consultaService.agendarConsultasEmLote(pedidos));
+        lote.medicao()
+                .comandosNoMaximo(4)
+                .colecoesNoMaximo(0);
+        assertTrue(lote.resultado().stream().allMatch(ResultadoDeAgendamento::agendado));
+        // as vagas foram ocupadas no banco
+        assertEquals(4, horarioDisponivelService.listarHorariosDoMedico(medico.getCrm()).get(0).vagasLivres());
+    }
+
+    @Test
+    public void testBuscarConsultasPorPacienteNaoCresceComAsConsultas(){
+        consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(0), "Retorno");
+        Medicao umaConsulta = medidor.medir(() -> consultaService.buscarConsultasPorPaciente(paciente.getCpf()))
+                .comandosNoMaximo(2);
+
+        for (int i = 1; i < 5; i++) {
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno");
+        }
+        medidor.medir(() -> consultaService.buscarConsultasPorPaciente(paciente.getCpf()))
+                .comandosNoMaximo(umaConsulta.comandos().size())
+                .colecoesNoMaximo(0);
+    }
+
+    @Test
+    public void testBuscarConsultasPorMedicoNaoCresceComAsConsultas(){
+        for (int i = 0; i < 5; i++) {
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno");
+        }
+
+        medidor.medir(() -> consultaService.buscarConsultasPorMedico(medico.getCrm()))
+                .comandosNoMaximo(2)
+                .colecoesNoMaximo(0);
+    }
+
+    @Test
+    public void testBuscarAgendaDoDia(){
+        for (int i = 0; i < 5; i++) {
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno");
+        }
+
+        // projeção: só o médico vira entidade
+        medidor.medir(() -> consultaService.buscarAgendaDoDia(medico.getId(), inicio.toLocalDate()))
+                .comandosNoMaximo(2)
+                .entidadesNoMaximo(1);
+    }
+
+    @Test
+    public void testListarHorariosNaoCarregaAsConsultas(){
+        medidor.medir(() -> horarioDisponivelService.listarHorariosDisponiveisPorMedico(medico.getCrm()))
+                .comandosNoMaximo(3)
+                .colecoesNoMaximo(0);
+    }
+
+    @Test
+    public void testListarQuinhentosHorariosEmUmSelect(){
+        // 10 horários do setUp + 490 da agenda (49 dias úteis com 10 horários)
+        horarioDisponivelService.gerarAgenda(List.of(medico.getCrm()), new ModeloDeAgenda(
+                EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), LocalTime.of(8, 0), LocalTime.of(13, 0), 30, 5,
+                LocalDate.of(2030, 3, 7), LocalDate.of(2030, 5, 14), Set.of()));
+        consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(0), "Retorno");
+
+        // busca do médico pelo CRM e a projeção, nenhuma entidade além do médico
+        MedidorDeSql.ComResultado<List<HorarioResposta>> listagem =
+                medidor.medirComResultado(() -> horarioDisponivelService.listarHorariosDoMedico(medico.getCrm()));
+        listagem.medicao()
+                .comandosNoMaximo(2)
+                .entidadesNoMaximo(1)
+                .colecoesNoMaximo(0);
+        assertEquals(500, listagem.resultado().size());
+        assertEquals(4, listagem.resultado().get(0).vagasLivres());
+    }
+
+    @Test
+    public void testListagensDeConsultasEmProjecao(){
+        for (int i = 0; i < 5; i++) {
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno");
+        }
+
+        medidor.medir(() -> consultaService.listarConsultasDoMedico(medico.getCrm()))
+                .comandosNoMaximo(2)
+                .entidadesNoMaximo(1);
+        medidor.medir(() -> consultaService.buscarHistoricoDoPaciente(paciente.getCpf()))
+                .comandosNoMaximo(2)
+                .entidadesNoMaximo(1);
+        medidor.medir(() -> horarioDisponivelService.listarHorariosDoDia(inicio.toLocalDate()))
+                .comandosNoMaximo(1)
+                .entidadesNoMaximo(0);
+    }
+
+    @Test
+    public void testRemarcarConsultaCarregaSoOGrafoDela(){
+        for (int i = 0; i < 5; i++) {
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno");
+        }
+        UUID consulta = consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(5), "Retorno").getId();
+
+        // consulta com paciente, médico e horário num select, conflito de horário do paciente, horário novo,
+        // reserva, liberação, consultas do horário antigo, fila de espera do horário antigo e o update da consulta
+        medidor.medir(() -> consultaService.alterarHorarioDaConsulta(consulta, horario(6)))
+                .comandosNoMaximo(8);
+    }
+
+    @Test
+    public void testConflitoDeHorarioNaoDependeDoHistoricoDoPaciente(){
+        for (int i = 0; i < 10; i++) {
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno");
+        }
+
+        // médico, paciente (do cache) e uma busca no índice (paciente_id, data_hora), sem carregar as consultas dele
+        medidor.medir(() -> assertThrows(IllegalArgumentException.class,
+                        () -> consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(3), "Retorno")))
+                .comandosNoMaximo(3)
+                .entidadesNoMaximo(2)
+                .colecoesNoMaximo(0);
+    }
+
+    @Test
+    public void testCancelarConsultaNaoPercorreOsHorariosDoMedico(){
+        for (int i = 0; i < 5; i++) {
+            consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(i), "Retorno");
+        }
+        UUID consulta = consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(5), "Retorno").getId();
+
+        // consulta com o grafo, consultas do horário, liberação, consultas do paciente, fila de espera e o delete;
+        // os outros horários do médico e as consultas deles não são carregados
+        medidor.medir(() -> consultaService.removerConsulta(consulta))
+                .comandosNoMaximo(6)
+                .colecoesNoMaximo(2);
+    }
+
+    @Test
+    public void testRemoverMedicoNaoCarregaOsHorarios(){
+        Medico outro = medicoService.adicionarMedico(new Medico(null, "Dr. Souza", medico.getCrm() + "B",
+                medico.getCpf() + "B", "Pediatria"));
+        for (int i = 0; i < 10; i++) {
+            horarioDisponivelService.adicionarHorarioDisponivel(new HorarioDisponivel(horario(i), 5), outro.getCrm());
+        }
+
+        // CRM, existência de consulta, delete dos horários e delete do médico
+        medidor.medir(() -> medicoService.removerMedico(outro.getId()))
+                .comandosNoMaximo(4)
+                .entidadesNoMaximo(0)
+                .colecoesNoMaximo(0);
+    }
+
+    @Test
+    public void testAlterarHorarioTrazOMedicoJunto(){
+        UUID horario = horarioDisponivelService.listarHorariosDoMedico(medico.getCrm()).get(9).id();
+
+        // o CRM da resposta vem do mesmo select do horário
+        medidor.medir(() -> HorarioResposta.de(horarioDisponivelService.atualizarHorarioDisponivel(horario, horario(20), 3)))
+                .comandosNoMaximo(3);
+    }
+
+    @Test
+    public void testVersaoDasListagensVemDoBanco(){
+        LocalDate dia = inicio.toLocalDate();
+        medicoService.buscarMedicoEmCache(medico.getCrm());
+        String doMedico = horarioDisponivelService.versaoDosHorariosDoMedico(medico.getCrm()).etag();
+        String doDia = horarioDisponivelService.versaoDosHorariosDoDia(dia).etag();
+        String doDiaSeguinte = horarioDisponivelService.versaoDosHorariosDoDia(dia.plusDays(1)).etag();
+
+        // com o médico no cache, o 304 custa só o select de agregação
+        medidor.medir(() -> horarioDisponivelService.versaoDosHorariosDoMedico(medico.getCrm()))
+                .comandosNoMaximo(1)
+                .entidadesNoMaximo(0);
+
+        consultaService.agendarConsulta(medico.getCrm(), paciente.getCpf(), horario(0), "Retorno");
+        String depoisDoAgendamento = horarioDisponivelService.versaoDosHorariosDoMedico(medico.getCrm()).etag();
+        assertNotEquals(doMedico, depoisDoAgendamento);
+        assertNotEquals(doDia, horarioDisponivelService.versaoDosHorariosDoDia(dia).etag());
+        assertEquals(doDiaSeguinte, horarioDisponivelService.versaoDosHorariosDoDia(dia.plusDays(1)).etag());
+
+        // trocar um horário por outro deixa a quantidade igual, a última alteração muda o ETag
+        UUID ultimo = horarioDisponivelService.listarHorariosDoMedico(medico.getCrm()).get(9).id();
+        horarioDisponivelService.removerHorarioDisponivel(ultimo);
+        horarioDisponivelService.adicionarHorarioDisponivel(new HorarioDisponivel(horario(10), 5), medico.getCrm());
+        assertNotEquals(depoisDoAgendamento, horarioDisponivelService.versaoDosHorariosDoMedico(medico.getCrm()).etag());
+    }
+
+    @Test
+    public void testRessincronizacaoReleSoOsDiasAlterados(){
+        LocalDate dia = inicio.toLocalDate();
+        // duas rodadas deixam as versões em dia e esgotam a releitura da rodada anterior
+        horarioDisponivelService.ressincronizarIndiceDeDisponibilidade();
+        horarioDisponivelService.ressincronizarIndiceDeDisponibilidade();
+        assertEquals(10, horarioDisponivelService.buscarHorariosLivres(medico.getCrm(), dia, dia).size());
+
+        // outra instância lota o primeiro horário: o banco muda e o índice desta não fica sabendo
+        UUID primeiro = horarioDisponivelService.listarHorariosDoMedico(medico.getCrm()).get(0).id();
+        jdbcTemplate.update("update horarios_disponiveis set vagas_ocupadas = capacidade_maxima, versao = versao + 1, " +
+                "alterado_em = ? where id = ?", LocalDateTime.now(), primeiro);
+        assertEquals(10, horarioDisponivelService.buscarHorariosLivres(medico.getCrm(), dia, dia).size());
+
+        // o select das versões e o do único dia que mudou
+        medidor.medir(() -> assertEquals(1, horarioDisponivelService.ressincronizarIndiceDeDisponibilidade()))
+                .comandosNoMaximo(2)
+                .entidadesNoMaximo(0);
+        assertEquals(9, horarioDisponivelService.buscarHorariosLivres(medico.getCrm(), dia, dia).size());
+        assertFalse(horarioDisponivelService.buscarHorariosLivres(medico.getCrm(), dia, dia).contains(horario(0)));
+    }
+
+    @Test
+    public void testRelatorioMostraOComandoForaDoOrcamento(){
+        String select = "select h.id from horarios_disponiveis h where h.id=?";
+        Medicao medicao = new Medicao(List.of("select c.id from consultas c", select, select, select),
+                Map.of("HorarioDisponivel", 3L), Map.of());
+
+        AssertionFailedError erro = assertThrows(AssertionFailedError.class, () -> medicao.comandosNoMaximo(2));
+
+        assertTrue(erro.getMessage().contains("O comando 3 passou do orçamento:\n    " + select));
+        assertTrue(erro.getMessage().contains("3x " + select));
+    }
+
+    private LocalDateTime horario(int i){
+        return inicio.plusMinutes(30L * i);
+    }
+}
@@ -1,7 +1,10 @@
 package com.vv.qxdconsulta.service;
 
+import com.vv.qxdconsulta.dto.Pagina;
+import com.vv.qxdconsulta.dto.TokenDePagina;
 import com.vv.qxdconsulta.model.Consulta;
 import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.repository.ListaDeEsperaRepository;
 import com.vv.qxdconsulta.repository.PacienteRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,10 +13,14 @@ import org.mockito.Mock;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.domain.Limit;
 import java.time.LocalDateTime;
 import java.util.*;
 
-
 class PacienteServiceTest {
 
     @Mock
@@ -22,9 +29,18 @@ class PacienteServiceTest {
     @InjectMocks
     private PacienteService pacienteService;
 
+    @Mock
+    private ListaDeEsperaRepository listaDeEsperaRepository;
+
     @Mock
     private ConsultaService consultaService;
 
+    @Mock
+    private ReservaDeVagaService reservaDeVagaService;
+
+    @Spy
+    private CacheManager cacheManager = new ConcurrentMapCacheManager("pacientesPorCpf");
+
     @BeforeEach
     void setUp(){
         MockitoAnnotations.openMocks(this);
@@ -77,7 +93,6 @@ class PacienteServiceTest {
 
         assertEquals("Email já cadastrado: " + paciente.getEmail(), exception.getMessage());
 
-
         verify(pacienteRepository, times(1)).findByCpf(paciente.getCpf());
         verify(pacienteRepository, times(1)).findByEmail(paciente.getEmail());
         verify(pacienteRepository, never()).save(any(Paciente.class));
@@ -134,21 +149,42 @@ class PacienteServiceTest {
 
         paciente.setConsultas(consultaList);
 
-        when(pacienteRepository.findById(pacienteId)).thenReturn(Optional.of(paciente));
+        when(pacienteRepository.buscarCpf(pacienteId)).thenReturn(Optional.of(paciente.getCpf()));
 
         pacienteService.removerPaciente(pacienteId);
 
-        verify(consultaService, times(1)).removerConsulta(consultaList.get(0).getId());
-        verify(consultaService, times(1)).removerConsulta(consultaList.get(1).getId());
+        // as consultas saem com um comando só, não uma a uma
+        verify(consultaService, times(1)).removerConsultasDoPaciente(pacienteId);
+        verify(consultaService, never()).removerConsulta(any(UUID.class));
+        verify(reservaDeVagaService, times(1)).removerReservasDoPaciente(pacienteId);
+        // a espera do paciente sai antes das vagas dele voltarem para a lista
+        var ordem = inOrder(listaDeEsperaRepository, consultaService);
+        ordem.verify(listaDeEsperaRepository).removerDoPaciente(pacienteId);
+        ordem.verify(consultaService).removerConsultasDoPaciente(pacienteId);
+
+        verify(pacienteRepository, times(1)).removerPorId(pacienteId);
+    }
+
+    @Test
+    void testRemoverPacienteTiraDoCacheSoOCpfDele(){
+        UUID pacienteId = UUID.randomUUID();
+        Cache cache = cacheManager.getCache("pacientesPorCpf");
+        cache.put("12345678914", "removido");
+        cache.put("98765432107", "outro paciente");
+
+        when(pacienteRepository.buscarCpf(pacienteId)).thenReturn(Optional.of("12345678914"));
+
+        pacienteService.removerPaciente(pacienteId);
 
-        verify(pacienteRepository, times(1)).delete(paciente);
+        assertNull(cache.get("12345678914"));
+        assertNotNull(cache.get("98765432107"));
     }
 
     @Test
     void testRemoverPacienteNaoEncontrado(){
         UUID pacienteId = UUID.randomUUID();
 
-        when(pacienteRepository.findById(pacienteId)).thenReturn(Optional.empty());
+        when(pacienteRepository.buscarCpf(pacienteId)).thenReturn(Optional.empty());
 
         Exception exception = assertThrows(IllegalArgumentException.class, () -> {
             pacienteService.removerPaciente(pacienteId);
@@ -156,8 +192,8 @@ class PacienteServiceTest {
 
         assertEquals("Paciente não encontrado", exception.getMessage());
 
-        verify(consultaService, never()).removerConsulta(any(UUID.class));
-        verify(pacienteRepository, never()).delete(any(Paciente.class));
+        verify(consultaService, never()).removerConsultasDoPaciente(any(UUID.class));
+        verify(pacienteRepository, never()).removerPorId(any(UUID.class));
     }
 
     @Test
@@ -166,12 +202,12 @@ class PacienteServiceTest {
         Paciente paciente = new Paciente(pacienteId, "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
         paciente.setConsultas(new ArrayList<>());
 
-        when(pacienteRepository.findById(pacienteId)).thenReturn(Optional.of(paciente));
+        when(pacienteRepository.buscarCpf(pacienteId)).thenReturn(Optional.of(paciente.getCpf()));
 
         pacienteService.removerPaciente(pacienteId);
 
         verify(consultaService, never()).removerConsulta(any(UUID.class));
-        verify(pacienteRepository, times(1)).delete(paciente);
+        verify(pacienteRepository, times(1)).removerPorId(pacienteId);
     }
 
     @Test
@@ -266,34 +302,18 @@ class PacienteServiceTest {
     }
 
     @Test
-    public void buscarPacientesPorNomeSucesso(){
-        List<Paciente> pacienteList = new ArrayList<>();
-        pacienteList.add(new Paciente(UUID.randomUUID(), "João Silva", "joao.silva@email.com", "12345678901", "+5588999999999"));
-        pacienteList.add(new Paciente(UUID.randomUUID(), "Maria Oliveira", "maria.oliveira@email.com", "98765432109", "+55887777777777"));
+    void buscarPacientesPorCpfsSucesso() {
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+        List<String> cpfs = List.of(paciente.getCpf(), "00000000000");
 
-        when(pacienteRepository.findByNameContainingIgnoreCase("Silva")).thenReturn(List.of(pacienteList.get(0)));
+        when(pacienteRepository.findByCpfIn(cpfs)).thenReturn(List.of(paciente));
 
-        List<Paciente> result = pacienteService.buscarPacientePorNome("Silva");
+        Map<String, Paciente> result = pacienteService.buscarPacientesPorCpfs(cpfs);
 
-        assertNotNull(result);
         assertEquals(1, result.size());
-        assertTrue(result.contains(pacienteList.get(0)));
-
-        verify(pacienteRepository, times(1)).findByNameContainingIgnoreCase("Silva");
-    }
-
-    @Test
-    public void buscarPacientesPorNomeNaoEncontrado(){
-        List<Paciente> pacienteList = new ArrayList<>();
-
-        when(pacienteRepository.findByNameContainingIgnoreCase("Silva")).thenReturn(pacienteList);
-
-        List<Paciente> result = pacienteService.buscarPacientePorNome("Silva");
-
-        assertNotNull(result);
-        assertTrue(result.isEmpty());
+        assertEquals(paciente, result.get(paciente.getCpf()));
 
-        verify(pacienteRepository, times(1)).findByNameContainingIgnoreCase("Silva");
+        verify(pacienteRepository, times(1)).findByCpfIn(cpfs);
     }
 
     @Test
@@ -331,5 +351,51 @@ class PacienteServiceTest {
         verify(pacienteRepository, times(1)).findById(pacienteId);
     }
 
+    @Test
+    void buscarPacientesPaginadoSucesso(){
+        Paciente p1 = new Paciente(UUID.randomUUID(), "Adriana Vieira", "adriana@email.com", "98765432107", "+5588666666666");
+        Paciente p2 = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+
+        when(pacienteRepository.buscarPrimeiraPagina(Limit.of(2))).thenReturn(new ArrayList<>(List.of(p1, p2)));
+        when(pacienteRepository.buscarPaginaApos("Adriana Vieira", p1.getId(), Limit.of(2))).thenReturn(new ArrayList<>(List.of(p2)));
+
+        Pagina<Paciente> primeira = pacienteService.buscarPacientesPaginado(null, 1);
+        assertEquals(List.of(p1), primeira.itens());
+        assertNotNull(primeira.proximaPagina());
+
+        Pagina<Paciente> segunda = pacienteService.buscarPacientesPaginado(primeira.proximaPagina(), 1);
+        assertEquals(List.of(p2), segunda.itens());
+        assertNull(segunda.proximaPagina());
+
+        verify(pacienteRepository, never()).findAll();
+    }
+
+    @Test
+    void buscarPacientesPaginadoTamanhoInvalido(){
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            pacienteService.buscarPacientesPaginado(null, -1);
+        });
 
-}
\ No newline at end of file
+        assertEquals("Tamanho de página inválido: -1", exception.getMessage());
+        verifyNoInteractions(pacienteRepository);
+    }
+
+    @Test
+    void pesquisarPacientesPorNomeSucesso(){
+        Paciente paciente = new Paciente(UUID.randomUUID(), "José Humberto", "josehumberto@email.com", "12345678914", "+5588999999999");
+        Paciente outro = new Paciente(UUID.randomUUID(), "Adriana Vieira", "adriana@email.com", "98765432107", "+5588666666666");
+        when(pacienteRepository.findByCpf(anyString())).thenReturn(Optional.empty());
+        when(pacienteRepository.findByEmail(anyString())).thenReturn(Optional.empty());
+        when(pacienteRepository.save(paciente)).thenReturn(paciente);
+        when(pacienteRepository.save(outro)).thenReturn(outro);
+        pacienteService.adicionarPaciente(paciente);
+        pacienteService.adicionarPaciente(outro);
+
+        when(pacienteRepository.findAllById(List.of(paciente.getId()))).thenReturn(List.of(paciente));
+
+        List<Paciente> result = pacienteService.pesquisarPacientesPorNome("jose hum", 10);
+
+        assertEquals(List.of(paciente), result);
+        verify(pacienteRepository, never()).findByNameContainingIgnoreCase(anyString());
+    }
+}
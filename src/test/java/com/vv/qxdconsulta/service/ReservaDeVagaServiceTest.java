@@ -0,0 +1,293 @@
+package com.vv.qxdconsulta.service;
+
+import com.vv.qxdconsulta.dto.MedicoEmCache;
+import com.vv.qxdconsulta.dto.PacienteEmCache;
+import com.vv.qxdconsulta.dto.VencimentoDeReserva;
+import com.vv.qxdconsulta.model.Consulta;
+import com.vv.qxdconsulta.model.HorarioDisponivel;
+import com.vv.qxdconsulta.model.Medico;
+import com.vv.qxdconsulta.model.Paciente;
+import com.vv.qxdconsulta.model.ReservaDeVaga;
+import com.vv.qxdconsulta.repository.ConsultaRepository;
+import com.vv.qxdconsulta.repository.ReservaDeVagaRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReservaDeVagaServiceTest {
+
+    @Mock
+    MedicoService medicoService;
+
+    @Mock
+    PacienteService pacienteService;
+
+    @Mock
+    HorarioDisponivelService horarioDisponivelService;
+
+    @Mock
+    ListaDeEsperaService listaDeEsperaService;
+
+    @Mock
+    ConsultaRepository consultaRepository;
+
+    @Mock
+    ReservaDeVagaRepository reservaDeVagaRepository;
+
+    @InjectMocks
+    private ReservaDeVagaService reservaDeVagaService;
+
+    private Medico medico;
+    private Paciente paciente;
+    private HorarioDisponivel horario;
+
+    @BeforeEach
+    void setUp(){
+        MockitoAnnotations.openMocks(this);
+        reservaDeVagaService.duracaoDaReserva = Duration.ofMinutes(10);
+        medico = new Medico(UUID.randomUUID(), "Dr. Silva", "CRM12345", "12345678951", "Cardiologia");
+        paciente = new Paciente(UUID.randomUUID(), "José", "jose@email.com", "12345678915", "+5588999999999");
+        horario = new HorarioDisponivel(LocalDateTime.of(2030, 3, 4, 8, 0), 1);
+        horario.setId(UUID.randomUUID());
+        horario.setMedico(medico);
+    }
+
+    private ReservaDeVaga reserva(LocalDateTime expiraEm){
+        ReservaDeVaga reserva = new ReservaDeVaga(horario, paciente, "Retorno", expiraEm);
+        reserva.setId(UUID.randomUUID());
+        when(reservaDeVagaRepository.findById(reserva.getId())).thenReturn(Optional.of(reserva));
+        return reserva;
+    }
+
+    private void buscasDaReserva(){
+        when(medicoService.buscarMedicoEmCache(medico.getCrm())).thenReturn(MedicoEmCache.de(medico));
+        when(pacienteService.buscarPacienteEmCache(paciente.getCpf())).thenReturn(PacienteEmCache.de(paciente));
+        when(pacienteService.buscarPacientePorId(paciente.getId())).thenReturn(paciente);
+        when(horarioDisponivelService.buscarHorarioPorMedico(medico.getCrm(), horario.getHorario())).thenReturn(horario);
+    }
+
+    @Test
+    void testReservarVagaOcupaAVagaEAgendaOVencimento(){
+        buscasDaReserva();
+        when(reservaDeVagaRepository.saveAndFlush(any(ReservaDeVaga.class))).thenAnswer(invocation -> {
+            ReservaDeVaga reserva = invocation.getArgument(0);
+            reserva.setId(UUID.randomUUID());
+            return reserva;
+        });
+
+        LocalDateTime antes = LocalDateTime.now();
+        ReservaDeVaga reserva = reservaDeVagaService.reservarVaga(medico.getCrm(), paciente.getCpf(), horario.getHorario(), "Retorno");
+
+        assertSame(horario, reserva.getHorarioDisponivel());
+        assertSame(paciente, reserva.getPaciente());
+        assertFalse(reserva.getExpiraEm().isBefore(antes.plusMinutes(10)));
+        // a vaga conta na capacidade desde a reserva
+        verify(horarioDisponivelService).verificarDisponibilidadeDeConsulta(horario);
+        verify(horarioDisponivelService).reservarVaga(horario);
+        assertEquals(1, reservaDeVagaService.vencimentos().tamanho());
+    }
+
+    @Test
+    void testReservarVagaPacienteOcupadoNaoOcupaAVaga(){
+        buscasDaReserva();
+        when(consultaRepository.existsByPacienteIdAndDataHora(paciente.getId(), horario.getHorario())).thenReturn(true);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () ->
+                reservaDeVagaService.reservarVaga(medico.getCrm(), paciente.getCpf(), horario.getHorario(), "Retorno"));
+
+        assertEquals(ConsultaService.PACIENTE_OCUPADO, exception.getMessage());
+        verify(horarioDisponivelService, never()).reservarVaga(any(HorarioDisponivel.class));
+        verify(reservaDeVagaRepository, never()).saveAndFlush(any(ReservaDeVaga.class));
+    }
+
+    @Test
+    void testReservarVagaComReservaAtivaNoHorarioNaoOcupaOutraVaga(){
+        buscasDaReserva();
+        ReservaDeVaga ativa = reserva(LocalDateTime.now().plusMinutes(5));
+        when(reservaDeVagaRepository.findByHorarioDisponivelIdAndPacienteId(horario.getId(), paciente.getId())).thenReturn(Optional.of(ativa));
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () ->
+                reservaDeVagaService.reservarVaga(medico.getCrm(), paciente.getCpf(), horario.getHorario(), "Retorno"));
+
+        assertEquals(ReservaDeVagaService.RESERVA_REPETIDA, exception.getMessage());
+        verify(horarioDisponivelService, never()).reservarVaga(any(HorarioDisponivel.class));
+        verify(reservaDeVagaRepository, never()).saveAndFlush(any(ReservaDeVaga.class));
+    }
+
+    @Test
+    void testReservarVagaExpiraAReservaVencidaAntesDeReservarDeNovo(){
+        buscasDaReserva();
+        ReservaDeVaga vencida = reserva(LocalDateTime.now().minusMinutes(1));
+        when(reservaDeVagaRepository.findByHorarioDisponivelIdAndPacienteId(horario.getId(), paciente.getId())).thenReturn(Optional.of(vencida));
+        when(reservaDeVagaRepository.removerVencida(eq(vencida.getId()), any(LocalDateTime.class))).thenReturn(1);
+        when(reservaDeVagaRepository.saveAndFlush(any(ReservaDeVaga.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        reservaDeVagaService.reservarVaga(medico.getCrm(), paciente.getCpf(), horario.getHorario(), "Retorno");
+
+        // a vaga da vencida volta antes da nova ser ocupada
+        var ordem = inOrder(horarioDisponivelService, reservaDeVagaRepository);
+        ordem.verify(horarioDisponivelService).liberarVaga(horario);
+        ordem.verify(horarioDisponivelService).reservarVaga(horario);
+        ordem.verify(reservaDeVagaRepository).saveAndFlush(any(ReservaDeVaga.class));
+    }
+
+    @Test
+    void testReservarVagaConcorrenteDoMesmoPacienteBarradaPeloIndice(){
+        buscasDaReserva();
+        when(reservaDeVagaRepository.saveAndFlush(any(ReservaDeVaga.class)))
+                .thenThrow(new DataIntegrityViolationException("uk_reserva_horario_paciente"));
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () ->
+                reservaDeVagaService.reservarVaga(medico.getCrm(), paciente.getCpf(), horario.getHorario(), "Retorno"));
+
+        // a exceção desfaz a transação, junto com a vaga ocupada
+        assertEquals(ReservaDeVagaService.RESERVA_REPETIDA, exception.getMessage());
+        assertEquals(0, reservaDeVagaService.vencimentos().tamanho());
+    }
+
+    @Test
+    void testConfirmarCriaAConsultaSemConferirACapacidade(){
+        // horário já cheio: a vaga é a da própria reserva
+        horario.setVagasOcupadas(1);
+        ReservaDeVaga reserva = reserva(LocalDateTime.now().plusMinutes(5));
+        when(reservaDeVagaRepository.removerAtiva(eq(reserva.getId()), any(LocalDateTime.class))).thenReturn(1);
+
+        Consulta consulta = reservaDeVagaService.confirmar(reserva.getId());
+
+        assertEquals(horario.getHorario(), consulta.getDataHora());
+        assertEquals("Retorno", consulta.getTipoConsulta());
+        assertSame(paciente, consulta.getPaciente());
+        assertSame(medico, consulta.getMedico());
+        assertTrue(horario.getConsultasAgendadas().contains(consulta));
+        verify(consultaRepository).save(consulta);
+        verify(horarioDisponivelService, never()).verificarDisponibilidadeDeConsulta(any(HorarioDisponivel.class));
+        verify(horarioDisponivelService, never()).reservarVaga(any(HorarioDisponivel.class));
+    }
+
+    @Test
+    void testConfirmarReservaVencida(){
+        ReservaDeVaga reserva = reserva(LocalDateTime.now().minusMinutes(1));
+        when(reservaDeVagaRepository.removerAtiva(eq(reserva.getId()), any(LocalDateTime.class))).thenReturn(0);
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> reservaDeVagaService.confirmar(reserva.getId()));
+
+        assertEquals("A reserva expirou", exception.getMessage());
+        verify(consultaRepository, never()).save(any(Consulta.class));
+    }
+
+    @Test
+    void testConfirmarReservaInexistente(){
+        UUID id = UUID.randomUUID();
+        when(reservaDeVagaRepository.findById(id)).thenReturn(Optional.empty());
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> reservaDeVagaService.confirmar(id));
+
+        assertEquals("Reserva não encontrada", exception.getMessage());
+    }
+
+    @Test
+    void testExpirarDevolveAVagaEChamaAListaDeEspera(){
+        ReservaDeVaga reserva = reserva(LocalDateTime.now().minusSeconds(1));
+        when(reservaDeVagaRepository.removerVencida(eq(reserva.getId()), any(LocalDateTime.class))).thenReturn(1);
+
+        assertTrue(reservaDeVagaService.expirar(reserva.getId()));
+
+        verify(horarioDisponivelService).liberarVaga(horario);
+        verify(listaDeEsperaService).promover(horario);
+    }
+
+    @Test
+    void testExpirarReservaJaConfirmadaNaoFazNada(){
+        UUID id = UUID.randomUUID();
+        when(reservaDeVagaRepository.findById(id)).thenReturn(Optional.empty());
+
+        assertFalse(reservaDeVagaService.expirar(id));
+
+        verify(reservaDeVagaRepository, never()).removerVencida(any(UUID.class), any(LocalDateTime.class));
+        verify(horarioDisponivelService, never()).liberarVaga(any(HorarioDisponivel.class));
+    }
+
+    @Test
+    void testExpirarAntesDoVencimentoVoltaParaAFila(){
+        ReservaDeVaga reserva = reserva(LocalDateTime.now().plusSeconds(30));
+        when(reservaDeVagaRepository.removerVencida(eq(reserva.getId()), any(LocalDateTime.class))).thenReturn(0);
+
+        assertFalse(reservaDeVagaService.expirar(reserva.getId()));
+
+        verify(horarioDisponivelService, never()).liberarVaga(any(HorarioDisponivel.class));
+        assertEquals(1, reservaDeVagaService.vencimentos().tamanho());
+    }
+
+    @Test
+    void testExpirarVencidasDoHorarioDevolveAsVagasParaAListaDeEspera(){
+        // reservas de uma instância que caiu, fora da fila de vencimentos desta
+        when(reservaDeVagaRepository.removerVencidasDoHorario(eq(horario.getId()), any(LocalDateTime.class))).thenReturn(2);
+
+        assertEquals(2, reservaDeVagaService.expirarVencidasDoHorario(horario));
+
+        verify(horarioDisponivelService, times(2)).liberarVaga(horario);
+        verify(listaDeEsperaService, times(2)).promover(horario);
+    }
+
+    @Test
+    void testExpirarVencidasDoHorarioSemVencidasNaoMexeNaVaga(){
+        when(reservaDeVagaRepository.removerVencidasDoHorario(eq(horario.getId()), any(LocalDateTime.class))).thenReturn(0);
+
+        assertEquals(0, reservaDeVagaService.expirarVencidasDoHorario(horario));
+
+        verify(horarioDisponivelService, never()).liberarVaga(any(HorarioDisponivel.class));
+        verify(listaDeEsperaService, never()).promover(any(HorarioDisponivel.class));
+    }
+
+    @Test
+    void testCancelarDevolveAVaga(){
+        ReservaDeVaga reserva = reserva(LocalDateTime.now().plusMinutes(5));
+        when(reservaDeVagaRepository.remover(reserva.getId())).thenReturn(1);
+
+        reservaDeVagaService.cancelar(reserva.getId());
+
+        verify(horarioDisponivelService).liberarVaga(horario);
+        verify(listaDeEsperaService).promover(horario);
+    }
+
+    @Test
+    void testCarregarVencimentosAoSubir(){
+        when(reservaDeVagaRepository.listarVencimentos()).thenReturn(List.of(
+                new VencimentoDeReserva(UUID.randomUUID(), LocalDateTime.now().minusMinutes(1)),
+                new VencimentoDeReserva(UUID.randomUUID(), LocalDateTime.now().plusMinutes(5))));
+
+        reservaDeVagaService.carregarVencimentos();
+
+        assertEquals(2, reservaDeVagaService.vencimentos().tamanho());
+        // a que venceu com a aplicação parada sai na hora
+        assertNotNull(reservaDeVagaService.vencimentos().vencida());
+        assertNull(reservaDeVagaService.vencimentos().vencida());
+    }
+
+    @Test
+    void testRemoverReservasDoPacienteDevolveAsVagas(){
+        ReservaDeVaga reserva = reserva(LocalDateTime.now().plusMinutes(5));
+        when(reservaDeVagaRepository.findByPacienteId(paciente.getId())).thenReturn(List.of(reserva));
+
+        reservaDeVagaService.removerReservasDoPaciente(paciente.getId());
+
+        verify(reservaDeVagaRepository).removerDoPaciente(paciente.getId());
+        verify(horarioDisponivelService).liberarVaga(horario);
+        // a vaga vai para a lista de espera, como na expiração e no cancelamento
+        verify(listaDeEsperaService).promover(horario);
+    }
+}
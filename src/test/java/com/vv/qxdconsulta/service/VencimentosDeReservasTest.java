@@ -0,0 +1,40 @@
+package com.vv.qxdconsulta.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VencimentosDeReservasTest {
+
+    private final VencimentosDeReservas vencimentos = new VencimentosDeReservas();
+
+    @Test
+    public void testVencemNaOrdemDoVencimento() throws InterruptedException {
+        UUID depois = UUID.randomUUID();
+        UUID antes = UUID.randomUUID();
+        UUID primeiro = UUID.randomUUID();
+        LocalDateTime agora = LocalDateTime.now();
+        vencimentos.agendar(depois, agora.plusNanos(60_000_000));
+        vencimentos.agendar(antes, agora.plusNanos(30_000_000));
+        vencimentos.agendar(primeiro, agora.minusMinutes(1));
+
+        assertEquals(primeiro, vencimentos.proximoVencimento());
+        assertEquals(antes, vencimentos.proximoVencimento());
+        assertEquals(depois, vencimentos.proximoVencimento());
+        assertEquals(0, vencimentos.tamanho());
+    }
+
+    @Test
+    public void testReservaAtivaNaoSaiAntesDoVencimento() {
+        UUID vencida = UUID.randomUUID();
+        vencimentos.agendar(UUID.randomUUID(), LocalDateTime.now().plusMinutes(10));
+        vencimentos.agendar(vencida, LocalDateTime.now().minusSeconds(1));
+
+        assertEquals(vencida, vencimentos.vencida());
+        assertNull(vencimentos.vencida());
+        assertEquals(1, vencimentos.tamanho());
+    }
+}
@@ -0,0 +1,33 @@
+package com.vv.qxdconsulta.suporte;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// registra os comandos SQL que o hibernate prepara na thread que está sendo medida.
+// O hibernate cria a instância pelo nome da classe (hibernate.session_factory.statement_inspector),
+// por isso o estado fica em um ThreadLocal estático.
+public class ContadorDeSql implements StatementInspector {
+
+    private static final ThreadLocal<List<String>> COMANDOS = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        List<String> comandos = COMANDOS.get();
+        if (comandos != null) {
+            comandos.add(sql);
+        }
+        return sql;
+    }
+
+    static void iniciar() {
+        COMANDOS.set(new ArrayList<>());
+    }
+
+    static List<String> parar() {
+        List<String> comandos = COMANDOS.get();
+        COMANDOS.remove();
+        return comandos == null ? List.of() : comandos;
+    }
+}
@@ -0,0 +1,67 @@
+package com.vv.qxdconsulta.suporte;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+// resultado de MedidorDeSql.medir. Os métodos noMaximo falham o teste com um relatório que mostra
+// o primeiro comando fora do orçamento, os comandos repetidos (o sintoma do N+1) e a lista completa.
+public record Medicao(List<String> comandos, Map<String, Long> entidadesCarregadas, Map<String, Long> colecoesCarregadas) {
+
+    public long totalDeEntidadesCarregadas() {
+        return entidadesCarregadas.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public long totalDeColecoesCarregadas() {
+        return colecoesCarregadas.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public Medicao comandosNoMaximo(int maximo) {
+        if (comandos.size() > maximo) {
+            fail("Orçamento de SQL estourado: " + comandos.size() + " comandos, máximo " + maximo + ".\n"
+                    + "O comando " + (maximo + 1) + " passou do orçamento:\n    " + comandos.get(maximo) + "\n"
+                    + relatorio());
+        }
+        return this;
+    }
+
+    public Medicao entidadesNoMaximo(int maximo) {
+        if (totalDeEntidadesCarregadas() > maximo) {
+            fail("Orçamento de entidades estourado: " + totalDeEntidadesCarregadas() + " carregadas, máximo " + maximo
+                    + ".\n" + relatorio());
+        }
+        return this;
+    }
+
+    public Medicao colecoesNoMaximo(int maximo) {
+        if (totalDeColecoesCarregadas() > maximo) {
+            fail("Orçamento de coleções estourado: " + totalDeColecoesCarregadas() + " carregadas, máximo " + maximo
+                    + ".\n" + relatorio());
+        }
+        return this;
+    }
+
+    public String relatorio() {
+        StringBuilder relatorio = new StringBuilder();
+        relatorio.append("Entidades carregadas: ").append(entidadesCarregadas).append('\n');
+        relatorio.append("Coleções carregadas: ").append(colecoesCarregadas).append('\n');
+
+        Map<String, Long> repeticoes = comandos.stream()
+                .collect(Collectors.groupingBy(Function.identity(), LinkedHashMap::new, Collectors.counting()));
+        repeticoes.values().removeIf(vezes -> vezes < 2);
+        if (!repeticoes.isEmpty()) {
+            relatorio.append("Comandos repetidos:\n");
+            repeticoes.forEach((comando, vezes) -> relatorio.append("    ").append(vezes).append("x ").append(comando).append('\n'));
+        }
+
+        relatorio.append("Todos os comandos:\n");
+        for (int i = 0; i < comandos.size(); i++) {
+            relatorio.append("    ").append(i + 1).append(". ").append(comandos.get(i)).append('\n');
+        }
+        return relatorio.toString();
+    }
+}
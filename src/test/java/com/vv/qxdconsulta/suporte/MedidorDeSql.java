@@ -0,0 +1,86 @@
+package com.vv.qxdconsulta.suporte;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+// mede quantos comandos SQL, entidades carregadas e coleções carregadas uma chamada gera, contra o H2 de verdade.
+// O teste precisa subir o contexto com o inspetor e as estatísticas do hibernate ligados:
+// @SpringBootTest(properties = {MedidorDeSql.INSPETOR, MedidorDeSql.ESTATISTICAS, MedidorDeSql.SEM_LOG_DE_SESSAO})
+public class MedidorDeSql {
+
+    public static final String INSPETOR =
+            "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.vv.qxdconsulta.suporte.ContadorDeSql";
+    public static final String ESTATISTICAS = "spring.jpa.properties.hibernate.generate_statistics=true";
+    // com as estatísticas ligadas o hibernate loga um resumo no fim de cada sessão
+    public static final String SEM_LOG_DE_SESSAO =
+            "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=WARN";
+
+    private static final String PACOTE_DO_MODELO = "com.vv.qxdconsulta.model.";
+
+    private final Statistics estatisticas;
+
+    public MedidorDeSql(EntityManagerFactory entityManagerFactory) {
+        this.estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        if (!estatisticas.isStatisticsEnabled()) {
+            throw new IllegalStateException("Estatísticas do hibernate desligadas, suba o teste com MedidorDeSql.ESTATISTICAS");
+        }
+    }
+
+    public Medicao medir(Runnable chamada) {
+        return medirComResultado(() -> {
+            chamada.run();
+            return null;
+        }).medicao();
+    }
+
+    // executa a chamada e devolve o resultado junto com a medição. As estatísticas do hibernate são globais,
+    // então a medição só vale se nenhuma outra thread usar o banco ao mesmo tempo.
+    public <T> ComResultado<T> medirComResultado(Supplier<T> chamada) {
+        estatisticas.clear();
+        ContadorDeSql.iniciar();
+        List<String> comandos;
+        T resultado;
+        try {
+            resultado = chamada.get();
+        } finally {
+            comandos = ContadorDeSql.parar();
+        }
+        return new ComResultado<>(resultado, new Medicao(comandos, entidadesCarregadas(), colecoesCarregadas()));
+    }
+
+    private Map<String, Long> entidadesCarregadas() {
+        Map<String, Long> carregadas = new TreeMap<>();
+        for (String entidade : estatisticas.getEntityNames()) {
+            long quantidade = estatisticas.getEntityStatistics(entidade).getLoadCount();
+            if (quantidade > 0) {
+                carregadas.put(nomeCurto(entidade), quantidade);
+            }
+        }
+        return carregadas;
+    }
+
+    private Map<String, Long> colecoesCarregadas() {
+        Map<String, Long> carregadas = new TreeMap<>();
+        for (String colecao : estatisticas.getCollectionRoleNames()) {
+            long quantidade = estatisticas.getCollectionStatistics(colecao).getFetchCount();
+            if (quantidade > 0) {
+                carregadas.put(nomeCurto(colecao), quantidade);
+            }
+        }
+        return carregadas;
+    }
+
+    // com.vv.qxdconsulta.model.Medico.horarioDisponivel -> Medico.horarioDisponivel
+    private static String nomeCurto(String nome) {
+        return nome.startsWith(PACOTE_DO_MODELO) ? nome.substring(PACOTE_DO_MODELO.length()) : nome;
+    }
+
+    public record ComResultado<T>(T resultado, Medicao medicao) {
+    }
+}